@@ -1,7 +1,9 @@
 package edu.washington.cs.seguard;
 
 import com.semantic_graph.writer.GexfWriter;
+import com.semantic_graph.writer.GraphWriter;
 import edu.washington.cs.seguard.apk_core.FlowGraph;
+import edu.washington.cs.seguard.core.LibrarySummarizer;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.DefaultParser;
@@ -11,20 +13,24 @@ import org.apache.log4j.PropertyConfigurator;
 
 import edu.washington.cs.seguard.pe.JimpleRewriter;
 import edu.washington.cs.seguard.util.StatManager;
+import edu.washington.cs.seguard.util.StatPhase;
 import lombok.val;
 import soot.jimple.infoflow.android.manifest.ProcessManifest;
 
+import java.io.Closeable;
+import java.io.File;
+
 public class App {
     /**
      * The entry points to all analyses
      */
     public static void main(String[] args) throws Exception {
         Options options = new Options();
-        options.addOption(Option.builder().argName("mode").hasArg().longOpt("mode").desc("mode: deobfuscator, core, entrypoints").build());
+        options.addOption(Option.builder().argName("mode").hasArg().longOpt("mode").desc("mode: deobfuscator, core, batch, summarize").build());
         options.addOption(Option.builder().argName("apk").hasArg().longOpt("apk").desc("apk path").build());
         options.addOption(Option.builder().argName("config").hasArg().longOpt("config").desc("config path").build());
         options.addOption(Option.builder().argName("newApk").hasArg().longOpt("newApk").desc("new apk path").build());
-        options.addOption(Option.builder().argName("outputPath").hasArg().longOpt("outputPath").desc("output path").build());
+        options.addOption(Option.builder().argName("outputPath").hasArg().longOpt("outputPath").desc("output path (output directory in batch mode)").build());
         options.addOption(Option.builder().argName("apkclasses").hasArg().longOpt("apkclasses").desc("apk classes file path").build());
         options.addOption(Option.builder().argName("java").hasArg().longOpt("java").desc("java path").build());
         options.addOption("d", false, "Turn on debug which will" +
@@ -33,6 +39,27 @@ public class App {
         options.addOption(Option.builder().argName("android").hasArg().longOpt("android").desc("android platforms dir").build());
         options.addOption(Option.builder().argName("sourceSinkFile").hasArg()
                .longOpt("sourceSinkFile").desc("Sources and sinks config (xml/txt)").build());
+        options.addOption(Option.builder().argName("apkList").hasArg().longOpt("apkList")
+                .desc("batch mode: directory of APKs or file listing one APK path per line").build());
+        options.addOption(Option.builder().argName("batchModes").hasArg().longOpt("batchModes")
+                .desc("batch mode: comma-separated modes to run on each APK (core, deobfuscator), default: core").build());
+        options.addOption(Option.builder().argName("solverThreads").hasArg().longOpt("solverThreads")
+                .desc("number of IFDS solver threads, overrides solverThreads in config").build());
+        options.addOption(Option.builder().argName("decryptionCache").hasArg().longOpt("decryptionCache")
+                .desc("directory of the persistent decryption cache, overrides decryptionCacheDir in config").build());
+        options.addOption(Option.builder().argName("aliasRewriterThreads").hasArg().longOpt("aliasRewriterThreads")
+                .desc("number of alias rewriter threads, 1 by default, 0 for one per core, overrides aliasRewriterThreads in config").build());
+        options.addOption(Option.builder().argName("incrementalCache").hasArg().longOpt("incrementalCache")
+                .desc("directory of the per-class facts cache of the core mode, overrides incrementalCacheDir in config").build());
+        options.addOption(Option.builder().argName("librarySummaries").hasArg().longOpt("librarySummaries")
+                .desc("directory of the library summaries, overrides librarySummaryDir in config").build());
+        options.addOption(Option.builder().argName("platformCache").hasArg().longOpt("platformCache")
+                .desc("directory of the pre-resolved android.jar caches, overrides platformCacheDir in config").build());
+        options.addOption(Option.builder().argName("graphWriter").hasArg().longOpt("graphWriter")
+                .desc("graph writer of the core mode: gexf4j (default), streaming, binary or binary-deflate, "
+                        + "overrides graphWriter in config").build());
+        options.addOption(Option.builder().argName("decryptTimeout").hasArg().longOpt("decryptTimeout")
+                .desc("deadline of each decryptor call in milliseconds, overrides decryptTimeoutMillis in config").build());
         CommandLineParser parser = new DefaultParser();
         CommandLine cmd = parser.parse(options, args);
         PropertyConfigurator.configure("log4j.properties");
@@ -45,27 +72,51 @@ public class App {
         String androidPlatforms = cmd.getOptionValue("android");
         val config = Config.load(cmd.getOptionValue("config"));
         config.setDebug(cmd.hasOption("d"));
-        config.setAbstractionDumpPath(apkPath + ".abstraction.txt");
-        config.setCallGraphDumpPath(apkPath + ".callgraph.txt");
-        val statManager = new StatManager(apkPath, mode);
+        if (cmd.hasOption("solverThreads")) {
+            config.setSolverThreads(Integer.parseInt(cmd.getOptionValue("solverThreads")));
+        }
+        if (cmd.hasOption("decryptionCache")) {
+            config.setDecryptionCacheDir(cmd.getOptionValue("decryptionCache"));
+        }
+        if (cmd.hasOption("aliasRewriterThreads")) {
+            config.setAliasRewriterThreads(Integer.parseInt(cmd.getOptionValue("aliasRewriterThreads")));
+        }
+        if (cmd.hasOption("incrementalCache")) {
+            config.setIncrementalCacheDir(cmd.getOptionValue("incrementalCache"));
+        }
+        if (cmd.hasOption("librarySummaries")) {
+            config.setLibrarySummaryDir(cmd.getOptionValue("librarySummaries"));
+        }
+        if (cmd.hasOption("platformCache")) {
+            config.setPlatformCacheDir(cmd.getOptionValue("platformCache"));
+        }
+        if (cmd.hasOption("graphWriter")) {
+            config.setGraphWriter(cmd.getOptionValue("graphWriter"));
+        }
+        if (cmd.hasOption("decryptTimeout")) {
+            config.setDecryptTimeoutMillis(Long.parseLong(cmd.getOptionValue("decryptTimeout")));
+        }
+        SootOptionManager.Manager().setPlatformCacheDir(config.getPlatformCacheDir());
 
+        if (mode.equals("batch")) {
+            val batchRunner = new BatchRunner(config, sourceSinkFile, androidPlatforms, javaClassPath,
+                    cmd.getOptionValue("apkclasses"), outputPath,
+                    cmd.getOptionValue("batchModes", "core").split(","));
+            batchRunner.run(BatchRunner.listApks(cmd.getOptionValue("apkList")));
+            return;
+        }
+
+        val statManager = new StatManager(apkPath, mode);
         switch (mode) {
             case "deobfuscator":
-                JimpleRewriter.Main(androidPlatforms, javaClassPath, apkPath,
-                        cmd.getOptionValue("apkclasses"), newApkPath,
-                        mode, statManager, new ProcessManifest(apkPath));
+                runDeobfuscator(config, androidPlatforms, javaClassPath, apkPath,
+                        cmd.getOptionValue("apkclasses"), newApkPath, statManager);
                 break;
             case "core":
-                Conditions conditions = new Conditions(sourceSinkFile, config);
-                val graphWriter = new GexfWriter<SeGuardNodeAttr$.Value, SeGuardEdgeAttr$.Value>();
-                System.out.println("Generating CallGraph (Spark)...");
-                val flowGraph = new FlowGraph(conditions, statManager, graphWriter, config);
-                SootOptionManager.Manager().buildOptionFlowGraph(
-                        androidPlatforms, apkPath + ".out",
-                        apkPath, "spark", new ProcessManifest(apkPath));
-                flowGraph.Main();
-                graphWriter.write(outputPath);
-                System.out.println("Written to " + outputPath);
+                runCore(new Conditions(sourceSinkFile, config), config, androidPlatforms, apkPath, outputPath, statManager);
+                break;
+            case "summarize":
+                LibrarySummarizer.Main(new Conditions(sourceSinkFile, config), config, androidPlatforms, apkPath);
                 break;
             default:
                 throw new RuntimeException("Unsupported mode: " + mode);
@@ -73,4 +124,64 @@ public class App {
 
         statManager.writeToDisk();
     }
-}
\ No newline at end of file
+
+    /**
+     * Build the flow-graph of one APK and write it to outputPath.
+     * The conditions and config can be shared across APKs analyzed in the same JVM.
+     */
+    static void runCore(Conditions conditions, Config config, String androidPlatforms, String apkPath,
+                        String outputPath, StatManager statManager) throws Exception {
+        config.setAbstractionDumpPath(apkPath + ".abstraction.txt");
+        config.setCallGraphDumpPath(apkPath + ".callgraph.txt");
+        conditions.clearCaches();
+        val graphWriter = createGraphWriter(config, outputPath);
+        System.out.println("Generating CallGraph (Spark)...");
+        val flowGraph = new FlowGraph(conditions, statManager, graphWriter, config);
+        SootOptionManager.Manager().buildOptionFlowGraph(
+                androidPlatforms, apkPath + ".out",
+                apkPath, "spark", new ProcessManifest(apkPath));
+        try {
+            flowGraph.Main();
+            try (StatManager.PhaseTimer timer = statManager.time(StatPhase.WRITE)) {
+                graphWriter.write(outputPath);
+            }
+        } finally {
+            if (graphWriter instanceof Closeable) {
+                ((Closeable) graphWriter).close();
+            }
+        }
+        System.out.println("Written to " + outputPath);
+    }
+
+    /**
+     * The graph writer selected by Config.graphWriter; the streaming and binary ones spill next to outputPath
+     */
+    static GraphWriter<SeGuardNodeAttr$.Value, SeGuardEdgeAttr$.Value> createGraphWriter(Config config,
+                                                                                       String outputPath) {
+        String kind = config.getGraphWriter() == null ? "gexf4j" : config.getGraphWriter();
+        switch (kind) {
+            case "gexf4j":
+                return new GexfWriter<>();
+            case "streaming":
+                return new StreamingGexfWriter<>(new File(outputPath).getAbsoluteFile().getParentFile());
+            case "binary":
+            case "binary-deflate":
+                return new BinaryGraphWriter(new File(outputPath).getAbsoluteFile().getParentFile(),
+                        kind.equals("binary-deflate"));
+            default:
+                throw new RuntimeException("Unsupported graph writer: " + kind);
+        }
+    }
+
+    /**
+     * Rewrite the reflective and encrypted parts of one APK into newApkPath
+     */
+    static void runDeobfuscator(Config config, String androidPlatforms, String javaClassPath, String apkPath,
+                                String apkClassesPath, String newApkPath, StatManager statManager) throws Exception {
+        config.setAbstractionDumpPath(apkPath + ".abstraction.txt");
+        config.setCallGraphDumpPath(apkPath + ".callgraph.txt");
+        JimpleRewriter.Main(androidPlatforms, javaClassPath, apkPath,
+                apkClassesPath, newApkPath,
+                "deobfuscator", statManager, new ProcessManifest(apkPath), config);
+    }
+}
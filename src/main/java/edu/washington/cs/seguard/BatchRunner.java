@@ -0,0 +1,160 @@
+package edu.washington.cs.seguard;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import edu.washington.cs.seguard.util.StatManager;
+import lombok.val;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Runs core and/or deobfuscator on a corpus of APKs inside one JVM.
+ *
+ * Soot state is reset between APKs (see SootOptionManager), while the parsed config, sources/sinks and
+ * the JIT-warmed analysis code are kept. Per-APK outputs are the same as a single run, and a summary
+ * with the wall time of each APK is written to batch-summary.json under the output directory.
+ */
+public class BatchRunner {
+    private static final Logger logger = LoggerFactory.getLogger(BatchRunner.class);
+
+    private final Config config;
+    private final String sourceSinkFile;
+    private final String androidPlatforms;
+    private final String javaClassPath;
+    private final String apkClassesPath;
+    private final File outputDir;
+    private final List<String> modes;
+
+    private Conditions conditions;
+
+    static class Result {
+        String apk;
+        String mode;
+        double seconds;
+        boolean succeeded;
+        String error;
+    }
+
+    BatchRunner(Config config, String sourceSinkFile, String androidPlatforms, String javaClassPath,
+                String apkClassesPath, String outputDir, String[] modes) {
+        this.config = config;
+        this.sourceSinkFile = sourceSinkFile;
+        this.androidPlatforms = androidPlatforms;
+        this.javaClassPath = javaClassPath;
+        this.apkClassesPath = apkClassesPath;
+        this.outputDir = new File(outputDir);
+        this.modes = new ArrayList<>();
+        for (String mode : modes) {
+            mode = mode.trim();
+            if (!mode.equals("core") && !mode.equals("deobfuscator")) {
+                throw new RuntimeException("Unsupported batch mode: " + mode);
+            }
+            this.modes.add(mode);
+        }
+    }
+
+    /**
+     * @param apkList a directory containing *.apk files, or a file listing one APK path per line
+     */
+    static List<String> listApks(String apkList) throws IOException {
+        if (apkList == null) {
+            throw new RuntimeException("batch mode requires -apkList");
+        }
+        val apks = new ArrayList<String>();
+        File file = new File(apkList);
+        if (file.isDirectory()) {
+            File[] files = file.listFiles((dir, name) -> name.endsWith(".apk"));
+            if (files != null) {
+                for (File f : files) {
+                    apks.add(f.getPath());
+                }
+            }
+            Collections.sort(apks);
+        } else {
+            for (String line : Util.readLines(apkList)) {
+                if (line.trim().length() == 0 || line.trim().startsWith("#")) {
+                    continue;
+                }
+                apks.add(line.trim());
+            }
+        }
+        return apks;
+    }
+
+    void run(List<String> apks) throws IOException {
+        if (!outputDir.exists() && !outputDir.mkdirs()) {
+            throw new IOException("Failed to create output directory " + outputDir);
+        }
+        if (modes.contains("core")) {
+            conditions = new Conditions(sourceSinkFile, config);
+        }
+        val results = new ArrayList<Result>();
+        for (int i = 0; i < apks.size(); i++) {
+            String apkPath = apks.get(i);
+            for (String mode : modes) {
+                System.out.println("[" + (i + 1) + "/" + apks.size() + "] " + mode + ": " + apkPath);
+                results.add(runOne(apkPath, mode));
+            }
+        }
+        writeSummary(results);
+    }
+
+    private Result runOne(String apkPath, String mode) {
+        val result = new Result();
+        result.apk = apkPath;
+        result.mode = mode;
+        val statManager = new StatManager(apkPath, mode);
+        String name = new File(apkPath).getName();
+        long start = System.nanoTime();
+        try {
+            switch (mode) {
+                case "core":
+                    App.runCore(conditions, config, androidPlatforms, apkPath,
+                            new File(outputDir, name + graphExtension()).getPath(), statManager);
+                    break;
+                case "deobfuscator":
+                    App.runDeobfuscator(config, androidPlatforms, javaClassPath, apkPath, apkClassesPath,
+                            new File(outputDir, name).getPath(), statManager);
+                    break;
+            }
+            statManager.writeToDisk();
+            result.succeeded = true;
+        } catch (Exception e) {
+            logger.error("Failed to analyze {} in {} mode", apkPath, mode, e);
+            result.error = e.toString();
+        }
+        result.seconds = (System.nanoTime() - start) / 1e9;
+        return result;
+    }
+
+    private String graphExtension() {
+        String graphWriter = config.getGraphWriter();
+        return graphWriter != null && graphWriter.startsWith("binary") ? ".sgfg" : ".gexf";
+    }
+
+    private void writeSummary(List<Result> results) throws IOException {
+        double total = 0;
+        int failed = 0;
+        for (val result : results) {
+            total += result.seconds;
+            if (!result.succeeded) {
+                failed++;
+            }
+        }
+        File summaryFile = new File(outputDir, "batch-summary.json");
+        Gson gson = new GsonBuilder().setPrettyPrinting().create();
+        val bw = new BufferedWriter(new FileWriter(summaryFile));
+        bw.write(gson.toJson(results));
+        bw.close();
+        System.out.println(String.format("Analyzed %d runs (%d failed) in %.1f seconds, summary written to %s",
+                results.size(), failed, total, summaryFile));
+    }
+}
@@ -1,25 +1,104 @@
 package edu.washington.cs.seguard;
 
+import edu.washington.cs.seguard.util.KeywordMatcher;
+import edu.washington.cs.seguard.util.PrefixTrie;
 import soot.SootClass;
 import soot.SootMethod;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * The config lists are compiled into lookup structures once, and the verdicts are cached per
+ * SootMethod/SootClass (which have identity equality), so repeated queries cost one map lookup.
+ * Call clearCaches() when the Soot scene is reset.
+ */
 public class Conditions {
     private final SourceSinkManager manager;
-    private final Config config;
+    private final Set<String> sensitiveMethodNames;
+    private final Set<String> dataflowClassNames;
+    private final KeywordMatcher sensitiveEntrypointClassKeywords;
+    private final KeywordMatcher sensitivePackageNameKeywords;
+    private final PrefixTrie blacklistedPackagePrefixes;
+    private final String fingerprint;
+
+    // Verdicts of the methods of non-application classes, those of application classes being false
+    private final Map<SootMethod, Boolean> sensitiveMethods = new ConcurrentHashMap<>();
+    // Verdicts of the non-application classes, then of the application ones, as classes can be re-classified
+    @SuppressWarnings("unchecked")
+    private final Map<SootClass, Boolean>[] sensitiveEntrypointParents =
+            new Map[] {new ConcurrentHashMap<>(), new ConcurrentHashMap<>()};
+    private final Map<SootClass, Boolean> blacklistedClasses = new ConcurrentHashMap<>();
 
     public Conditions(String sourceSinkFile, Config config) throws IOException {
         manager = new SourceSinkManager(sourceSinkFile);
-        this.config = config;
+        sensitiveMethodNames = new HashSet<>(orEmpty(config.sensitiveMethodNames));
+        dataflowClassNames = new HashSet<>(orEmpty(config.dataflowClassNames));
+        sensitiveEntrypointClassKeywords = new KeywordMatcher(orEmpty(config.sensitiveEntrypointClassKeywords));
+        sensitivePackageNameKeywords = new KeywordMatcher(orEmpty(config.sensitivePackageNameKeywords));
+        blacklistedPackagePrefixes = new PrefixTrie(orEmpty(config.blacklistedPackagePrefixes));
+        fingerprint = fingerprint(sourceSinkFile, config);
+    }
+
+    private static String fingerprint(String sourceSinkFile, Config config) throws IOException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        md.update(Files.readAllBytes(Paths.get(sourceSinkFile)));
+        for (List<String> list : Arrays.asList(config.sensitiveMethodNames, config.dataflowClassNames,
+                config.sensitiveEntrypointClassKeywords, config.sensitivePackageNameKeywords,
+                config.blacklistedPackagePrefixes)) {
+            md.update(("\n" + String.join("\u0000", orEmpty(list))).getBytes(StandardCharsets.UTF_8));
+        }
+        StringBuilder sb = new StringBuilder();
+        for (byte b : md.digest()) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    private static List<String> orEmpty(List<String> list) {
+        return list == null ? Collections.emptyList() : list;
+    }
+
+    /**
+     * Digest of the source/sink file and of the config lists the verdicts depend on, to key results that are
+     * cached across runs
+     */
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * Drop the cached verdicts, whose keys die with the Soot scene
+     */
+    public void clearCaches() {
+        sensitiveMethods.clear();
+        sensitiveEntrypointParents[0].clear();
+        sensitiveEntrypointParents[1].clear();
+        blacklistedClasses.clear();
     }
 
     private boolean isSensitiveMethodName(String name) {
-        return config.sensitiveMethodNames.contains(name);
+        return sensitiveMethodNames.contains(name);
     }
 
     public boolean isDataflowMethod(SootMethod method) {
-        return config.dataflowClassNames.contains(method.getClass().getName());
+        return dataflowClassNames.contains(method.getClass().getName());
     }
 
     /**
@@ -32,7 +111,17 @@ public class Conditions {
         if (method.getDeclaringClass().isApplicationClass()) {
             return false;
         }
-        if (manager.sources.contains(method.getSignature()) || manager.sinks.contains(method.getSignature())) {
+        Boolean verdict = sensitiveMethods.get(method);
+        if (verdict == null) {
+            verdict = computeSensitiveMethod(method);
+            sensitiveMethods.put(method, verdict);
+        }
+        return verdict;
+    }
+
+    private boolean computeSensitiveMethod(SootMethod method) {
+        String signature = method.getSignature();
+        if (manager.sources.contains(signature) || manager.sinks.contains(signature)) {
             return true;
         }
         if (isSensitiveMethodName(method.getName())) {
@@ -43,25 +132,24 @@ public class Conditions {
     }
 
     private boolean isSensitiveEntrypointClass(SootClass cls) {
-        String name = cls.getName();
-        for (String keyword : config.sensitiveEntrypointClassKeywords) {
-            if (name.contains(keyword)) {
-                return true;
-            }
-        }
-        return false;
+        return sensitiveEntrypointClassKeywords.containsAny(cls.getName());
     }
 
     private boolean isSensitivePackageName(String name) {
-        for (String keyword : config.sensitivePackageNameKeywords) {
-            if (name.contains(keyword)) {
-                return true;
-            }
-        }
-        return false;
+        return sensitivePackageNameKeywords.containsAny(name);
     }
 
     public boolean isSensitiveEntrypointParent(SootClass cls) {
+        Map<SootClass, Boolean> verdicts = sensitiveEntrypointParents[cls.isApplicationClass() ? 1 : 0];
+        Boolean verdict = verdicts.get(cls);
+        if (verdict == null) {
+            verdict = computeSensitiveEntrypointParent(cls);
+            verdicts.put(cls, verdict);
+        }
+        return verdict;
+    }
+
+    private boolean computeSensitiveEntrypointParent(SootClass cls) {
         if (isSensitiveEntrypointClass(cls)) {
             return true;
         }
@@ -108,12 +196,12 @@ public class Conditions {
     }
 
     public boolean blacklisted(SootClass cls) {
-        for (String blacklistedPackagePrefix : config.blacklistedPackagePrefixes) {
-            if (cls.getPackageName().startsWith(blacklistedPackagePrefix)) {
-                return true;
-            }
+        Boolean verdict = blacklistedClasses.get(cls);
+        if (verdict == null) {
+            verdict = blacklistedPackagePrefixes.hasPrefixOf(cls.getPackageName());
+            blacklistedClasses.put(cls, verdict);
         }
-        return false;
+        return verdict;
     }
 
     public boolean blacklisted(SootMethod method) {
@@ -3,6 +3,7 @@ package edu.washington.cs.seguard;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.InputStream;
+import java.util.Collections;
 import java.util.List;
 
 import lombok.Getter;
@@ -20,12 +21,57 @@ public class Config {
     @Getter @Setter List<String> dataflowClassNames;
     @Getter @Setter List<String> blacklistedPackagePrefixes;
     @Setter List<String> libraryPrefixes;
-    @Setter List<String> sensitiveConstStringKeywords;
+    List<String> sensitiveConstStringKeywords;
+    // Compiled from sensitiveConstStringKeywords on first use
+    private transient volatile ConstantClassifier constantClassifier;
 
     public List<String> getSensitiveConstStringKeywords() {
         return sensitiveConstStringKeywords;
     }
 
+    public void setSensitiveConstStringKeywords(List<String> sensitiveConstStringKeywords) {
+        this.sensitiveConstStringKeywords = sensitiveConstStringKeywords;
+        this.constantClassifier = null;
+    }
+
+    public ConstantClassifier getConstantClassifier() {
+        ConstantClassifier classifier = constantClassifier;
+        if (classifier == null) {
+            classifier = new ConstantClassifier(
+                    sensitiveConstStringKeywords == null ? Collections.<String>emptyList() : sensitiveConstStringKeywords,
+                    1 << 16);
+            constantClassifier = classifier;
+        }
+        return classifier;
+    }
+
+    // Worker threads of the IFDS solver, 0 for one per core
+    @Getter @Setter int solverThreads;
+    // Worker threads of the alias rewriter, 0 for one per core. 1 by default: the methods are rewritten in
+    // parallel only when asked for
+    @Getter @Setter int aliasRewriterThreads = 1;
+
+    // Directory of the persistent decryption cache of the deobfuscator, null to disable it
+    @Getter @Setter String decryptionCacheDir;
+    // Size bound of the decryption cache in bytes, 0 for 256 MB
+    @Getter @Setter long decryptionCacheMaxBytes;
+    // Directory of the incremental cache of per-class facts of the core mode, null to disable it
+    @Getter @Setter String incrementalCacheDir;
+
+    // Directory of the IFDS summaries of the libraries under libraryPrefixes, null to analyze them with the app
+    @Getter @Setter String librarySummaryDir;
+
+    // Directory of the pre-resolved platform jars, null to read the jars directly
+    @Getter @Setter String platformCacheDir;
+
+    // Bound on the decryptor calls running at a time, 0 for one per core
+    @Getter @Setter int decryptorThreads;
+    // Deadline of each decryptor call in milliseconds, 0 for 5 seconds
+    @Getter @Setter long decryptTimeoutMillis;
+
+    // Graph writer of the core mode: gexf4j (default), streaming, binary or binary-deflate
+    @Getter @Setter String graphWriter;
+
     @Setter boolean debug;
 
     public boolean isDebug() {
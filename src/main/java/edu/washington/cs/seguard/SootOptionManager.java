@@ -1,11 +1,21 @@
 package edu.washington.cs.seguard;
+import edu.washington.cs.seguard.util.PlatformClassCache;
+import edu.washington.cs.seguard.util.PlatformClassProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import presto.android.Hierarchy;
 import soot.jimple.infoflow.android.manifest.ProcessManifest;
 import soot.options.Options;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.Collections;
 
 public class SootOptionManager {
+    private static final Logger logger = LoggerFactory.getLogger(SootOptionManager.class);
     private static SootOptionManager instanceSootOptionManager;
+    // Directory of the platform class caches, null to read the platform jars directly
+    private String platformCacheDir;
 
     public static SootOptionManager Manager() {
         if (instanceSootOptionManager == null) {
@@ -18,22 +28,48 @@ public class SootOptionManager {
         return instanceSootOptionManager;
     }
 
+    public void setPlatformCacheDir(String platformCacheDir) {
+        this.platformCacheDir = platformCacheDir;
+    }
+
+    /**
+     * Serve the classes of the platform jar from its cache under platformCacheDir, if set
+     */
+    private void usePlatformCache(String platformJar) {
+        if (platformCacheDir == null) {
+            return;
+        }
+        if (!new File(platformJar).isFile()) {
+            logger.warn("No platform jar {}, not using the platform class cache", platformJar);
+            return;
+        }
+        try {
+            PlatformClassProvider.install(PlatformClassCache.open(new File(platformCacheDir), new File(platformJar)));
+        } catch (IOException e) {
+            logger.warn("Cannot open the platform class cache of {}: {}", platformJar, e.toString());
+        }
+    }
+
     private void buildOption(String androidPlatforms, String apkPath, ProcessManifest manifest) {
         // Resets the option.
         soot.G.reset();
+        // Drops the state derived from the previous Scene
+        Hierarchy.reset();
         Options.v().set_process_dir(Collections.singletonList(apkPath));
         Options.v().set_android_jars(androidPlatforms);
         int targetSdkVersion = 28;
         if (manifest.targetSdkVersion() != -1) {
             targetSdkVersion = manifest.targetSdkVersion();
         }
-        Options.v().set_soot_classpath(String.format("%s/android-%d/android.jar", androidPlatforms, targetSdkVersion));
+        String platformJar = String.format("%s/android-%d/android.jar", androidPlatforms, targetSdkVersion);
+        Options.v().set_soot_classpath(platformJar);
         Options.v().set_src_prec(Options.src_prec_apk);
         Options.v().set_whole_program(true);
         Options.v().set_allow_phantom_refs(true);
         Options.v().set_ignore_resolution_errors(true);
         Options.v().set_process_multiple_dex(true);
         Options.v().set_no_writeout_body_releasing(true);
+        usePlatformCache(platformJar);
     }
 
     public void buildOptionFlowGraph(String androidPlatforms, String outPath, String apkPath, String cgalgo, ProcessManifest manifest) {
@@ -52,7 +88,15 @@ public class SootOptionManager {
     }
 
     public void sootRunPacks() {
+        sootRunPacks(() -> { });
+    }
+
+    /**
+     * Like sootRunPacks, running beforePacks once the classes are loaded
+     */
+    public void sootRunPacks(Runnable beforePacks) {
         soot.Scene.v().loadNecessaryClasses();
+        beforePacks.run();
         soot.PackManager.v().runPacks();
         if (!Options.v().oaat()) {
             soot.PackManager.v().writeOutput();
@@ -61,6 +105,7 @@ public class SootOptionManager {
 
     public void buildOptionTest() {
         soot.G.reset();
+        Hierarchy.reset();
         Options.v().set_process_dir(Collections.singletonList("src/test/resources"));
         Options.v().set_soot_classpath("src/test/resources:lib/rt.jar");
         Options.v().set_whole_program(true);
@@ -74,7 +74,7 @@ public class Util {
             startNanoSeconds = System.nanoTime();
         }
         public double secondsElapsed() {
-            return (System.nanoTime() - startNanoSeconds) * 10^(-9);
+            return (System.nanoTime() - startNanoSeconds) / 1e9;
         }
     }
 
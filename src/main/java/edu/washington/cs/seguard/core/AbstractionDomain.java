@@ -0,0 +1,193 @@
+package edu.washington.cs.seguard.core;
+
+import edu.washington.cs.seguard.Abstraction;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Hash-consing of the abstraction sets carried by the IFDS facts.
+ *
+ * Each distinct Abstraction gets a small integer id, and each distinct set of ids is represented by a single
+ * AbstractionSet instance. Fact equality and hashing thus become pointer comparisons and field reads.
+ * One domain lives as long as one DataFlowAnalysis and is shared by all solver threads.
+ */
+class AbstractionDomain {
+    private final Map<Abstraction, Integer> ids = new ConcurrentHashMap<>();
+    // Written under the lock, read without: an id is only handed out after its slot is filled
+    private volatile Abstraction[] abstractions = new Abstraction[64];
+    private int nextId = 0;
+
+    private final Map<Bits, AbstractionSet> sets = new ConcurrentHashMap<>();
+    private final AbstractionSet empty;
+
+    AbstractionDomain() {
+        empty = intern(new long[0]);
+    }
+
+    private static final class Bits {
+        private final long[] words;
+        private final int hash;
+
+        Bits(long[] words) {
+            this.words = words;
+            this.hash = Arrays.hashCode(words);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Bits && Arrays.equals(words, ((Bits) o).words);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    int idOf(Abstraction abstraction) {
+        Integer id = ids.get(abstraction);
+        return id == null ? -1 : id;
+    }
+
+    private int register(Abstraction abstraction) {
+        Integer id = ids.get(abstraction);
+        if (id != null) {
+            return id;
+        }
+        synchronized (this) {
+            id = ids.get(abstraction);
+            if (id != null) {
+                return id;
+            }
+            Abstraction[] current = abstractions;
+            if (nextId == current.length) {
+                current = Arrays.copyOf(current, current.length * 2);
+            }
+            current[nextId] = abstraction;
+            abstractions = current;
+            ids.put(abstraction, nextId);
+            return nextId++;
+        }
+    }
+
+    Abstraction get(int id) {
+        return abstractions[id];
+    }
+
+    /**
+     * @param words bits of the set without trailing zero words, must not be modified afterwards
+     */
+    private AbstractionSet intern(long[] words) {
+        Bits key = new Bits(words);
+        AbstractionSet set = sets.get(key);
+        if (set != null) {
+            return set;
+        }
+        return sets.computeIfAbsent(key, k -> new AbstractionSet(this, words));
+    }
+
+    AbstractionSet empty() {
+        return empty;
+    }
+
+    AbstractionSet of(Abstraction abstraction) {
+        int id = register(abstraction);
+        long[] words = new long[(id >> 6) + 1];
+        words[id >> 6] = 1L << id;
+        return intern(words);
+    }
+
+    /**
+     * Canonical set of the given abstractions
+     */
+    AbstractionSet of(Set<Abstraction> abstractions) {
+        if (abstractions instanceof AbstractionSet && ((AbstractionSet) abstractions).getDomain() == this) {
+            return (AbstractionSet) abstractions;
+        }
+        Builder builder = new Builder();
+        builder.addAll(abstractions);
+        return builder.build();
+    }
+
+    AbstractionSet union(AbstractionSet a, AbstractionSet b) {
+        if (a == b || b.isEmpty()) {
+            return a;
+        }
+        if (a.isEmpty()) {
+            return b;
+        }
+        long[] longer = a.words.length >= b.words.length ? a.words : b.words;
+        long[] shorter = a.words.length >= b.words.length ? b.words : a.words;
+        boolean subset = true;
+        for (int i = 0; i < shorter.length; i++) {
+            if ((longer[i] | shorter[i]) != longer[i]) {
+                subset = false;
+                break;
+            }
+        }
+        if (subset) {
+            return longer == a.words ? a : b;
+        }
+        long[] words = longer.clone();
+        for (int i = 0; i < shorter.length; i++) {
+            words[i] |= shorter[i];
+        }
+        return intern(words);
+    }
+
+    /**
+     * Collects abstractions without allocating intermediate sets
+     */
+    class Builder {
+        private long[] words = new long[1];
+
+        void add(Abstraction abstraction) {
+            int id = register(abstraction);
+            ensureCapacity((id >> 6) + 1);
+            words[id >> 6] |= 1L << id;
+        }
+
+        void addAll(Set<Abstraction> abstractions) {
+            if (abstractions instanceof AbstractionSet && ((AbstractionSet) abstractions).getDomain() == AbstractionDomain.this) {
+                long[] other = ((AbstractionSet) abstractions).words;
+                ensureCapacity(other.length);
+                for (int i = 0; i < other.length; i++) {
+                    words[i] |= other[i];
+                }
+                return;
+            }
+            for (Abstraction abstraction : abstractions) {
+                add(abstraction);
+            }
+        }
+
+        private void ensureCapacity(int length) {
+            if (words.length < length) {
+                words = Arrays.copyOf(words, Math.max(length, words.length * 2));
+            }
+        }
+
+        boolean isEmpty() {
+            for (long word : words) {
+                if (word != 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        AbstractionSet build() {
+            int length = words.length;
+            while (length > 0 && words[length - 1] == 0) {
+                length--;
+            }
+            if (length == 0) {
+                return empty;
+            }
+            return intern(Arrays.copyOf(words, length));
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package edu.washington.cs.seguard.core;
+
+import edu.washington.cs.seguard.Abstraction;
+
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Immutable set of abstractions, stored as a bitset over the ids of an AbstractionDomain.
+ *
+ * Instances are canonical within their domain (see AbstractionDomain.intern), so two sets of the same
+ * domain are equal iff they are the same object, and hashCode() is precomputed.
+ */
+public final class AbstractionSet extends AbstractSet<Abstraction> {
+    private final AbstractionDomain domain;
+    // Trailing zero words are trimmed
+    final long[] words;
+    private final int size;
+    // Sum of the element hash codes, as required by Set.hashCode()
+    private final int hash;
+
+    AbstractionSet(AbstractionDomain domain, long[] words) {
+        this.domain = domain;
+        this.words = words;
+        int size = 0;
+        int hash = 0;
+        for (int i = 0; i < words.length; i++) {
+            long word = words[i];
+            size += Long.bitCount(word);
+            while (word != 0) {
+                int id = (i << 6) + Long.numberOfTrailingZeros(word);
+                hash += domain.get(id).hashCode();
+                word &= word - 1;
+            }
+        }
+        this.size = size;
+        this.hash = hash;
+    }
+
+    AbstractionDomain getDomain() {
+        return domain;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (!(o instanceof Abstraction)) {
+            return false;
+        }
+        return containsId(domain.idOf((Abstraction) o));
+    }
+
+    boolean containsId(int id) {
+        if (id < 0 || (id >> 6) >= words.length) {
+            return false;
+        }
+        return (words[id >> 6] & (1L << id)) != 0;
+    }
+
+    @Override
+    public Iterator<Abstraction> iterator() {
+        return new Iterator<Abstraction>() {
+            private int index = 0;
+            private long word = words.length > 0 ? words[0] : 0;
+
+            @Override
+            public boolean hasNext() {
+                while (word == 0 && index + 1 < words.length) {
+                    word = words[++index];
+                }
+                return word != 0;
+            }
+
+            @Override
+            public Abstraction next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                int id = (index << 6) + Long.numberOfTrailingZeros(word);
+                word &= word - 1;
+                return domain.get(id);
+            }
+        };
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o instanceof AbstractionSet && ((AbstractionSet) o).domain == domain) {
+            return false;
+        }
+        return super.equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+}
@@ -0,0 +1,111 @@
+package edu.washington.cs.seguard.core;
+
+import edu.washington.cs.seguard.Abstraction;
+import edu.washington.cs.seguard.Conditions;
+import heros.InterproceduralCFG;
+import heros.solver.IFDSSolver;
+import soot.*;
+import soot.jimple.Stmt;
+import soot.toolkits.scalar.Pair;
+
+import java.util.*;
+
+/**
+ * Data-flow facts reaching the arguments of sensitive call sites, indexed once after solving.
+ *
+ * Call sites are collected from the non-library, non-blacklisted method bodies of the scene, and for each one
+ * the solver results are grouped by value, so that looking up the abstractions of a used value is a map lookup
+ * instead of a scan over all facts at the unit. The sensitive calls inside summarized library methods have no
+ * call site of their own and are kept by sensitive method.
+ */
+public class CallSiteFacts {
+    public static class CallSite {
+        private final Unit unit;
+        private final SootMethod invoked;
+
+        CallSite(Unit unit, SootMethod invoked) {
+            this.unit = unit;
+            this.invoked = invoked;
+        }
+
+        public Unit getUnit() {
+            return unit;
+        }
+
+        public SootMethod getInvoked() {
+            return invoked;
+        }
+    }
+
+    private final List<CallSite> callSites = new ArrayList<>();
+    private final Map<Unit, Map<Value, List<Set<Abstraction>>>> facts = new HashMap<>();
+    private final Map<SootMethod, Set<? extends Set<Abstraction>>> summarizedFacts =
+            new TreeMap<>(Comparator.comparing(SootMethod::getSignature));
+
+    static CallSiteFacts build(IFDSSolver<Unit, Pair<Value, Set<Abstraction>>, SootMethod, InterproceduralCFG<Unit, SootMethod>> solver,
+                               Conditions conditions) {
+        return build(solver, conditions, Collections.emptyMap());
+    }
+
+    static CallSiteFacts build(IFDSSolver<Unit, Pair<Value, Set<Abstraction>>, SootMethod, InterproceduralCFG<Unit, SootMethod>> solver,
+                               Conditions conditions, Map<SootMethod, ? extends Set<? extends Set<Abstraction>>> summarizedFacts) {
+        CallSiteFacts index = new CallSiteFacts();
+        index.summarizedFacts.putAll(summarizedFacts);
+        for (SootClass cls : Scene.v().getClasses()) {
+            if (cls.isJavaLibraryClass()) {
+                continue;
+            }
+            for (SootMethod m : cls.getMethods()) {
+                if (!m.hasActiveBody() || conditions.blacklisted(m)) {
+                    continue;
+                }
+                for (Unit u : m.getActiveBody().getUnits()) {
+                    Stmt s = (Stmt) u;
+                    if (s.containsInvokeExpr() && conditions.isSensitiveMethod(s.getInvokeExpr().getMethod())) {
+                        index.callSites.add(new CallSite(u, s.getInvokeExpr().getMethod()));
+                        index.facts.put(u, groupByValue(solver.ifdsResultsAt(u)));
+                    }
+                }
+            }
+        }
+        return index;
+    }
+
+    private static Map<Value, List<Set<Abstraction>>> groupByValue(Set<Pair<Value, Set<Abstraction>>> results) {
+        if (results.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<Value, List<Set<Abstraction>>> byValue = new HashMap<>();
+        for (Pair<Value, Set<Abstraction>> p : results) {
+            byValue.computeIfAbsent(p.getO1(), v -> new ArrayList<>(1)).add(p.getO2());
+        }
+        return byValue;
+    }
+
+    /**
+     * Sensitive call sites in scene order
+     */
+    public List<CallSite> getCallSites() {
+        return callSites;
+    }
+
+    /**
+     * Abstraction sets of the facts reaching the sensitive calls made inside summarized library methods, by
+     * sensitive method in signature order
+     */
+    public Map<SootMethod, Set<? extends Set<Abstraction>>> getSummarizedFacts() {
+        return summarizedFacts;
+    }
+
+    /**
+     * Abstraction sets of the facts on value reaching the call site u
+     */
+    public List<Set<Abstraction>> factsAt(Unit u, Value value) {
+        Map<Value, List<Set<Abstraction>>> byValue = facts.get(u);
+        if (byValue == null) {
+            return Collections.emptyList();
+        }
+        List<Set<Abstraction>> sets = byValue.get(value);
+        return sets == null ? Collections.emptyList() : sets;
+    }
+}
@@ -11,6 +11,7 @@ import heros.flowfunc.Identity;
 import heros.flowfunc.KillAll;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 import lombok.val;
 import org.slf4j.Logger;
@@ -25,48 +26,111 @@ import soot.toolkits.scalar.Pair;
 public class DataFlowAnalysis
         extends DefaultJimpleIFDSTabulationProblem<Pair<Value, Set<Abstraction>>, InterproceduralCFG<Unit, SootMethod>> {
     private final Conditions conditions;
-    private final Map<Unit, Map<Value, Set<Abstraction>>> unitAbstractionMap = new TreeMap<>(Comparator.comparing(Object::toString));
-    private final Map<Unit, Map<Value, Set<Abstraction>>> unitAbstractionAfterMap = new TreeMap<>(Comparator.comparing(Object::toString));
-    private final Set<SootMethod> visitedMethods = new TreeSet<>(Comparator.comparing(Object::toString));
     private final Config config;
+    // Null unless someone wants the facts, e.g. for the abstraction dump
+    private final FactObserver observer;
+    // Canonical abstraction sets of all facts of this analysis
+    private final AbstractionDomain domain = new AbstractionDomain();
+    // Library methods analyzed through their summary instead of their body
+    private final Map<SootMethod, LibrarySummaries.Summary> summaries;
+    // Abstractions reaching the sensitive calls made inside summarized methods, by sensitive method
+    private final Map<SootMethod, Set<AbstractionSet>> summarizedCallFacts = new ConcurrentHashMap<>();
     private Logger logger = LoggerFactory.getLogger(DataFlowAnalysis.class);
 
     DataFlowAnalysis(InterproceduralCFG<Unit, SootMethod> icfg, Conditions conditions, Config config) {
+        this(icfg, conditions, config, null);
+    }
+
+    DataFlowAnalysis(InterproceduralCFG<Unit, SootMethod> icfg, Conditions conditions, Config config,
+                     FactObserver observer) {
+        this(icfg, conditions, config, observer, Collections.emptyMap());
+    }
+
+    DataFlowAnalysis(InterproceduralCFG<Unit, SootMethod> icfg, Conditions conditions, Config config,
+                     FactObserver observer, Map<SootMethod, LibrarySummaries.Summary> summaries) {
         super(icfg);
         logger.info("Init DataFlowAnalysis");
         this.config = config;
         this.conditions = conditions;
+        this.observer = observer;
+        this.summaries = summaries;
     }
 
     private void putUnitAbstractions(Unit u, Value value, Set<Abstraction> abstractions) {
-        unitAbstractionMap.computeIfAbsent(u, unit -> new TreeMap<>(Comparator.comparing(Object::toString))).computeIfAbsent(
-                value, v -> new TreeSet<>(Comparator.comparing(Object::toString))).addAll(abstractions);
-        visitedMethods.add(interproceduralCFG().getMethodOf(u));
+        if (observer != null) {
+            observer.onFactBefore(u, value, abstractions);
+        }
     }
 
     private void putUnitAbstractionsAfter(Unit u, Set<Pair<Value, Set<Abstraction>>> flow) {
-        for (val pair : flow) {
-            unitAbstractionAfterMap.computeIfAbsent(u, unit -> new TreeMap<>(Comparator.comparing(Object::toString))).computeIfAbsent(
-                    pair.getO1(), v -> new TreeSet<>(Comparator.comparing(Object::toString))).addAll(pair.getO2());
+        if (observer != null) {
+            observer.onFactsAfter(u, flow);
         }
-        visitedMethods.add(interproceduralCFG().getMethodOf(u));
     }
 
-    Map<Unit, Map<Value, Set<Abstraction>>> getUnitAbstractionAfterMap() {
-        return unitAbstractionAfterMap;
+    /**
+     * Number of worker threads of the IFDS solver, Config.solverThreads or all cores if not set
+     */
+    @Override
+    public int numThreads() {
+        if (config.getSolverThreads() > 0) {
+            return config.getSolverThreads();
+        }
+        return super.numThreads();
     }
 
-    Map<Unit, Map<Value, Set<Abstraction>>> getUnitAbstractionMap() {
-        return unitAbstractionMap;
+
+    AbstractionDomain getDomain() {
+        return domain;
     }
 
-    Set<SootMethod> getVisitedMethods() {
-        return visitedMethods;
+    /**
+     * Abstractions reaching the sensitive calls inside summarized methods, complete once solved
+     */
+    Map<SootMethod, Set<AbstractionSet>> getSummarizedCallFacts() {
+        return summarizedCallFacts;
     }
 
+    /**
+     * Adds the facts of the summarized callee flowing from source at callSite to newFlow, and records those
+     * reaching its sensitive calls. Entering facts are mapped like in the call flow function.
+     */
+    private void applySummary(LibrarySummaries.Summary summary, Unit callSite, Pair<Value, Set<Abstraction>> source,
+                              Set<Pair<Value, Set<Abstraction>>> newFlow) {
+        List<Value> args = ((Stmt) callSite).getInvokeExpr().getArgs();
+        for (LibrarySummaries.Edge edge : summary.edges) {
+            AbstractionSet entering;
+            if (edge.from < 0) {
+                if (source != zeroValue()) {
+                    continue;
+                }
+                entering = domain.empty();
+            } else if (source != zeroValue()) {
+                if (args.indexOf(source.getO1()) != edge.from) {
+                    continue;
+                }
+                entering = domain.of(source.getO2());
+            } else {
+                if (edge.from >= args.size() || args.get(edge.from) instanceof Local
+                        || args.indexOf(args.get(edge.from)) != edge.from) {
+                    continue;
+                }
+                entering = getInterestingConstantAbstraction(config, args.get(edge.from));
+                if (entering.isEmpty()) {
+                    continue;
+                }
+            }
+            AbstractionSet leaving = domain.union(entering, domain.of(edge.abstractions));
+            if (edge.call != null) {
+                summarizedCallFacts.computeIfAbsent(edge.call, m -> ConcurrentHashMap.newKeySet()).add(leaving);
+            } else if (callSite instanceof DefinitionStmt && !leaving.isEmpty()) {
+                newFlow.add(new Pair<>(((DefinitionStmt) callSite).getLeftOp(), leaving));
+            }
+        }
+    }
 
-    private Set<Abstraction> getInterestingConstantAbstraction(Config config, Value expr) {
-        Set<Abstraction> constants = new HashSet<>();
+    private AbstractionSet getInterestingConstantAbstraction(Config config, Value expr) {
+        AbstractionDomain.Builder constants = domain.new Builder();
         Set<Value> values = new HashSet<>(Collections.singleton(expr));
         for (ValueBox box : expr.getUseBoxes()) {
             values.add(box.getValue());
@@ -83,7 +147,7 @@ public class DataFlowAnalysis
                 constants.add(Abstraction.v(config, "CONTENT_URI"));
             }
         }
-        return constants;
+        return constants.build();
     }
 
     @Override
@@ -116,7 +180,7 @@ public class DataFlowAnalysis
                         } else {
                             // generate new flow
                             val constants = getInterestingConstantAbstraction(config, assignment.getRightOp());
-                            if (constants.size() > 0) {
+                            if (!constants.isEmpty()) {
                                 return Collections.singleton(new Pair<>(assignment.getLeftOp(), constants));
                             }
                             return Collections.emptySet();
@@ -134,6 +198,11 @@ public class DataFlowAnalysis
                 InvokeExpr invokeExpr = stmt.getInvokeExpr();
                 final List<Value> args = invokeExpr.getArgs();
 
+                if (summaries.containsKey(destinationMethod)) {
+                    // Applied by the call-to-return flow function instead
+                    return KillAll.v();
+                }
+
                 return source -> {
                     LinkedHashSet<Pair<Value, Set<Abstraction>>> newFlow = new LinkedHashSet<>();
                     if (destinationMethod.getName().equals("<clinit>")
@@ -158,7 +227,7 @@ public class DataFlowAnalysis
                         for (val arg : args) {
                             if (! (arg instanceof Local)) {
                                 val constants = getInterestingConstantAbstraction(config, arg);
-                                if (constants.size() > 0) {
+                                if (!constants.isEmpty()) {
                                     int paramIndex = args.indexOf(arg);
                                     Pair<Value, Set<Abstraction>> pair = new Pair<>(
                                             new EquivalentValue(
@@ -215,9 +284,34 @@ public class DataFlowAnalysis
                 }
                 Stmt callSiteStmt = (Stmt) callSite;
                 InvokeExpr invokeExpr = callSiteStmt.getInvokeExpr();
+                List<LibrarySummaries.Summary> calleeSummaries = new ArrayList<>();
+                if (!summaries.isEmpty()) {
+                    for (SootMethod callee : interproceduralCFG().getCalleesOfCallAt(callSite)) {
+                        LibrarySummaries.Summary summary = summaries.get(callee);
+                        if (summary != null) {
+                            calleeSummaries.add(summary);
+                        }
+                    }
+                }
                 if (invokeExpr.getMethod().getDeclaringClass().isApplicationClass()) {
-                    // FIXME: Will this be a bug?
-                    return Identity.v();
+                    if (calleeSummaries.isEmpty()) {
+                        // FIXME: Will this be a bug?
+                        return Identity.v();
+                    }
+                    // The callees without a summary are descended into as usual
+                    return source -> {
+                        Set<Pair<Value, Set<Abstraction>>> newFlow = new LinkedHashSet<>();
+                        if (source != zeroValue()) {
+                            // Seen by the call flow function when the callee is analyzed, whose flow to the
+                            // parameters has no counterpart here
+                            putUnitAbstractions(callSite, source.getO1(), source.getO2());
+                        }
+                        for (LibrarySummaries.Summary summary : calleeSummaries) {
+                            applySummary(summary, callSite, source, newFlow);
+                        }
+                        newFlow.add(source);
+                        return newFlow;
+                    };
                 }
 
                 return source -> {
@@ -230,28 +324,31 @@ public class DataFlowAnalysis
                         if (((Stmt) callSite).getInvokeExpr() instanceof InstanceInvokeExpr) {
                             InstanceInvokeExpr expr = (InstanceInvokeExpr) ((Stmt) callSite).getInvokeExpr();
                             if (!conditions.blacklisted(expr.getMethod())) {
-                                newFlow.addAll(Propagator.getTainted(config, expr.getUseBoxes(), expr.getBase(), source.getO1(), source.getO2()));
+                                newFlow.addAll(Propagator.getTainted(domain, config, expr.getUseBoxes(), expr.getBase(), source.getO1(), source.getO2()));
                             }
                         }
 
                         // Propagate to the left hand side
                         if (callSite instanceof DefinitionStmt) {
                             final DefinitionStmt definitionStmt = (DefinitionStmt) callSite;
-                            newFlow.addAll(Propagator.getTainted(config, definitionStmt.getUseBoxes(), definitionStmt.getLeftOp(), source.getO1(), source.getO2()));
+                            newFlow.addAll(Propagator.getTainted(domain, config, definitionStmt.getUseBoxes(), definitionStmt.getLeftOp(), source.getO1(), source.getO2()));
                         }
                     } else {
                         if (callSite instanceof DefinitionStmt) {
                             final DefinitionStmt assignment = (DefinitionStmt) callSite;
                             val constants = getInterestingConstantAbstraction(config, assignment.getRightOp());
-                            if (constants.size() > 0) {
+                            if (!constants.isEmpty()) {
                                 newFlow.add(new Pair<>(assignment.getLeftOp(), constants));
                             }
 
                             if (conditions.isSensitiveMethod(invokeExpr.getMethod())) {
-                                newFlow.add(new Pair<>(assignment.getLeftOp(), Collections.singleton(Abstraction.v(invokeExpr.getMethod()))));
+                                newFlow.add(new Pair<>(assignment.getLeftOp(), domain.of(Abstraction.v(invokeExpr.getMethod()))));
                             }
                         }
                     }
+                    for (LibrarySummaries.Summary summary : calleeSummaries) {
+                        applySummary(summary, callSite, source, newFlow);
+                    }
                     newFlow.add(source);
                     putUnitAbstractionsAfter(callSite, newFlow);
                     return newFlow;
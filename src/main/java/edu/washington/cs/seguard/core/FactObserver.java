@@ -0,0 +1,24 @@
+package edu.washington.cs.seguard.core;
+
+import edu.washington.cs.seguard.Abstraction;
+import soot.Unit;
+import soot.Value;
+import soot.toolkits.scalar.Pair;
+
+import java.util.Set;
+
+/**
+ * Gets the facts seen by the flow functions of DataFlowAnalysis.
+ * Called concurrently from all solver threads, so implementations must be thread-safe.
+ */
+public interface FactObserver {
+    /**
+     * Fact (value, abstractions) reaching unit u
+     */
+    void onFactBefore(Unit u, Value value, Set<Abstraction> abstractions);
+
+    /**
+     * Facts produced by the flow function of unit u
+     */
+    void onFactsAfter(Unit u, Set<Pair<Value, Set<Abstraction>>> flow);
+}
@@ -0,0 +1,98 @@
+package edu.washington.cs.seguard.core;
+
+import edu.washington.cs.seguard.Abstraction;
+import heros.InterproceduralCFG;
+import lombok.val;
+import soot.SootMethod;
+import soot.Unit;
+import soot.Value;
+import soot.toolkits.scalar.Pair;
+
+import java.io.FileNotFoundException;
+import java.io.PrintWriter;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Records all facts for the abstraction dump (-d).
+ *
+ * Facts are keyed by the units and values themselves, which is identity for units and locals, so recording
+ * never renders Jimple. Sorting by the printed form only happens in dump().
+ */
+class FactRecorder implements FactObserver {
+    private final Map<Unit, Map<Value, Set<Abstraction>>> unitAbstractionMap = new ConcurrentHashMap<>();
+    private final Map<Unit, Map<Value, Set<Abstraction>>> unitAbstractionAfterMap = new ConcurrentHashMap<>();
+
+    @Override
+    public void onFactBefore(Unit u, Value value, Set<Abstraction> abstractions) {
+        unitAbstractionMap.computeIfAbsent(u, unit -> new ConcurrentHashMap<>()).computeIfAbsent(
+                value, v -> ConcurrentHashMap.newKeySet()).addAll(abstractions);
+    }
+
+    @Override
+    public void onFactsAfter(Unit u, Set<Pair<Value, Set<Abstraction>>> flow) {
+        // The unit is recorded even without facts so that its method shows up in the dump
+        Map<Value, Set<Abstraction>> valueMap = unitAbstractionAfterMap.computeIfAbsent(u, unit -> new ConcurrentHashMap<>());
+        for (val pair : flow) {
+            valueMap.computeIfAbsent(pair.getO1(), v -> ConcurrentHashMap.newKeySet()).addAll(pair.getO2());
+        }
+    }
+
+    /**
+     * Values and abstractions of one unit in printed form, sorted
+     */
+    private static Map<String, Set<String>> sorted(Map<Value, Set<Abstraction>> abstractions) {
+        Map<String, Set<String>> sorted = new TreeMap<>();
+        if (abstractions != null) {
+            for (val entry : abstractions.entrySet()) {
+                Set<String> strings = sorted.computeIfAbsent(entry.getKey().toString(), k -> new TreeSet<>());
+                for (val abstraction : entry.getValue()) {
+                    strings.add(abstraction.toString());
+                }
+            }
+        }
+        return sorted;
+    }
+
+    void dump(String path, InterproceduralCFG<Unit, SootMethod> icfg) {
+        val visitedMethods = new TreeSet<SootMethod>(Comparator.comparing(Object::toString));
+        for (val unit : unitAbstractionMap.keySet()) {
+            visitedMethods.add(icfg.getMethodOf(unit));
+        }
+        for (val unit : unitAbstractionAfterMap.keySet()) {
+            visitedMethods.add(icfg.getMethodOf(unit));
+        }
+        try {
+            val printWriter = new PrintWriter(path);
+            for (val m : visitedMethods) {
+                printWriter.println("====== Method " + m.getSignature() + " =======");
+                printWriter.println(m.getActiveBody());
+                for (val unit : m.getActiveBody().getUnits()) {
+                    val abstractions = sorted(unitAbstractionMap.get(unit));
+                    val abstractionsAfter = sorted(unitAbstractionAfterMap.get(unit));
+                    for (val value : abstractions.entrySet()) {
+                        for (val abstraction : value.getValue()) {
+                            printWriter.println("\t\t" + value.getKey() + ": " + abstraction);
+                        }
+                    }
+                    if (abstractions.size() > 0 || abstractionsAfter.size() > 0) {
+                        printWriter.println("\tUnit: " + unit);
+                    }
+                    for (val value : abstractionsAfter.entrySet()) {
+                        for (val abstraction : value.getValue()) {
+                            printWriter.println("\t\t" + value.getKey() + ": " + abstraction);
+                        }
+                    }
+                    printWriter.println();
+                }
+            }
+            printWriter.close();
+        } catch (FileNotFoundException e) {
+            System.err.println(e.toString());
+        }
+    }
+}
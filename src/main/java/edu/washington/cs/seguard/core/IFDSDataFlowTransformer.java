@@ -10,8 +10,6 @@ import soot.*;
 import soot.jimple.toolkits.ide.icfg.JimpleBasedInterproceduralCFG;
 import soot.toolkits.scalar.Pair;
 
-import java.io.FileNotFoundException;
-import java.io.PrintWriter;
 import java.util.Map;
 import java.util.Set;
 
@@ -21,6 +19,8 @@ import java.util.Set;
 public class IFDSDataFlowTransformer extends SceneTransformer {
     public IFDSSolver<Unit, Pair<Value, Set<Abstraction>>, SootMethod, InterproceduralCFG<Unit, SootMethod>> solver;
 
+    private CallSiteFacts callSiteFacts;
+
     private final Conditions conditions;
     private final Config config;
     public IFDSDataFlowTransformer(Conditions conditions, Config config) {
@@ -31,50 +31,29 @@ public class IFDSDataFlowTransformer extends SceneTransformer {
     @Override
     protected void internalTransform(String phaseName, Map<String, String> options) {
         val icfg = new JimpleBasedInterproceduralCFG();
-        val analysis = new DataFlowAnalysis(icfg, conditions, config);
+        FactRecorder recorder = config.isDebug() ? new FactRecorder() : null;
+        val summaries = LibrarySummaries.load(conditions, config);
+        val analysis = new DataFlowAnalysis(icfg, conditions, config, recorder, summaries);
         solver = new IFDSSolver<>(analysis);
-        System.out.println(">>>>>>>>>>>>>>>>>>>>>>>>>>>>>> Starting solver");
+        System.out.println(">>>>>>>>>>>>>>>>>>>>>>>>>>>>>> Starting solver (" + analysis.numThreads() + " threads)");
+        long start = System.nanoTime();
         solver.solve();
-        System.out.println(">>>>>>>>>>>>>>>>>>>>>>>>>>>>>> Done");
+        System.out.println(String.format(">>>>>>>>>>>>>>>>>>>>>>>>>>>>>> Done in %.2f s", (System.nanoTime() - start) / 1e9));
 
-        if (config.isDebug()) {
-            try {
-                val printWriter = new PrintWriter(config.getAbstractionDumpPath());
-                for (val m : analysis.getVisitedMethods()) {
-                    printWriter.println("====== Method " + m.getSignature() + " =======");
-                    printWriter.println(m.getActiveBody());
-                    for (val unit : m.getActiveBody().getUnits()) {
-                        val abstractions = analysis.getUnitAbstractionMap().get(unit);
-                        val abstractionsAfter = analysis.getUnitAbstractionAfterMap().get(unit);
-                        if (abstractions != null) {
-                            for (val value : abstractions.entrySet()) {
-                                for (val abstraction : value.getValue()) {
-                                    printWriter.println("\t\t" + value.getKey() + ": " + abstraction);
-                                }
-                            }
-                        }
-                        if ((abstractions != null && abstractions.entrySet().size() > 0) ||
-                                (abstractionsAfter != null && abstractionsAfter.entrySet().size() > 0)) {
-                            printWriter.println("\tUnit: " + unit);
-                        }
-                        if (abstractionsAfter != null) {
-                            for (val value : abstractionsAfter.entrySet()) {
-                                for (val abstraction : value.getValue()) {
-                                    printWriter.println("\t\t" + value.getKey() + ": " + abstraction);
-                                }
-                            }
-                        }
-                        printWriter.println();
-                    }
-                }
-                printWriter.close();
-            } catch (FileNotFoundException e) {
-                System.err.println(e.toString());
-            }
+        if (recorder != null) {
+            recorder.dump(config.getAbstractionDumpPath(), icfg);
         }
+        callSiteFacts = CallSiteFacts.build(solver, conditions, analysis.getSummarizedCallFacts());
     }
 
     public IFDSSolver<Unit, Pair<Value, Set<Abstraction>>, SootMethod, InterproceduralCFG<Unit, SootMethod>> getSolver() {
         return solver;
     }
+
+    /**
+     * Facts at the sensitive call sites, available once the transformer has run
+     */
+    public CallSiteFacts getCallSiteFacts() {
+        return callSiteFacts;
+    }
 }
@@ -0,0 +1,252 @@
+package edu.washington.cs.seguard.core;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+import edu.washington.cs.seguard.Abstraction;
+import edu.washington.cs.seguard.Conditions;
+import edu.washington.cs.seguard.Config;
+import edu.washington.cs.seguard.util.DexClassHasher;
+import edu.washington.cs.seguard.util.PlatformFingerprint;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import soot.Scene;
+import soot.SootClass;
+import soot.SootMethod;
+import soot.jimple.toolkits.callgraph.CallGraph;
+import soot.options.Options;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * On-disk IFDS summaries of the methods of bundled libraries, i.e. the classes under Config.libraryPrefixes.
+ *
+ * The summary of a method maps the facts entering it (on a parameter, or the zero fact) to the facts it
+ * returns and to those reaching the sensitive calls it makes, directly or through its callees. Since every
+ * abstraction set flowing out of a method derives from a single entering fact, an edge is the entering fact and
+ * the constant abstractions added on the way. The summaries of one library are stored under a key covering the
+ * bytecode of all its classes (DexClassHasher.groupKey), the conditions and the contents of the platform jars.
+ */
+final class LibrarySummaries {
+    private static final Logger logger = LoggerFactory.getLogger(LibrarySummaries.class);
+    // Bump when the analysis or the summaries change
+    static final String VERSION = "1";
+    private static final Type FILE_TYPE = new TypeToken<Map<String, List<Entry>>>() {}.getType();
+
+    /**
+     * Stored form of an Edge
+     */
+    static final class Entry {
+        int from;
+        // Signature of the sensitive method, null for the return value
+        String call;
+        List<String> abstractions;
+    }
+
+    static final class Edge {
+        // Index of the parameter the fact enters on, -1 for the zero fact
+        final int from;
+        // Sensitive method the fact reaches, null if it is returned
+        final SootMethod call;
+        // Constant abstractions added to the entering ones
+        final Set<Abstraction> abstractions;
+
+        Edge(int from, SootMethod call, Set<Abstraction> abstractions) {
+            this.from = from;
+            this.call = call;
+            this.abstractions = abstractions;
+        }
+    }
+
+    static final class Summary {
+        final List<Edge> edges;
+
+        Summary(List<Edge> edges) {
+            this.edges = edges;
+        }
+    }
+
+    private final File dir;
+    private final Gson gson = new Gson();
+
+    LibrarySummaries(File dir) {
+        this.dir = dir;
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new RuntimeException("Failed to create library summary directory " + dir);
+        }
+    }
+
+    static boolean isLibraryClass(SootClass cls, List<String> prefixes) {
+        if (!cls.isApplicationClass() || prefixes == null) {
+            return false;
+        }
+        for (String prefix : prefixes) {
+            if (cls.getName().startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Whether the analysis descends into method, so that a summary can stand for it
+     */
+    static boolean summarizable(SootMethod method, Conditions conditions) {
+        return !method.getName().equals("<clinit>")
+                && !method.getSubSignature().equals("void run()")
+                && !conditions.blacklisted(method)
+                && method.isConcrete();
+    }
+
+    /**
+     * Methods that may call into application code outside the libraries, e.g. through listeners; their
+     * facts depend on the app, so they are neither summarized nor replaced by a summary.
+     */
+    static Set<SootMethod> reachingAppCode(CallGraph cg, List<String> prefixes) {
+        Map<SootMethod, List<SootMethod>> callers = new HashMap<>();
+        for (soot.jimple.toolkits.callgraph.Edge e : cg) {
+            callers.computeIfAbsent(e.tgt(), m -> new ArrayList<>()).add(e.src());
+        }
+        Set<SootMethod> reaching = new HashSet<>();
+        Deque<SootMethod> worklist = new ArrayDeque<>();
+        for (SootMethod m : callers.keySet()) {
+            SootClass cls = m.getDeclaringClass();
+            if (cls.isApplicationClass() && !isLibraryClass(cls, prefixes) && reaching.add(m)) {
+                worklist.add(m);
+            }
+        }
+        while (!worklist.isEmpty()) {
+            for (SootMethod caller : callers.getOrDefault(worklist.poll(), Collections.emptyList())) {
+                if (reaching.add(caller)) {
+                    worklist.add(caller);
+                }
+            }
+        }
+        return reaching;
+    }
+
+    /**
+     * Keys of the libraries of the APK being analyzed, by prefix; libraries without classes in the APK are left
+     * out
+     */
+    static Map<String, String> keys(DexClassHasher hasher, Conditions conditions, Config config) {
+        List<String> keywords = config.getSensitiveConstStringKeywords();
+        String salt = VERSION + "\n" + conditions.getFingerprint() + "\n"
+                + (keywords == null ? "" : String.join("\u0000", keywords)) + "\n"
+                + PlatformFingerprint.ofClasspath(Options.v().soot_classpath());
+        Map<String, String> keys = new LinkedHashMap<>();
+        for (String prefix : config.getLibraryPrefixes()) {
+            List<String> classNames = new ArrayList<>();
+            for (String className : hasher.getClassNames()) {
+                if (className.startsWith(prefix)) {
+                    classNames.add(className);
+                }
+            }
+            String key = hasher.groupKey(classNames, salt + "\n" + prefix);
+            if (key != null) {
+                keys.put(prefix, key);
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Summaries of the libraries of the APK being analyzed found on disk, by method. The call graph must be
+     * built.
+     */
+    static Map<SootMethod, Summary> load(Conditions conditions, Config config) {
+        if (config.getLibrarySummaryDir() == null || config.getLibraryPrefixes() == null) {
+            return Collections.emptyMap();
+        }
+        Map<String, String> keys;
+        try {
+            keys = keys(DexClassHasher.fromApk(new File(Options.v().process_dir().get(0))), conditions, config);
+        } catch (IOException e) {
+            logger.warn("Cannot hash the libraries, not using summaries: {}", e.toString());
+            return Collections.emptyMap();
+        }
+        LibrarySummaries store = new LibrarySummaries(new File(config.getLibrarySummaryDir()));
+        Set<SootMethod> reaching = reachingAppCode(Scene.v().getCallGraph(), config.getLibraryPrefixes());
+        Map<SootMethod, Summary> summaries = new HashMap<>();
+        for (Map.Entry<String, String> key : keys.entrySet()) {
+            Map<String, List<Entry>> entries = store.read(key.getValue());
+            if (entries == null) {
+                logger.info("No summaries of library {} ({})", key.getKey(), key.getValue());
+                continue;
+            }
+            for (Map.Entry<String, List<Entry>> method : entries.entrySet()) {
+                SootMethod m = Scene.v().grabMethod(method.getKey());
+                if (m == null || reaching.contains(m) || !summarizable(m, conditions)) {
+                    continue;
+                }
+                summaries.put(m, decode(method.getValue()));
+            }
+        }
+        logger.info("Using library summaries of {} methods", summaries.size());
+        return summaries;
+    }
+
+    private static Summary decode(List<Entry> entries) {
+        List<Edge> edges = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            SootMethod call = null;
+            if (entry.call != null) {
+                call = Scene.v().grabMethod(entry.call);
+                if (call == null) {
+                    continue;
+                }
+            }
+            Set<Abstraction> abstractions = new HashSet<>();
+            for (String encoded : entry.abstractions) {
+                Abstraction abstraction = Abstraction.decode(encoded);
+                if (abstraction != null) {
+                    abstractions.add(abstraction);
+                }
+            }
+            edges.add(new Edge(entry.from, call, abstractions));
+        }
+        return new Summary(edges);
+    }
+
+    /**
+     * @return the summaries stored under key by method signature, null if there are none
+     */
+    Map<String, List<Entry>> read(String key) {
+        File file = entryFile(key);
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            return gson.fromJson(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8), FILE_TYPE);
+        } catch (IOException | JsonParseException e) {
+            logger.warn("Ignoring unreadable library summaries {}: {}", file, e.toString());
+            return null;
+        }
+    }
+
+    void write(String key, Map<String, List<Entry>> entries) {
+        File file = entryFile(key);
+        try {
+            File bucket = file.getParentFile();
+            if (!bucket.exists() && !bucket.mkdirs()) {
+                throw new IOException("Failed to create " + bucket);
+            }
+            // Write then rename, so that concurrent runs never read a partial file
+            File tmp = File.createTempFile(key, ".tmp", bucket);
+            Files.write(tmp.toPath(), gson.toJson(entries, FILE_TYPE).getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to write library summaries: " + e.toString());
+        }
+    }
+
+    private File entryFile(String key) {
+        return new File(new File(dir, key.substring(0, 2)), key + ".json");
+    }
+}
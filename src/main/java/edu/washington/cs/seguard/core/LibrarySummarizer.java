@@ -0,0 +1,273 @@
+package edu.washington.cs.seguard.core;
+
+import edu.washington.cs.seguard.Abstraction;
+import edu.washington.cs.seguard.Conditions;
+import edu.washington.cs.seguard.Config;
+import edu.washington.cs.seguard.SootOptionManager;
+import edu.washington.cs.seguard.util.DexClassHasher;
+import heros.InterproceduralCFG;
+import heros.solver.IFDSSolver;
+import lombok.val;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import soot.*;
+import soot.jimple.Jimple;
+import soot.jimple.ReturnStmt;
+import soot.jimple.Stmt;
+import soot.jimple.infoflow.android.manifest.ProcessManifest;
+import soot.jimple.infoflow.entryPointCreators.DefaultEntryPointCreator;
+import soot.jimple.toolkits.callgraph.CallGraph;
+import soot.jimple.toolkits.callgraph.Edge;
+import soot.jimple.toolkits.callgraph.ReachableMethods;
+import soot.jimple.toolkits.ide.icfg.JimpleBasedInterproceduralCFG;
+import soot.options.Options;
+import soot.toolkits.scalar.Pair;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Summary generation mode: computes the LibrarySummaries of the libraries bundled in one APK.
+ *
+ * Each method is solved on its own, seeded with the zero fact and with one fact per parameter whose abstraction
+ * stands for the parameter (Abstraction.parameter). Methods are solved callees first, and the summaries computed
+ * so far stand for the callees, so each library body is analyzed about once.
+ */
+public class LibrarySummarizer extends SceneTransformer {
+    private static final Logger logger = LoggerFactory.getLogger(LibrarySummarizer.class);
+
+    private final Conditions conditions;
+    private final Config config;
+    private final List<SootMethod> methods;
+
+    LibrarySummarizer(Conditions conditions, Config config, List<SootMethod> methods) {
+        this.conditions = conditions;
+        this.config = config;
+        this.methods = methods;
+    }
+
+    public static void Main(Conditions conditions, Config config, String androidPlatforms, String apkPath) throws Exception {
+        if (config.getLibrarySummaryDir() == null) {
+            throw new RuntimeException("No library summary directory, set librarySummaryDir or -librarySummaries");
+        }
+        if (config.getLibraryPrefixes() == null || config.getLibraryPrefixes().isEmpty()) {
+            throw new RuntimeException("No libraries to summarize, set libraryPrefixes");
+        }
+        SootOptionManager.Manager().buildOptionFlowGraph(androidPlatforms, apkPath + ".out", apkPath, "spark",
+                new ProcessManifest(apkPath));
+        Scene.v().loadNecessaryClasses();
+
+        // The library methods are the entry points, so that the call graph covers all of them
+        List<SootMethod> methods = new ArrayList<>();
+        for (SootClass cls : Scene.v().getApplicationClasses()) {
+            if (!LibrarySummaries.isLibraryClass(cls, config.getLibraryPrefixes()) || conditions.blacklisted(cls)) {
+                continue;
+            }
+            for (SootMethod m : cls.getMethods()) {
+                if (LibrarySummaries.summarizable(m, conditions)) {
+                    methods.add(m);
+                }
+            }
+        }
+        List<String> signatures = new ArrayList<>();
+        for (SootMethod m : methods) {
+            signatures.add(m.getSignature());
+        }
+        Scene.v().setEntryPoints(Collections.singletonList(new DefaultEntryPointCreator(signatures).createDummyMain()));
+
+        PackManager.v().getPack("wjtp").add(new Transform("wjtp.summarizer",
+                new LibrarySummarizer(conditions, config, methods)));
+        logger.info("Summarizing {} library methods...", methods.size());
+        SootOptionManager.Manager().sootRunPacks();
+    }
+
+    @Override
+    protected void internalTransform(String phaseName, Map<String, String> options) {
+        Map<SootMethod, List<LibrarySummaries.Entry>> entries = summarizeAll(Scene.v().getCallGraph());
+
+        Map<String, String> keys;
+        try {
+            keys = LibrarySummaries.keys(DexClassHasher.fromApk(new File(Options.v().process_dir().get(0))),
+                    conditions, config);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        LibrarySummaries store = new LibrarySummaries(new File(config.getLibrarySummaryDir()));
+        for (Map.Entry<String, String> key : keys.entrySet()) {
+            Map<String, List<LibrarySummaries.Entry>> library = new TreeMap<>();
+            for (Map.Entry<SootMethod, List<LibrarySummaries.Entry>> entry : entries.entrySet()) {
+                if (entry.getKey().getDeclaringClass().getName().startsWith(key.getKey())) {
+                    library.put(entry.getKey().getSignature(), entry.getValue());
+                }
+            }
+            store.write(key.getValue(), library);
+            logger.info("Wrote summaries of {} methods of library {} ({})", library.size(), key.getKey(), key.getValue());
+        }
+    }
+
+    /**
+     * Summaries of the methods that do not call into the app
+     */
+    Map<SootMethod, List<LibrarySummaries.Entry>> summarizeAll(CallGraph cg) {
+        Set<SootMethod> reaching = LibrarySummaries.reachingAppCode(cg, config.getLibraryPrefixes());
+        List<SootMethod> summarized = new ArrayList<>();
+        for (SootMethod m : methods) {
+            if (!reaching.contains(m)) {
+                try {
+                    m.retrieveActiveBody();
+                    summarized.add(m);
+                } catch (RuntimeException e) {
+                    logger.warn("Failed to getActiveBody of {}", m.getSignature());
+                }
+            }
+        }
+        logger.info("{} of {} library methods do not call into the app", summarized.size(), methods.size());
+
+        val icfg = new JimpleBasedInterproceduralCFG();
+        Map<SootMethod, LibrarySummaries.Summary> summaries = new HashMap<>();
+        Map<SootMethod, List<LibrarySummaries.Entry>> entries = new HashMap<>();
+        for (SootMethod m : calleesFirst(summarized, cg)) {
+            List<LibrarySummaries.Entry> methodEntries = summarize(m, icfg, cg, summaries);
+            entries.put(m, methodEntries);
+            summaries.put(m, toSummary(methodEntries));
+        }
+        return entries;
+    }
+
+    /**
+     * Solves method from its entry and reads its summary off the facts at its return statements and at the
+     * sensitive calls it reaches
+     */
+    private List<LibrarySummaries.Entry> summarize(SootMethod method, InterproceduralCFG<Unit, SootMethod> icfg,
+                                                   CallGraph cg, Map<SootMethod, LibrarySummaries.Summary> summaries) {
+        DataFlowAnalysis analysis = new DataFlowAnalysis(icfg, conditions, config, null, summaries) {
+            @Override
+            public Map<Unit, Set<Pair<Value, Set<Abstraction>>>> initialSeeds() {
+                Set<Pair<Value, Set<Abstraction>>> seeds = new LinkedHashSet<>();
+                seeds.add(zeroValue());
+                for (int i = 0; i < method.getParameterCount(); i++) {
+                    seeds.add(new Pair<>(
+                            new EquivalentValue(Jimple.v().newParameterRef(method.getParameterType(i), i)),
+                            getDomain().of(Abstraction.parameter(i))));
+                }
+                return Collections.singletonMap(method.getActiveBody().getUnits().getFirst(), seeds);
+            }
+        };
+        IFDSSolver<Unit, Pair<Value, Set<Abstraction>>, SootMethod, InterproceduralCFG<Unit, SootMethod>> solver =
+                new IFDSSolver<>(analysis);
+        solver.solve();
+
+        // Deduplicated and sorted, so that the summaries of a library do not depend on the run
+        Map<String, LibrarySummaries.Entry> entries = new TreeMap<>();
+        for (Unit u : method.getActiveBody().getUnits()) {
+            if (u instanceof ReturnStmt) {
+                Value op = ((ReturnStmt) u).getOp();
+                for (Pair<Value, Set<Abstraction>> fact : solver.ifdsResultsAt(u)) {
+                    if (fact.getO1().equivTo(op)) {
+                        addEntry(entries, fact.getO2(), null);
+                    }
+                }
+            }
+        }
+        // The sensitive calls are found like in CallSiteFacts
+        ReachableMethods reachable = new ReachableMethods(cg, Collections.singletonList(method));
+        reachable.update();
+        for (Iterator<MethodOrMethodContext> it = reachable.listener(); it.hasNext(); ) {
+            SootMethod m = it.next().method();
+            if (m.getDeclaringClass().isJavaLibraryClass() || !m.hasActiveBody() || conditions.blacklisted(m)) {
+                continue;
+            }
+            for (Unit u : m.getActiveBody().getUnits()) {
+                Stmt s = (Stmt) u;
+                if (!s.containsInvokeExpr() || !conditions.isSensitiveMethod(s.getInvokeExpr().getMethod())) {
+                    continue;
+                }
+                Set<Value> used = new HashSet<>();
+                for (ValueBox box : u.getUseBoxes()) {
+                    used.add(box.getValue());
+                }
+                for (Pair<Value, Set<Abstraction>> fact : solver.ifdsResultsAt(u)) {
+                    if (used.contains(fact.getO1())) {
+                        addEntry(entries, fact.getO2(), s.getInvokeExpr().getMethod());
+                    }
+                }
+            }
+        }
+        for (Map.Entry<SootMethod, Set<AbstractionSet>> calls : analysis.getSummarizedCallFacts().entrySet()) {
+            for (AbstractionSet abstractions : calls.getValue()) {
+                addEntry(entries, abstractions, calls.getKey());
+            }
+        }
+        return new ArrayList<>(entries.values());
+    }
+
+    /**
+     * Splits abstractions into the parameter it derives from, if any, and the constants added on the way
+     */
+    private static void addEntry(Map<String, LibrarySummaries.Entry> entries, Set<Abstraction> abstractions,
+                                 SootMethod call) {
+        LibrarySummaries.Entry entry = new LibrarySummaries.Entry();
+        entry.from = -1;
+        entry.call = call == null ? null : call.getSignature();
+        entry.abstractions = new ArrayList<>();
+        for (Abstraction abstraction : abstractions) {
+            int index = Abstraction.parameterIndex(abstraction);
+            if (index >= 0) {
+                entry.from = index;
+            } else {
+                entry.abstractions.add(Abstraction.encode(abstraction));
+            }
+        }
+        if (entry.from < 0 && entry.abstractions.isEmpty()) {
+            return;
+        }
+        Collections.sort(entry.abstractions);
+        entries.putIfAbsent(entry.from + " " + entry.call + " " + entry.abstractions, entry);
+    }
+
+    static LibrarySummaries.Summary toSummary(List<LibrarySummaries.Entry> entries) {
+        List<LibrarySummaries.Edge> edges = new ArrayList<>(entries.size());
+        for (LibrarySummaries.Entry entry : entries) {
+            Set<Abstraction> abstractions = new HashSet<>();
+            for (String encoded : entry.abstractions) {
+                Abstraction abstraction = Abstraction.decode(encoded);
+                if (abstraction != null) {
+                    abstractions.add(abstraction);
+                }
+            }
+            edges.add(new LibrarySummaries.Edge(entry.from,
+                    entry.call == null ? null : Scene.v().getMethod(entry.call), abstractions));
+        }
+        return new LibrarySummaries.Summary(edges);
+    }
+
+    /**
+     * Methods ordered so that each one comes after its callees, except along call cycles
+     */
+    private static List<SootMethod> calleesFirst(List<SootMethod> methods, CallGraph cg) {
+        Set<SootMethod> wanted = new HashSet<>(methods);
+        Set<SootMethod> visited = new HashSet<>();
+        List<SootMethod> order = new ArrayList<>(methods.size());
+        Deque<Pair<SootMethod, Iterator<Edge>>> stack = new ArrayDeque<>();
+        for (SootMethod root : methods) {
+            if (!visited.add(root)) {
+                continue;
+            }
+            stack.push(new Pair<>(root, cg.edgesOutOf(root)));
+            while (!stack.isEmpty()) {
+                Pair<SootMethod, Iterator<Edge>> top = stack.peek();
+                if (top.getO2().hasNext()) {
+                    SootMethod callee = top.getO2().next().tgt();
+                    if (wanted.contains(callee) && visited.add(callee)) {
+                        stack.push(new Pair<>(callee, cg.edgesOutOf(callee)));
+                    }
+                } else {
+                    stack.pop();
+                    order.add(top.getO1());
+                }
+            }
+        }
+        return order;
+    }
+}
@@ -8,16 +8,15 @@ import soot.jimple.IntConstant;
 import soot.jimple.StringConstant;
 import soot.toolkits.scalar.Pair;
 
-import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 
 class Propagator {
-    static Set<Pair<Value, Set<Abstraction>>> getTainted(Config config, List<ValueBox> fromValues, Value toValue, Value sourceValue, Set<Abstraction> sourceAbstractions) {
+    static Set<Pair<Value, Set<Abstraction>>> getTainted(AbstractionDomain domain, Config config, List<ValueBox> fromValues, Value toValue, Value sourceValue, Set<Abstraction> sourceAbstractions) {
         Set<Pair<Value, Set<Abstraction>>> newFlow = new LinkedHashSet<>();
         if (toValue != null &&  fromValues != null) {
-            Set<Abstraction> constants = new HashSet<>();
+            AbstractionDomain.Builder constants = domain.new Builder();
             for (ValueBox box : fromValues) {
                 if (box.getValue() instanceof StringConstant) {
                     constants.add(Abstraction.v(config, ((StringConstant) box.getValue()).value));
@@ -30,8 +29,8 @@ class Propagator {
                 }
             }
             if (!toValue.equals(sourceValue)) {
-                if (constants.size() > 0) {
-                    newFlow.add(new Pair<>(toValue, constants));
+                if (!constants.isEmpty()) {
+                    newFlow.add(new Pair<>(toValue, constants.build()));
                 }
             }
         }
@@ -5,6 +5,8 @@
 package edu.washington.cs.seguard.pe;
 
 import edu.washington.cs.seguard.Conditions;
+import edu.washington.cs.seguard.Config;
+import edu.washington.cs.seguard.util.StatManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import soot.*;
@@ -13,18 +15,42 @@ import soot.jimple.toolkits.pointer.LocalMustAliasAnalysis;
 import soot.toolkits.graph.BriefUnitGraph;
 import soot.toolkits.graph.UnitGraph;
 
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 public class AliasRewriter extends SceneTransformer {
     private Logger logger = LoggerFactory.getLogger(AliasRewriter.class);
     private final Conditions conditions;
+    // Null if per-class timings are not wanted
+    private final StatManager statManager;
+    // Number of worker threads, 0 for one per core
+    private final int threads;
 
     public AliasRewriter(Conditions conditions) {
+        this(conditions, null, 1);
+    }
+
+    public AliasRewriter(Conditions conditions, StatManager statManager, Config config) {
+        this(conditions, statManager, config.getAliasRewriterThreads());
+    }
+
+    public AliasRewriter(Conditions conditions, StatManager statManager, int threads) {
         this.conditions = conditions;
+        this.statManager = statManager;
+        this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
     }
 
+    /**
+     * Methods are rewritten independently, each one only touching its own body. Soot's scene is only read from
+     * the calling thread: bodies are collected first, then the workers run the alias analysis and set use boxes.
+     */
     @Override
     protected void internalTransform(String phaseName, Map<String, String> options) {
+        List<Body> bodies = new ArrayList<>();
         for (SootClass c : Scene.v().getClasses()) {
             if (conditions.blacklisted(c) || c.getName().contains("dummyMain") || c.isJavaLibraryClass() || (!c.isApplicationClass())) {
                 continue;
@@ -34,28 +60,143 @@ public class AliasRewriter extends SceneTransformer {
                 if (m.isJavaLibraryMethod() || !m.hasActiveBody()) {
                     continue;
                 }
-                Body b = m.getActiveBody();
-                UnitGraph ug = new BriefUnitGraph(b);
-
-                LocalMustAliasAnalysis analysis = new LocalMustAliasAnalysis(ug);
-
-                for (Local l1 : b.getLocals()) {
-                    for (Local l2 : b.getLocals()) {
-                        if (l1.equals(l2)) {
-                            continue;
-                        }
-                        for (Unit u : b.getUnits()) {
-                            if (analysis.mustAlias(l1, (Stmt) u, l2, (Stmt) u)) {
-                                for (ValueBox box : u.getUseBoxes()) {
-                                    if (box.getValue().equals(l2)) {
-                                        box.setValue(l1);
-                                    }
-                                }
-                            }
-                        }
-                    }
+                bodies.add(m.getActiveBody());
+            }
+        }
+        // Largest bodies first, so that they don't end up as the stragglers of the pool
+        bodies.sort((b1, b2) -> Integer.compare(b2.getUnits().size(), b1.getUnits().size()));
+
+        long start = System.nanoTime();
+        if (threads == 1) {
+            for (Body b : bodies) {
+                timedRewrite(b);
+            }
+        } else {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                List<ForkJoinTask<?>> tasks = new ArrayList<>(bodies.size());
+                for (Body b : bodies) {
+                    tasks.add(pool.submit(() -> timedRewrite(b)));
+                }
+                for (ForkJoinTask<?> task : tasks) {
+                    task.join();
+                }
+            } finally {
+                pool.shutdown();
+            }
+        }
+        logger.info("Alias rewriting of {} methods on {} threads done in {} s",
+                bodies.size(), threads, (System.nanoTime() - start) / 1e9);
+    }
+
+    private void timedRewrite(Body b) {
+        long start = System.nanoTime();
+        rewrite(b);
+        if (statManager != null) {
+            long nanos = System.nanoTime() - start;
+            statManager.addTiming("aliasRewriterClassSeconds", b.getMethod().getDeclaringClass().getName(), nanos / 1e9);
+            statManager.recordLatency("aliasRewriteMethod", nanos);
+        }
+    }
+
+    /**
+     * Rewrite each use of a local to the canonical member of its must-alias class at that unit,
+     * i.e. the last aliasing local in the order of b.getLocals().
+     *
+     * This is what the former pairwise rewriting (for l1, for l2, for u: if l1 and l2 must alias at u, replace l2
+     * by l1 in u) converged to, computed in one pass over the units instead of one per pair of locals.
+     */
+    static void rewrite(Body b) {
+        UnitGraph ug = new BriefUnitGraph(b);
+        LocalMustAliasAnalysis analysis = new LocalMustAliasAnalysis(ug);
+        List<Local> locals = new ArrayList<>(b.getLocals());
+
+        for (Unit u : b.getUnits()) {
+            if (!usesLocal(u)) {
+                continue;
+            }
+            Map<Local, Local> canonical = canonicalLocals(analysis, (Stmt) u, locals);
+            if (canonical.isEmpty()) {
+                continue;
+            }
+            for (ValueBox box : u.getUseBoxes()) {
+                Local rep = canonical.get(box.getValue());
+                if (rep != null && rep != box.getValue()) {
+                    box.setValue(rep);
+                }
+            }
+        }
+    }
+
+    private static boolean usesLocal(Unit u) {
+        for (ValueBox box : u.getUseBoxes()) {
+            if (box.getValue() instanceof Local) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Map from each local having a must-alias at s to the last local (in locals order) of its alias class
+     */
+    private static Map<Local, Local> canonicalLocals(LocalMustAliasAnalysis analysis, Stmt s, List<Local> locals) {
+        // Candidate classes keyed by the value number of the analysis, in the order their first member appears.
+        // mustAlias compares these numbers by identity, so each class is checked below with one call per member.
+        Map<?, ?> before = analysis.getFlowBefore(s);
+        Map<Object, List<Local>> byNumber = new IdentityHashMap<>();
+        List<List<Local>> candidates = new ArrayList<>();
+        for (Local l : locals) {
+            if (!analysis.mustAlias(l, s, l, s)) {
+                continue;
+            }
+            List<Local> members = byNumber.get(before.get(l));
+            if (members == null) {
+                members = new ArrayList<>(2);
+                byNumber.put(before.get(l), members);
+                candidates.add(members);
+            }
+            members.add(l);
+        }
+
+        Map<Local, Local> canonical = new IdentityHashMap<>();
+        for (List<Local> members : candidates) {
+            if (members.size() < 2) {
+                continue;
+            }
+            for (List<Local> aliasClass : split(analysis, s, members)) {
+                if (aliasClass.size() < 2) {
+                    continue;
+                }
+                Local rep = aliasClass.get(aliasClass.size() - 1);
+                for (Local l : aliasClass) {
+                    canonical.put(l, rep);
                 }
             }
         }
+        return canonical;
+    }
+
+    /**
+     * Partition members (in locals order) into must-alias classes at s; a single class unless the
+     * analysis' value numbers disagree with mustAlias
+     */
+    private static List<List<Local>> split(LocalMustAliasAnalysis analysis, Stmt s, List<Local> members) {
+        List<List<Local>> classes = new ArrayList<>();
+        for (Local l : members) {
+            List<Local> target = null;
+            for (List<Local> aliasClass : classes) {
+                if (analysis.mustAlias(aliasClass.get(0), s, l, s)) {
+                    target = aliasClass;
+                    break;
+                }
+            }
+            if (target == null) {
+                target = new ArrayList<>(members.size());
+                classes.add(target);
+            }
+            target.add(l);
+        }
+        return classes;
     }
 }
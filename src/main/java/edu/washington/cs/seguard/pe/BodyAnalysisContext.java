@@ -0,0 +1,59 @@
+package edu.washington.cs.seguard.pe;
+
+import soot.Body;
+import soot.toolkits.graph.ExceptionalUnitGraph;
+import soot.toolkits.graph.UnitGraph;
+import soot.toolkits.scalar.LocalDefs;
+import soot.toolkits.scalar.LocalUses;
+
+/**
+ * Unit graph, local definitions and local uses of one body, built on first use and shared by the
+ * rewriting helpers until the body is mutated.
+ *
+ * Any rewrite stales all of them: besides inserting or removing units, replacing an invocation by a constant
+ * (e.g. a decrypted string as right operand) changes which statements may throw, and so the exceptional graph.
+ */
+class BodyAnalysisContext {
+    private final Body body;
+    private UnitGraph graph;
+    private LocalDefs localDefs;
+    private LocalUses localUses;
+
+    BodyAnalysisContext(Body body) {
+        this.body = body;
+    }
+
+    Body getBody() {
+        return body;
+    }
+
+    UnitGraph getGraph() {
+        if (graph == null) {
+            graph = new ExceptionalUnitGraph(body);
+        }
+        return graph;
+    }
+
+    LocalDefs getLocalDefs() {
+        if (localDefs == null) {
+            localDefs = LocalDefs.Factory.newLocalDefs(getGraph());
+        }
+        return localDefs;
+    }
+
+    LocalUses getLocalUses() {
+        if (localUses == null) {
+            localUses = LocalUses.Factory.newLocalUses(body, getLocalDefs());
+        }
+        return localUses;
+    }
+
+    /**
+     * Units were inserted or removed, or their exceptional behaviour may have changed
+     */
+    void invalidate() {
+        graph = null;
+        localDefs = null;
+        localUses = null;
+    }
+}
@@ -0,0 +1,302 @@
+package edu.washington.cs.seguard.pe;
+
+import edu.washington.cs.seguard.util.StatManager;
+import org.objectweb.asm.ClassReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+import static edu.washington.cs.seguard.util.StatKey.*;
+
+/**
+ * On-disk cache of decryptor results, shared across runs and APKs.
+ *
+ * An entry is addressed by the method name, the argument and the SHA-256 of the decryptor's class file and of the
+ * class files it depends on in the same sample, so the same decryptor shipped with the same helpers in different
+ * samples hits the same entries, and no class needs to be loaded on a hit. Classes of the platform, and classes
+ * missing from the sample, are left out of the key: the platform is assumed not to change between runs, and their
+ * names are already part of the hashed class files referring to them. Entries live under dir/xx/ (xx = first byte
+ * of the key), are evicted least recently used first once their total size exceeds maxBytes, and record either the
+ * decrypted string or that there is none.
+ */
+class DecryptionCache {
+    private static final Logger logger = LoggerFactory.getLogger(DecryptionCache.class);
+    private static final byte VALUE = 'V';
+    private static final byte NO_VALUE = 'N';
+
+    /**
+     * Cached outcome of a decryptor call
+     */
+    static final class Result {
+        private final String value;
+
+        Result(String value) {
+            this.value = value;
+        }
+
+        /**
+         * @return the decrypted string, null if the call gives nothing to rewrite with
+         */
+        String getValue() {
+            return value;
+        }
+    }
+
+    private final File dir;
+    private final long maxBytes;
+    private final StatManager statManager;
+    // Key -> entry size, least recently used first
+    private final LinkedHashMap<String, Long> index = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes = 0;
+    // Class name -> hash of its class file and dependencies, "" if the class file is not found
+    private final Map<String, String> classHashes = new HashMap<>();
+    // Internal name -> hash of its class file and the classes it references
+    private final Map<String, ClassFile> classFiles = new HashMap<>();
+
+    private static final class ClassFile {
+        private final String hash;
+        private final List<String> references;
+
+        ClassFile(String hash, List<String> references) {
+            this.hash = hash;
+            this.references = references;
+        }
+    }
+
+    DecryptionCache(File dir, long maxBytes, StatManager statManager) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        this.statManager = statManager;
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new RuntimeException("Failed to create decryption cache directory " + dir);
+        }
+        loadIndex();
+    }
+
+    private void loadIndex() {
+        List<File> entries = new ArrayList<>();
+        File[] buckets = dir.listFiles(File::isDirectory);
+        if (buckets != null) {
+            for (File bucket : buckets) {
+                File[] files = bucket.listFiles(f -> f.isFile() && !f.getName().endsWith(".tmp"));
+                if (files != null) {
+                    entries.addAll(Arrays.asList(files));
+                }
+            }
+        }
+        entries.sort(Comparator.comparingLong(File::lastModified));
+        for (File entry : entries) {
+            index.put(entry.getName(), entry.length());
+            totalBytes += entry.length();
+        }
+    }
+
+    /**
+     * @return SHA-256 of the class file of className as seen by loader and of the class files it references from
+     *         the same jar or directory, transitively, e.g. helpers and key tables; null if className has none
+     */
+    synchronized String classHash(ClassLoader loader, String className) {
+        String hash = classHashes.get(className);
+        if (hash == null) {
+            hash = dependencyHash(loader, className.replace('.', '/'));
+            classHashes.put(className, hash);
+        }
+        return hash.isEmpty() ? null : hash;
+    }
+
+    private String dependencyHash(ClassLoader loader, String internalName) {
+        URL resource = loader.getResource(internalName + ".class");
+        if (resource == null) {
+            return "";
+        }
+        String location = location(resource, internalName);
+        // Sorted, so that the hash does not depend on the order of the traversal
+        Map<String, String> hashes = new TreeMap<>();
+        Deque<String> worklist = new ArrayDeque<>();
+        worklist.add(internalName);
+        while (!worklist.isEmpty()) {
+            String name = worklist.poll();
+            if (hashes.containsKey(name)) {
+                continue;
+            }
+            URL url = loader.getResource(name + ".class");
+            if (url == null || !location(url, name).equals(location)) {
+                // A platform class, or one missing from the sample
+                continue;
+            }
+            ClassFile classFile = classFiles.get(name);
+            if (classFile == null) {
+                try (InputStream in = url.openStream()) {
+                    byte[] bytes = readAll(in);
+                    classFile = new ClassFile(sha256(bytes), referencedClasses(bytes));
+                } catch (IOException e) {
+                    logger.warn("Failed to read class file of {}: {}", name, e.toString());
+                    return "";
+                }
+                classFiles.put(name, classFile);
+            }
+            hashes.put(name, classFile.hash);
+            worklist.addAll(classFile.references);
+        }
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, String> hash : hashes.entrySet()) {
+            sb.append(hash.getKey()).append(' ').append(hash.getValue()).append('\n');
+        }
+        return sha256(sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return the jar or directory the class file at url comes from
+     */
+    private static String location(URL url, String internalName) {
+        String path = url.toString();
+        String suffix = internalName + ".class";
+        return path.endsWith(suffix) ? path.substring(0, path.length() - suffix.length()) : path;
+    }
+
+    /**
+     * @return internal names of the classes in the constant pool of a class file, the elements of array classes
+     *         included; none if ASM cannot parse it, the class file then only counts by its own hash
+     */
+    private static List<String> referencedClasses(byte[] bytes) {
+        List<String> names = new ArrayList<>();
+        ClassReader reader;
+        try {
+            reader = new ClassReader(bytes);
+        } catch (RuntimeException e) {
+            return names;
+        }
+        char[] buffer = new char[reader.getMaxStringLength()];
+        for (int i = 1; i < reader.getItemCount(); i++) {
+            int offset = reader.getItem(i);
+            // The offsets point past the tag, CONSTANT_Class is 7
+            if (offset == 0 || reader.b[offset - 1] != 7) {
+                continue;
+            }
+            String name = reader.readUTF8(offset, buffer);
+            int dimensions = name.lastIndexOf('[') + 1;
+            if (dimensions > 0) {
+                if (name.charAt(dimensions) != 'L') {
+                    continue;
+                }
+                name = name.substring(dimensions + 1, name.length() - 1);
+            }
+            names.add(name);
+        }
+        return names;
+    }
+
+    synchronized Result get(String classHash, String methodName, String argument) {
+        String key = key(classHash, methodName, argument);
+        File file = entryFile(key);
+        if (!file.isFile()) {
+            statManager.COUNT(DECRYPT_CACHE_MISS);
+            return null;
+        }
+        byte[] content;
+        try {
+            content = Files.readAllBytes(file.toPath());
+        } catch (IOException e) {
+            statManager.COUNT(DECRYPT_CACHE_MISS);
+            return null;
+        }
+        if (content.length == 0 || (content[0] != VALUE && content[0] != NO_VALUE)) {
+            statManager.COUNT(DECRYPT_CACHE_MISS);
+            return null;
+        }
+        statManager.COUNT(DECRYPT_CACHE_HIT);
+        // Recency survives across runs through the modification time
+        file.setLastModified(System.currentTimeMillis());
+        if (index.get(key) == null) {
+            // Written by another process meanwhile
+            index.put(key, (long) content.length);
+            totalBytes += content.length;
+        }
+        if (content[0] == NO_VALUE) {
+            return new Result(null);
+        }
+        return new Result(new String(content, 1, content.length - 1, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param value the decrypted string, null to record that the call gives nothing
+     */
+    synchronized void put(String classHash, String methodName, String argument, String value) {
+        String key = key(classHash, methodName, argument);
+        byte[] encoded = value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+        byte[] content = new byte[encoded.length + 1];
+        content[0] = value == null ? NO_VALUE : VALUE;
+        System.arraycopy(encoded, 0, content, 1, encoded.length);
+
+        File file = entryFile(key);
+        try {
+            File bucket = file.getParentFile();
+            if (!bucket.exists() && !bucket.mkdirs()) {
+                throw new IOException("Failed to create " + bucket);
+            }
+            // Write then rename, so that concurrent runs never read a partial entry
+            File tmp = File.createTempFile(key, ".tmp", bucket);
+            Files.write(tmp.toPath(), content);
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warn("Failed to write decryption cache entry: {}", e.toString());
+            return;
+        }
+        Long previous = index.put(key, (long) content.length);
+        totalBytes += content.length - (previous == null ? 0 : previous);
+        evict();
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Long>> iter = index.entrySet().iterator();
+        while (totalBytes > maxBytes && iter.hasNext()) {
+            Map.Entry<String, Long> eldest = iter.next();
+            iter.remove();
+            totalBytes -= eldest.getValue();
+            entryFile(eldest.getKey()).delete();
+            statManager.COUNT(DECRYPT_CACHE_EVICT);
+        }
+    }
+
+    private File entryFile(String key) {
+        return new File(new File(dir, key.substring(0, 2)), key);
+    }
+
+    private static String key(String classHash, String methodName, String argument) {
+        return sha256((classHash + "\n" + methodName + "\n" + argument).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    private static String sha256(byte[] bytes) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
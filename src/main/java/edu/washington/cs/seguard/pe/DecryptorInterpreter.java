@@ -0,0 +1,753 @@
+package edu.washington.cs.seguard.pe;
+
+import soot.*;
+import soot.jimple.*;
+import soot.tagkit.IntegerConstantValueTag;
+import soot.tagkit.LongConstantValueTag;
+import soot.tagkit.StringConstantValueTag;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Executable;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Evaluates static String -> String decryptors directly from their Jimple bodies, without loading the app's
+ * classes.
+ *
+ * Supported are int and long arithmetic, arrays, String, StringBuilder, boxing and Character helpers of the JDK,
+ * android.util.Base64, constant static fields and calls to other static methods that are interpretable
+ * themselves. Anything else (fields of objects, static writes, floating point, exceptions, other APIs) makes the
+ * interpreter give up, and so does running out of its step budget. Values of int-like types (boolean, byte,
+ * char, short, int) are represented as Integer, longs as Long, and objects and arrays as themselves.
+ *
+ * Bodies are copied and the copies are interpreted. While the bodies are rewritten on other threads, they must
+ * be copied beforehand with snapshot, as a body cannot be copied safely while another thread rewrites it.
+ *
+ * A result that depends on the identity of an object, e.g. the "[C@1b6d3586" of appending a char[] as an Object or
+ * the hash code of a StringBuilder, is returned but not deterministic: it differs from run to run.
+ */
+public final class DecryptorInterpreter {
+    public static final int DEFAULT_STEP_BUDGET = 1 << 20;
+    private static final int MAX_DEPTH = 16;
+    private static final int MAX_ARRAY_LENGTH = 1 << 20;
+
+    private static final Set<String> JDK_CLASSES = new HashSet<>(Arrays.asList(
+            "java.lang.Object", "java.lang.String", "java.lang.CharSequence", "java.lang.StringBuilder",
+            "java.lang.StringBuffer", "java.lang.Character", "java.lang.Integer", "java.lang.Long",
+            "java.lang.Short", "java.lang.Byte", "java.lang.Boolean", "java.lang.Math"));
+    // Members of the classes above that are not pure functions of their arguments
+    private static final Set<String> IMPURE_METHODS = new HashSet<>(Arrays.asList(
+            "getInteger", "getLong", "getBoolean", "random", "getClass", "wait", "notify", "notifyAll"));
+    private static final String BASE64 = "android.util.Base64";
+
+    /**
+     * Thrown when the interpreter cannot evaluate a call, the caller should fall back to running it
+     */
+    public static final class GiveUp extends Exception {
+        GiveUp(String reason) {
+            super(reason, null, false, false);
+        }
+    }
+
+    /**
+     * Result of an interpreted call
+     */
+    public static final class Result {
+        private final String value;
+        private final boolean deterministic;
+
+        Result(String value, boolean deterministic) {
+            this.value = value;
+            this.deterministic = deterministic;
+        }
+
+        /**
+         * @return the returned string, possibly null
+         */
+        public String getValue() {
+            return value;
+        }
+
+        /**
+         * @return whether the value depends only on the decryptor and the argument, and may be cached
+         */
+        public boolean isDeterministic() {
+            return deterministic;
+        }
+    }
+
+    /**
+     * State of one interpreted call, callees included
+     */
+    private static final class Run {
+        private int steps;
+        // Whether a JDK member read the identity of an object
+        private boolean readsIdentity;
+    }
+
+    /**
+     * Object created by a new expression whose constructor has not run yet
+     */
+    private static final class Uninitialized {
+        private final RefType type;
+
+        Uninitialized(RefType type) {
+            this.type = type;
+        }
+    }
+
+    /**
+     * Copy of a body in array form, with locals numbered
+     */
+    private static final class Prepared {
+        private final Unit[] units;
+        private final Map<Unit, Integer> unitIndex = new IdentityHashMap<>();
+        private final Map<Local, Integer> localIndex = new IdentityHashMap<>();
+        // Null if the body is interpretable
+        private final String unsupported;
+
+        Prepared(String unsupported) {
+            this.units = null;
+            this.unsupported = unsupported;
+        }
+
+        Prepared(Body body) {
+            units = body.getUnits().toArray(new Unit[0]);
+            for (int i = 0; i < units.length; i++) {
+                unitIndex.put(units[i], i);
+            }
+            for (Local local : body.getLocals()) {
+                localIndex.put(local, localIndex.size());
+            }
+            unsupported = null;
+        }
+    }
+
+    private static final Prepared NOT_IN_SNAPSHOT = new Prepared("body not copied by the snapshot");
+
+    private final int stepBudget;
+    private final Map<SootMethod, Prepared> prepared = new ConcurrentHashMap<>();
+    // Once set, only the methods copied by the snapshot are interpreted
+    private volatile boolean snapshotTaken;
+    private final Map<String, Executable> jdkMembers = new ConcurrentHashMap<>();
+
+    public DecryptorInterpreter() {
+        this(DEFAULT_STEP_BUDGET);
+    }
+
+    /**
+     * @param stepBudget number of statements one call may execute, callees included
+     */
+    public DecryptorInterpreter(int stepBudget) {
+        this.stepBudget = stepBudget;
+    }
+
+    /**
+     * Copies the bodies of the static String -> String methods of classes and of the static methods they call,
+     * transitively. Must run before the bodies are rewritten, on a single thread; afterwards the other methods
+     * are not interpreted.
+     */
+    public void snapshot(Collection<SootClass> classes) {
+        Deque<SootMethod> worklist = new ArrayDeque<>();
+        for (SootClass cls : classes) {
+            for (SootMethod m : cls.getMethods()) {
+                if (m.isStatic() && m.getParameterCount() == 1 && m.getReturnType().toString().equals("java.lang.String")
+                        && m.getParameterType(0).toString().equals("java.lang.String")) {
+                    worklist.add(m);
+                }
+            }
+        }
+        while (!worklist.isEmpty()) {
+            SootMethod m = worklist.poll();
+            if (prepared.containsKey(m)) {
+                continue;
+            }
+            Prepared p = doPrepare(m);
+            prepared.put(m, p);
+            if (p.unsupported != null) {
+                continue;
+            }
+            for (Unit u : p.units) {
+                Stmt s = (Stmt) u;
+                if (!s.containsInvokeExpr() || !(s.getInvokeExpr() instanceof StaticInvokeExpr)) {
+                    continue;
+                }
+                SootMethodRef ref = s.getInvokeExpr().getMethodRef();
+                String className = ref.declaringClass().getName();
+                if (className.equals(BASE64) || JDK_CLASSES.contains(className)) {
+                    continue;
+                }
+                SootMethod callee = ref.tryResolve();
+                if (callee != null) {
+                    worklist.add(callee);
+                }
+            }
+        }
+        snapshotTaken = true;
+    }
+
+    /**
+     * @return the result of the static method m on argument
+     * @throws GiveUp if m cannot be evaluated here
+     */
+    public Result interpret(SootMethod m, String argument) throws GiveUp {
+        if (!m.isStatic() || m.getParameterCount() != 1) {
+            throw new GiveUp("not a static one-argument method");
+        }
+        Run state = new Run();
+        Object result;
+        try {
+            result = run(m, new Object[] {argument}, state, 0);
+        } catch (RuntimeException e) {
+            // Exceptions of the interpreted code, e.g. an index out of bounds
+            throw new GiveUp(e.toString());
+        }
+        if (result != null && !(result instanceof String)) {
+            throw new GiveUp("result is not a string");
+        }
+        return new Result((String) result, !state.readsIdentity);
+    }
+
+    private Prepared prepare(SootMethod m) {
+        Prepared p = prepared.get(m);
+        if (p == null) {
+            if (snapshotTaken) {
+                return NOT_IN_SNAPSHOT;
+            }
+            p = doPrepare(m);
+            Prepared previous = prepared.putIfAbsent(m, p);
+            if (previous != null) {
+                p = previous;
+            }
+        }
+        return p;
+    }
+
+    private static Prepared doPrepare(SootMethod m) {
+        if (!m.isConcrete()) {
+            return new Prepared("no body");
+        }
+        Body body;
+        try {
+            body = (Body) m.retrieveActiveBody().clone();
+        } catch (RuntimeException e) {
+            return new Prepared("cannot copy body: " + e);
+        }
+        for (Local local : body.getLocals()) {
+            if (local.getType() instanceof FloatType || local.getType() instanceof DoubleType) {
+                return new Prepared("floating point");
+            }
+        }
+        for (Unit u : body.getUnits()) {
+            for (ValueBox box : u.getDefBoxes()) {
+                if (box.getValue() instanceof FieldRef) {
+                    return new Prepared("writes a field");
+                }
+            }
+            for (ValueBox box : u.getUseBoxes()) {
+                Value v = box.getValue();
+                if (v instanceof InstanceFieldRef || v instanceof ThisRef || v instanceof DynamicInvokeExpr
+                        || v instanceof InstanceOfExpr || v instanceof NewMultiArrayExpr) {
+                    return new Prepared("unsupported " + v.getClass().getSimpleName());
+                }
+            }
+        }
+        return new Prepared(body);
+    }
+
+    private Object run(SootMethod m, Object[] args, Run state, int depth) throws GiveUp {
+        if (depth > MAX_DEPTH) {
+            throw new GiveUp("call depth");
+        }
+        Prepared p = prepare(m);
+        if (p.unsupported != null) {
+            throw new GiveUp(m.getSignature() + ": " + p.unsupported);
+        }
+        Object[] locals = new Object[p.localIndex.size()];
+        int pc = 0;
+        while (true) {
+            if (++state.steps > stepBudget) {
+                throw new GiveUp("step budget exhausted");
+            }
+            Unit u = p.units[pc];
+            pc++;
+            if (u instanceof IdentityStmt) {
+                IdentityStmt s = (IdentityStmt) u;
+                if (!(s.getRightOp() instanceof ParameterRef)) {
+                    throw new GiveUp("unsupported " + s);
+                }
+                locals[p.localIndex.get((Local) s.getLeftOp())] = args[((ParameterRef) s.getRightOp()).getIndex()];
+            } else if (u instanceof AssignStmt) {
+                AssignStmt s = (AssignStmt) u;
+                Object value = eval(p, locals, s.getRightOp(), state, depth);
+                Value left = s.getLeftOp();
+                if (left instanceof Local) {
+                    locals[p.localIndex.get((Local) left)] = value;
+                } else if (left instanceof ArrayRef) {
+                    ArrayRef ref = (ArrayRef) left;
+                    store(eval(p, locals, ref.getBase(), state, depth), toInt(eval(p, locals, ref.getIndex(), state, depth)), value);
+                } else {
+                    throw new GiveUp("unsupported " + s);
+                }
+            } else if (u instanceof InvokeStmt) {
+                eval(p, locals, ((InvokeStmt) u).getInvokeExpr(), state, depth);
+            } else if (u instanceof IfStmt) {
+                IfStmt s = (IfStmt) u;
+                if (condition((ConditionExpr) s.getCondition(), p, locals, state, depth)) {
+                    pc = p.unitIndex.get(s.getTarget());
+                }
+            } else if (u instanceof GotoStmt) {
+                pc = p.unitIndex.get(((GotoStmt) u).getTarget());
+            } else if (u instanceof TableSwitchStmt) {
+                TableSwitchStmt s = (TableSwitchStmt) u;
+                int key = toInt(eval(p, locals, s.getKey(), state, depth));
+                Unit target = key >= s.getLowIndex() && key <= s.getHighIndex()
+                        ? s.getTarget(key - s.getLowIndex()) : s.getDefaultTarget();
+                pc = p.unitIndex.get(target);
+            } else if (u instanceof LookupSwitchStmt) {
+                LookupSwitchStmt s = (LookupSwitchStmt) u;
+                int key = toInt(eval(p, locals, s.getKey(), state, depth));
+                Unit target = s.getDefaultTarget();
+                for (int i = 0; i < s.getTargetCount(); i++) {
+                    if (s.getLookupValue(i) == key) {
+                        target = s.getTarget(i);
+                        break;
+                    }
+                }
+                pc = p.unitIndex.get(target);
+            } else if (u instanceof ReturnStmt) {
+                return eval(p, locals, ((ReturnStmt) u).getOp(), state, depth);
+            } else if (u instanceof NopStmt || u instanceof MonitorStmt || u instanceof BreakpointStmt) {
+                // No effect on a single thread
+            } else {
+                throw new GiveUp("unsupported " + u);
+            }
+        }
+    }
+
+    private Object eval(Prepared p, Object[] locals, Value v, Run state, int depth) throws GiveUp {
+        if (v instanceof Local) {
+            return locals[p.localIndex.get((Local) v)];
+        }
+        if (v instanceof IntConstant) {
+            return ((IntConstant) v).value;
+        }
+        if (v instanceof LongConstant) {
+            return ((LongConstant) v).value;
+        }
+        if (v instanceof StringConstant) {
+            return ((StringConstant) v).value;
+        }
+        if (v instanceof NullConstant) {
+            return null;
+        }
+        if (v instanceof BinopExpr) {
+            BinopExpr e = (BinopExpr) v;
+            Object a = eval(p, locals, e.getOp1(), state, depth);
+            Object b = eval(p, locals, e.getOp2(), state, depth);
+            return arith(e, a, b);
+        }
+        if (v instanceof NegExpr) {
+            Object a = eval(p, locals, ((NegExpr) v).getOp(), state, depth);
+            return a instanceof Long ? (Object) (-(Long) a) : (Object) (-toInt(a));
+        }
+        if (v instanceof LengthExpr) {
+            Object array = eval(p, locals, ((LengthExpr) v).getOp(), state, depth);
+            if (array == null || !array.getClass().isArray()) {
+                throw new GiveUp("length of a non-array");
+            }
+            return Array.getLength(array);
+        }
+        if (v instanceof CastExpr) {
+            CastExpr e = (CastExpr) v;
+            return cast(eval(p, locals, e.getOp(), state, depth), e.getCastType());
+        }
+        if (v instanceof ArrayRef) {
+            ArrayRef ref = (ArrayRef) v;
+            Object array = eval(p, locals, ref.getBase(), state, depth);
+            int index = toInt(eval(p, locals, ref.getIndex(), state, depth));
+            if (array == null || !array.getClass().isArray()) {
+                throw new GiveUp("indexing a non-array");
+            }
+            return normalize(Array.get(array, index));
+        }
+        if (v instanceof NewArrayExpr) {
+            NewArrayExpr e = (NewArrayExpr) v;
+            return newArray(e.getBaseType(), toInt(eval(p, locals, e.getSize(), state, depth)));
+        }
+        if (v instanceof NewExpr) {
+            RefType type = ((NewExpr) v).getBaseType();
+            if (!JDK_CLASSES.contains(type.getClassName())) {
+                throw new GiveUp("new " + type);
+            }
+            return new Uninitialized(type);
+        }
+        if (v instanceof StaticFieldRef) {
+            return constantField(((StaticFieldRef) v).getFieldRef());
+        }
+        if (v instanceof InvokeExpr) {
+            return invoke(p, locals, (InvokeExpr) v, state, depth);
+        }
+        throw new GiveUp("unsupported " + v);
+    }
+
+    private static Object arith(BinopExpr e, Object a, Object b) throws GiveUp {
+        if (e instanceof CmpExpr) {
+            return Long.compare(toLong(a), toLong(b));
+        }
+        if (e instanceof ShlExpr || e instanceof ShrExpr || e instanceof UshrExpr) {
+            int shift = toInt(b);
+            if (a instanceof Long) {
+                long x = (Long) a;
+                return e instanceof ShlExpr ? x << shift : e instanceof ShrExpr ? x >> shift : x >>> shift;
+            }
+            int x = toInt(a);
+            return e instanceof ShlExpr ? x << shift : e instanceof ShrExpr ? x >> shift : x >>> shift;
+        }
+        if (a instanceof Long || b instanceof Long) {
+            long x = toLong(a);
+            long y = toLong(b);
+            if (e instanceof AddExpr) return x + y;
+            if (e instanceof SubExpr) return x - y;
+            if (e instanceof MulExpr) return x * y;
+            if (e instanceof DivExpr) return x / y;
+            if (e instanceof RemExpr) return x % y;
+            if (e instanceof AndExpr) return x & y;
+            if (e instanceof OrExpr) return x | y;
+            if (e instanceof XorExpr) return x ^ y;
+        } else {
+            int x = toInt(a);
+            int y = toInt(b);
+            if (e instanceof AddExpr) return x + y;
+            if (e instanceof SubExpr) return x - y;
+            if (e instanceof MulExpr) return x * y;
+            if (e instanceof DivExpr) return x / y;
+            if (e instanceof RemExpr) return x % y;
+            if (e instanceof AndExpr) return x & y;
+            if (e instanceof OrExpr) return x | y;
+            if (e instanceof XorExpr) return x ^ y;
+        }
+        throw new GiveUp("unsupported " + e);
+    }
+
+    private boolean condition(ConditionExpr e, Prepared p, Object[] locals, Run state, int depth) throws GiveUp {
+        Object a = eval(p, locals, e.getOp1(), state, depth);
+        Object b = eval(p, locals, e.getOp2(), state, depth);
+        if (e instanceof EqExpr || e instanceof NeExpr) {
+            boolean equal;
+            if ((a instanceof Integer || a instanceof Long) && (b instanceof Integer || b instanceof Long)) {
+                equal = toLong(a) == toLong(b);
+            } else {
+                equal = a == b;
+            }
+            return e instanceof EqExpr == equal;
+        }
+        int c = Long.compare(toLong(a), toLong(b));
+        if (e instanceof LtExpr) return c < 0;
+        if (e instanceof LeExpr) return c <= 0;
+        if (e instanceof GtExpr) return c > 0;
+        if (e instanceof GeExpr) return c >= 0;
+        throw new GiveUp("unsupported " + e);
+    }
+
+    private static Object cast(Object value, Type type) throws GiveUp {
+        if (type instanceof PrimType) {
+            long x = toLong(value);
+            if (type instanceof IntType) return (int) x;
+            if (type instanceof LongType) return x;
+            if (type instanceof CharType) return (int) (char) x;
+            if (type instanceof ByteType) return (int) (byte) x;
+            if (type instanceof ShortType) return (int) (short) x;
+            if (type instanceof BooleanType) return (int) x;
+            throw new GiveUp("cast to " + type);
+        }
+        if (value != null && !jdkClass(type).isInstance(value)) {
+            throw new GiveUp("cast to " + type);
+        }
+        return value;
+    }
+
+    private static Object newArray(Type base, int length) throws GiveUp {
+        if (length < 0 || length > MAX_ARRAY_LENGTH) {
+            throw new GiveUp("array length " + length);
+        }
+        if (base instanceof IntType) return new int[length];
+        if (base instanceof CharType) return new char[length];
+        if (base instanceof ByteType) return new byte[length];
+        if (base instanceof ShortType) return new short[length];
+        if (base instanceof BooleanType) return new boolean[length];
+        if (base instanceof LongType) return new long[length];
+        if (base instanceof RefLikeType) return new Object[length];
+        throw new GiveUp("array of " + base);
+    }
+
+    private static void store(Object array, int index, Object value) throws GiveUp {
+        if (array instanceof int[]) ((int[]) array)[index] = toInt(value);
+        else if (array instanceof char[]) ((char[]) array)[index] = (char) toInt(value);
+        else if (array instanceof byte[]) ((byte[]) array)[index] = (byte) toInt(value);
+        else if (array instanceof short[]) ((short[]) array)[index] = (short) toInt(value);
+        else if (array instanceof boolean[]) ((boolean[]) array)[index] = toInt(value) != 0;
+        else if (array instanceof long[]) ((long[]) array)[index] = toLong(value);
+        else if (array instanceof Object[] && !(value instanceof Uninitialized)) ((Object[]) array)[index] = value;
+        else throw new GiveUp("store into " + array);
+    }
+
+    private static Object constantField(SootFieldRef ref) throws GiveUp {
+        SootField field = ref.resolve();
+        if (field == null || !field.isFinal()) {
+            throw new GiveUp("reads static field " + ref);
+        }
+        StringConstantValueTag string = (StringConstantValueTag) field.getTag("StringConstantValueTag");
+        if (string != null) {
+            return string.getStringValue();
+        }
+        IntegerConstantValueTag integer = (IntegerConstantValueTag) field.getTag("IntegerConstantValueTag");
+        if (integer != null) {
+            return integer.getIntValue();
+        }
+        LongConstantValueTag longValue = (LongConstantValueTag) field.getTag("LongConstantValueTag");
+        if (longValue != null) {
+            return longValue.getLongValue();
+        }
+        throw new GiveUp("reads static field " + ref);
+    }
+
+    private Object invoke(Prepared p, Object[] locals, InvokeExpr expr, Run state, int depth) throws GiveUp {
+        SootMethodRef ref = expr.getMethodRef();
+        String className = ref.declaringClass().getName();
+        Object[] args = new Object[expr.getArgCount()];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = eval(p, locals, expr.getArg(i), state, depth);
+        }
+        if (className.equals(BASE64)) {
+            return base64(ref.name(), args);
+        }
+        if (JDK_CLASSES.contains(className)) {
+            Object base = null;
+            Local baseLocal = null;
+            if (expr instanceof InstanceInvokeExpr) {
+                baseLocal = (Local) ((InstanceInvokeExpr) expr).getBase();
+                base = locals[p.localIndex.get(baseLocal)];
+            }
+            if (base instanceof Uninitialized) {
+                if (!ref.name().equals("<init>")) {
+                    throw new GiveUp("use of an uninitialized " + ((Uninitialized) base).type);
+                }
+                Object created = construct(ref, args, state);
+                // Every alias of the new object now refers to the constructed one
+                for (int i = 0; i < locals.length; i++) {
+                    if (locals[i] == base) {
+                        locals[i] = created;
+                    }
+                }
+                return null;
+            }
+            return callJdk(ref, base, args, state);
+        }
+        if (expr instanceof StaticInvokeExpr) {
+            SootMethod callee = ref.tryResolve();
+            if (callee == null) {
+                throw new GiveUp("unresolved " + ref);
+            }
+            return run(callee, args, state, depth + 1);
+        }
+        throw new GiveUp("calls " + ref);
+    }
+
+    private Object construct(SootMethodRef ref, Object[] args, Run state) throws GiveUp {
+        if (ref.declaringClass().getName().equals("java.lang.String") && args.length > 0 && args[0] instanceof byte[]
+                && (args.length == 1 || args.length == 3) && !(ref.parameterTypes().get(args.length - 1) instanceof RefType)) {
+            // Decode with the platform charset of Android rather than the one of the analysis
+            byte[] bytes = (byte[]) args[0];
+            return args.length == 1 ? new String(bytes, StandardCharsets.UTF_8)
+                    : new String(bytes, toInt(args[1]), toInt(args[2]), StandardCharsets.UTF_8);
+        }
+        Constructor<?> constructor = (Constructor<?>) jdkMember(ref);
+        state.readsIdentity |= readsIdentity(constructor, null, args);
+        try {
+            return constructor.newInstance(toJava(args, constructor.getParameterTypes()));
+        } catch (ReflectiveOperationException e) {
+            throw new GiveUp(e.toString());
+        }
+    }
+
+    private Object callJdk(SootMethodRef ref, Object base, Object[] args, Run state) throws GiveUp {
+        if (ref.name().equals("getBytes") && args.length == 0 && base instanceof String) {
+            return ((String) base).getBytes(StandardCharsets.UTF_8);
+        }
+        Method method = (Method) jdkMember(ref);
+        if (!Modifier.isStatic(method.getModifiers()) && base == null) {
+            throw new GiveUp("null receiver");
+        }
+        state.readsIdentity |= readsIdentity(method, base, args);
+        try {
+            return normalize(method.invoke(base, toJava(args, method.getParameterTypes())));
+        } catch (ReflectiveOperationException e) {
+            throw new GiveUp(e.toString());
+        }
+    }
+
+    /**
+     * @return whether member may call the toString or hashCode of Object on its receiver or an argument, e.g.
+     *         StringBuilder.append(Object) on a char[]
+     */
+    private static boolean readsIdentity(Executable member, Object base, Object[] args) {
+        String name = member.getName();
+        if (member.getParameterCount() == 0 && (name.equals("toString") || name.equals("hashCode"))
+                && inheritsFromObject(base, name)) {
+            return true;
+        }
+        Class<?>[] params = member.getParameterTypes();
+        for (int i = 0; i < args.length; i++) {
+            if (params[i] == Object.class && inheritsFromObject(args[i], "toString")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean inheritsFromObject(Object value, String methodName) {
+        if (value == null) {
+            return false;
+        }
+        if (value.getClass().isArray()) {
+            return true;
+        }
+        try {
+            return value.getClass().getMethod(methodName).getDeclaringClass() == Object.class;
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Executable jdkMember(SootMethodRef ref) throws GiveUp {
+        if (IMPURE_METHODS.contains(ref.name())) {
+            throw new GiveUp("calls " + ref);
+        }
+        String key = ref.getSignature();
+        Executable member = jdkMembers.get(key);
+        if (member == null) {
+            Class<?> cls = jdkClass(ref.declaringClass().getType());
+            Class<?>[] params = new Class<?>[ref.parameterTypes().size()];
+            for (int i = 0; i < params.length; i++) {
+                params[i] = jdkClass(ref.parameterTypes().get(i));
+            }
+            try {
+                member = ref.name().equals("<init>") ? cls.getConstructor(params) : cls.getMethod(ref.name(), params);
+            } catch (NoSuchMethodException e) {
+                throw new GiveUp("no " + ref);
+            }
+            jdkMembers.put(key, member);
+        }
+        return member;
+    }
+
+    private static Object base64(String name, Object[] args) throws GiveUp {
+        if (args.length != 2 || !(args[1] instanceof Integer)) {
+            throw new GiveUp("android.util.Base64." + name);
+        }
+        int flags = (Integer) args[1];
+        boolean urlSafe = (flags & 8) != 0;
+        try {
+            if (name.equals("decode") && (args[0] instanceof String || args[0] instanceof byte[])) {
+                String input = args[0] instanceof String ? (String) args[0]
+                        : new String((byte[]) args[0], StandardCharsets.ISO_8859_1);
+                if (urlSafe) {
+                    input = input.replace('-', '+').replace('_', '/');
+                }
+                // Like Android, skip characters outside of the alphabet and accept missing padding
+                return java.util.Base64.getMimeDecoder().decode(input);
+            }
+            if ((name.equals("encode") || name.equals("encodeToString")) && args[0] instanceof byte[]) {
+                java.util.Base64.Encoder encoder = urlSafe ? java.util.Base64.getUrlEncoder() : java.util.Base64.getEncoder();
+                if ((flags & 1) != 0) {
+                    encoder = encoder.withoutPadding();
+                }
+                String encoded = encoder.encodeToString((byte[]) args[0]);
+                if ((flags & 2) == 0 && !encoded.isEmpty()) {
+                    // Lines of 76 characters, each terminated
+                    String newline = (flags & 4) != 0 ? "\r\n" : "\n";
+                    StringBuilder wrapped = new StringBuilder();
+                    for (int i = 0; i < encoded.length(); i += 76) {
+                        wrapped.append(encoded, i, Math.min(i + 76, encoded.length())).append(newline);
+                    }
+                    encoded = wrapped.toString();
+                }
+                return name.equals("encode") ? encoded.getBytes(StandardCharsets.US_ASCII) : encoded;
+            }
+        } catch (IllegalArgumentException e) {
+            throw new GiveUp(e.toString());
+        }
+        throw new GiveUp("android.util.Base64." + name);
+    }
+
+    private static Class<?> jdkClass(Type type) throws GiveUp {
+        if (type instanceof IntType) return int.class;
+        if (type instanceof CharType) return char.class;
+        if (type instanceof ByteType) return byte.class;
+        if (type instanceof ShortType) return short.class;
+        if (type instanceof BooleanType) return boolean.class;
+        if (type instanceof LongType) return long.class;
+        if (type instanceof ArrayType) {
+            return Array.newInstance(jdkClass(((ArrayType) type).getElementType()), 0).getClass();
+        }
+        if (type instanceof RefType && ((RefType) type).getClassName().startsWith("java.")) {
+            try {
+                return Class.forName(((RefType) type).getClassName(), false, null);
+            } catch (ClassNotFoundException e) {
+                throw new GiveUp("unknown " + type);
+            }
+        }
+        throw new GiveUp("unsupported type " + type);
+    }
+
+    private static Object[] toJava(Object[] args, Class<?>[] params) throws GiveUp {
+        Object[] converted = new Object[args.length];
+        for (int i = 0; i < args.length; i++) {
+            Class<?> param = params[i];
+            Object arg = args[i];
+            if (param == int.class) converted[i] = toInt(arg);
+            else if (param == char.class) converted[i] = (char) toInt(arg);
+            else if (param == byte.class) converted[i] = (byte) toInt(arg);
+            else if (param == short.class) converted[i] = (short) toInt(arg);
+            else if (param == boolean.class) converted[i] = toInt(arg) != 0;
+            else if (param == long.class) converted[i] = toLong(arg);
+            else if (param.isPrimitive() || arg instanceof Uninitialized) throw new GiveUp("argument " + arg);
+            else converted[i] = arg;
+        }
+        return converted;
+    }
+
+    /**
+     * Value of a JDK result or array element in the representation of the interpreter
+     */
+    private static Object normalize(Object value) {
+        if (value instanceof Character) return (int) (Character) value;
+        if (value instanceof Byte) return (int) (Byte) value;
+        if (value instanceof Short) return (int) (Short) value;
+        if (value instanceof Boolean) return (Boolean) value ? 1 : 0;
+        return value;
+    }
+
+    private static int toInt(Object value) throws GiveUp {
+        if (value instanceof Integer) {
+            return (Integer) value;
+        }
+        throw new GiveUp("not an int: " + value);
+    }
+
+    private static long toLong(Object value) throws GiveUp {
+        if (value instanceof Integer) {
+            return (Integer) value;
+        }
+        if (value instanceof Long) {
+            return (Long) value;
+        }
+        throw new GiveUp("not a number: " + value);
+    }
+}
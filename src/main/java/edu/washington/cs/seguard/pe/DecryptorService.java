@@ -0,0 +1,375 @@
+package edu.washington.cs.seguard.pe;
+
+import edu.washington.cs.seguard.util.StatManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static edu.washington.cs.seguard.util.StatKey.*;
+
+/**
+ * Runs decryptor invocations off the Soot threads, on at most a bounded number of worker threads at a time.
+ *
+ * The calls to one decryptor class in an invokeAll form a batch, run in order on one worker. Batches of the same
+ * class, e.g. from invokeAll on several Soot threads, run one after the other, so that decryptors keeping static
+ * state see all their calls serially. Batches of different classes run in parallel. Each call, and the loading of
+ * the class for the first one, gets its own deadline counted from when it starts: a watchdog abandons a batch
+ * whose current call overruns, interrupts its worker and poisons the class, so no further call waits on a
+ * decryptor that loops or holds its class initialization lock forever. A decryptor may ignore the interrupt, so the
+ * abandoned worker keeps its slot until it actually exits, and runaway decryptors never occupy more threads than
+ * the bound. Once every slot is held by an abandoned worker, calls are skipped instead of waiting for a slot.
+ */
+class DecryptorService {
+    private static final Logger logger = LoggerFactory.getLogger(DecryptorService.class);
+
+    enum Status {
+        PENDING,
+        // The decryptor returned a string, or null
+        DECRYPTED,
+        // The decryptor does not return a string
+        NO_VALUE,
+        FAILED,
+        TIMED_OUT,
+        // Not run, the class is poisoned
+        SKIPPED
+    }
+
+    /**
+     * One invocation of a static String -> ? decryptor
+     */
+    static final class Call {
+        private final String className;
+        private final String methodName;
+        private final String argument;
+        private volatile Status status = Status.PENDING;
+        private volatile String value;
+        // False if the value depends on the identity of an object
+        private volatile boolean reproducible = true;
+
+        Call(String className, String methodName, String argument) {
+            this.className = className;
+            this.methodName = methodName;
+            this.argument = argument;
+        }
+
+        String getClassName() {
+            return className;
+        }
+
+        String getMethodName() {
+            return methodName;
+        }
+
+        String getArgument() {
+            return argument;
+        }
+
+        Status getStatus() {
+            return status;
+        }
+
+        /**
+         * @return the decrypted string if the status is DECRYPTED, may be null
+         */
+        String getValue() {
+            return value;
+        }
+
+        /**
+         * Records a result obtained without running the decryptor, e.g. by interpreting it
+         * @param reproducible whether value depends only on the decryptor and the argument
+         */
+        void decrypted(String value, boolean reproducible) {
+            this.value = value;
+            this.reproducible = reproducible;
+            this.status = Status.DECRYPTED;
+        }
+
+        /**
+         * @return whether the outcome depends only on the decryptor and the argument, and may be cached
+         */
+        boolean isDeterministic() {
+            return status == Status.DECRYPTED && reproducible || status == Status.NO_VALUE;
+        }
+    }
+
+    private final ClassLoader loader;
+    private final long timeoutNanos;
+    private final StatManager statManager;
+    private final ExecutorService workers;
+    private final ScheduledExecutorService watchdog;
+    private final int bound;
+    private final Semaphore slots;
+    // Workers abandoned by the watchdog that have not exited yet, each holding a slot
+    private final AtomicInteger stuck = new AtomicInteger();
+    private final long periodMillis;
+    private final Set<Batch> running = ConcurrentHashMap.newKeySet();
+    // Class name -> its latest batch, which runs after the previous batches of the class
+    private final Map<String, Batch> lastBatches = new ConcurrentHashMap<>();
+    // Classes that timed out or cannot be loaded
+    private final Set<String> poisonedClasses = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param threads bound on the number of decryptor calls running at a time, 0 for one per core
+     * @param timeoutMillis deadline of each call, 0 for 5 seconds
+     */
+    DecryptorService(ClassLoader loader, int threads, long timeoutMillis, StatManager statManager) {
+        this.loader = loader;
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis > 0 ? timeoutMillis : 5000);
+        this.statManager = statManager;
+        this.bound = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        this.slots = new Semaphore(bound);
+        AtomicInteger workerCount = new AtomicInteger();
+        this.workers = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "decryptor-" + workerCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "decryptor-watchdog");
+            t.setDaemon(true);
+            return t;
+        });
+        this.periodMillis = Math.max(TimeUnit.NANOSECONDS.toMillis(timeoutNanos) / 4, 10);
+        watchdog.scheduleAtFixedRate(this::abandonOverdue, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs the pending calls, batched per class, and returns once each of them has an outcome. Safe to call
+     * from several threads.
+     */
+    void invokeAll(Collection<Call> calls) {
+        Map<String, List<Call>> byClass = new LinkedHashMap<>();
+        for (Call call : calls) {
+            if (call.status != Status.PENDING) {
+                continue;
+            }
+            if (poisonedClasses.contains(call.className) || allStuck()) {
+                skip(call);
+                continue;
+            }
+            byClass.computeIfAbsent(call.className, c -> new ArrayList<>()).add(call);
+        }
+        List<Batch> batches = new ArrayList<>();
+        for (Map.Entry<String, List<Call>> entry : byClass.entrySet()) {
+            Batch batch = new Batch(entry.getKey(), entry.getValue());
+            batch.previous = lastBatches.put(batch.className, batch);
+            batches.add(batch);
+            workers.execute(batch);
+        }
+        try {
+            for (Batch batch : batches) {
+                batch.done.await();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    void shutdown() {
+        watchdog.shutdownNow();
+        workers.shutdownNow();
+    }
+
+    /**
+     * @return whether every slot is held by a worker abandoned in a decryptor that has not returned yet
+     */
+    private boolean allStuck() {
+        return stuck.get() >= bound;
+    }
+
+    private void skip(Call call) {
+        call.status = Status.SKIPPED;
+        statManager.COUNT(DECRYPT_SKIPPED);
+    }
+
+    private void abandonOverdue() {
+        long now = System.nanoTime();
+        for (Batch batch : running) {
+            batch.abandonIfOverdue(now);
+        }
+    }
+
+    private final class Batch implements Runnable {
+        private final String className;
+        private final List<Call> calls;
+        private final CountDownLatch done = new CountDownLatch(1);
+        // The batch of the same class to wait for, if any
+        private Batch previous;
+        // Guarded by this
+        private Thread worker;
+        private int current = -1;
+        private long started;
+        private boolean finished;
+        // Whether the watchdog gave up on the worker while it was in a decryptor
+        private boolean abandoned;
+
+        Batch(String className, List<Call> calls) {
+            this.className = className;
+            this.calls = calls;
+        }
+
+        @Override
+        public void run() {
+            boolean acquired = false;
+            try {
+                // Waits without a slot, so that the batches of other classes meanwhile use the bound
+                try {
+                    if (previous != null) {
+                        previous.done.await();
+                        previous = null;
+                    }
+                    while (!slots.tryAcquire(periodMillis, TimeUnit.MILLISECONDS)) {
+                        if (allStuck()) {
+                            for (Call call : calls) {
+                                skip(call);
+                            }
+                            return;
+                        }
+                    }
+                    acquired = true;
+                } catch (InterruptedException e) {
+                    // The service is shut down
+                    return;
+                }
+                synchronized (this) {
+                    if (finished) {
+                        return;
+                    }
+                    if (poisonedClasses.contains(className)) {
+                        // An earlier batch of the class timed out or could not load it
+                        for (Call call : calls) {
+                            skip(call);
+                        }
+                        return;
+                    }
+                    running.add(this);
+                    worker = Thread.currentThread();
+                    // Loading the class counts against the deadline of the first call
+                    current = 0;
+                    started = System.nanoTime();
+                }
+                Class<?> cls;
+                try {
+                    cls = Class.forName(className, false, loader);
+                } catch (ClassNotFoundException | LinkageError e) {
+                    logger.debug("Cannot load decryptor class {}: {}", className, e.toString());
+                    poisonedClasses.add(className);
+                    synchronized (this) {
+                        for (int i = current; !finished && i < calls.size(); i++) {
+                            calls.get(i).status = Status.FAILED;
+                            statManager.COUNT(DECRYPT_FAILURE);
+                        }
+                    }
+                    return;
+                }
+                Map<String, Method> methods = new HashMap<>();
+                for (int i = 0; i < calls.size(); i++) {
+                    Call call = calls.get(i);
+                    synchronized (this) {
+                        if (finished) {
+                            return;
+                        }
+                        if (i > 0) {
+                            current = i;
+                            started = System.nanoTime();
+                        }
+                    }
+                    Status status;
+                    String value = null;
+                    try {
+                        Method m = methods.get(call.methodName);
+                        if (m == null) {
+                            m = resolve(cls, call.methodName);
+                            methods.put(call.methodName, m);
+                        }
+                        if (!m.getReturnType().equals(String.class)) {
+                            // FIXME: support indirect decryption using byte[]
+                            status = Status.NO_VALUE;
+                        } else {
+                            long start = System.nanoTime();
+                            value = (String) m.invoke(null, call.argument);
+                            statManager.recordLatency("decryptorCall", System.nanoTime() - start);
+                            status = Status.DECRYPTED;
+                        }
+                    } catch (InvocationTargetException e) {
+                        logger.debug("Decryptor {}.{} failed on {}: {}", className, call.methodName, call.argument,
+                                e.getTargetException().toString());
+                        status = Status.FAILED;
+                    } catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+                        logger.debug("Cannot invoke decryptor {}.{}: {}", className, call.methodName, e.toString());
+                        status = Status.FAILED;
+                    }
+                    synchronized (this) {
+                        if (finished) {
+                            return;
+                        }
+                        call.value = value;
+                        call.status = status;
+                        if (status == Status.FAILED) {
+                            statManager.COUNT(DECRYPT_FAILURE);
+                        }
+                    }
+                }
+            } finally {
+                finish();
+                synchronized (this) {
+                    if (abandoned) {
+                        stuck.decrementAndGet();
+                    }
+                }
+                // Only now that the worker is out of the decryptor, even if it was abandoned long ago
+                if (acquired) {
+                    slots.release();
+                }
+            }
+        }
+
+        private Method resolve(Class<?> cls, String methodName) throws NoSuchMethodException {
+            try {
+                return cls.getMethod(methodName, String.class);
+            } catch (NoSuchMethodException | NoClassDefFoundError e) {
+                // TODO: unzip android-28 jar and cherry-pick some class definitions to avoid errors
+                //       about android.content.Context
+                return cls.getDeclaredMethod(methodName, String.class);
+            }
+        }
+
+        synchronized void abandonIfOverdue(long now) {
+            if (finished || current < 0 || now - started <= timeoutNanos) {
+                return;
+            }
+            Call call = calls.get(current);
+            logger.warn("Decryptor {}.{} timed out on {}, skipping the class from now on",
+                    className, call.methodName, call.argument);
+            call.status = Status.TIMED_OUT;
+            statManager.COUNT(DECRYPT_TIMEOUT);
+            for (int i = current + 1; i < calls.size(); i++) {
+                skip(calls.get(i));
+            }
+            poisonedClasses.add(className);
+            abandoned = true;
+            if (stuck.incrementAndGet() >= bound) {
+                logger.warn("All {} decryptor threads are stuck, skipping decryptor calls until one returns", bound);
+            }
+            worker.interrupt();
+            finish();
+        }
+
+        private synchronized void finish() {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            running.remove(this);
+            lastBatches.remove(className, this);
+            done.countDown();
+        }
+    }
+}
@@ -1,9 +1,8 @@
 package edu.washington.cs.seguard.pe;
 
 import java.io.*;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.net.URLClassLoader;
+import java.util.concurrent.ConcurrentHashMap;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 
@@ -11,6 +10,7 @@ import static edu.washington.cs.seguard.util.StatKey.*;
 import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
 import java.util.*;
 
+import edu.washington.cs.seguard.Config;
 import edu.washington.cs.seguard.SootOptionManager;
 import edu.washington.cs.seguard.Util;
 import edu.washington.cs.seguard.util.StatManager;
@@ -44,53 +44,108 @@ public class JimpleRewriter  {
         ConstantPropagatorAndFolder() {  }
 
         protected void internalTransform(Body b, String phaseName, Map<String, String> options) {
-          UnitGraph g = new ExceptionalUnitGraph(b);
-          LocalDefs localDefs = LocalDefs.Factory.newLocalDefs(g);
+          fold(new BodyAnalysisContext(b));
+        }
+
+        /**
+         * @return whether the body changed, in which case the analyses of context are invalidated
+         */
+        static boolean fold(BodyAnalysisContext context) {
+          UnitGraph g = context.getGraph();
+          LocalDefs localDefs = context.getLocalDefs();
+          boolean changed = false;
 
           // Perform a constant/local propagation pass.
           Orderer<Unit> orderer = new PseudoTopologicalOrderer<Unit>();
 
           // go through each use box in each statement
           for (Unit u : orderer.newList(g, false)) {
+            changed |= foldUnit(u, localDefs);
+          }
+          if (changed) {
+            // Folded expressions may no longer throw, so the exceptional graph is stale too
+            context.invalidate();
+          }
+          return changed;
+        } // optimizeConstants
 
-            // propagation pass
-            for (ValueBox useBox : u.getUseBoxes()) {
-              Value value = useBox.getValue();
-              if (value instanceof Local) {
-                Local local = (Local) value;
-                List<Unit> defsOfUse = localDefs.getDefsOfAt(local, u);
-                if (defsOfUse.size() == 1) {
-                  DefinitionStmt defStmt = (DefinitionStmt) defsOfUse.get(0);
-                  Value rhs = defStmt.getRightOp();
-                  if (rhs instanceof NumericConstant || rhs instanceof StringConstant || rhs instanceof NullConstant ||
-                      rhs instanceof ClassConstant || rhs instanceof MethodConstant) {
-                    if (useBox.canContainValue(rhs)) {
-                      useBox.setValue(rhs);
-                    }
-                  } else if (rhs instanceof CastExpr) {
-                    CastExpr ce = (CastExpr) rhs;
-                    if (ce.getCastType() instanceof RefType && ce.getOp() instanceof NullConstant) {
-                      defStmt.getRightOpBox().setValue(NullConstant.v());
-                    }
+        /**
+         * Propagate single-definition constants into the uses of u, then fold its constant-valued expressions
+         * @return whether u changed
+         */
+        static boolean foldUnit(Unit u, LocalDefs localDefs) {
+          boolean changed = false;
+
+          // propagation pass
+          for (ValueBox useBox : u.getUseBoxes()) {
+            Value value = useBox.getValue();
+            if (value instanceof Local) {
+              Local local = (Local) value;
+              List<Unit> defsOfUse = localDefs.getDefsOfAt(local, u);
+              if (defsOfUse.size() == 1) {
+                DefinitionStmt defStmt = (DefinitionStmt) defsOfUse.get(0);
+                Value rhs = defStmt.getRightOp();
+                if (rhs instanceof NumericConstant || rhs instanceof StringConstant || rhs instanceof NullConstant ||
+                    rhs instanceof ClassConstant || rhs instanceof MethodConstant) {
+                  if (useBox.canContainValue(rhs)) {
+                    useBox.setValue(rhs);
+                    changed = true;
+                  }
+                } else if (rhs instanceof CastExpr) {
+                  CastExpr ce = (CastExpr) rhs;
+                  if (ce.getCastType() instanceof RefType && ce.getOp() instanceof NullConstant) {
+                    defStmt.getRightOpBox().setValue(NullConstant.v());
+                    changed = true;
                   }
                 }
               }
             }
+          }
 
-            // folding pass
-            for (ValueBox useBox : u.getUseBoxes()) {
-              Value value = useBox.getValue();
-              if (!(value instanceof Constant)) {
-                if (Evaluator.isValueConstantValued(value)) {
-                  Value constValue = Evaluator.getConstantValueOf(value);
-                  if (useBox.canContainValue(constValue)) {
-                    useBox.setValue(constValue);
-                  }
+          // folding pass
+          for (ValueBox useBox : u.getUseBoxes()) {
+            Value value = useBox.getValue();
+            if (!(value instanceof Constant)) {
+              if (Evaluator.isValueConstantValued(value)) {
+                Value constValue = Evaluator.getConstantValueOf(value);
+                if (useBox.canContainValue(constValue)) {
+                  useBox.setValue(constValue);
+                  changed = true;
                 }
               }
             }
           }
-        } // optimizeConstants
+          return changed;
+        }
+
+        /**
+         * Fold the units using the given constant definitions, and transitively the units using
+         * definitions that became constant, instead of re-folding the whole body
+         */
+        static void propagate(BodyAnalysisContext context, Collection<Unit> constantDefs) {
+          if (constantDefs.isEmpty()) {
+            return;
+          }
+          LocalDefs localDefs = context.getLocalDefs();
+          LocalUses localUses = context.getLocalUses();
+          Deque<Unit> worklist = new ArrayDeque<>(constantDefs);
+          boolean changed = false;
+          while (!worklist.isEmpty()) {
+            Unit def = worklist.poll();
+            for (UnitValueBoxPair use : localUses.getUsesOf(def)) {
+              Unit user = use.getUnit();
+              if (foldUnit(user, localDefs)) {
+                changed = true;
+                if (user instanceof DefinitionStmt && ((DefinitionStmt) user).getRightOp() instanceof Constant) {
+                  worklist.add(user);
+                }
+              }
+            }
+          }
+          if (changed) {
+            context.invalidate();
+          }
+        }
       }
 
     private static class MethodConstant extends Constant {
@@ -143,9 +198,14 @@ public class JimpleRewriter  {
         private SootMethod getSensitiveStringMethod;
         private String mode;
         private StatManager statManager;
+        // Null if no cache directory is configured
+        private final DecryptionCache decryptionCache;
+        private final DecryptorService decryptorService;
+        private final DecryptorInterpreter interpreter = new DecryptorInterpreter();
 
         DeobfuscateTransformer(String javaClassPath, StatManager statManager,
-                               SootMethod getSensitiveStringMethod, String mode) {
+                               SootMethod getSensitiveStringMethod, String mode, DecryptionCache decryptionCache,
+                               Config config) {
             this.logger = LoggerFactory.getLogger(JimpleRewriter.class);
             val urls = new ArrayList<URL>();
             for (val p : javaClassPath.split(":")) {
@@ -157,13 +217,17 @@ public class JimpleRewriter  {
                 }
             }
             this.loader = new URLClassLoader(urls.toArray(new URL[] {}));
-            this.unloadedClasses = new HashSet<>();
+            // Bodies may be transformed on several threads
+            this.unloadedClasses = ConcurrentHashMap.newKeySet();
             this.statManager = statManager;
             this.getSensitiveStringMethod = getSensitiveStringMethod;
             this.mode = mode;
+            this.decryptionCache = decryptionCache;
+            this.decryptorService = new DecryptorService(loader, config.getDecryptorThreads(),
+                    config.getDecryptTimeoutMillis(), statManager);
         }
 
-        static String getClassBase(InvokeExpr expr, Unit u, UnitGraph g) {
+        static String getClassBase(InvokeExpr expr, Unit u, BodyAnalysisContext context) {
             if (!(expr instanceof VirtualInvokeExpr)) {
                 return null;
             }
@@ -172,7 +236,7 @@ public class JimpleRewriter  {
             if (value instanceof ClassConstant) {
                 return ((ClassConstant) value).value;
             }
-            LocalDefs localDefs = LocalDefs.Factory.newLocalDefs(g);
+            LocalDefs localDefs = context.getLocalDefs();
             if (value instanceof Local) {
                 Local local = (Local) value;
                 List<Unit> defsOfUse = localDefs.getDefsOfAt(local, u);
@@ -188,7 +252,7 @@ public class JimpleRewriter  {
         }
 
 
-        static MethodConstant getMethodBase(InvokeExpr expr, Unit u, UnitGraph g) {
+        static MethodConstant getMethodBase(InvokeExpr expr, Unit u, BodyAnalysisContext context) {
             if (!(expr instanceof VirtualInvokeExpr)) {
                 return null;
             }
@@ -197,7 +261,7 @@ public class JimpleRewriter  {
             if (value instanceof MethodConstant) {
                 return ((MethodConstant) value);
             }
-            LocalDefs localDefs = LocalDefs.Factory.newLocalDefs(g);
+            LocalDefs localDefs = context.getLocalDefs();
             if (value instanceof Local) {
                 Local local = (Local) value;
                 List<Unit> defsOfUse = localDefs.getDefsOfAt(local, u);
@@ -212,9 +276,9 @@ public class JimpleRewriter  {
             return null;
         }
 
-        static Value[] analyzeParams(Value params, Unit u, UnitGraph g) {
-            LocalDefs localDefs = LocalDefs.Factory.newLocalDefs(g);
-            LocalUses localUses = LocalUses.Factory.newLocalUses(g);
+        static Value[] analyzeParams(Value params, Unit u, BodyAnalysisContext context) {
+            LocalDefs localDefs = context.getLocalDefs();
+            LocalUses localUses = context.getLocalUses();
             if (params instanceof Local) {
                 Local local = (Local) params;
                 List<Unit> defsOfUse = localDefs.getDefsOfAt(local, u);
@@ -257,60 +321,87 @@ public class JimpleRewriter  {
             return ((StringConstant) firstArgVal).value;
         }
 
-        void decrypt(String className, String methodName, InvokeExpr expr, AssignStmt aStmt) {
+        /**
+         * Rewrites aStmt from the decryption cache, or returns the call to decrypt it, already completed if the
+         * decryptor could be interpreted
+         * @return null if the invocation is not a decryption candidate or was answered by the cache
+         */
+        DecryptorService.Call prepareDecrypt(String className, String methodName, InvokeExpr expr, AssignStmt aStmt,
+                                             BodyAnalysisContext context) {
             if (!(expr instanceof StaticInvokeExpr)) {
-                return;
+                return null;
             }
             if (expr.getArgCount() != 1) {
-                return;
+                return null;
             }
             statManager.COUNT(INVOKE_APP_STATIC_METHOD);
             String argument = getConstStringArgument(expr, 0);
             if (argument == null) {
-                return;
+                return null;
             }
             className = className.replace("/", ".");
-            Class cls;
-            Method m;
-            try {
-                cls = loader.loadClass(className);
-            } catch (ClassNotFoundException e) {
-//                e.printStackTrace();
-                return;
+            if (decryptionCache != null) {
+                String classHash = decryptionCache.classHash(loader, className);
+                DecryptionCache.Result cached = classHash == null ? null : decryptionCache.get(classHash, methodName, argument);
+                if (cached != null) {
+                    if (cached.getValue() != null) {
+                        logger.info("decrypted (cached): " + methodName + "(" + argument + ") => " + cached.getValue());
+                        statManager.COUNT(INVOKE_APP_STATIC_METHOD_DECRYPTED);
+                        aStmt.setRightOp(StringConstant.v(cached.getValue()));
+                        // The invocation became a constant that cannot throw, so the exceptional graph is stale
+                        context.invalidate();
+                    }
+                    return null;
+                }
             }
-            try {
-                m = cls.getMethod(methodName, String.class);
-            } catch (NoSuchMethodException | NoClassDefFoundError e) {
+            DecryptorService.Call call = new DecryptorService.Call(className, methodName, argument);
+            SootMethodRef ref = expr.getMethodRef();
+            if (ref.returnType().toString().equals("java.lang.String")
+                    && ref.parameterType(0).toString().equals("java.lang.String")) {
+                // Pure decryptors are evaluated from their body, the others are left to the decryptor service
                 try {
-                    // TODO: unzip android-28 jar and cherry-pick some class definitions to avoid errors
-                    //       about android.content.Context
-                    m = cls.getDeclaredMethod(methodName, String.class);
-                } catch (NoSuchMethodException | NoClassDefFoundError ex) {
-                    ex.printStackTrace();
-                    return;
+                    DecryptorInterpreter.Result result = interpreter.interpret(expr.getMethod(), argument);
+                    call.decrypted(result.getValue(), result.isDeterministic());
+                    statManager.COUNT(DECRYPT_INTERPRETED);
+                } catch (DecryptorInterpreter.GiveUp e) {
+                    logger.debug("not interpreting " + methodName + "(" + argument + "): " + e.getMessage());
+                    statManager.COUNT(DECRYPT_INTERPRETER_GAVE_UP);
                 }
             }
+            return call;
+        }
 
-            if (!(m.getReturnType().getTypeName().equals("java.lang.String"))) {
-                // FIXME: support indirect decryption using byte[]
-                return;
-            }
-            try {
-                String result = (String) m.invoke(null, argument);
-                logger.info("decrypted: " + methodName + "(" + argument + ") => " + result);
-                if (result != null) {
+        /**
+         * Runs the pending decryptor calls of a body and rewrites the statements they decrypt
+         * @param rewritten receives the statements whose invocation was replaced by a constant
+         */
+        void decryptAll(Map<AssignStmt, DecryptorService.Call> pending, BodyAnalysisContext context, List<Unit> rewritten) {
+            decryptorService.invokeAll(pending.values());
+            for (Map.Entry<AssignStmt, DecryptorService.Call> entry : pending.entrySet()) {
+                DecryptorService.Call call = entry.getValue();
+                DecryptorService.Status status = call.getStatus();
+                if (status != DecryptorService.Status.DECRYPTED && status != DecryptorService.Status.NO_VALUE) {
+                    // Timed out, failed or skipped, counted by the service
+                    continue;
+                }
+                if (decryptionCache != null && call.isDeterministic()) {
+                    String classHash = decryptionCache.classHash(loader, call.getClassName());
+                    if (classHash != null) {
+                        decryptionCache.put(classHash, call.getMethodName(), call.getArgument(), call.getValue());
+                    }
+                }
+                if (call.getValue() != null) {
+                    logger.info("decrypted: " + call.getMethodName() + "(" + call.getArgument() + ") => " + call.getValue());
                     statManager.COUNT(INVOKE_APP_STATIC_METHOD_DECRYPTED);
-                    aStmt.setRightOp(StringConstant.v(result));
+                    entry.getKey().setRightOp(StringConstant.v(call.getValue()));
+                    // The invocation became a constant that cannot throw, so the exceptional graph is stale
+                    context.invalidate();
+                    rewritten.add(entry.getKey());
                 }
-            } catch (IllegalAccessException ex) {
-                ex.printStackTrace();
-            } catch (InvocationTargetException ex) {
-                ex.printStackTrace();
-                ex.getTargetException().printStackTrace();
             }
         }
 
-        void unrollForName(String className, String methodName, InvokeExpr expr, AssignStmt aStmt) {
+        void unrollForName(String className, String methodName, InvokeExpr expr, AssignStmt aStmt, BodyAnalysisContext context) {
             if (!(expr instanceof StaticInvokeExpr)) {
                 return;
             }
@@ -323,16 +414,18 @@ public class JimpleRewriter  {
                 logger.info("unfold forName: " + argument);
                 statManager.COUNT(CLASS_FORNAME_UNREFLECT_OK);
                 aStmt.setRightOp(ClassConstant.v(Util.toJNISig(argument)));
+                // The invocation became a constant that cannot throw, so the exceptional graph is stale
+                context.invalidate();
             }
         }
 
-        Stmt unrollGetMethod(String className, String methodName, InvokeExpr expr, AssignStmt aStmt, Unit u, UnitGraph g) {
+        Stmt unrollGetMethod(String className, String methodName, InvokeExpr expr, AssignStmt aStmt, Unit u, BodyAnalysisContext context) {
             if (!(expr instanceof VirtualInvokeExpr)) {
                 return null;
             }
             if (methodName.equals("getMethod")) {
                 statManager.COUNT(CLASS_GETMETHOD);
-                String cls = getClassBase(expr, u, g);
+                String cls = getClassBase(expr, u, context);
                 if (expr.getArgCount() != 1) {
                     return null;
                 }
@@ -347,19 +440,23 @@ public class JimpleRewriter  {
             return null;
         }
 
-        void unrollInvoke(String className, String methodName, InvokeExpr expr, Stmt stmt, Unit u, UnitGraph g, PatchingChain<Unit> units, Body b) {
+        /**
+         * The direct call replacing the reflective one is added to insertions, to be inserted after u
+         */
+        void unrollInvoke(String className, String methodName, InvokeExpr expr, Stmt stmt, Unit u, BodyAnalysisContext context,
+                          Map<Unit, List<Unit>> insertions, Body b) {
             if (className.equals("java.lang.reflect.Method") && methodName.equals("invoke")) {
                 statManager.COUNT(METHOD_INVOKE);
                 AssignStmt aStmt = (AssignStmt) stmt;
                 VirtualInvokeExpr vexpr = (VirtualInvokeExpr) expr;
-                MethodConstant methConst = getMethodBase(expr, u, g);
+                MethodConstant methConst = getMethodBase(expr, u, context);
                 if (methConst == null) {
                     return;
                 }
                 try {
                     Value target = vexpr.getArg(0);
                     Value params = vexpr.getArg(1); // we only need to know its length?
-                    Value[] paramVals = analyzeParams(params, u, g);
+                    Value[] paramVals = analyzeParams(params, u, context);
                     SootClass cls = Scene.v().loadClassAndSupport(methConst.getClassName());
                     if (cls == null) {
                         logger.warn("Null class " + cls);
@@ -405,10 +502,10 @@ public class JimpleRewriter  {
                                     List<Unit> toInsert = new ArrayList<>();
                                     toInsert.add(Jimple.v().newAssignStmt(l, rightOp));
                                     toInsert.add(Jimple.v().newAssignStmt(aStmt.getLeftOp(), Jimple.v().newStaticInvokeExpr(cons.makeRef(), l)));
-                                    units.insertAfter(toInsert, u);
+                                    insertions.put(u, toInsert);
                                     return;
                                 }
-                                units.insertAfter(Jimple.v().newAssignStmt(aStmt.getLeftOp(), rightOp), u);
+                                insertions.put(u, Collections.singletonList(Jimple.v().newAssignStmt(aStmt.getLeftOp(), rightOp)));
                                 return;
                             } else {
                                 logger.warn("Some null: " + paramVals + " or " + meth.makeRef());
@@ -434,71 +531,158 @@ public class JimpleRewriter  {
             UNROLLINVOKE
         }
 
+        /**
+         * Phase whose rewrite may apply to an invocation, judged from the invocation alone. Several phases
+         * may apply to one invocation (e.g. Class.forName is also a static one-argument call), the rewrites
+         * themselves check their remaining conditions.
+         */
+        private static EnumSet<PHASE> candidatePhases(InvokeExpr expr) {
+            EnumSet<PHASE> phases = EnumSet.noneOf(PHASE.class);
+            String name = expr.getMethodRef().name();
+            if (expr instanceof StaticInvokeExpr) {
+                if (expr.getArgCount() == 1) {
+                    phases.add(PHASE.DECRYPT);
+                }
+                if (name.equals("forName")) {
+                    phases.add(PHASE.UNROLLFORNAME);
+                }
+            }
+            if (expr instanceof VirtualInvokeExpr && name.equals("getMethod")) {
+                phases.add(PHASE.UNROLLGETMETHOD);
+            }
+            if (name.equals("invoke")) {
+                phases.add(PHASE.UNROLLINVOKE);
+            }
+            return phases;
+        }
+
+        /**
+         * Runs the phases in order on the candidate invocations found by a single scan of the body.
+         * Instead of re-folding the whole body before each phase, the constants produced by a phase are
+         * propagated to the statements using them through a worklist. Bodies without candidates are left
+         * untouched.
+         */
         @Override
         protected void internalTransform(final Body b, String phaseName, @SuppressWarnings("rawtypes") Map options) {
-            final PatchingChain units = b.getUnits();
+            final PatchingChain<Unit> units = b.getUnits();
+            if (mode.equals("sensitiveRewrite")) {
+                rewriteSensitiveStrings(b);
+                return;
+            }
 
+            Map<PHASE, List<Unit>> candidates = new EnumMap<>(PHASE.class);
+            for (Unit u : units) {
+                Stmt stmt = (Stmt) u;
+                if (!(stmt instanceof AssignStmt) || !stmt.containsInvokeExpr()) {
+                    continue;
+                }
+                for (PHASE phase : candidatePhases(stmt.getInvokeExpr())) {
+                    candidates.computeIfAbsent(phase, p -> new ArrayList<>()).add(u);
+                }
+            }
+            if (candidates.isEmpty()) {
+                return;
+            }
+
+            // Shared by the folder and the rewrites of all phases, rebuilt only after mutations
+            BodyAnalysisContext context = new BodyAnalysisContext(b);
+            ConstantPropagatorAndFolder.fold(context);
+            boolean methodConstants = false;
             for (PHASE phase : PHASE.values()) {
-                ConstantPropagatorAndFolder folder = new ConstantPropagatorAndFolder();
-                folder.internalTransform(b, phaseName, options);
-                UnitGraph g = new ExceptionalUnitGraph(b);
-                for (Iterator<Unit> iter = units.snapshotIterator(); iter.hasNext();) {
-                    final Unit u = iter.next();
+                List<Unit> phaseCandidates = candidates.get(phase);
+                if (phaseCandidates == null) {
+                    continue;
+                }
+                // Definitions that became constants, and statements to insert once the phase is done
+                List<Unit> constantDefs = new ArrayList<>();
+                Map<Unit, List<Unit>> insertions = new LinkedHashMap<>();
+                // Decryptor calls, run together once the candidates are collected
+                Map<AssignStmt, DecryptorService.Call> decryptions = new LinkedHashMap<>();
+                for (Unit u : phaseCandidates) {
                     Stmt stmt = (Stmt) u;
-                    if (mode.equals("sensitiveRewrite")) {
-                        for (ValueBox value : stmt.getUseBoxes()) {
-                            if (value.getValue() instanceof StringConstant) {
-                                StringConstant scons = (StringConstant) value.getValue();
-                                if (scons.value.contains("http")) {
-                                    System.out.println("constant " + scons.value);
-                                    Local l = Jimple.v().newLocal("i", IntType.v());
-                                    b.getLocals().add(l);
-                                    Unit toInsert = Jimple.v().newAssignStmt(l, Jimple.v().newStaticInvokeExpr(getSensitiveStringMethod.makeRef(), new ArrayList<>()));
-                                    units.insertBefore(toInsert, u);
-                                    value.setValue(l);
-                                }
+                    if (!stmt.containsInvokeExpr()) {
+                        // Already rewritten by an earlier phase
+                        continue;
+                    }
+                    InvokeExpr expr = stmt.getInvokeExpr();
+                    SootMethod meth = expr.getMethod();
+                    SootClass sootClass = meth.getDeclaringClass();
+                    String className = sootClass.getName();
+                    String methodName = meth.getName();
+                    AssignStmt aStmt = (AssignStmt) stmt;
+
+                    switch (phase) {
+                        case DECRYPT:
+                            DecryptorService.Call call = prepareDecrypt(className, methodName, expr, aStmt, context);
+                            if (call != null) {
+                                decryptions.put(aStmt, call);
                             }
-                        }
-                    } else {
-                        if (!stmt.containsInvokeExpr()) {
-                            continue;
-                        }
-                        InvokeExpr expr = stmt.getInvokeExpr();
-                        if (stmt instanceof JInvokeStmt) {
-                            continue;
-                        }
-                        SootMethod meth = expr.getMethod();
-                        SootClass sootClass = meth.getDeclaringClass();
-                        String className = sootClass.getName();
-                        String methodName = meth.getName();
-                        AssignStmt aStmt = (AssignStmt) stmt;
-
-                        Stmt newStmt = null;
-                        switch (phase) {
-                            case DECRYPT: decrypt(className, methodName, expr, aStmt); break;
-                            case UNROLLFORNAME: unrollForName(className, methodName, expr, aStmt); break;
-                            case UNROLLGETMETHOD:
-                                newStmt = unrollGetMethod(className, methodName, expr, aStmt, u, g);
-                                if (newStmt != null) {
-                                    units.insertAfter(newStmt, u);
-                                }
-                                break;
-                            case UNROLLINVOKE:
-                                unrollInvoke(className, methodName, expr, stmt, u, g, units, b);
-                                break;
+                            break;
+                        case UNROLLFORNAME:
+                            unrollForName(className, methodName, expr, aStmt, context);
+                            break;
+                        case UNROLLGETMETHOD:
+                            Stmt newStmt = unrollGetMethod(className, methodName, expr, aStmt, u, context);
+                            if (newStmt != null) {
+                                insertions.put(u, Collections.singletonList(newStmt));
+                                constantDefs.add(newStmt);
+                                methodConstants = true;
+                            }
+                            break;
+                        case UNROLLINVOKE:
+                            unrollInvoke(className, methodName, expr, stmt, u, context, insertions, b);
+                            break;
+                    }
+                    if (!aStmt.containsInvokeExpr()) {
+                        constantDefs.add(u);
+                    }
+                }
+                if (!decryptions.isEmpty()) {
+                    decryptAll(decryptions, context, constantDefs);
+                }
+                for (Map.Entry<Unit, List<Unit>> insertion : insertions.entrySet()) {
+                    units.insertAfter(insertion.getValue(), insertion.getKey());
+                }
+                if (!insertions.isEmpty()) {
+                    context.invalidate();
+                }
+                ConstantPropagatorAndFolder.propagate(context, constantDefs);
+            }
+
+            if (methodConstants) {
+                // Remove stmt like
+                for (Iterator<Unit> iter = units.snapshotIterator(); iter.hasNext();) {
+                    final Unit u = iter.next();
+                    for (ValueBox box : u.getUseBoxes()) {
+                        if (box.getValue() instanceof MethodConstant) {
+                            units.remove(u);
+                            break;
                         }
                     }
                 }
-                b.validate();
             }
+            b.validate();
+        }
 
-            // Remove stmt like
+        /**
+         * Replace string constants containing "http" by a call to SensitiveString.getSensitiveString()
+         */
+        private void rewriteSensitiveStrings(Body b) {
+            final PatchingChain<Unit> units = b.getUnits();
+            ConstantPropagatorAndFolder.fold(new BodyAnalysisContext(b));
             for (Iterator<Unit> iter = units.snapshotIterator(); iter.hasNext();) {
                 final Unit u = iter.next();
-                for (ValueBox box : u.getUseBoxes()) {
-                    if (box.getValue() instanceof MethodConstant) {
-                        units.remove(u);
-                        break;
+                for (ValueBox value : u.getUseBoxes()) {
+                    if (value.getValue() instanceof StringConstant) {
+                        StringConstant scons = (StringConstant) value.getValue();
+                        if (scons.value.contains("http")) {
+                            logger.debug("sensitive string constant " + scons.value);
+                            Local l = Jimple.v().newLocal("i", IntType.v());
+                            b.getLocals().add(l);
+                            Unit toInsert = Jimple.v().newAssignStmt(l, Jimple.v().newStaticInvokeExpr(getSensitiveStringMethod.makeRef(), new ArrayList<>()));
+                            units.insertBefore(toInsert, u);
+                            value.setValue(l);
+                        }
                     }
                 }
             }
@@ -514,7 +698,7 @@ public class JimpleRewriter  {
      */
     public static void Main(String androidPlatforms, String javaClassPath, String apkPath,
                             String classSigsFilePath, String newApkPath, String mode, StatManager statManager,
-                            ProcessManifest manifest) throws IOException {
+                            ProcessManifest manifest, Config config) throws IOException {
         SootOptionManager.Manager().buildOptionJimpleRewriter(androidPlatforms, apkPath, manifest);
 
         File newApkFile = new File(newApkPath);
@@ -533,12 +717,27 @@ public class JimpleRewriter  {
         sensitiveStringClass.addMethod(getSensitiveStringMethod);
         Scene.v().addClass(sensitiveStringClass);
 
+        DecryptionCache decryptionCache = null;
+        if (config.getDecryptionCacheDir() != null) {
+            decryptionCache = new DecryptionCache(new File(config.getDecryptionCacheDir()),
+                    config.getDecryptionCacheMaxBytes() > 0 ? config.getDecryptionCacheMaxBytes() : 256L << 20,
+                    statManager);
+        }
         DeobfuscateTransformer transformer = new DeobfuscateTransformer(
                 javaClassPath + ":" + Options.v().soot_classpath(),
-                statManager, getSensitiveStringMethod, mode);
+                statManager, getSensitiveStringMethod, mode, decryptionCache, config);
         PackManager.v().getPack("jtp").add(new Transform("jtp.myInstrumenter", transformer));
 
-        SootOptionManager.Manager().sootRunPacks();
+        try {
+            SootOptionManager.Manager().sootRunPacks(() -> {
+                if (!mode.equals("sensitiveRewrite")) {
+                    // The decryptors are interpreted from copies of their bodies, taken before they are rewritten
+                    transformer.interpreter.snapshot(Scene.v().getApplicationClasses());
+                }
+            });
+        } finally {
+            transformer.decryptorService.shutdown();
+        }
         if (transformer.unloadedClasses.size() > 0) {
             System.out.println("======================= add following text to " + classSigsFilePath + " ===================");
             for (String className : transformer.unloadedClasses) {
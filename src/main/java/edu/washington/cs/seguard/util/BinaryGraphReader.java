@@ -0,0 +1,273 @@
+package edu.washington.cs.seguard.util;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reader of the binary flow graphs written by BinaryGraphWriter, from a memory-mapped file or from a stream.
+ *
+ * Layout, all integers being unsigned LEB128 varints and all strings a varint byte length then UTF-8:
+ *
+ *   "SGFG", version byte, flags byte (FLAG_DEFLATE)
+ *   count, NodeType names by ordinal; count, EdgeType names by ordinal
+ *   blocks: raw length, [stored length if deflated], payload; a raw length of 0 ends the file
+ *
+ * The payloads hold whole records, numbered in file order per kind:
+ *
+ *   STRING label-or-value       appends to the string table
+ *   NODE label type tag domain  label is a string index, the node ids are 0, 1, ...
+ *   EDGE source target type tag
+ *
+ * Attributes are 0 when absent. A tag or domain is 1 + string index. A type is 1 + 2 * ordinal of the NodeType
+ * or EdgeType, or 2 + 2 * string index for a type outside of the enum.
+ */
+public final class BinaryGraphReader {
+    public static final byte[] MAGIC = {'S', 'G', 'F', 'G'};
+    public static final int VERSION = 1;
+    public static final int FLAG_DEFLATE = 1;
+    public static final int STRING = 0;
+    public static final int NODE = 1;
+    public static final int EDGE = 2;
+    // Raw payload size at which the writer ends a block
+    public static final int BLOCK_SIZE = 1 << 16;
+
+    public interface Visitor {
+        void node(int id, String label, String type, String tag, String domain);
+
+        void edge(int source, int target, String type, String tag);
+    }
+
+    private final List<String> strings = new ArrayList<>();
+    private final List<String> nodeTypes = new ArrayList<>();
+    private final List<String> edgeTypes = new ArrayList<>();
+    private int nodeCount;
+
+    private BinaryGraphReader() {
+    }
+
+    /**
+     * Reads the graph in file through a memory mapping
+     */
+    public static void read(File file, Visitor visitor) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                try (InputStream in = new FileInputStream(file)) {
+                    read(in, visitor);
+                }
+                return;
+            }
+            new BinaryGraphReader().read(new BufferInput(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())),
+                    visitor);
+        }
+    }
+
+    /**
+     * Reads the graph from in, one block at a time
+     */
+    public static void read(InputStream in, Visitor visitor) throws IOException {
+        new BinaryGraphReader().read(new StreamInput(new BufferedInputStream(in, BLOCK_SIZE)), visitor);
+    }
+
+    private void read(Input in, Visitor visitor) throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+        for (int i = 0; i < magic.length; i++) {
+            magic[i] = (byte) in.readByte();
+        }
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("Not a binary flow graph");
+        }
+        int version = in.readByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported binary flow graph version " + version);
+        }
+        boolean deflated = (in.readByte() & FLAG_DEFLATE) != 0;
+        readNames(in, nodeTypes);
+        readNames(in, edgeTypes);
+        Inflater inflater = deflated ? new Inflater() : null;
+        try {
+            while (true) {
+                int rawLength = in.readVarint();
+                if (rawLength == 0) {
+                    return;
+                }
+                ByteBuffer payload;
+                if (deflated) {
+                    payload = inflate(in.readBytes(in.readVarint()), rawLength, inflater);
+                } else {
+                    payload = in.readBytes(rawLength);
+                }
+                readRecords(new BufferInput(payload), visitor);
+            }
+        } finally {
+            if (inflater != null) {
+                inflater.end();
+            }
+        }
+    }
+
+    private static void readNames(Input in, List<String> names) throws IOException {
+        int count = in.readVarint();
+        for (int i = 0; i < count; i++) {
+            names.add(in.readString());
+        }
+    }
+
+    private static ByteBuffer inflate(ByteBuffer stored, int rawLength, Inflater inflater) throws IOException {
+        byte[] input = new byte[stored.remaining()];
+        stored.get(input);
+        byte[] raw = new byte[rawLength];
+        inflater.reset();
+        inflater.setInput(input);
+        try {
+            if (inflater.inflate(raw) != rawLength || !inflater.finished()) {
+                throw new IOException("Corrupt block in binary flow graph");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt block in binary flow graph", e);
+        }
+        return ByteBuffer.wrap(raw);
+    }
+
+    private void readRecords(BufferInput in, Visitor visitor) throws IOException {
+        while (in.hasRemaining()) {
+            int kind = in.readByte();
+            switch (kind) {
+                case STRING:
+                    strings.add(in.readString());
+                    break;
+                case NODE: {
+                    String label = string(in.readVarint());
+                    String type = type(in.readVarint(), nodeTypes);
+                    String tag = optionalString(in.readVarint());
+                    String domain = optionalString(in.readVarint());
+                    visitor.node(nodeCount++, label, type, tag, domain);
+                    break;
+                }
+                case EDGE: {
+                    int source = in.readVarint();
+                    int target = in.readVarint();
+                    String type = type(in.readVarint(), edgeTypes);
+                    String tag = optionalString(in.readVarint());
+                    visitor.edge(source, target, type, tag);
+                    break;
+                }
+                default:
+                    throw new IOException("Unknown record " + kind + " in binary flow graph");
+            }
+        }
+    }
+
+    private String string(int index) throws IOException {
+        if (index >= strings.size()) {
+            throw new IOException("Undefined string " + index + " in binary flow graph");
+        }
+        return strings.get(index);
+    }
+
+    private String optionalString(int x) throws IOException {
+        return x == 0 ? null : string(x - 1);
+    }
+
+    private String type(int x, List<String> names) throws IOException {
+        if (x == 0) {
+            return null;
+        }
+        int y = x - 1;
+        if ((y & 1) != 0) {
+            return string(y >>> 1);
+        }
+        if ((y >>> 1) >= names.size()) {
+            throw new IOException("Undefined type " + (y >>> 1) + " in binary flow graph");
+        }
+        return names.get(y >>> 1);
+    }
+
+    private abstract static class Input {
+        abstract int readByte() throws IOException;
+
+        abstract ByteBuffer readBytes(int n) throws IOException;
+
+        int readVarint() throws IOException {
+            int result = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                int b = readByte();
+                result |= (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+            }
+            throw new IOException("Malformed varint in binary flow graph");
+        }
+
+        String readString() throws IOException {
+            ByteBuffer bytes = readBytes(readVarint());
+            if (bytes.hasArray()) {
+                return new String(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining(),
+                        StandardCharsets.UTF_8);
+            }
+            return StandardCharsets.UTF_8.decode(bytes).toString();
+        }
+    }
+
+    private static final class BufferInput extends Input {
+        private final ByteBuffer buffer;
+
+        BufferInput(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        boolean hasRemaining() {
+            return buffer.hasRemaining();
+        }
+
+        @Override
+        int readByte() throws IOException {
+            if (!buffer.hasRemaining()) {
+                throw new EOFException("Truncated binary flow graph");
+            }
+            return buffer.get() & 0xff;
+        }
+
+        @Override
+        ByteBuffer readBytes(int n) throws IOException {
+            if (n < 0 || n > buffer.remaining()) {
+                throw new EOFException("Truncated binary flow graph");
+            }
+            ByteBuffer slice = buffer.slice();
+            slice.limit(n);
+            buffer.position(buffer.position() + n);
+            return slice;
+        }
+    }
+
+    private static final class StreamInput extends Input {
+        private final DataInputStream in;
+
+        StreamInput(InputStream in) {
+            this.in = new DataInputStream(in);
+        }
+
+        @Override
+        int readByte() throws IOException {
+            return in.readUnsignedByte();
+        }
+
+        @Override
+        ByteBuffer readBytes(int n) throws IOException {
+            if (n < 0) {
+                throw new IOException("Malformed binary flow graph");
+            }
+            byte[] bytes = new byte[n];
+            in.readFully(bytes);
+            return ByteBuffer.wrap(bytes);
+        }
+    }
+}
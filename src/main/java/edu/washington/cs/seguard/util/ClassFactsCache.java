@@ -0,0 +1,202 @@
+package edu.washington.cs.seguard.util;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import edu.washington.cs.seguard.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+import static edu.washington.cs.seguard.util.StatKey.*;
+
+/**
+ * On-disk cache of the per-class facts of the core mode (static strings and intraprocedural facts of each
+ * method), keyed by DexClassHasher.classKey, so that re-analyzing a new version of an app only recomputes the
+ * classes that changed.
+ *
+ * Facts are stored as the operations that add them to the graph rather than as graph edges, because some of
+ * them depend on the graph built so far; replaying them in the original order gives the same graph.
+ */
+public final class ClassFactsCache {
+    private static final Logger logger = LoggerFactory.getLogger(ClassFactsCache.class);
+    // Bump when the facts or the way they are computed change
+    public static final String VERSION = "1";
+
+    public enum Kind {
+        // Edge from a sensitive parent method (source) to its override (target)
+        INHERIT,
+        // Edge between two sensitive library calls, if both are library nodes of the graph by then
+        HAPPENS_BEFORE,
+        // Node of a called sensitive method (target)
+        NODE,
+        // Node of a called sensitive method (target) and a constant flowing into it
+        CONSTANT,
+        // Edge from the method whose result is returned (source) to the returning method (target)
+        RETURN
+    }
+
+    /**
+     * What the graph needs to know about a method to create its node
+     */
+    public static final class MethodNode {
+        private final String signature;
+        private final String label;
+        private final boolean sensitive;
+        private final boolean library;
+
+        public MethodNode(String signature, String label, boolean sensitive, boolean library) {
+            this.signature = signature;
+            this.label = label;
+            this.sensitive = sensitive;
+            this.library = library;
+        }
+
+        public String getSignature() {
+            return signature;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        public boolean isSensitive() {
+            return sensitive;
+        }
+
+        public boolean isLibrary() {
+            return library;
+        }
+    }
+
+    public static final class Fact {
+        private final Kind kind;
+        private final MethodNode source;
+        private final MethodNode target;
+        private final String constant;
+        private final String constantType;
+
+        public Fact(Kind kind, MethodNode source, MethodNode target, String constant, String constantType) {
+            this.kind = kind;
+            this.source = source;
+            this.target = target;
+            this.constant = constant;
+            this.constantType = constantType;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        public MethodNode getSource() {
+            return source;
+        }
+
+        public MethodNode getTarget() {
+            return target;
+        }
+
+        public String getConstant() {
+            return constant;
+        }
+
+        /**
+         * @return the node type of the constant
+         */
+        public String getConstantType() {
+            return constantType;
+        }
+    }
+
+    public static final class ClassFacts {
+        // Null if the class has no static strings collected, e.g. it is not concrete
+        private Map<String, String> staticStrings;
+        // Method signature -> facts in the order they are added to the graph
+        private final Map<String, List<Fact>> methodFacts = new LinkedHashMap<>();
+
+        public Map<String, String> getStaticStrings() {
+            return staticStrings;
+        }
+
+        public void setStaticStrings(Map<String, String> staticStrings) {
+            this.staticStrings = staticStrings;
+        }
+
+        /**
+         * @return the facts of the method, null if none were recorded for it
+         */
+        public List<Fact> getMethodFacts(String signature) {
+            return methodFacts.get(signature);
+        }
+
+        public void putMethodFacts(String signature, List<Fact> facts) {
+            methodFacts.put(signature, facts);
+        }
+    }
+
+    private final File dir;
+    private final StatManager statManager;
+    private final Gson gson = new Gson();
+
+    public ClassFactsCache(File dir, StatManager statManager) {
+        this.dir = dir;
+        this.statManager = statManager;
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new RuntimeException("Failed to create class facts cache directory " + dir);
+        }
+    }
+
+    /**
+     * @return the cache under the incremental cache directory of config, null if it is disabled
+     */
+    public static ClassFactsCache open(Config config, StatManager statManager) {
+        if (config.getIncrementalCacheDir() == null) {
+            return null;
+        }
+        return new ClassFactsCache(new File(config.getIncrementalCacheDir()), statManager);
+    }
+
+    /**
+     * @return the facts stored under key, null if there are none
+     */
+    public ClassFacts get(String key) {
+        File file = entryFile(key);
+        ClassFacts facts = null;
+        if (file.isFile()) {
+            try {
+                facts = gson.fromJson(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8), ClassFacts.class);
+            } catch (IOException | JsonParseException e) {
+                logger.warn("Ignoring unreadable class facts cache entry {}: {}", file, e.toString());
+            }
+        }
+        if (statManager != null) {
+            statManager.COUNT(facts == null ? FACTS_CACHE_MISS : FACTS_CACHE_HIT);
+        }
+        return facts;
+    }
+
+    public void put(String key, ClassFacts facts) {
+        File file = entryFile(key);
+        try {
+            File bucket = file.getParentFile();
+            if (!bucket.exists() && !bucket.mkdirs()) {
+                throw new IOException("Failed to create " + bucket);
+            }
+            // Write then rename, so that concurrent runs never read a partial entry
+            File tmp = File.createTempFile(key, ".tmp", bucket);
+            Files.write(tmp.toPath(), gson.toJson(facts).getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warn("Failed to write class facts cache entry: {}", e.toString());
+        }
+    }
+
+    private File entryFile(String key) {
+        return new File(new File(dir, key.substring(0, 2)), key + ".json");
+    }
+}
@@ -0,0 +1,437 @@
+package edu.washington.cs.seguard.util;
+
+import org.jf.dexlib2.ValueType;
+import org.jf.dexlib2.iface.AnnotationElement;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.iface.ExceptionHandler;
+import org.jf.dexlib2.iface.Field;
+import org.jf.dexlib2.iface.Method;
+import org.jf.dexlib2.iface.MethodImplementation;
+import org.jf.dexlib2.iface.TryBlock;
+import org.jf.dexlib2.iface.instruction.*;
+import org.jf.dexlib2.iface.instruction.formats.ArrayPayload;
+import org.jf.dexlib2.iface.reference.FieldReference;
+import org.jf.dexlib2.iface.reference.MethodHandleReference;
+import org.jf.dexlib2.iface.reference.MethodProtoReference;
+import org.jf.dexlib2.iface.reference.MethodReference;
+import org.jf.dexlib2.iface.reference.Reference;
+import org.jf.dexlib2.iface.reference.StringReference;
+import org.jf.dexlib2.iface.reference.TypeReference;
+import org.jf.dexlib2.iface.value.*;
+import org.jf.dexlib2.immutable.reference.ImmutableTypeReference;
+import soot.dexpler.DexFileProvider;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Content hashes of the classes of an APK, independent of where the classes sit in their dex file.
+ *
+ * The digest of a class covers its declaration, fields and code, with every string, type, field and method
+ * spelled out instead of referenced by pool index, so a class keeps its digest across app versions as long as
+ * its own bytecode is unchanged. Debug information is left out.
+ *
+ * What Soot makes of a class also depends on the classes it extends and references (method resolution,
+ * whether a callee is an application class), so the key of a class further covers the hierarchy digests of its
+ * supertypes and of every class it references, a hierarchy digest being the digest of a class and of its
+ * supertypes, transitively. Classes that are not in the APK contribute their name only.
+ */
+public final class DexClassHasher {
+    // Soot class name -> definition, the first one wins like in Soot
+    private final Map<String, ClassDef> classes = new HashMap<>();
+    private final Map<String, byte[]> digests = new HashMap<>();
+    private final Map<String, Set<String>> references = new HashMap<>();
+    private final Map<String, String> hierarchyDigests = new HashMap<>();
+
+    public DexClassHasher(Iterable<? extends ClassDef> classDefs) {
+        for (ClassDef classDef : classDefs) {
+            classes.putIfAbsent(toClassName(classDef.getType()), classDef);
+        }
+    }
+
+    /**
+     * Hasher over the classes of all dex files of the APK (or dex file) at path, read through Soot's dex cache
+     */
+    public static DexClassHasher fromApk(File path) throws IOException {
+        List<ClassDef> classDefs = new ArrayList<>();
+        for (DexFileProvider.DexContainer container : DexFileProvider.v().getDexFromSource(path)) {
+            classDefs.addAll(container.getBase().getClasses());
+        }
+        return new DexClassHasher(classDefs);
+    }
+
+    /**
+     * @param salt whatever else the cached results depend on, e.g. the analysis configuration and platform
+     * @return the cache key of the class className, null if it is not defined in the dex files
+     */
+    public String classKey(String className, String salt) {
+        if (!classes.containsKey(className)) {
+            return null;
+        }
+        Digest d = new Digest();
+        d.str(salt);
+        d.str(hierarchyDigest(className));
+        for (String reference : new TreeSet<>(referencesOf(className))) {
+            d.str(reference);
+            d.str(hierarchyDigest(reference));
+        }
+        return d.hex();
+    }
+
+    /**
+     * Key of a group of classes, e.g. a bundled library, computed like classKey over all of them; the classes
+     * referenced from within the group only count through their own digests.
+     *
+     * @return the key, null if none of the classes is defined in the dex files
+     */
+    public String groupKey(Collection<String> classNames, String salt) {
+        Set<String> members = new TreeSet<>();
+        for (String className : classNames) {
+            if (classes.containsKey(className)) {
+                members.add(className);
+            }
+        }
+        if (members.isEmpty()) {
+            return null;
+        }
+        Digest d = new Digest();
+        d.str(salt);
+        Set<String> outside = new TreeSet<>();
+        for (String member : members) {
+            d.str(member);
+            d.str(hierarchyDigest(member));
+            outside.addAll(referencesOf(member));
+        }
+        outside.removeAll(members);
+        for (String reference : outside) {
+            d.str(reference);
+            d.str(hierarchyDigest(reference));
+        }
+        return d.hex();
+    }
+
+    /**
+     * @return the names of the classes defined in the dex files
+     */
+    public Set<String> getClassNames() {
+        return Collections.unmodifiableSet(classes.keySet());
+    }
+
+    private String hierarchyDigest(String className) {
+        String result = hierarchyDigests.get(className);
+        if (result != null) {
+            return result;
+        }
+        ClassDef classDef = classes.get(className);
+        if (classDef == null) {
+            result = "external";
+            hierarchyDigests.put(className, result);
+            return result;
+        }
+        // Guards against cyclic hierarchies of malformed apps
+        hierarchyDigests.put(className, "cycle");
+        Digest d = new Digest();
+        d.bytes(digest(className));
+        if (classDef.getSuperclass() != null) {
+            String superclass = toClassName(classDef.getSuperclass());
+            d.str(superclass);
+            d.str(hierarchyDigest(superclass));
+        }
+        for (String iface : classDef.getInterfaces()) {
+            d.str(toClassName(iface));
+            d.str(hierarchyDigest(toClassName(iface)));
+        }
+        result = d.hex();
+        hierarchyDigests.put(className, result);
+        return result;
+    }
+
+    private Set<String> referencesOf(String className) {
+        digest(className);
+        return references.get(className);
+    }
+
+    private byte[] digest(String className) {
+        byte[] result = digests.get(className);
+        if (result != null) {
+            return result;
+        }
+        ClassDef classDef = classes.get(className);
+        Set<String> referenced = new HashSet<>();
+        Digest d = new Digest();
+        d.str(classDef.getType());
+        d.i(classDef.getAccessFlags());
+        d.str(String.valueOf(classDef.getSuperclass()));
+        for (String iface : classDef.getInterfaces()) {
+            d.str(iface);
+        }
+        for (Field field : classDef.getFields()) {
+            d.str(field.getName());
+            d.str(field.getType());
+            d.i(field.getAccessFlags());
+            encodedValue(d, field.getInitialValue(), referenced);
+        }
+        for (Method method : classDef.getMethods()) {
+            d.str(method.getName());
+            for (CharSequence parameterType : method.getParameterTypes()) {
+                d.str(parameterType.toString());
+            }
+            d.str(method.getReturnType());
+            d.i(method.getAccessFlags());
+            MethodImplementation implementation = method.getImplementation();
+            if (implementation != null) {
+                implementation(d, implementation, referenced);
+            }
+        }
+        referenced.remove(className);
+        result = d.digest();
+        digests.put(className, result);
+        references.put(className, referenced);
+        return result;
+    }
+
+    private static void implementation(Digest d, MethodImplementation implementation, Set<String> referenced) {
+        d.i(implementation.getRegisterCount());
+        for (Instruction instruction : implementation.getInstructions()) {
+            d.str(instruction.getOpcode().name);
+            if (instruction instanceof OneRegisterInstruction) {
+                d.i(((OneRegisterInstruction) instruction).getRegisterA());
+            }
+            if (instruction instanceof TwoRegisterInstruction) {
+                d.i(((TwoRegisterInstruction) instruction).getRegisterB());
+            }
+            if (instruction instanceof ThreeRegisterInstruction) {
+                d.i(((ThreeRegisterInstruction) instruction).getRegisterC());
+            }
+            if (instruction instanceof FiveRegisterInstruction) {
+                FiveRegisterInstruction five = (FiveRegisterInstruction) instruction;
+                d.i(five.getRegisterCount());
+                d.i(five.getRegisterC());
+                d.i(five.getRegisterD());
+                d.i(five.getRegisterE());
+                d.i(five.getRegisterF());
+                d.i(five.getRegisterG());
+            }
+            if (instruction instanceof RegisterRangeInstruction) {
+                RegisterRangeInstruction range = (RegisterRangeInstruction) instruction;
+                d.i(range.getStartRegister());
+                d.i(range.getRegisterCount());
+            }
+            if (instruction instanceof WideLiteralInstruction) {
+                d.l(((WideLiteralInstruction) instruction).getWideLiteral());
+            }
+            if (instruction instanceof OffsetInstruction) {
+                d.i(((OffsetInstruction) instruction).getCodeOffset());
+            }
+            if (instruction instanceof ReferenceInstruction) {
+                d.str(reference(((ReferenceInstruction) instruction).getReference(), referenced));
+            }
+            if (instruction instanceof SwitchPayload) {
+                for (SwitchElement element : ((SwitchPayload) instruction).getSwitchElements()) {
+                    d.i(element.getKey());
+                    d.i(element.getOffset());
+                }
+            }
+            if (instruction instanceof ArrayPayload) {
+                ArrayPayload payload = (ArrayPayload) instruction;
+                d.i(payload.getElementWidth());
+                for (Number element : payload.getArrayElements()) {
+                    d.l(element.longValue());
+                }
+            }
+        }
+        for (TryBlock<? extends ExceptionHandler> tryBlock : implementation.getTryBlocks()) {
+            d.i(tryBlock.getStartCodeAddress());
+            d.i(tryBlock.getCodeUnitCount());
+            for (ExceptionHandler handler : tryBlock.getExceptionHandlers()) {
+                d.str(String.valueOf(handler.getExceptionType()));
+                d.i(handler.getHandlerCodeAddress());
+                if (handler.getExceptionType() != null) {
+                    referenced.add(toClassName(handler.getExceptionType()));
+                }
+            }
+        }
+    }
+
+    private static String reference(Reference reference, Set<String> referenced) {
+        if (reference instanceof StringReference) {
+            return "s:" + ((StringReference) reference).getString();
+        }
+        if (reference instanceof TypeReference) {
+            String type = ((TypeReference) reference).getType();
+            referenced.add(toClassName(type));
+            return "t:" + type;
+        }
+        if (reference instanceof FieldReference) {
+            FieldReference field = (FieldReference) reference;
+            referenced.add(toClassName(field.getDefiningClass()));
+            return "f:" + field.getDefiningClass() + "->" + field.getName() + ":" + field.getType();
+        }
+        if (reference instanceof MethodReference) {
+            MethodReference method = (MethodReference) reference;
+            referenced.add(toClassName(method.getDefiningClass()));
+            StringBuilder sb = new StringBuilder("m:").append(method.getDefiningClass()).append("->")
+                    .append(method.getName()).append('(');
+            for (CharSequence parameterType : method.getParameterTypes()) {
+                sb.append(parameterType);
+            }
+            return sb.append(')').append(method.getReturnType()).toString();
+        }
+        if (reference instanceof MethodProtoReference) {
+            MethodProtoReference proto = (MethodProtoReference) reference;
+            StringBuilder sb = new StringBuilder("p:(");
+            for (CharSequence parameterType : proto.getParameterTypes()) {
+                sb.append(parameterType);
+            }
+            return sb.append(')').append(proto.getReturnType()).toString();
+        }
+        if (reference instanceof MethodHandleReference) {
+            MethodHandleReference handle = (MethodHandleReference) reference;
+            return "h:" + handle.getMethodHandleType() + ":" + reference(handle.getMemberReference(), referenced);
+        }
+        return "r:" + reference;
+    }
+
+    /**
+     * Add the full contents of an initial or annotation value, arrays and annotations element by element
+     */
+    private static void encodedValue(Digest d, EncodedValue value, Set<String> referenced) {
+        if (value == null) {
+            d.i(-1);
+            return;
+        }
+        d.i(value.getValueType());
+        switch (value.getValueType()) {
+            case ValueType.BYTE:
+                d.i(((ByteEncodedValue) value).getValue());
+                break;
+            case ValueType.SHORT:
+                d.i(((ShortEncodedValue) value).getValue());
+                break;
+            case ValueType.CHAR:
+                d.i(((CharEncodedValue) value).getValue());
+                break;
+            case ValueType.INT:
+                d.i(((IntEncodedValue) value).getValue());
+                break;
+            case ValueType.LONG:
+                d.l(((LongEncodedValue) value).getValue());
+                break;
+            case ValueType.FLOAT:
+                d.i(Float.floatToRawIntBits(((FloatEncodedValue) value).getValue()));
+                break;
+            case ValueType.DOUBLE:
+                d.l(Double.doubleToRawLongBits(((DoubleEncodedValue) value).getValue()));
+                break;
+            case ValueType.BOOLEAN:
+                d.i(((BooleanEncodedValue) value).getValue() ? 1 : 0);
+                break;
+            case ValueType.STRING:
+                d.str(((StringEncodedValue) value).getValue());
+                break;
+            case ValueType.TYPE:
+                d.str(reference(new ImmutableTypeReference(((TypeEncodedValue) value).getValue()), referenced));
+                break;
+            case ValueType.FIELD:
+                d.str(reference(((FieldEncodedValue) value).getValue(), referenced));
+                break;
+            case ValueType.ENUM:
+                d.str(reference(((EnumEncodedValue) value).getValue(), referenced));
+                break;
+            case ValueType.METHOD:
+                d.str(reference(((MethodEncodedValue) value).getValue(), referenced));
+                break;
+            case ValueType.METHOD_TYPE:
+                d.str(reference(((MethodTypeEncodedValue) value).getValue(), referenced));
+                break;
+            case ValueType.METHOD_HANDLE:
+                d.str(reference(((MethodHandleEncodedValue) value).getValue(), referenced));
+                break;
+            case ValueType.ARRAY:
+                List<? extends EncodedValue> elements = ((ArrayEncodedValue) value).getValue();
+                d.i(elements.size());
+                for (EncodedValue element : elements) {
+                    encodedValue(d, element, referenced);
+                }
+                break;
+            case ValueType.ANNOTATION:
+                AnnotationEncodedValue annotation = (AnnotationEncodedValue) value;
+                d.str(reference(new ImmutableTypeReference(annotation.getType()), referenced));
+                d.i(annotation.getElements().size());
+                // Elements are sorted by name in dex files
+                for (AnnotationElement element : annotation.getElements()) {
+                    d.str(element.getName());
+                    encodedValue(d, element.getValue(), referenced);
+                }
+                break;
+            default:
+                // NULL has no contents
+                break;
+        }
+    }
+
+    /**
+     * Soot class name of a dex type descriptor, the element class for array types
+     */
+    static String toClassName(String type) {
+        int start = 0;
+        while (start < type.length() && type.charAt(start) == '[') {
+            start++;
+        }
+        if (type.charAt(start) == 'L' && type.endsWith(";")) {
+            return type.substring(start + 1, type.length() - 1).replace('/', '.');
+        }
+        return type.substring(start);
+    }
+
+    private static final class Digest {
+        private final MessageDigest md;
+
+        Digest() {
+            try {
+                md = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        void str(String s) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            i(bytes.length);
+            md.update(bytes);
+        }
+
+        void bytes(byte[] bytes) {
+            i(bytes.length);
+            md.update(bytes);
+        }
+
+        void i(int x) {
+            md.update((byte) (x >>> 24));
+            md.update((byte) (x >>> 16));
+            md.update((byte) (x >>> 8));
+            md.update((byte) x);
+        }
+
+        void l(long x) {
+            i((int) (x >>> 32));
+            i((int) x);
+        }
+
+        byte[] digest() {
+            return md.digest();
+        }
+
+        String hex() {
+            StringBuilder sb = new StringBuilder(64);
+            for (byte b : md.digest()) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package edu.washington.cs.seguard.util;
+
+import gnu.trove.map.hash.TCharIntHashMap;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Aho-Corasick automaton answering whether a string contains any of a fixed set of keywords.
+ *
+ * It is compiled once into a dense transition table over the characters occurring in the keywords, so a
+ * query is a single pass over the text regardless of the number of keywords. Immutable and thread-safe.
+ */
+public final class KeywordMatcher {
+    private static final int ASCII = 128;
+
+    // Column of each ASCII character in the transition table, -1 if it occurs in no keyword
+    private final int[] asciiColumns = new int[ASCII];
+    private final TCharIntHashMap otherColumns = new TCharIntHashMap(16, 0.5f, (char) 0, -1);
+    private final int alphabetSize;
+    // transitions[state * alphabetSize + column], failure links already resolved
+    private final int[] transitions;
+    private final boolean[] accepting;
+    private final boolean matchesEverything;
+
+    public KeywordMatcher(Collection<String> keywords) {
+        Arrays.fill(asciiColumns, -1);
+        boolean hasEmpty = false;
+        int columns = 0;
+        for (String keyword : keywords) {
+            if (keyword.isEmpty()) {
+                hasEmpty = true;
+            }
+            for (int i = 0; i < keyword.length(); i++) {
+                char c = keyword.charAt(i);
+                if (column(c) < 0) {
+                    if (c < ASCII) {
+                        asciiColumns[c] = columns++;
+                    } else {
+                        otherColumns.put(c, columns++);
+                    }
+                }
+            }
+        }
+        matchesEverything = hasEmpty;
+        alphabetSize = Math.max(columns, 1);
+
+        // Build the trie
+        List<int[]> goTo = new ArrayList<>();
+        List<Boolean> output = new ArrayList<>();
+        goTo.add(newRow());
+        output.add(false);
+        for (String keyword : keywords) {
+            int state = 0;
+            for (int i = 0; i < keyword.length(); i++) {
+                int col = column(keyword.charAt(i));
+                if (goTo.get(state)[col] < 0) {
+                    goTo.get(state)[col] = goTo.size();
+                    goTo.add(newRow());
+                    output.add(false);
+                }
+                state = goTo.get(state)[col];
+            }
+            output.set(state, true);
+        }
+
+        // Resolve failure links breadth-first into a complete DFA
+        int states = goTo.size();
+        transitions = new int[states * alphabetSize];
+        accepting = new boolean[states];
+        int[] fail = new int[states];
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int col = 0; col < alphabetSize; col++) {
+            int next = goTo.get(0)[col];
+            if (next < 0) {
+                transitions[col] = 0;
+            } else {
+                transitions[col] = next;
+                fail[next] = 0;
+                queue.add(next);
+            }
+        }
+        accepting[0] = output.get(0);
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            accepting[state] = output.get(state) || accepting[fail[state]];
+            for (int col = 0; col < alphabetSize; col++) {
+                int next = goTo.get(state)[col];
+                if (next < 0) {
+                    transitions[state * alphabetSize + col] = transitions[fail[state] * alphabetSize + col];
+                } else {
+                    transitions[state * alphabetSize + col] = next;
+                    fail[next] = transitions[fail[state] * alphabetSize + col];
+                    queue.add(next);
+                }
+            }
+        }
+    }
+
+    private int[] newRow() {
+        int[] row = new int[alphabetSize];
+        Arrays.fill(row, -1);
+        return row;
+    }
+
+    private int column(char c) {
+        return c < ASCII ? asciiColumns[c] : otherColumns.get(c);
+    }
+
+    /**
+     * Same as checking text.contains(keyword) for each keyword
+     */
+    public boolean containsAny(String text) {
+        if (matchesEverything) {
+            return true;
+        }
+        int state = 0;
+        for (int i = 0; i < text.length(); i++) {
+            int col = column(text.charAt(i));
+            if (col < 0) {
+                // No keyword contains this character, so no match can span it
+                state = 0;
+                continue;
+            }
+            state = transitions[state * alphabetSize + col];
+            if (accepting[state]) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,73 @@
+package edu.washington.cs.seguard.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of durations in nanoseconds with power-of-two buckets, safe to record into from several threads.
+ * Percentiles are the upper bound of their bucket, so at most twice the actual value.
+ */
+public final class LatencyHistogram {
+    // Bucket i counts the durations d with 2^i <= d < 2^(i+1), bucket 0 also counts 0
+    private final LongAdder[] buckets = new LongAdder[64];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+    public LatencyHistogram() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        buckets[63 - Long.numberOfLeadingZeros(nanos | 1)].increment();
+        count.increment();
+        totalNanos.add(nanos);
+        maxNanos.accumulate(nanos);
+    }
+
+    /**
+     * Upper bound in nanoseconds of the q-quantile (0 < q <= 1), capped by the largest duration recorded
+     */
+    public long quantile(double q) {
+        long[] counts = new long[buckets.length];
+        long n = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            counts[i] = buckets[i].sum();
+            n += counts[i];
+        }
+        long max = maxNanos.get();
+        long rank = (long) Math.ceil(q * n);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank && seen > 0) {
+                return i == 63 ? max : Math.min(max, (1L << (i + 1)) - 1);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Count, total and the usual percentiles, in microseconds except for the total
+     */
+    public Map<String, Number> summary() {
+        Map<String, Number> summary = new LinkedHashMap<>();
+        long n = count.sum();
+        long total = totalNanos.sum();
+        summary.put("count", n);
+        summary.put("totalSeconds", total / 1e9);
+        summary.put("meanMicros", n == 0 ? 0 : total / 1e3 / n);
+        summary.put("p50Micros", quantile(0.5) / 1e3);
+        summary.put("p90Micros", quantile(0.9) / 1e3);
+        summary.put("p99Micros", quantile(0.99) / 1e3);
+        summary.put("maxMicros", maxNanos.get() / 1e3);
+        return summary;
+    }
+}
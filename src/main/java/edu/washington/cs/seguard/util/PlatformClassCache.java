@@ -0,0 +1,525 @@
+package edu.washington.cs.seguard.util;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Pre-resolved form of an android.jar: the declaration, fields and method signatures of each class, in one file
+ * per platform jar that is memory-mapped and decoded class by class on demand.
+ *
+ * The method bodies of android.jar are stubs throwing RuntimeException("Stub!"), constructors calling a super
+ * constructor with null and zero arguments first, so only the signatures and super constructor calls are stored
+ * and PlatformClassProvider recreates the stub bodies. Classes with any other body are left out, and Soot reads
+ * them from the jar as usual. Opened caches are kept for the life of the JVM, so a batch run maps each
+ * platform once.
+ *
+ * Cache files are named by the content hash of their jar, so a jar replaced in place gets a new cache.
+ *
+ * Layout: a header, then the class index (name, record offset) sorted by name, the class records and the string
+ * pool. Records refer to strings by pool index.
+ */
+public final class PlatformClassCache {
+    private static final Logger logger = LoggerFactory.getLogger(PlatformClassCache.class);
+    private static final int MAGIC = 0x53475043;
+    // Bump when the layout or what is stored changes
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 32;
+
+    private static final byte NO_CONSTANT = 0;
+    private static final byte INT_CONSTANT = 1;
+    private static final byte LONG_CONSTANT = 2;
+    private static final byte FLOAT_CONSTANT = 3;
+    private static final byte DOUBLE_CONSTANT = 4;
+    private static final byte STRING_CONSTANT = 5;
+
+    // Content hash of the jar -> its cache
+    private static final Map<String, PlatformClassCache> opened = new HashMap<>();
+
+    public static final class FieldInfo {
+        public final int modifiers;
+        public final String name;
+        public final String descriptor;
+        // ConstantValue of the field: Integer, Long, Float, Double or String, null if none
+        public final Object constant;
+
+        FieldInfo(int modifiers, String name, String descriptor, Object constant) {
+            this.modifiers = modifiers;
+            this.name = name;
+            this.descriptor = descriptor;
+            this.constant = constant;
+        }
+    }
+
+    public static final class MethodInfo {
+        public final int modifiers;
+        public final String name;
+        public final String descriptor;
+        // Internal names of the declared exceptions
+        public final List<String> exceptions;
+        // Constructor called on this with null and zero arguments before throwing, null if none
+        public final String superConstructorOwner;
+        public final String superConstructorDescriptor;
+        // Per argument of the super constructor call, the type its null is cast to (internal name or array
+        // descriptor), null if not cast
+        public final List<String> superConstructorCasts;
+
+        MethodInfo(int modifiers, String name, String descriptor, List<String> exceptions,
+                   String superConstructorOwner, String superConstructorDescriptor,
+                   List<String> superConstructorCasts) {
+            this.modifiers = modifiers;
+            this.name = name;
+            this.descriptor = descriptor;
+            this.exceptions = exceptions;
+            this.superConstructorOwner = superConstructorOwner;
+            this.superConstructorDescriptor = superConstructorDescriptor;
+            this.superConstructorCasts = superConstructorCasts;
+        }
+    }
+
+    public static final class ClassInfo {
+        public final int modifiers;
+        // Internal names, superclass null for java.lang.Object
+        public final String superclass;
+        public final List<String> interfaces;
+        public final List<FieldInfo> fields;
+        public final List<MethodInfo> methods;
+
+        ClassInfo(int modifiers, String superclass, List<String> interfaces, List<FieldInfo> fields,
+                  List<MethodInfo> methods) {
+            this.modifiers = modifiers;
+            this.superclass = superclass;
+            this.interfaces = interfaces;
+            this.fields = fields;
+            this.methods = methods;
+        }
+    }
+
+    private final ByteBuffer buffer;
+    private final int poolTable;
+    // Decoded pool strings, filled on first use
+    private final String[] strings;
+    // Soot class name -> record offset
+    private final Map<String, Integer> records;
+
+    private PlatformClassCache(ByteBuffer buffer) {
+        this.buffer = buffer;
+        int classCount = buffer.getInt(16);
+        int index = buffer.getInt(20);
+        int poolCount = buffer.getInt(24);
+        this.poolTable = buffer.getInt(28);
+        this.strings = new String[poolCount];
+        this.records = new HashMap<>(classCount * 2);
+        for (int i = 0; i < classCount; i++) {
+            int entry = index + 8 * i;
+            records.put(string(buffer.getInt(entry)).replace('/', '.'), buffer.getInt(entry + 4));
+        }
+    }
+
+    /**
+     * The cache of the platform jar under dir, named by the content hash of the jar and built first if missing
+     */
+    public static synchronized PlatformClassCache open(File dir, File jar) throws IOException {
+        String fingerprint = PlatformFingerprint.of(jar);
+        PlatformClassCache cache = opened.get(fingerprint);
+        if (cache != null) {
+            return cache;
+        }
+        File file = new File(dir, fingerprint + ".idx");
+        ByteBuffer buffer = map(file);
+        if (buffer == null || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+                || buffer.getLong(8) != jar.length()) {
+            build(jar, file);
+            buffer = map(file);
+        }
+        cache = new PlatformClassCache(buffer);
+        opened.put(fingerprint, cache);
+        logger.info("Using platform class cache {} ({} classes)", file, cache.records.size());
+        return cache;
+    }
+
+    private static ByteBuffer map(File file) throws IOException {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return buffer.capacity() < HEADER_SIZE ? null : buffer;
+        }
+    }
+
+    public boolean contains(String className) {
+        return records.containsKey(className);
+    }
+
+    /**
+     * @return the class className decoded from the cache, null if it is not cached
+     */
+    public ClassInfo get(String className) {
+        Integer offset = records.get(className);
+        if (offset == null) {
+            return null;
+        }
+        // Absolute reads only, so that classes can be decoded concurrently
+        int p = offset;
+        int modifiers = buffer.getInt(p);
+        String superclass = optionalString(buffer.getInt(p + 4));
+        int interfaceCount = buffer.getInt(p + 8);
+        p += 12;
+        List<String> interfaces = new ArrayList<>(interfaceCount);
+        for (int i = 0; i < interfaceCount; i++, p += 4) {
+            interfaces.add(string(buffer.getInt(p)));
+        }
+        int fieldCount = buffer.getInt(p);
+        p += 4;
+        List<FieldInfo> fields = new ArrayList<>(fieldCount);
+        for (int i = 0; i < fieldCount; i++) {
+            int fieldModifiers = buffer.getInt(p);
+            String name = string(buffer.getInt(p + 4));
+            String descriptor = string(buffer.getInt(p + 8));
+            byte kind = buffer.get(p + 12);
+            p += 13;
+            Object constant = null;
+            switch (kind) {
+                case INT_CONSTANT:
+                    constant = buffer.getInt(p);
+                    p += 4;
+                    break;
+                case LONG_CONSTANT:
+                    constant = buffer.getLong(p);
+                    p += 8;
+                    break;
+                case FLOAT_CONSTANT:
+                    constant = buffer.getFloat(p);
+                    p += 4;
+                    break;
+                case DOUBLE_CONSTANT:
+                    constant = buffer.getDouble(p);
+                    p += 8;
+                    break;
+                case STRING_CONSTANT:
+                    constant = string(buffer.getInt(p));
+                    p += 4;
+                    break;
+                default:
+            }
+            fields.add(new FieldInfo(fieldModifiers, name, descriptor, constant));
+        }
+        int methodCount = buffer.getInt(p);
+        p += 4;
+        List<MethodInfo> methods = new ArrayList<>(methodCount);
+        for (int i = 0; i < methodCount; i++) {
+            int methodModifiers = buffer.getInt(p);
+            String name = string(buffer.getInt(p + 4));
+            String descriptor = string(buffer.getInt(p + 8));
+            int exceptionCount = buffer.getInt(p + 12);
+            p += 16;
+            List<String> exceptions = new ArrayList<>(exceptionCount);
+            for (int j = 0; j < exceptionCount; j++, p += 4) {
+                exceptions.add(string(buffer.getInt(p)));
+            }
+            String owner = optionalString(buffer.getInt(p));
+            String ownerDescriptor = optionalString(buffer.getInt(p + 4));
+            int castCount = buffer.getInt(p + 8);
+            p += 12;
+            List<String> casts = new ArrayList<>(castCount);
+            for (int j = 0; j < castCount; j++, p += 4) {
+                casts.add(optionalString(buffer.getInt(p)));
+            }
+            methods.add(new MethodInfo(methodModifiers, name, descriptor, exceptions, owner, ownerDescriptor, casts));
+        }
+        return new ClassInfo(modifiers, superclass, interfaces, fields, methods);
+    }
+
+    private String optionalString(int index) {
+        return index < 0 ? null : string(index);
+    }
+
+    private String string(int index) {
+        String s = strings[index];
+        if (s == null) {
+            int offset = buffer.getInt(poolTable + 4 * index);
+            byte[] bytes = new byte[buffer.getInt(offset)];
+            ByteBuffer view = buffer.duplicate();
+            view.position(offset + 4);
+            view.get(bytes);
+            s = new String(bytes, StandardCharsets.UTF_8);
+            strings[index] = s;
+        }
+        return s;
+    }
+
+    private static void build(File jar, File file) throws IOException {
+        long start = System.nanoTime();
+        List<ClassNode> classes = new ArrayList<>();
+        int skipped = 0;
+        try (ZipFile zip = new ZipFile(jar)) {
+            for (ZipEntry entry : Collections.list(zip.entries())) {
+                if (!entry.getName().endsWith(".class") || entry.getName().contains("-")) {
+                    continue;
+                }
+                ClassNode node = new ClassNode();
+                try (InputStream in = zip.getInputStream(entry)) {
+                    new ClassReader(in).accept(node, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+                }
+                if (onlyStubBodies(node)) {
+                    classes.add(node);
+                } else {
+                    skipped++;
+                }
+            }
+        }
+        classes.sort(Comparator.comparing(node -> node.name));
+
+        Pool pool = new Pool();
+        ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+        DataOutputStream records = new DataOutputStream(recordBytes);
+        int[] names = new int[classes.size()];
+        int[] offsets = new int[classes.size()];
+        for (int i = 0; i < classes.size(); i++) {
+            ClassNode node = classes.get(i);
+            names[i] = pool.index(node.name);
+            offsets[i] = records.size();
+            writeClass(records, pool, node);
+        }
+
+        int index = HEADER_SIZE;
+        int recordStart = index + 8 * classes.size();
+        int poolTable = recordStart + records.size();
+        int poolStart = poolTable + 4 * pool.strings.size();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(poolStart + pool.size);
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeLong(jar.length());
+        data.writeInt(classes.size());
+        data.writeInt(index);
+        data.writeInt(pool.strings.size());
+        data.writeInt(poolTable);
+        for (int i = 0; i < classes.size(); i++) {
+            data.writeInt(names[i]);
+            data.writeInt(recordStart + offsets[i]);
+        }
+        recordBytes.writeTo(data);
+        int offset = poolStart;
+        for (byte[] s : pool.strings) {
+            data.writeInt(offset);
+            offset += 4 + s.length;
+        }
+        for (byte[] s : pool.strings) {
+            data.writeInt(s.length);
+            data.write(s);
+        }
+        data.flush();
+
+        File dir = file.getParentFile();
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Failed to create " + dir);
+        }
+        // Write then rename, so that concurrent runs never map a partial file
+        File tmp = File.createTempFile(file.getName(), ".tmp", dir);
+        Files.write(tmp.toPath(), out.toByteArray());
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        logger.info("Built platform class cache {} in {} ms: {} classes, {} left to the jar", file,
+                (System.nanoTime() - start) / 1000000, classes.size(), skipped);
+    }
+
+    private static void writeClass(DataOutputStream out, Pool pool, ClassNode node) throws IOException {
+        // Like Soot's bytecode front-end, which drops ACC_SUPER and the ASM-only flags
+        out.writeInt(node.access & 0xffff & ~Opcodes.ACC_SUPER);
+        out.writeInt(node.superName == null ? -1 : pool.index(node.superName));
+        out.writeInt(node.interfaces.size());
+        for (String iface : node.interfaces) {
+            out.writeInt(pool.index(iface));
+        }
+        out.writeInt(node.fields.size());
+        for (FieldNode field : node.fields) {
+            out.writeInt(field.access & 0xffff);
+            out.writeInt(pool.index(field.name));
+            out.writeInt(pool.index(field.desc));
+            Object value = field.value;
+            if (value instanceof Integer) {
+                out.writeByte(INT_CONSTANT);
+                out.writeInt((Integer) value);
+            } else if (value instanceof Long) {
+                out.writeByte(LONG_CONSTANT);
+                out.writeLong((Long) value);
+            } else if (value instanceof Float) {
+                out.writeByte(FLOAT_CONSTANT);
+                out.writeFloat((Float) value);
+            } else if (value instanceof Double) {
+                out.writeByte(DOUBLE_CONSTANT);
+                out.writeDouble((Double) value);
+            } else if (value instanceof String) {
+                out.writeByte(STRING_CONSTANT);
+                out.writeInt(pool.index((String) value));
+            } else {
+                out.writeByte(NO_CONSTANT);
+            }
+        }
+        out.writeInt(node.methods.size());
+        for (MethodNode method : node.methods) {
+            out.writeInt(method.access & 0xffff);
+            out.writeInt(pool.index(method.name));
+            out.writeInt(pool.index(method.desc));
+            out.writeInt(method.exceptions.size());
+            for (String exception : method.exceptions) {
+                out.writeInt(pool.index(exception));
+            }
+            MethodInsnNode superConstructor = superConstructorCall(method);
+            out.writeInt(superConstructor == null ? -1 : pool.index(superConstructor.owner));
+            out.writeInt(superConstructor == null ? -1 : pool.index(superConstructor.desc));
+            List<String> casts = superConstructor == null ? Collections.emptyList() : superConstructorCasts(method);
+            out.writeInt(casts.size());
+            for (String cast : casts) {
+                out.writeInt(cast == null ? -1 : pool.index(cast));
+            }
+        }
+    }
+
+    private static List<AbstractInsnNode> code(MethodNode method) {
+        List<AbstractInsnNode> code = new ArrayList<>();
+        for (AbstractInsnNode insn : method.instructions.toArray()) {
+            // Labels, line numbers and frames have no opcode
+            if (insn.getOpcode() >= 0) {
+                code.add(insn);
+            }
+        }
+        return code;
+    }
+
+    /**
+     * The super constructor call of a stub constructor, null for the other stubs
+     */
+    private static MethodInsnNode superConstructorCall(MethodNode method) {
+        List<AbstractInsnNode> code = code(method);
+        if (code.size() > 5 && code.get(code.size() - 6) instanceof MethodInsnNode) {
+            return (MethodInsnNode) code.get(code.size() - 6);
+        }
+        return null;
+    }
+
+    /**
+     * Per argument of the super constructor call of a stub constructor, the type its null is cast to, if any
+     */
+    private static List<String> superConstructorCasts(MethodNode method) {
+        List<AbstractInsnNode> code = code(method);
+        List<String> casts = new ArrayList<>();
+        // Between `this` and the call
+        for (AbstractInsnNode insn : code.subList(1, code.size() - 6)) {
+            if (insn.getOpcode() == Opcodes.CHECKCAST) {
+                casts.set(casts.size() - 1, ((TypeInsnNode) insn).desc);
+            } else {
+                casts.add(null);
+            }
+        }
+        return casts;
+    }
+
+    /**
+     * Whether the instructions from start on are null and zero constants, each reference one possibly cast, then
+     * a constructor call on this with these arguments
+     */
+    private static boolean isSuperConstructorCall(List<AbstractInsnNode> code, int end, ClassNode node) {
+        if (end < 2 || code.get(0).getOpcode() != Opcodes.ALOAD || ((VarInsnNode) code.get(0)).var != 0
+                || code.get(end - 1).getOpcode() != Opcodes.INVOKESPECIAL) {
+            return false;
+        }
+        MethodInsnNode call = (MethodInsnNode) code.get(end - 1);
+        if (!call.name.equals("<init>") || !call.owner.equals(node.superName)) {
+            return false;
+        }
+        int i = 1;
+        for (Type argument : Type.getArgumentTypes(call.desc)) {
+            int expected;
+            switch (argument.getSort()) {
+                case Type.OBJECT:
+                case Type.ARRAY:
+                    expected = Opcodes.ACONST_NULL;
+                    break;
+                case Type.LONG:
+                    expected = Opcodes.LCONST_0;
+                    break;
+                case Type.FLOAT:
+                    expected = Opcodes.FCONST_0;
+                    break;
+                case Type.DOUBLE:
+                    expected = Opcodes.DCONST_0;
+                    break;
+                default:
+                    expected = Opcodes.ICONST_0;
+            }
+            if (i >= end - 1 || code.get(i).getOpcode() != expected) {
+                return false;
+            }
+            i++;
+            if (expected == Opcodes.ACONST_NULL && i < end - 1 && code.get(i).getOpcode() == Opcodes.CHECKCAST) {
+                i++;
+            }
+        }
+        return i == end - 1;
+    }
+
+    /**
+     * Whether every method with code is `throw new RuntimeException("Stub!")`, constructors possibly calling a super
+     * constructor with null and zero arguments first
+     */
+    private static boolean onlyStubBodies(ClassNode node) {
+        for (MethodNode method : node.methods) {
+            if ((method.access & (Opcodes.ACC_ABSTRACT | Opcodes.ACC_NATIVE)) != 0) {
+                continue;
+            }
+            List<AbstractInsnNode> code = code(method);
+            if (code.size() > 5 && method.name.equals("<init>") && isSuperConstructorCall(code, code.size() - 5, node)) {
+                code = code.subList(code.size() - 5, code.size());
+            }
+            if (code.size() != 5
+                    || code.get(0).getOpcode() != Opcodes.NEW
+                    || !((TypeInsnNode) code.get(0)).desc.equals("java/lang/RuntimeException")
+                    || code.get(1).getOpcode() != Opcodes.DUP
+                    || code.get(2).getOpcode() != Opcodes.LDC
+                    || !"Stub!".equals(((LdcInsnNode) code.get(2)).cst)
+                    || code.get(3).getOpcode() != Opcodes.INVOKESPECIAL
+                    || !((MethodInsnNode) code.get(3)).owner.equals("java/lang/RuntimeException")
+                    || !((MethodInsnNode) code.get(3)).desc.equals("(Ljava/lang/String;)V")
+                    || code.get(4).getOpcode() != Opcodes.ATHROW
+                    || !method.tryCatchBlocks.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static final class Pool {
+        private final Map<String, Integer> indices = new HashMap<>();
+        private final List<byte[]> strings = new ArrayList<>();
+        private int size;
+
+        int index(String s) {
+            Integer index = indices.get(s);
+            if (index == null) {
+                index = strings.size();
+                byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+                strings.add(bytes);
+                size += 4 + bytes.length;
+                indices.put(s, index);
+            }
+            return index;
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package edu.washington.cs.seguard.util;
+
+import soot.*;
+import soot.asm.AsmClassProvider;
+import soot.javaToJimple.IInitialResolver.Dependencies;
+import soot.jimple.*;
+import soot.options.Options;
+import soot.tagkit.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Serves the platform classes from a PlatformClassCache instead of the android.jar, with the same declarations,
+ * constant field values and stub bodies as Soot's bytecode front-end. Generic signatures, annotations and
+ * inner class attributes of platform classes are not restored, nothing in the analyses reads them.
+ */
+public class PlatformClassProvider implements ClassProvider {
+    private final PlatformClassCache cache;
+
+    public PlatformClassProvider(PlatformClassCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Makes the current Soot instance read platform classes from cache. The APK's own classes still take
+     * precedence, and the classes missing from the cache are read from the class path as usual.
+     */
+    public static void install(PlatformClassCache cache) {
+        List<ClassProvider> providers = new ArrayList<>();
+        if (Options.v().src_prec() == Options.src_prec_apk) {
+            providers.add(new DexClassProvider());
+        }
+        providers.add(new PlatformClassProvider(cache));
+        providers.add(new AsmClassProvider());
+        providers.add(new JimpleClassProvider());
+        SourceLocator.v().setClassProviders(providers);
+    }
+
+    @Override
+    public ClassSource find(String className) {
+        return cache.contains(className) ? new Source(className) : null;
+    }
+
+    private final class Source extends ClassSource {
+        Source(String className) {
+            super(className);
+        }
+
+        @Override
+        public Dependencies resolve(SootClass sc) {
+            PlatformClassCache.ClassInfo info = cache.get(className);
+            Dependencies deps = new Dependencies();
+            sc.setModifiers(info.modifiers);
+            if (info.superclass != null) {
+                String superclass = toClassName(info.superclass);
+                sc.setSuperclass(SootResolver.v().makeClassRef(superclass));
+                deps.typesToHierarchy.add(RefType.v(superclass));
+            }
+            for (String iface : info.interfaces) {
+                sc.addInterface(SootResolver.v().makeClassRef(toClassName(iface)));
+                deps.typesToHierarchy.add(RefType.v(toClassName(iface)));
+            }
+            for (PlatformClassCache.FieldInfo field : info.fields) {
+                Type type = toType(field.descriptor, 0, deps);
+                SootField f = Scene.v().makeSootField(field.name, type, field.modifiers);
+                Tag constant = constantTag(field.constant);
+                if (constant != null) {
+                    f.addTag(constant);
+                }
+                sc.addField(f);
+            }
+            for (PlatformClassCache.MethodInfo method : info.methods) {
+                List<Type> parameterTypes = new ArrayList<>();
+                int i = 1;
+                while (method.descriptor.charAt(i) != ')') {
+                    parameterTypes.add(toType(method.descriptor, i, deps));
+                    i = nextType(method.descriptor, i);
+                }
+                Type returnType = toType(method.descriptor, i + 1, deps);
+                List<SootClass> exceptions = new ArrayList<>();
+                for (String exception : method.exceptions) {
+                    exceptions.add(SootResolver.v().makeClassRef(toClassName(exception)));
+                    deps.typesToSignature.add(RefType.v(toClassName(exception)));
+                }
+                SootMethod m = Scene.v().makeSootMethod(method.name, parameterTypes, returnType, method.modifiers,
+                        exceptions);
+                sc.addMethod(m);
+                if (m.isConcrete()) {
+                    m.setSource(new StubMethodSource(method));
+                    deps.typesToSignature.add(RefType.v(STUB_EXCEPTION));
+                }
+            }
+            return deps;
+        }
+    }
+
+    private static final String STUB_EXCEPTION = "java.lang.RuntimeException";
+
+    /**
+     * Body of the android.jar stubs: the super constructor call of constructors, then
+     * throw new RuntimeException("Stub!")
+     */
+    private static final class StubMethodSource implements MethodSource {
+        private final PlatformClassCache.MethodInfo method;
+
+        StubMethodSource(PlatformClassCache.MethodInfo method) {
+            this.method = method;
+        }
+
+        @Override
+        public Body getBody(SootMethod m, String phaseName) {
+            Jimple jimple = Jimple.v();
+            JimpleBody body = jimple.newBody(m);
+            PatchingChain<Unit> units = body.getUnits();
+            Local self = null;
+            if (!m.isStatic()) {
+                self = jimple.newLocal("r0", m.getDeclaringClass().getType());
+                body.getLocals().add(self);
+                units.add(jimple.newIdentityStmt(self, jimple.newThisRef(m.getDeclaringClass().getType())));
+            }
+            for (int i = 0; i < m.getParameterCount(); i++) {
+                Local parameter = jimple.newLocal("p" + i, m.getParameterType(i));
+                body.getLocals().add(parameter);
+                units.add(jimple.newIdentityStmt(parameter, jimple.newParameterRef(m.getParameterType(i), i)));
+            }
+            if (self != null && method.superConstructorOwner != null) {
+                List<Type> parameterTypes = new ArrayList<>();
+                List<Value> arguments = new ArrayList<>();
+                String descriptor = method.superConstructorDescriptor;
+                for (int i = 1; descriptor.charAt(i) != ')'; i = nextType(descriptor, i)) {
+                    Type type = toType(descriptor, i, null);
+                    parameterTypes.add(type);
+                    String cast = method.superConstructorCasts.get(parameterTypes.size() - 1);
+                    if (cast == null) {
+                        arguments.add(zero(type));
+                        continue;
+                    }
+                    // Like the bytecode front-end, through a local holding the cast null
+                    Type castType = cast.startsWith("[") ? toType(cast, 0, null) : RefType.v(toClassName(cast));
+                    Local argument = jimple.newLocal("$c" + arguments.size(), castType);
+                    body.getLocals().add(argument);
+                    units.add(jimple.newAssignStmt(argument, jimple.newCastExpr(NullConstant.v(), castType)));
+                    arguments.add(argument);
+                }
+                SootMethodRef constructor = Scene.v().makeMethodRef(
+                        SootResolver.v().makeClassRef(toClassName(method.superConstructorOwner)), "<init>",
+                        parameterTypes, VoidType.v(), false);
+                units.add(jimple.newInvokeStmt(jimple.newSpecialInvokeExpr(self, constructor, arguments)));
+            }
+            RefType exceptionType = RefType.v(STUB_EXCEPTION);
+            Local exception = jimple.newLocal("$r0", exceptionType);
+            body.getLocals().add(exception);
+            units.add(jimple.newAssignStmt(exception, jimple.newNewExpr(exceptionType)));
+            SootMethodRef init = Scene.v().makeMethodRef(SootResolver.v().makeClassRef(STUB_EXCEPTION), "<init>",
+                    Collections.singletonList(RefType.v("java.lang.String")), VoidType.v(), false);
+            units.add(jimple.newInvokeStmt(jimple.newSpecialInvokeExpr(exception, init, StringConstant.v("Stub!"))));
+            units.add(jimple.newThrowStmt(exception));
+            // Same as the bodies of the bytecode front-end
+            PackManager.v().getPack("jb").apply(body);
+            return body;
+        }
+    }
+
+    private static Value zero(Type type) {
+        if (type instanceof RefLikeType) {
+            return NullConstant.v();
+        }
+        if (type instanceof LongType) {
+            return LongConstant.v(0);
+        }
+        if (type instanceof FloatType) {
+            return FloatConstant.v(0);
+        }
+        if (type instanceof DoubleType) {
+            return DoubleConstant.v(0);
+        }
+        return IntConstant.v(0);
+    }
+
+    private static Tag constantTag(Object constant) {
+        if (constant instanceof Integer) {
+            return new IntegerConstantValueTag((Integer) constant);
+        }
+        if (constant instanceof Long) {
+            return new LongConstantValueTag((Long) constant);
+        }
+        if (constant instanceof Float) {
+            return new FloatConstantValueTag((Float) constant);
+        }
+        if (constant instanceof Double) {
+            return new DoubleConstantValueTag((Double) constant);
+        }
+        if (constant instanceof String) {
+            return new StringConstantValueTag((String) constant);
+        }
+        return null;
+    }
+
+    private static String toClassName(String internalName) {
+        return internalName.replace('/', '.');
+    }
+
+    /**
+     * Index right after the type descriptor starting at start
+     */
+    private static int nextType(String descriptor, int start) {
+        int i = start;
+        while (descriptor.charAt(i) == '[') {
+            i++;
+        }
+        return descriptor.charAt(i) == 'L' ? descriptor.indexOf(';', i) + 1 : i + 1;
+    }
+
+    /**
+     * Soot type of the type descriptor starting at start, recording the classes it names in deps if not null
+     */
+    private static Type toType(String descriptor, int start, Dependencies deps) {
+        int dimensions = 0;
+        int i = start;
+        while (descriptor.charAt(i) == '[') {
+            dimensions++;
+            i++;
+        }
+        Type type;
+        switch (descriptor.charAt(i)) {
+            case 'Z':
+                type = BooleanType.v();
+                break;
+            case 'B':
+                type = ByteType.v();
+                break;
+            case 'C':
+                type = CharType.v();
+                break;
+            case 'S':
+                type = ShortType.v();
+                break;
+            case 'I':
+                type = IntType.v();
+                break;
+            case 'J':
+                type = LongType.v();
+                break;
+            case 'F':
+                type = FloatType.v();
+                break;
+            case 'D':
+                type = DoubleType.v();
+                break;
+            case 'V':
+                type = VoidType.v();
+                break;
+            case 'L':
+                type = RefType.v(toClassName(descriptor.substring(i + 1, descriptor.indexOf(';', i))));
+                if (deps != null) {
+                    deps.typesToSignature.add(type);
+                }
+                break;
+            default:
+                throw new RuntimeException("Malformed type descriptor " + descriptor + " at " + start);
+        }
+        return dimensions > 0 ? ArrayType.v(type, dimensions) : type;
+    }
+}
@@ -0,0 +1,99 @@
+package edu.washington.cs.seguard.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Content hashes of the platform jars, for the caches whose entries depend on the platform.
+ *
+ * A jar is hashed once per process and again only if its size or modification time changes, so that runs over
+ * many APKs against the same platform read it once.
+ */
+public final class PlatformFingerprint {
+    // Canonical path -> fingerprint of the file, with the size and time it was computed for
+    private static final Map<String, Hashed> hashed = new ConcurrentHashMap<>();
+
+    private static final class Hashed {
+        private final long length;
+        private final long lastModified;
+        private final String hash;
+
+        Hashed(long length, long lastModified, String hash) {
+            this.length = length;
+            this.lastModified = lastModified;
+            this.hash = hash;
+        }
+    }
+
+    private PlatformFingerprint() {
+    }
+
+    /**
+     * @return SHA-256 of the contents of the file, its path if it is not a readable file, e.g. a directory
+     */
+    public static String of(File file) {
+        String path;
+        try {
+            path = file.getCanonicalPath();
+        } catch (IOException e) {
+            path = file.getAbsolutePath();
+        }
+        long length = file.length();
+        long lastModified = file.lastModified();
+        Hashed previous = hashed.get(path);
+        if (previous != null && previous.length == length && previous.lastModified == lastModified) {
+            return previous.hash;
+        }
+        if (!file.isFile()) {
+            return "path " + path;
+        }
+        String hash;
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[1 << 16];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                md.update(buffer, 0, n);
+            }
+            hash = hex(md.digest());
+        } catch (IOException e) {
+            return "path " + path;
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        hashed.put(path, new Hashed(length, lastModified, hash));
+        return hash;
+    }
+
+    /**
+     * @return the fingerprint of the entries of a Soot classpath, in order
+     */
+    public static String ofClasspath(String classpath) {
+        StringBuilder sb = new StringBuilder();
+        for (String entry : classpath.split(File.pathSeparator)) {
+            if (!entry.isEmpty()) {
+                sb.append(of(new File(entry))).append('\n');
+            }
+        }
+        try {
+            return hex(MessageDigest.getInstance("SHA-256").digest(sb.toString().getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String hex(byte[] digest) {
+        StringBuilder sb = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,54 @@
+package edu.washington.cs.seguard.util;
+
+import gnu.trove.map.hash.TCharObjectHashMap;
+
+import java.util.Collection;
+
+/**
+ * Answers whether some prefix of a fixed set is a prefix of a string, in time linear in the
+ * length of the matched part instead of the number of prefixes. Immutable once built.
+ */
+public final class PrefixTrie {
+    private static final class Node {
+        private final TCharObjectHashMap<Node> children = new TCharObjectHashMap<>(4);
+        private boolean terminal;
+    }
+
+    private final Node root = new Node();
+
+    public PrefixTrie(Collection<String> prefixes) {
+        for (String prefix : prefixes) {
+            Node node = root;
+            for (int i = 0; i < prefix.length(); i++) {
+                char c = prefix.charAt(i);
+                Node child = node.children.get(c);
+                if (child == null) {
+                    child = new Node();
+                    node.children.put(c, child);
+                }
+                node = child;
+            }
+            node.terminal = true;
+        }
+    }
+
+    /**
+     * Same as checking text.startsWith(prefix) for each prefix
+     */
+    public boolean hasPrefixOf(String text) {
+        Node node = root;
+        if (node.terminal) {
+            return true;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            node = node.children.get(text.charAt(i));
+            if (node == null) {
+                return false;
+            }
+            if (node.terminal) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,234 @@
+package edu.washington.cs.seguard.util;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.function.IntConsumer;
+
+/**
+ * Reachability of target nodes in a directed graph over dense int ids, e.g. sensitive APIs in a call graph.
+ *
+ * The graph is condensed into strongly connected components (iterative Tarjan, so deep call chains do not
+ * overflow the stack). The set of targets reachable from a component is a bitset over target indices,
+ * computed bottom-up on first query and memoized. A component that adds nothing to the closure of its only
+ * contributing successor shares that successor's bitset, so chains and target-free regions cost no memory.
+ */
+public final class ReachabilityEngine {
+    private static final BitSet EMPTY = new BitSet(0);
+
+    // Node -> component, components are numbered in reverse topological order (successors first)
+    private final int[] component;
+    private final int[][] componentSuccessors;
+    // Target indices of the targets inside each component
+    private final int[][] componentTargets;
+    // Target index -> node
+    private final int[] targetNodes;
+    private final BitSet[] closures;
+
+    /**
+     * @param successors successors[n] are the nodes with an edge from n, duplicates are allowed
+     * @param targets the nodes whose reachability is asked for
+     */
+    public ReachabilityEngine(int[][] successors, BitSet targets) {
+        int n = successors.length;
+        component = new int[n];
+        int componentCount = tarjan(successors);
+
+        targetNodes = new int[targets.cardinality()];
+        int[] targetCounts = new int[componentCount];
+        int index = 0;
+        for (int node = targets.nextSetBit(0); node >= 0 && node < n; node = targets.nextSetBit(node + 1)) {
+            targetNodes[index++] = node;
+            targetCounts[component[node]]++;
+        }
+        componentTargets = new int[componentCount][];
+        for (int c = 0; c < componentCount; c++) {
+            componentTargets[c] = new int[targetCounts[c]];
+        }
+        Arrays.fill(targetCounts, 0);
+        for (int t = 0; t < index; t++) {
+            int c = component[targetNodes[t]];
+            componentTargets[c][targetCounts[c]++] = t;
+        }
+
+        componentSuccessors = condense(successors, componentCount);
+        closures = new BitSet[componentCount];
+    }
+
+    private int tarjan(int[][] successors) {
+        int n = successors.length;
+        int[] order = new int[n];
+        int[] lowLink = new int[n];
+        boolean[] onStack = new boolean[n];
+        int[] stack = new int[n];
+        int stackSize = 0;
+        // Explicit DFS stack: node and the position in its successor list
+        int[] callNode = new int[n];
+        int[] callEdge = new int[n];
+        int counter = 0;
+        int componentCount = 0;
+        Arrays.fill(order, -1);
+
+        for (int root = 0; root < n; root++) {
+            if (order[root] >= 0) {
+                continue;
+            }
+            int depth = 0;
+            callNode[0] = root;
+            callEdge[0] = 0;
+            order[root] = lowLink[root] = counter++;
+            stack[stackSize++] = root;
+            onStack[root] = true;
+            while (depth >= 0) {
+                int node = callNode[depth];
+                int[] succs = successors[node];
+                if (callEdge[depth] < succs.length) {
+                    int succ = succs[callEdge[depth]++];
+                    if (order[succ] < 0) {
+                        order[succ] = lowLink[succ] = counter++;
+                        stack[stackSize++] = succ;
+                        onStack[succ] = true;
+                        depth++;
+                        callNode[depth] = succ;
+                        callEdge[depth] = 0;
+                    } else if (onStack[succ]) {
+                        lowLink[node] = Math.min(lowLink[node], order[succ]);
+                    }
+                    continue;
+                }
+                if (lowLink[node] == order[node]) {
+                    int member;
+                    do {
+                        member = stack[--stackSize];
+                        onStack[member] = false;
+                        component[member] = componentCount;
+                    } while (member != node);
+                    componentCount++;
+                }
+                depth--;
+                if (depth >= 0) {
+                    int parent = callNode[depth];
+                    lowLink[parent] = Math.min(lowLink[parent], lowLink[node]);
+                }
+            }
+        }
+        return componentCount;
+    }
+
+    private int[][] condense(int[][] successors, int componentCount) {
+        // Group nodes by component
+        int[] memberCounts = new int[componentCount + 1];
+        for (int c : component) {
+            memberCounts[c + 1]++;
+        }
+        for (int c = 0; c < componentCount; c++) {
+            memberCounts[c + 1] += memberCounts[c];
+        }
+        int[] members = new int[component.length];
+        int[] fill = Arrays.copyOf(memberCounts, componentCount);
+        for (int node = 0; node < component.length; node++) {
+            members[fill[component[node]]++] = node;
+        }
+
+        int[][] result = new int[componentCount][];
+        // Last component that added each successor, to drop duplicate edges
+        int[] lastSeen = new int[componentCount];
+        Arrays.fill(lastSeen, -1);
+        int[] buffer = new int[16];
+        for (int c = 0; c < componentCount; c++) {
+            int size = 0;
+            for (int i = memberCounts[c]; i < memberCounts[c + 1]; i++) {
+                for (int succ : successors[members[i]]) {
+                    int sc = component[succ];
+                    if (sc != c && lastSeen[sc] != c) {
+                        lastSeen[sc] = c;
+                        if (size == buffer.length) {
+                            buffer = Arrays.copyOf(buffer, size * 2);
+                        }
+                        buffer[size++] = sc;
+                    }
+                }
+            }
+            result[c] = Arrays.copyOf(buffer, size);
+        }
+        return result;
+    }
+
+    /**
+     * Bitset over target indices reachable from component c, must not be modified
+     */
+    private BitSet closure(int c) {
+        if (closures[c] != null) {
+            return closures[c];
+        }
+        // Collect the components below c that still lack a closure, then fill them in ascending order:
+        // successors always have smaller ids than their predecessors
+        BitSet pending = new BitSet();
+        int[] worklist = new int[16];
+        int size = 0;
+        worklist[size++] = c;
+        pending.set(c);
+        while (size > 0) {
+            int current = worklist[--size];
+            for (int succ : componentSuccessors[current]) {
+                if (closures[succ] == null && !pending.get(succ)) {
+                    pending.set(succ);
+                    if (size == worklist.length) {
+                        worklist = Arrays.copyOf(worklist, size * 2);
+                    }
+                    worklist[size++] = succ;
+                }
+            }
+        }
+        for (int current = pending.nextSetBit(0); current >= 0; current = pending.nextSetBit(current + 1)) {
+            closures[current] = compute(current);
+        }
+        return closures[c];
+    }
+
+    private BitSet compute(int c) {
+        BitSet shared = EMPTY;
+        BitSet merged = null;
+        for (int succ : componentSuccessors[c]) {
+            BitSet succClosure = closures[succ];
+            if (succClosure.isEmpty() || succClosure == shared) {
+                continue;
+            }
+            if (merged == null) {
+                if (shared == EMPTY) {
+                    shared = succClosure;
+                    continue;
+                }
+                merged = (BitSet) shared.clone();
+            }
+            merged.or(succClosure);
+        }
+        if (merged == null && componentTargets[c].length == 0) {
+            return shared;
+        }
+        if (merged == null) {
+            merged = (BitSet) shared.clone();
+        }
+        for (int t : componentTargets[c]) {
+            merged.set(t);
+        }
+        return merged;
+    }
+
+    public int getComponentCount() {
+        return closures.length;
+    }
+
+    /**
+     * Calls action with each target node reachable from node, including node itself if it is a target
+     */
+    public void forEachReachableTarget(int node, IntConsumer action) {
+        BitSet reachable = closure(component[node]);
+        for (int t = reachable.nextSetBit(0); t >= 0; t = reachable.nextSetBit(t + 1)) {
+            action.accept(targetNodes[t]);
+        }
+    }
+
+    public int countReachableTargets(int node) {
+        return closure(component[node]).cardinality();
+    }
+}
@@ -13,6 +13,21 @@ public enum StatKey {
     // number of Method.inoke invocations
     METHOD_INVOKE,
     METHOD_INVOKE_UNREFLECT_OK,
+    // persistent decryption cache lookups and evicted entries
+    DECRYPT_CACHE_HIT,
+    DECRYPT_CACHE_MISS,
+    DECRYPT_CACHE_EVICT,
+    // decryptor calls that overran their deadline, threw or could not be resolved, or were skipped because
+    // their class timed out before
+    DECRYPT_TIMEOUT,
+    DECRYPT_FAILURE,
+    DECRYPT_SKIPPED,
+    // decryptor calls evaluated from their Jimple body, and those left to reflection
+    DECRYPT_INTERPRETED,
+    DECRYPT_INTERPRETER_GAVE_UP,
+    // classes whose facts were found in the incremental cache of the core mode, and those recomputed
+    FACTS_CACHE_HIT,
+    FACTS_CACHE_MISS,
 
     BASIC_CLASSES,
     CLASSES,
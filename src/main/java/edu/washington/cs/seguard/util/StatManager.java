@@ -2,35 +2,176 @@ package edu.washington.cs.seguard.util;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
 import lombok.val;
 
 import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.util.Comparator;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.TreeMap;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.DoubleAdder;
 
+/**
+ * Statistics of one run, written to {apk}-{mode}.stat.json. Every method is safe to call from several threads.
+ *
+ * Besides the StatKey counters and values and the named timing groups, the time and peak heap of each StatPhase
+ * and latency histograms of individual operations are recorded. The peak heap of a phase is the sum of the peak
+ * usages of the heap memory pools while it ran, an upper bound as the pools need not peak at the same time.
+ */
 public class StatManager {
-    private Map<StatKey, Double> statMap = new TreeMap<>(Comparator.comparing(Object::toString));
+    // Set by put and incremented by COUNT, in one key space as both may be used on the same key
+    private final Map<StatKey, AtomicLong> counters = new ConcurrentHashMap<>();
+    // Named groups of timings in seconds, e.g. per-class times of a phase
+    private final Map<String, Map<String, DoubleAdder>> timings = new ConcurrentHashMap<>();
+    private final Map<String, LatencyHistogram> latencies = new ConcurrentHashMap<>();
+
+    // Guarded by phases
+    private final Map<StatPhase, PhaseStats> phases = new EnumMap<>(StatPhase.class);
+    private final Set<PhaseTimer> running = new HashSet<>();
+    private final List<MemoryPoolMXBean> heapPools = new ArrayList<>();
 
     public void COUNT(StatKey key) {
-        val v = statMap.get(key);
-        if (v == null) {
-            statMap.put(key, 1.0);
-        } else {
-            statMap.put(key, v + 1);
-        }
+        counters.computeIfAbsent(key, k -> new AtomicLong()).incrementAndGet();
     }
 
     public void put(StatKey key, int x) {
-        statMap.put(key, (double) x);
+        counters.computeIfAbsent(key, k -> new AtomicLong()).set(x);
+    }
+
+    /**
+     * Add seconds to the timing of name in group
+     */
+    public void addTiming(String group, String name, double seconds) {
+        timings.computeIfAbsent(group, g -> new ConcurrentHashMap<>())
+                .computeIfAbsent(name, n -> new DoubleAdder()).add(seconds);
+    }
+
+    /**
+     * Record one operation of the given kind that took nanos
+     */
+    public void recordLatency(String name, long nanos) {
+        latencies.computeIfAbsent(name, n -> new LatencyHistogram()).record(nanos);
+    }
+
+    /**
+     * Start timing phase until the returned timer is closed; phases may nest and run several times, their times
+     * add up
+     */
+    public PhaseTimer time(StatPhase phase) {
+        synchronized (phases) {
+            samplePeakHeap();
+            for (MemoryPoolMXBean pool : heapPools) {
+                pool.resetPeakUsage();
+            }
+            val timer = new PhaseTimer(phase);
+            timer.peakHeapBytes = heapUsed(false);
+            running.add(timer);
+            return timer;
+        }
+    }
+
+    public final class PhaseTimer implements AutoCloseable {
+        private final StatPhase phase;
+        private final long startNanos = System.nanoTime();
+        // Guarded by phases
+        private long peakHeapBytes;
+        private boolean closed;
+
+        private PhaseTimer(StatPhase phase) {
+            this.phase = phase;
+        }
+
+        @Override
+        public void close() {
+            long nanos = System.nanoTime() - startNanos;
+            synchronized (phases) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                samplePeakHeap();
+                running.remove(this);
+                val stats = phases.computeIfAbsent(phase, p -> new PhaseStats());
+                stats.runs++;
+                stats.nanos += nanos;
+                stats.peakHeapBytes = Math.max(stats.peakHeapBytes, peakHeapBytes);
+            }
+        }
+    }
+
+    private static final class PhaseStats {
+        int runs;
+        long nanos;
+        long peakHeapBytes;
+    }
+
+    /**
+     * Fold the peak heap since the last reset into the running phases
+     */
+    private void samplePeakHeap() {
+        if (running.isEmpty()) {
+            return;
+        }
+        long peak = heapUsed(true);
+        for (PhaseTimer timer : running) {
+            timer.peakHeapBytes = Math.max(timer.peakHeapBytes, peak);
+        }
+    }
+
+    private long heapUsed(boolean peak) {
+        if (heapPools.isEmpty()) {
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+                    heapPools.add(pool);
+                }
+            }
+        }
+        long used = 0;
+        for (MemoryPoolMXBean pool : heapPools) {
+            val usage = peak ? pool.getPeakUsage() : pool.getUsage();
+            if (usage != null) {
+                used += usage.getUsed();
+            }
+        }
+        return used;
     }
 
     private String toJSON() {
         Gson gson = new GsonBuilder().setPrettyPrinting().create();
-        return gson.toJson(statMap);
+        Map<String, Double> stats = new TreeMap<>();
+        for (val counter : counters.entrySet()) {
+            stats.put(counter.getKey().toString(), (double) counter.getValue().get());
+        }
+        val json = gson.toJsonTree(stats).getAsJsonObject();
+        for (val group : new TreeMap<>(timings).entrySet()) {
+            Map<String, Double> seconds = new TreeMap<>();
+            for (val timing : group.getValue().entrySet()) {
+                seconds.put(timing.getKey(), timing.getValue().sum());
+            }
+            json.add(group.getKey(), gson.toJsonTree(seconds));
+        }
+        val phasesJson = new JsonObject();
+        synchronized (phases) {
+            for (val phase : phases.entrySet()) {
+                val phaseJson = new JsonObject();
+                phaseJson.addProperty("runs", phase.getValue().runs);
+                phaseJson.addProperty("seconds", phase.getValue().nanos / 1e9);
+                phaseJson.addProperty("peakHeapBytes", phase.getValue().peakHeapBytes);
+                phasesJson.add(phase.getKey().toString(), phaseJson);
+            }
+        }
+        json.add("phases", phasesJson);
+        val latenciesJson = new JsonObject();
+        for (val latency : new TreeMap<>(latencies).entrySet()) {
+            latenciesJson.add(latency.getKey(), gson.toJsonTree(latency.getValue().summary()));
+        }
+        json.add("latencies", latenciesJson);
+        return gson.toJson(json);
     }
 
     private String statPath;
@@ -0,0 +1,19 @@
+package edu.washington.cs.seguard.util;
+
+/**
+ * Phases of the core pipeline timed by StatManager.time, in pipeline order
+ */
+public enum StatPhase {
+    // Scene.loadNecessaryClasses
+    SOOT_LOAD,
+    // application bodies, static strings and the dummy main
+    ENTRYPOINT_CREATION,
+    // wjtp.aliasrewriter
+    ALIAS_REWRITE,
+    // wjtp.herosifds
+    IFDS,
+    // wjtp.myTransform, the data-flow and call-graph facts added to the graph
+    GRAPH_BUILD,
+    // GraphWriter.write
+    WRITE
+}
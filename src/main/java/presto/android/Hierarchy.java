@@ -16,10 +16,7 @@ import soot.jimple.AssignStmt;
 import soot.jimple.NewExpr;
 import soot.jimple.Stmt;
 
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.Map;
-import java.util.Set;
+import java.util.*;
 
 /**
  * Q: What is it?
@@ -33,6 +30,9 @@ import java.util.Set;
  *     iteratorClass = scene.getSootClass("java.util.Iterator");
  *     mapClass = scene.getSootClass("java.util.Map");
  *     dialogInterface = scene.getSootClass("android.content.DialogInterface");
+ *
+ * Subtype queries take constant time on a numbering of the classes (see numberClasses) instead of the
+ * per-class sets of supertypes and subtypes, which grew quadratically with the app plus android.jar.
  */
 public class Hierarchy {
     private final SootClass viewClass;
@@ -45,11 +45,26 @@ public class Hierarchy {
     private final SootClass dialogInterface;
 
     public boolean isSubclassOf(final SootClass child, final SootClass parent) {
-        Set<SootClass> superTypes = getSupertypes(child);
-        if (superTypes != null) {
-            return superTypes.contains(parent);
+        SootClass fakeInterface = fakeListeners.get(child);
+        if (fakeInterface != null) {
+            return parent == child || parent == fakeInterface;
+        }
+        if (!sceneClasses.contains(child)) {
+            return isSubclassOfOnDemand(child, parent);
+        }
+        if (classes == null) {
+            return getSupertypes(child).contains(parent);
+        }
+        int c = index.get(child);
+        Integer p = index.get(parent);
+        return p != null && isSubtype(c, p);
+    }
+
+    private boolean isSubtype(int c, int p) {
+        if (subtypeBits[p] != null) {
+            return subtypeBits[p].get(c);
         }
-        return isSubclassOfOnDemand(child, parent);
+        return p <= c && c <= last[p];
     }
 
     public boolean isSubclassOfOnDemand(
@@ -113,23 +128,65 @@ public class Hierarchy {
 
     // -----------------------------------------
     // Returns a set of SootClasses: all transitive subtypes of c,
-    // including c
+    // including c. Unlike the sets of the original GATOR hierarchy,
+    // this is a read-only view on the numbering of the classes:
+    // add/remove throw UnsupportedOperationException, so copy it
+    // to modify it.
     public Set<SootClass> getSubtypes(SootClass c) {
-        return classAndItsSubTypes.get(c);
+        return subtypes(c, false);
     }
 
     // -----------------------------------------
     // Returns a set of SootClasses: all transitive SUPERtypes of c,
-    // including c
+    // including c, or null if c was not in the Scene when the
+    // hierarchy was built. Computed on the first query for c, and
+    // read-only like getSubtypes.
     public Set<SootClass> getSupertypes(SootClass c) {
-        return classAndItsSuperTypes.get(c);
+        SootClass fakeInterface = fakeListeners.get(c);
+        if (fakeInterface != null) {
+            return Collections.unmodifiableSet(Sets.newHashSet(c, fakeInterface));
+        }
+        Set<SootClass> supertypes = supertypesOnDemand.get(c);
+        if (supertypes != null) {
+            return supertypes;
+        }
+        if (!sceneClasses.contains(c)) {
+            return null;
+        }
+        supertypes = Sets.newHashSet(c);
+        Deque<SootClass> worklist = new ArrayDeque<>();
+        worklist.add(c);
+        while (!worklist.isEmpty()) {
+            SootClass sub = worklist.poll();
+            if (sub.hasSuperclass() && supertypes.add(sub.getSuperclass())) {
+                worklist.add(sub.getSuperclass());
+            }
+            for (SootClass supr : sub.getInterfaces()) {
+                if (supertypes.add(supr)) {
+                    worklist.add(supr);
+                }
+            }
+        }
+        supertypes = Collections.unmodifiableSet(supertypes);
+        supertypesOnDemand.put(c, supertypes);
+        return supertypes;
     }
 
     // ----------------------------------------------------------
     // Returns a set of SootClasses: all transitive subtypes of c
-    // (including c) for which SootClass.isConcrete() is true
+    // (including c) for which SootClass.isConcrete() is true. A
+    // read-only view, like getSubtypes.
     public Set<SootClass> getConcreteSubtypes(SootClass c) {
-        return classAndItsConcreteSubTypes.get(c);
+        return subtypes(c, true);
+    }
+
+    private Set<SootClass> subtypes(SootClass c, boolean concreteOnly) {
+        if (fakeListeners.containsKey(c)) {
+            return Collections.singleton(c);
+        }
+        numberClasses();
+        Integer i = index.get(c);
+        return i == null ? null : new SubtypeSet(i, concreteOnly);
     }
 
     // ---------------------------------------------------------
@@ -251,12 +308,31 @@ public class Hierarchy {
     private static Hierarchy instance;
 
     public static synchronized Hierarchy v() {
+        onDemand().numberClasses();
+        instance.guiAnalyses();
+        return instance;
+    }
+
+    /**
+     * The hierarchy without the GUI-specific analyses (activities, views, menus, dialogs, framework callbacks),
+     * which v() builds. The supertypes of a class are computed on its first query, and the whole Scene is only
+     * numbered once subtypes are enumerated. Either way the hierarchy covers the classes in the Scene when it is
+     * created, as v() did before.
+     */
+    public static synchronized Hierarchy onDemand() {
         if (instance == null) {
             instance = new Hierarchy();
         }
         return instance;
     }
 
+    /**
+     * Drop the singleton, e.g. after soot.G.reset() when analyzing another app in the same JVM
+     */
+    public static synchronized void reset() {
+        instance = null;
+    }
+
     private Hierarchy() {
         Scene scene = Scene.v();
 
@@ -268,14 +344,18 @@ public class Hierarchy {
         iteratorClass = scene.getSootClass("java.util.Iterator");
         mapClass = scene.getSootClass("java.util.Map");
         dialogInterface = scene.getSootClass("android.content.DialogInterface");
+        sceneClasses = Sets.newLinkedHashSet(scene.getClasses());
+    } // Hierarchy()
 
-        simpleClassStatistics();
+    private boolean guiAnalyzed;
 
-        // next, for each class/interface C, recursively traverse
-        // all supertypes of C and add C to the appropriate sets
-        for (SootClass c : scene.getClasses()) {
-            traverse(c, c);
+    private void guiAnalyses() {
+        if (guiAnalyzed) {
+            return;
         }
+        guiAnalyzed = true;
+
+        simpleClassStatistics();
 
         // Look at activities
         activityClasses();
@@ -288,7 +368,7 @@ public class Hierarchy {
 
         recordFrameworkInvokedCallbacks();
         Logger.trace("TIMECOST", "HIER parsing finished at " + System.currentTimeMillis());
-    } // Hierarchy()
+    }
 
     void simpleClassStatistics() {
         Scene scene = Scene.v();
@@ -299,9 +379,6 @@ public class Hierarchy {
             if (c.isApplicationClass()) {
                 appClasses.add(c);
             }
-            classAndItsConcreteSubTypes.put(c, new HashSet<SootClass>());
-            classAndItsSubTypes.put(c, new HashSet<SootClass>());
-            classAndItsSuperTypes.put(c, new HashSet<SootClass>());
         }
         Logger.verb(this.getClass().getSimpleName(),
                 "[HIER] All classes: " + numClasses);
@@ -415,12 +492,12 @@ public class Hierarchy {
             throw new Error("[HIER] Did not find Activity");
         }
         for (SootClass c : appClasses) {
-            if (getSupertypes(c).contains(act)) {
+            if (isSubclassOf(c, act)) {
                 applicationActivityClasses.add(c);
             }
         }
         for (SootClass c : Scene.v().getLibraryClasses()) {
-            if (getSupertypes(c).contains(act)) {
+            if (isSubclassOf(c, act)) {
                 libActivityClasses.add(c);
             }
         }
@@ -440,29 +517,27 @@ public class Hierarchy {
 
         int numAppViews = 0;
         for (SootClass c : appClasses) {
-            Set<SootClass> superClzSet = getSupertypes(c);
-            if (superClzSet.contains(view)) {
+            if (isSubclassOf(c, view)) {
                 numAppViews++;
                 viewClasses.add(c);
             }
-            if (superClzSet.contains(menuItem)) {
+            if (isSubclassOf(c, menuItem)) {
                 menuItemClasses.add(c);
             }
-            if (superClzSet.contains(menu)) {
+            if (isSubclassOf(c, menu)) {
                 menuClasses.add(c);
             }
         }
         int numLibViews = 0;
         for (SootClass c : scene.getLibraryClasses()) {
-            Set<SootClass> superClzSet = getSupertypes(c);
-            if (superClzSet.contains(view)) {
+            if (isSubclassOf(c, view)) {
                 numLibViews++;
                 viewClasses.add(c);
             }
-            if (superClzSet.contains(menuItem)) {
+            if (isSubclassOf(c, menuItem)) {
                 menuItemClasses.add(c);
             }
-            if (superClzSet.contains(menu)) {
+            if (isSubclassOf(c, menu)) {
                 menuClasses.add(c);
             }
         }
@@ -551,77 +626,206 @@ public class Hierarchy {
     }
 
     // -------------------------------------------------------
-    // recursive traversal of superclasses and superinterfaces
-    private void traverse(SootClass sub, SootClass supr) {
+    // Numbers the classes/interfaces in preorder of the tree of
+    // superclasses: the subclasses of C are then the range
+    // index(C)..last[index(C)]. For each type D listed as an
+    // interface, subtypeBits[index(D)] holds the numbers of its
+    // subtypes, i.e. the ranges of the classes implementing it and
+    // the sets of its subinterfaces.
+    private void numberClasses() {
+        if (classes != null) {
+            return;
+        }
+        Map<SootClass, List<SootClass>> subclasses = Maps.newHashMap();
+        Map<SootClass, List<SootClass>> implementors = Maps.newHashMap();
+        List<SootClass> roots = Lists.newArrayList();
+        for (SootClass c : sceneClasses) {
+            if (c.hasSuperclass() && sceneClasses.contains(c.getSuperclass())) {
+                subclasses.computeIfAbsent(c.getSuperclass(), k -> Lists.newArrayList()).add(c);
+            } else {
+                roots.add(c);
+            }
+            for (SootClass supr : c.getInterfaces()) {
+                if (sceneClasses.contains(supr)) {
+                    implementors.computeIfAbsent(supr, k -> Lists.newArrayList()).add(c);
+                }
+            }
+        }
+        // classes on a (malformed) superclass cycle are numbered from
+        // wherever the numbering first meets them
+        roots.addAll(sceneClasses);
+
+        classes = new SootClass[sceneClasses.size()];
+        last = new int[classes.length];
+        concrete = new BitSet(classes.length);
+        int next = 0;
+        Deque<Iterator<SootClass>> stack = new ArrayDeque<>();
+        Deque<Integer> numbers = new ArrayDeque<>();
+        for (SootClass root : roots) {
+            if (index.containsKey(root)) {
+                continue;
+            }
+            SootClass c = root;
+            while (true) {
+                if (c != null) {
+                    index.put(c, next);
+                    classes[next] = c;
+                    if (c.isConcrete()) {
+                        concrete.set(next);
+                    }
+                    numbers.push(next++);
+                    stack.push(subclasses.getOrDefault(c, Collections.emptyList()).iterator());
+                }
+                if (stack.isEmpty()) {
+                    break;
+                }
+                c = null;
+                Iterator<SootClass> children = stack.peek();
+                while (c == null && children.hasNext()) {
+                    SootClass child = children.next();
+                    if (!index.containsKey(child)) {
+                        c = child;
+                    }
+                }
+                if (c == null) {
+                    stack.pop();
+                    last[numbers.pop()] = next - 1;
+                }
+            }
+        }
 
-        // sub is a subtype of supr (or possibly supr == sub)
+        subtypeBits = new BitSet[classes.length];
+        for (SootClass supr : implementors.keySet()) {
+            subtypeBits(index.get(supr), implementors, new BitSet(classes.length));
+        }
+    }
 
-        // first, add sub to the all_tbl set for supr
-        classAndItsSubTypes.get(supr).add(sub);
+    private BitSet subtypeBits(int i, Map<SootClass, List<SootClass>> implementors, BitSet inProgress) {
+        if (subtypeBits[i] != null) {
+            return subtypeBits[i];
+        }
+        BitSet bits = new BitSet();
+        bits.set(i, last[i] + 1);
+        List<SootClass> direct = implementors.get(classes[i]);
+        if (direct == null) {
+            return bits;
+        }
+        // guards against (malformed) interface cycles
+        inProgress.set(i);
+        for (SootClass c : direct) {
+            int j = index.get(c);
+            if (!inProgress.get(j)) {
+                bits.or(subtypeBits(j, implementors, inProgress));
+            }
+        }
+        inProgress.clear(i);
+        subtypeBits[i] = bits;
+        return bits;
+    }
+
+    // -------------------------------------------------------
+    // The subtypes of a class as a view on its range or bits
+    private final class SubtypeSet extends AbstractSet<SootClass> {
+        private final int root;
+        private final boolean concreteOnly;
+        private final List<SootClass> fakes = Lists.newArrayList();
+        private int size = -1;
+
+        SubtypeSet(int root, boolean concreteOnly) {
+            this.root = root;
+            this.concreteOnly = concreteOnly;
+            for (Map.Entry<SootClass, SootClass> fake : fakeListeners.entrySet()) {
+                if (fake.getValue() == classes[root]) {
+                    fakes.add(fake.getKey());
+                }
+            }
+        }
 
-        // also, add supr to the all_super_tbl set for sub
-        classAndItsSuperTypes.get(sub).add(supr);
+        private int nextNumber(int from) {
+            for (int i = from; i < classes.length; i++) {
+                if (subtypeBits[root] != null) {
+                    i = subtypeBits[root].nextSetBit(i);
+                } else if (i > last[root]) {
+                    return -1;
+                }
+                if (i < 0 || !concreteOnly || concrete.get(i)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
 
-        // next, if sub is a non-interface non-abstract class, add it
-        // to the tbl set for supr
-        if (sub.isConcrete()) {
-            classAndItsConcreteSubTypes.get(supr).add(sub);
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof SootClass)) {
+                return false;
+            }
+            Integer c = index.get(o);
+            if (c == null || fakeListeners.containsKey(o)) {
+                return fakes.contains(o);
+            }
+            return isSubtype(c, root) && (!concreteOnly || concrete.get(c));
         }
 
-        // traverse parent classes/interfaces of supr
+        @Override
+        public Iterator<SootClass> iterator() {
+            Iterator<SootClass> fakeIterator = fakes.iterator();
+            return new Iterator<SootClass>() {
+                private int next = nextNumber(subtypeBits[root] != null ? 0 : root);
 
-        if (supr.hasSuperclass()) {
-            traverse(sub, supr.getSuperclass());
+                @Override
+                public boolean hasNext() {
+                    return next >= 0 || fakeIterator.hasNext();
+                }
+
+                @Override
+                public SootClass next() {
+                    if (next < 0) {
+                        return fakeIterator.next();
+                    }
+                    SootClass c = classes[next];
+                    next = nextNumber(next + 1);
+                    return c;
+                }
+            };
         }
 
-        for (Iterator<SootClass> it = supr.getInterfaces().iterator(); it.hasNext(); ) {
-            traverse(sub, it.next());
+        @Override
+        public int size() {
+            if (size < 0) {
+                size = 0;
+                for (Iterator<SootClass> it = iterator(); it.hasNext(); it.next()) {
+                    size++;
+                }
+            }
+            return size;
         }
     }
 
     public void addFakeListenerClass(SootClass listenerClass,
                                      SootClass listenerInterface) {
-        classAndItsSuperTypes.put(
-                listenerClass,
-                Sets.newHashSet(listenerClass, listenerInterface));
-
-        classAndItsSubTypes.put(listenerClass, Sets.newHashSet(listenerClass));
-        classAndItsConcreteSubTypes.put(listenerClass, Sets.newHashSet(listenerClass));
-
-        classAndItsSubTypes.get(listenerInterface).add(listenerClass);
-        classAndItsConcreteSubTypes.get(listenerInterface).add(listenerClass);
+        fakeListeners.put(listenerClass, listenerInterface);
     }
 
     // -------------------------------------------------------------
-    // this hash table contains a pair (C,X) for each class C in the
-    // program. Here by "class" we mean SootClass, which could be a
-    // Java class or a Java interface. The set of possible values of C
-    // covers all SootClasses that are application classes or library
-    // classes. X is a HashSet that contains SootClasses for all
-    // elements of the set { C } union { D | D is a direct or
-    // transitive subtype of C }, **excluding** all D that are
-    // interfaces or abstract classes.
-    private final Map<SootClass, Set<SootClass>> classAndItsConcreteSubTypes = Maps.newHashMap();
-
-    // -------------------------------------------------------------
-    // this hash table contains a pair (C,X) for each class C in the
-    // program. Here by "class" we mean SootClass, which could be a
-    // Java class or a Java interface. The set of possible values of C
-    // covers all SootClasses that are application classes or library
-    // classes. X is a HashSet that contains SootClasses for all
-    // elements of the set { C } union { D | D is a direct or
-    // transitive subtype of C }.
-    private final Map<SootClass, Set<SootClass>> classAndItsSubTypes = Maps.newHashMap();
-
-    // -------------------------------------------------------------
-    // this hash table contains a pair (C,X) for each class C in the
-    // program. Here by "class" we mean SootClass, which could be a
-    // Java class or a Java interface. The set of possible values of C
-    // covers all SootClasses that are application classes or library
-    // classes. X is a HashSet that contains SootClasses for all
-    // elements of the set { C } union { D | D is a direct or
-    // transitive SUPERtype of C }.
-    private final Map<SootClass, Set<SootClass>> classAndItsSuperTypes = Maps.newHashMap();
+    // Numbering of the SootClasses (Java classes and interfaces) that
+    // are in the Scene when the hierarchy is built, see numberClasses.
+    // The subtype sets of the original GATOR hierarchy, i.e. for each
+    // class C, { C } union { D | D is a direct or transitive subtype
+    // of C }, are views on these.
+    private final Set<SootClass> sceneClasses;
+    private final Map<SootClass, Integer> index = Maps.newHashMap();
+    private SootClass[] classes;
+    private int[] last;
+    private BitSet concrete;
+    private BitSet[] subtypeBits;
+
+    // Supertypes of the classes queried so far
+    private final Map<SootClass, Set<SootClass>> supertypesOnDemand = Maps.newHashMap();
+
+    // Fake listener classes (see addFakeListenerClass), mapped to the
+    // one interface they implement
+    private final Map<SootClass, SootClass> fakeListeners = Maps.newHashMap();
 
     public Set<SootClass> applicationActivityClasses = Sets.newHashSet();
     public Set<SootClass> libActivityClasses = Sets.newHashSet(); // not in app
@@ -1,8 +1,7 @@
 package edu.washington.cs.seguard
 
-import soot.SootMethod
+import soot.{Scene, SootMethod}
 import soot.jimple.IntConstant
-import scala.collection.JavaConverters._
 
 sealed abstract class Abstraction extends Product with Serializable
 
@@ -17,17 +16,15 @@ object Abstraction {
   final case class MethodConstant(method: SootMethod) extends Abstraction {
     override def toString: String = method.getSignature
   }
+  /**
+   * Stands for whatever flows into the parameter of the method being summarized, see LibrarySummarizer
+   */
+  final case class ParameterConstant(index: Int) extends Abstraction {
+    override def toString: String = "@parameter" + index
+  }
 
   def v(config: Config, stringConstant: String) : Abstraction = {
-    for (keyword <- config.getSensitiveConstStringKeywords.asScala) {
-      if (stringConstant.contains(keyword)) {
-        return StringConstant(stringConstant)
-      }
-    }
-    if (stringConstant.matches("\\d+")) {
-      return StringConstant("INTEGER_STR")
-    }
-    StringConstant("[other]")
+    config.getConstantClassifier.classify(stringConstant)
   }
 
   def v(intConstant: IntConstant) : Abstraction = {
@@ -37,4 +34,46 @@ object Abstraction {
   def v(method: SootMethod) : Abstraction = {
     MethodConstant(method)
   }
-}
\ No newline at end of file
+
+  def parameter(index: Int) : Abstraction = {
+    ParameterConstant(index)
+  }
+
+  /**
+   * @return the parameter index of a ParameterConstant, -1 for the other abstractions
+   */
+  def parameterIndex(abstraction: Abstraction) : Int = {
+    abstraction match {
+      case ParameterConstant(index) => index
+      case _ => -1
+    }
+  }
+
+  /**
+   * Serialized form of an abstraction, see decode
+   */
+  def encode(abstraction: Abstraction) : String = {
+    abstraction match {
+      case StringConstant(str) => "s:" + str
+      case IntegerConstant(integer) => "i:" + integer
+      case MethodConstant(method) => "m:" + method.getSignature
+      case ParameterConstant(index) => "p:" + index
+    }
+  }
+
+  /**
+   * @return the abstraction serialized by encode, null if it names a method missing from the Scene
+   */
+  def decode(encoded: String) : Abstraction = {
+    val value = encoded.substring(2)
+    encoded.charAt(0) match {
+      case 's' => StringConstant(value)
+      case 'i' => IntegerConstant(value.toInt)
+      case 'p' => ParameterConstant(value.toInt)
+      case 'm' =>
+        val method = Scene.v().grabMethod(value)
+        if (method == null) null else MethodConstant(method)
+      case _ => throw new IllegalArgumentException("Not a serialized abstraction: " + encoded)
+    }
+  }
+}
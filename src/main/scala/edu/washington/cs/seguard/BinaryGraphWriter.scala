@@ -0,0 +1,160 @@
+package edu.washington.cs.seguard
+
+import java.io.{BufferedOutputStream, ByteArrayOutputStream, File, FileOutputStream, OutputStream}
+import java.nio.charset.StandardCharsets
+import java.nio.file.Files
+import java.util.zip.Deflater
+
+import edu.washington.cs.seguard.SeGuardEdgeAttr.SeGuardEdgeAttr
+import edu.washington.cs.seguard.SeGuardNodeAttr.SeGuardNodeAttr
+import edu.washington.cs.seguard.util.BinaryGraphReader
+
+import scala.collection.mutable
+
+/**
+ * GraphWriter of the binary flow graph format read by BinaryGraphReader (see there for the layout), optionally
+ * deflating each block. Like StreamingGexfWriter, the records are appended to a spill file in spillDir as they
+ * are created, and write adds the header.
+ */
+class BinaryGraphWriter(spillDir: File, deflate: Boolean) extends DedupGraphWriter[SeGuardNodeAttr, SeGuardEdgeAttr] {
+    private val bodyFile = File.createTempFile("graph", ".sgfg.part", spillDir)
+    bodyFile.deleteOnExit()
+    private var body: OutputStream = new BufferedOutputStream(new FileOutputStream(bodyFile), 1 << 16)
+    private val block = new ByteArrayOutputStream(BinaryGraphReader.BLOCK_SIZE + 1024)
+    private val deflater = if (deflate) new Deflater() else null
+
+    private val nodeTypes = NodeType.values.map(t => t.toString -> t.id).toMap
+    private val edgeTypes = EdgeType.values.map(t => t.toString -> t.id).toMap
+    // String indexes of the attribute values, labels are not shared
+    private val strings = mutable.Map[String, Int]()
+    private var stringCount = 0
+
+    override protected def writeNode(id: Int, label: String, attrs: Map[SeGuardNodeAttr, String]): Unit = {
+        val labelIndex = addString(label)
+        val tpe = typeRef(attrs.get(SeGuardNodeAttr.TYPE), nodeTypes)
+        val tag = stringRef(attrs.get(SeGuardNodeAttr.TAG))
+        val domain = stringRef(attrs.get(SeGuardNodeAttr.DOMAIN))
+        block.write(BinaryGraphReader.NODE)
+        varint(labelIndex)
+        varint(tpe)
+        varint(tag)
+        varint(domain)
+        endRecord()
+    }
+
+    override protected def writeEdge(from: Int, to: Int, attrs: Map[SeGuardEdgeAttr, String]): Unit = {
+        val tpe = typeRef(attrs.get(SeGuardEdgeAttr.TYPE), edgeTypes)
+        val tag = stringRef(attrs.get(SeGuardEdgeAttr.TAG))
+        block.write(BinaryGraphReader.EDGE)
+        varint(from)
+        varint(to)
+        varint(tpe)
+        varint(tag)
+        endRecord()
+    }
+
+    override def write(path: String): Unit = {
+        flushBlock()
+        body.close()
+        val out = new BufferedOutputStream(new FileOutputStream(path), 1 << 16)
+        try {
+            out.write(BinaryGraphReader.MAGIC)
+            out.write(BinaryGraphReader.VERSION)
+            out.write(if (deflate) BinaryGraphReader.FLAG_DEFLATE else 0)
+            block.reset()
+            writeNames(NodeType.values.toSeq.map(_.toString))
+            writeNames(EdgeType.values.toSeq.map(_.toString))
+            block.writeTo(out)
+            block.reset()
+            Files.copy(bodyFile.toPath, out)
+            out.write(0)
+        } finally {
+            out.close()
+        }
+        // Later additions are appended, so that the graph can be written again
+        body = new BufferedOutputStream(new FileOutputStream(bodyFile, true), 1 << 16)
+    }
+
+    /**
+     * Drops the spill file, the writer cannot be used afterwards
+     */
+    def close(): Unit = {
+        body.close()
+        bodyFile.delete()
+        if (deflater != null) {
+            deflater.end()
+        }
+    }
+
+    private def writeNames(names: Seq[String]): Unit = {
+        varint(names.size)
+        for (name <- names) {
+            string(name)
+        }
+    }
+
+    private def addString(s: String): Int = {
+        block.write(BinaryGraphReader.STRING)
+        string(s)
+        stringCount += 1
+        stringCount - 1
+    }
+
+    private def stringRef(value: Option[String]): Int = value match {
+        case None => 0
+        case Some(s) => 1 + strings.getOrElseUpdate(s, addString(s))
+    }
+
+    private def typeRef(value: Option[String], types: Map[String, Int]): Int = value match {
+        case None => 0
+        case Some(t) if types.contains(t) => 1 + 2 * types(t)
+        case Some(t) => 2 + 2 * strings.getOrElseUpdate(t, addString(t))
+    }
+
+    private def string(s: String): Unit = {
+        val bytes = s.getBytes(StandardCharsets.UTF_8)
+        varint(bytes.length)
+        block.write(bytes)
+    }
+
+    private def varint(x: Int): Unit = {
+        var v = x
+        while ((v & ~0x7f) != 0) {
+            block.write((v & 0x7f) | 0x80)
+            v >>>= 7
+        }
+        block.write(v)
+    }
+
+    private def endRecord(): Unit = {
+        if (block.size() >= BinaryGraphReader.BLOCK_SIZE) {
+            flushBlock()
+        }
+    }
+
+    private def flushBlock(): Unit = {
+        if (block.size() == 0) {
+            return
+        }
+        val raw = block.toByteArray
+        block.reset()
+        varint(raw.length)
+        if (deflate) {
+            deflater.reset()
+            deflater.setInput(raw)
+            deflater.finish()
+            val stored = new ByteArrayOutputStream(raw.length / 2)
+            val buffer = new Array[Byte](1 << 14)
+            while (!deflater.finished()) {
+                stored.write(buffer, 0, deflater.deflate(buffer))
+            }
+            varint(stored.size())
+            block.writeTo(body)
+            stored.writeTo(body)
+        } else {
+            block.writeTo(body)
+            body.write(raw)
+        }
+        block.reset()
+    }
+}
@@ -0,0 +1,61 @@
+package edu.washington.cs.seguard
+
+import java.util.concurrent.ConcurrentHashMap
+
+import edu.washington.cs.seguard.Abstraction.StringConstant
+import edu.washington.cs.seguard.util.KeywordMatcher
+
+/**
+ * Classifies string constants against the sensitive keywords of a config, see Abstraction.v.
+ * Results are memoized in a cache that is dropped as a whole once it holds cacheSize strings.
+ */
+final class ConstantClassifier(keywords: java.util.List[String], cacheSize: Int) {
+  private val matcher = new KeywordMatcher(keywords)
+  private val cache = new ConcurrentHashMap[String, Abstraction]()
+
+  def classify(stringConstant: String): Abstraction = {
+    val cached = cache.get(stringConstant)
+    if (cached != null) {
+      return cached
+    }
+    val abstraction = ConstantClassifier.classify(matcher, stringConstant)
+    if (cache.size() >= cacheSize) {
+      cache.clear()
+    }
+    cache.put(stringConstant, abstraction)
+    abstraction
+  }
+}
+
+object ConstantClassifier {
+  private val IntegerStr = StringConstant("INTEGER_STR")
+  private val Other = StringConstant("[other]")
+
+  private def classify(matcher: KeywordMatcher, stringConstant: String): Abstraction = {
+    if (matcher.containsAny(stringConstant)) {
+      return StringConstant(stringConstant)
+    }
+    if (isDigits(stringConstant)) {
+      return IntegerStr
+    }
+    Other
+  }
+
+  /**
+   * Same as s.matches("\\d+")
+   */
+  private def isDigits(s: String): Boolean = {
+    if (s.isEmpty) {
+      return false
+    }
+    var i = 0
+    while (i < s.length) {
+      val c = s.charAt(i)
+      if (c < '0' || c > '9') {
+        return false
+      }
+      i += 1
+    }
+    true
+  }
+}
@@ -0,0 +1,48 @@
+package edu.washington.cs.seguard
+
+import java.io.Closeable
+
+import com.semantic_graph.NodeId
+import com.semantic_graph.writer.GraphWriter
+import gnu.trove.map.hash.TObjectIntHashMap
+import gnu.trove.set.hash.TLongHashSet
+
+import scala.collection.mutable
+
+/**
+ * GraphWriter base that hands each node and edge to its subclass once, without holding the graph on the heap.
+ *
+ * Nodes are identified by label like in GexfWriter and numbered from 0 in order of creation; only the labels and
+ * their ids are kept. Edges are deduplicated by source, target and attributes, so an edge added again is written
+ * once. Closing drops whatever the subclass spilled to disk.
+ */
+abstract class DedupGraphWriter[NodeAttr, EdgeAttr] extends GraphWriter[NodeAttr, EdgeAttr] with Closeable {
+    // Node id by label
+    private val nodeIds = new TObjectIntHashMap[String](1024, 0.5f, -1)
+
+    // Edges written, as source << 32 | target, by attributes
+    private val edges = mutable.Map[Map[EdgeAttr, String], TLongHashSet]()
+
+    protected def writeNode(id: Int, label: String, attrs: Map[NodeAttr, String]): Unit
+
+    protected def writeEdge(from: Int, to: Int, attrs: Map[EdgeAttr, String]): Unit
+
+    override def createNode(label: String, attrs: Map[NodeAttr, String]): NodeId = {
+        val id = nodeIds.get(label)
+        if (id >= 0) {
+            return NodeId(id.toString)
+        }
+        val newId = nodeIds.size()
+        nodeIds.put(label, newId)
+        writeNode(newId, label, attrs)
+        NodeId(newId.toString)
+    }
+
+    override def addEdge(from: NodeId, to: NodeId, attrs: Map[EdgeAttr, String]): Unit = {
+        val source = from.id.toInt
+        val target = to.id.toInt
+        if (edges.getOrElseUpdate(attrs, new TLongHashSet()).add((source.toLong << 32) | (target & 0xffffffffL))) {
+            writeEdge(source, target, attrs)
+        }
+    }
+}
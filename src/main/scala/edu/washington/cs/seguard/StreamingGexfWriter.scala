@@ -0,0 +1,144 @@
+package edu.washington.cs.seguard
+
+import java.io.{BufferedOutputStream, BufferedWriter, File, FileOutputStream, OutputStreamWriter, Writer}
+import java.nio.charset.StandardCharsets
+import java.nio.file.Files
+import java.text.SimpleDateFormat
+import java.util.Date
+
+import scala.collection.mutable
+
+/**
+ * GraphWriter producing the same attributes, nodes and edges as GexfWriter without holding the graph on the heap:
+ * nodes and edges are appended to spill files in spillDir as they are created, and write assembles the GEXF from
+ * them. Edges come in order of creation rather than grouped by source node, and an edge added again with the same
+ * attributes is written once, where gexf4j rejects a second edge between two nodes.
+ */
+class StreamingGexfWriter[NodeAttr, EdgeAttr](spillDir: File) extends DedupGraphWriter[NodeAttr, EdgeAttr] {
+    private val nodesFile = File.createTempFile("nodes", ".gexf.part", spillDir)
+    private val edgesFile = File.createTempFile("edges", ".gexf.part", spillDir)
+    nodesFile.deleteOnExit()
+    edgesFile.deleteOnExit()
+    private var nodesOut: Writer = open(nodesFile)
+    private var edgesOut: Writer = open(edgesFile)
+
+    private var edgeCount = 0
+
+    // Attributes declared, in order of first use
+    private val nodeAttrs = mutable.LinkedHashSet[NodeAttr]()
+    private val edgeAttrs = mutable.LinkedHashSet[EdgeAttr]()
+
+    override protected def writeNode(id: Int, label: String, attrs: Map[NodeAttr, String]): Unit = {
+        nodeAttrs ++= attrs.keys
+        nodesOut.write("      <node id=\"" + id + "\" label=\"" + escape(label) + "\">\n")
+        writeAttValues(nodesOut, attrs)
+        nodesOut.write("      </node>\n")
+    }
+
+    override protected def writeEdge(from: Int, to: Int, attrs: Map[EdgeAttr, String]): Unit = {
+        edgeAttrs ++= attrs.keys
+        edgesOut.write("      <edge id=\"" + edgeCount + "\" source=\"" + from + "\" target=\"" + to
+            + "\" type=\"directed\">\n")
+        writeAttValues(edgesOut, attrs)
+        edgesOut.write("      </edge>\n")
+        edgeCount += 1
+    }
+
+    override def write(path: String): Unit = {
+        nodesOut.close()
+        edgesOut.close()
+        val stream = new BufferedOutputStream(new FileOutputStream(path), 1 << 16)
+        val out = new OutputStreamWriter(stream, StandardCharsets.UTF_8)
+        try {
+            out.write("<?xml version='1.0' encoding='UTF-8'?>\n")
+            out.write("<gexf xmlns=\"http://www.gexf.net/1.2draft\" " +
+                "xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" " +
+                "xsi:schemaLocation=\"http://www.gexf.net/1.2draft http://www.gexf.net/1.2draft/gexf.xsd\" " +
+                "version=\"1.2\">\n")
+            out.write("  <meta lastmodifieddate=\"" + new SimpleDateFormat("yyyy-MM-dd").format(new Date()) + "\">\n")
+            out.write("  </meta>\n")
+            out.write("  <graph defaultedgetype=\"directed\" mode=\"static\">\n")
+            writeAttributes(out, "node", nodeAttrs)
+            writeAttributes(out, "edge", edgeAttrs)
+            out.write("    <nodes>\n")
+            out.flush()
+            Files.copy(nodesFile.toPath, stream)
+            out.write("    </nodes>\n")
+            out.write("    <edges>\n")
+            out.flush()
+            Files.copy(edgesFile.toPath, stream)
+            out.write("    </edges>\n")
+            out.write("  </graph>\n")
+            out.write("</gexf>\n")
+        } finally {
+            out.close()
+        }
+        // Later additions are appended, so that the graph can be written again
+        nodesOut = open(nodesFile, append = true)
+        edgesOut = open(edgesFile, append = true)
+    }
+
+    /**
+     * Drops the spill files, the writer cannot be used afterwards
+     */
+    def close(): Unit = {
+        nodesOut.close()
+        edgesOut.close()
+        nodesFile.delete()
+        edgesFile.delete()
+    }
+
+    private def writeAttributes(out: Writer, cls: String, attrs: Iterable[_]): Unit = {
+        if (attrs.isEmpty) {
+            return
+        }
+        out.write("    <attributes class=\"" + cls + "\" mode=\"static\">\n")
+        for (attr <- attrs) {
+            out.write("      <attribute id=\"" + escape(attr.toString) + "\" title=\"" + escape(attr.toString)
+                + "\" type=\"string\">\n")
+            out.write("      </attribute>\n")
+        }
+        out.write("    </attributes>\n")
+    }
+
+    private def writeAttValues(out: Writer, attrs: Map[_, String]): Unit = {
+        if (attrs.isEmpty) {
+            return
+        }
+        out.write("        <attvalues>\n")
+        for ((attr, value) <- attrs) {
+            out.write("          <attvalue for=\"" + escape(attr.toString) + "\" value=\"" + escape(value) + "\">\n")
+            out.write("          </attvalue>\n")
+        }
+        out.write("        </attvalues>\n")
+    }
+
+    private def open(file: File, append: Boolean = false): Writer =
+        new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, append), StandardCharsets.UTF_8), 1 << 16)
+
+    /**
+     * Escapes attribute values like the StAX writer of gexf4j
+     */
+    private def escape(s: String): String = {
+        var i = 0
+        while (i < s.length && "&<>\"".indexOf(s.charAt(i)) < 0) {
+            i += 1
+        }
+        if (i == s.length) {
+            return s
+        }
+        val sb = new java.lang.StringBuilder(s.length + 16)
+        sb.append(s, 0, i)
+        while (i < s.length) {
+            s.charAt(i) match {
+                case '&' => sb.append("&amp;")
+                case '<' => sb.append("&lt;")
+                case '>' => sb.append("&gt;")
+                case '"' => sb.append("&quot;")
+                case c => sb.append(c)
+            }
+            i += 1
+        }
+        sb.toString
+    }
+}
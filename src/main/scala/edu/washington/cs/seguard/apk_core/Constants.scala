@@ -3,9 +3,14 @@ package edu.washington.cs.seguard.apk_core
 import presto.android.Hierarchy
 import soot.{Scene, SootClass, SootMethod}
 
-object Constants {
-  val hierarchy: Hierarchy = Hierarchy.v()
-
+import scala.collection.mutable
+
+/**
+ * Android background-context knowledge about the current Scene.
+ * Created per analyzed app since it holds classes of the current Scene.
+ * Only needs the subclass queries of the hierarchy, see Hierarchy.onDemand.
+ */
+class Constants(hierarchy: Hierarchy) {
   private def backgroundApiKeywords = List(
     "org.apache.cordova.Callback",
     "org.apache.cordova.api.CordovaPlugin",
@@ -35,13 +40,18 @@ object Constants {
 
   private val activityClasses = androidActivityClassNames.map(Scene.v().getSootClass(_))
 
-  def isActivity(c: SootClass): Boolean = activityClasses.exists(activityClass => hierarchy.isSubclassOf(c, activityClass))
+  private val activityVerdicts = mutable.Map[SootClass, Boolean]()
+
+  def isActivity(c: SootClass): Boolean =
+    activityVerdicts.getOrElseUpdate(c, activityClasses.exists(activityClass => hierarchy.isSubclassOf(c, activityClass)))
 
   private val serviceClass = Scene.v().getSootClass("android.app.Service")
   private val asyncTaskClass = Scene.v().getSootClass("android.os.AsyncTask")
+  private val serviceVerdicts = mutable.Map[SootClass, Boolean]()
+  private val asyncTaskVerdicts = mutable.Map[SootClass, Boolean]()
 
-  def isService(c: SootClass): Boolean = hierarchy.isSubclassOf(c, serviceClass)
-  def isAsyncTask(c: SootClass): Boolean = hierarchy.isSubclassOf(c, asyncTaskClass)
+  def isService(c: SootClass): Boolean = serviceVerdicts.getOrElseUpdate(c, hierarchy.isSubclassOf(c, serviceClass))
+  def isAsyncTask(c: SootClass): Boolean = asyncTaskVerdicts.getOrElseUpdate(c, hierarchy.isSubclassOf(c, asyncTaskClass))
 
   def isBackgroundClass(clazz: SootClass): Boolean =
     isActivity(clazz) || isService(clazz) || isAsyncTask(clazz)
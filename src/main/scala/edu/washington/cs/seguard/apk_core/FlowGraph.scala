@@ -6,7 +6,7 @@
 
 package edu.washington.cs.seguard.apk_core
 
-import java.io.PrintWriter
+import java.io.{File, PrintWriter}
 import java.util.Collections
 
 import com.semantic_graph.NodeId
@@ -16,15 +16,20 @@ import edu.washington.cs.seguard.SeGuardEdgeAttr.SeGuardEdgeAttr
 import edu.washington.cs.seguard.SeGuardNodeAttr.SeGuardNodeAttr
 import edu.washington.cs.seguard.core.IFDSDataFlowTransformer
 import edu.washington.cs.seguard.pe.AliasRewriter
-import edu.washington.cs.seguard.util.StatManager
+import edu.washington.cs.seguard.util.{ClassFactsCache, DexClassHasher, PlatformFingerprint, ReachabilityEngine, StatManager, StatPhase}
+import edu.washington.cs.seguard.util.StatKey._
+import edu.washington.cs.seguard.util.ClassFactsCache.{ClassFacts, Fact, Kind, MethodNode}
+import gnu.trove.list.array.TIntArrayList
 import org.apache.commons.lang3.StringEscapeUtils
 import org.slf4j.Logger
 import org.slf4j.LoggerFactory
+import presto.android.Hierarchy
 import soot.jimple.{InstanceInvokeExpr, IntConstant, ReturnStmt, Stmt, StringConstant}
 import soot.jimple.infoflow.entryPointCreators.DefaultEntryPointCreator
 import soot.jimple.toolkits.callgraph.{CallGraph, Edge}
 import soot.toolkits.graph.{BriefUnitGraph, DirectedGraph, MHGDominatorsFinder}
 import soot.toolkits.scalar.{LocalDefs, SimpleLiveLocals, SmartLocalDefs}
+import soot.options.Options
 import soot.{Body, Local, PackManager, RefType, Scene, SceneTransformer, SootClass, SootMethod, Transform}
 
 import scala.collection.mutable
@@ -37,11 +42,23 @@ class FlowGraph(conditions: Conditions, statManager: StatManager,
     private val libraryClasses = mutable.Set[SootClass]()
     private def isLibraryClass(c: SootClass) = libraryClasses.contains(c)
 
+    // Built on first use, i.e. after the Scene of this app is loaded
+    private lazy val constants = new Constants(Hierarchy.onDemand())
+
+    // Incremental cache of per-class facts, null if disabled
+    private val factsCache = ClassFactsCache.open(config, statManager)
+    // Class name -> cache key, facts found in the cache, and facts being recorded for the classes missing there
+    private val classKeys = new java.util.HashMap[String, String]()
+    private val cachedFacts = new java.util.HashMap[String, ClassFacts]()
+    private val recordedFacts = new java.util.LinkedHashMap[String, ClassFacts]()
+
     /**
      * Construct flow-graph
      */
     def Main(): Unit = {
-        Scene.v().loadNecessaryClasses()
+        timed(StatPhase.SOOT_LOAD) {
+            Scene.v().loadNecessaryClasses()
+        }
 
         for (c <- Scene.v().getClasses.asScala) {
             if (config.getLibraryPrefixes.asScala.exists(prefix => c.getName.startsWith(prefix))) {
@@ -49,65 +66,135 @@ class FlowGraph(conditions: Conditions, statManager: StatManager,
             }
         }
 
-        // FIXME: port StatManager to Scala
-        //        if (statManager != null) {
-        //            statManager.put(BASIC_CLASSES, Scene.v().getBasicClasses().size());
-        //            statManager.put(CLASSES, Scene.v().getClasses().size());
-        //            statManager.put(LIBRARY_CLASSES, Scene.v().getLibraryClasses().size());
-        //            statManager.put(PHANTON_CLASSES, Scene.v().getPhantomClasses().size());
-        //        }
+        if (statManager != null) {
+            statManager.put(BASIC_CLASSES, Scene.v().getBasicClasses.size())
+            statManager.put(CLASSES, Scene.v().getClasses.size())
+            statManager.put(LIBRARY_CLASSES, Scene.v().getLibraryClasses.size())
+            statManager.put(PHANTON_CLASSES, Scene.v().getPhantomClasses.size())
+        }
 
-        val staticStringMap = setEntrypointsAndGetStaticStringMap()
+        val staticStringMap = timed(StatPhase.ENTRYPOINT_CREATION) {
+            lookupCachedFacts()
+            setEntrypointsAndGetStaticStringMap()
+        }
         addStaticStringFactsToGraph(staticStringMap)
 
         val transformer = new IFDSDataFlowTransformer(conditions, config)
 
         // Resolve some aliasing by instrumentation to ease the next phase of analysis
-        PackManager.v().getPack("wjtp").add(new Transform("wjtp.aliasrewriter", new AliasRewriter(conditions)));
+        PackManager.v().getPack("wjtp").add(new Transform("wjtp.aliasrewriter",
+            timedTransformer(StatPhase.ALIAS_REWRITE,
+                new AliasRewriter(conditions, statManager, config))))
         // Run our IFDS/IDE data-flow analysis (DFA)
-        PackManager.v().getPack("wjtp").add(new Transform("wjtp.herosifds", transformer));
+        PackManager.v().getPack("wjtp").add(new Transform("wjtp.herosifds",
+            timedTransformer(StatPhase.IFDS, transformer)));
         // Collect results into the flow-graph by first analyzing the data-flow facts from previous FDA and also
         // static facts from call-graph
         PackManager.v().getPack("wjtp").add(new Transform("wjtp.myTransform", new SceneTransformer() {
             override def internalTransform(phaseName: String, options: java.util.Map[String, String]) {
-                addAllDataFlowFactsToGraph(transformer)
-                addOtherFactsToGraph()
+                timed(StatPhase.GRAPH_BUILD) {
+                    addAllDataFlowFactsToGraph(transformer)
+                    addOtherFactsToGraph()
+                }
             }
         }));
         logger.info("Run Soot packs...")
         SootOptionManager.Manager().sootRunPacks()
     }
 
+    /**
+     * Run body as phase of the statistics, if any
+     */
+    private def timed[T](phase: StatPhase)(body: => T): T = {
+        if (statManager == null) {
+            return body
+        }
+        val timer = statManager.time(phase)
+        try {
+            body
+        } finally {
+            timer.close()
+        }
+    }
+
+    private def timedTransformer(phase: StatPhase, transformer: SceneTransformer): SceneTransformer =
+        new SceneTransformer() {
+            override def internalTransform(phaseName: String, options: java.util.Map[String, String]): Unit =
+                timed(phase) {
+                    transformer.transform(phaseName, options)
+                }
+        }
+
     /**
      * Collect some data-flow facts into flow-graph
      */
     private def addAllDataFlowFactsToGraph(transformer: IFDSDataFlowTransformer): Unit = {
-        for (cls <- Scene.v().getClasses.asScala) {
-            for (m <- cls.getMethods.asScala) {
-                if (!(cls.isJavaLibraryClass || !m.hasActiveBody) && !(conditions.blacklisted(m))) {
-                    val b = m.getActiveBody
-                    for (u <- b.getUnits.asScala) {
-                        val s = u.asInstanceOf[Stmt]
-                        if (s.containsInvokeExpr) {
-                            val invoked = s.getInvokeExpr.getMethod
-                            if (conditions.isSensitiveMethod(invoked)) {
-                                // For each value used by the sensitive method invocation
-                                for (vbox <- u.getUseBoxes.asScala) {
-                                    for (p <- transformer.solver.ifdsResultsAt(u).asScala) {
-                                        if (vbox.getValue.equals(p.getO1)) {
-                                            // Check what is the abstract value for the parameters and add data-flow facts
-                                            for (abstraction <- p.getO2.asScala) {
-                                                addDataFlowFactsToGraph(abstraction, graphWriter, invoked)
-                                            }
-                                        }
-                                    }
-                                }
-                            }
-                        }
+        val callSiteFacts = transformer.getCallSiteFacts
+        for (callSite <- callSiteFacts.getCallSites.asScala) {
+            val u = callSite.getUnit
+            // For each value used by the sensitive method invocation
+            for (vbox <- u.getUseBoxes.asScala) {
+                // Check what is the abstract value for the parameters and add data-flow facts
+                for (abstractions <- callSiteFacts.factsAt(u, vbox.getValue).asScala) {
+                    for (abstraction <- abstractions.asScala) {
+                        addDataFlowFactsToGraph(abstraction, graphWriter, callSite.getInvoked)
                     }
                 }
             }
         }
+        // Sensitive calls inside the summarized library methods
+        for ((invoked, abstractionSets) <- callSiteFacts.getSummarizedFacts.asScala) {
+            for (abstractions <- abstractionSets.asScala) {
+                for (abstraction <- abstractions.asScala) {
+                    addDataFlowFactsToGraph(abstraction, graphWriter, invoked)
+                }
+            }
+        }
+    }
+
+    /**
+     * Look up the facts of each application class defined in the APK in the incremental cache. The key of a
+     * class covers its bytecode and that of the classes it depends on, the conditions and the contents of the
+     * platform jars.
+     */
+    private def lookupCachedFacts(): Unit = {
+        if (factsCache == null) {
+            return
+        }
+        val hasher = DexClassHasher.fromApk(new File(Options.v().process_dir().get(0)))
+        val platform = PlatformFingerprint.ofClasspath(Options.v().soot_classpath())
+        val salt = ClassFactsCache.VERSION + "\n" + conditions.getFingerprint + "\n" + platform
+        for (cls <- Scene.v().getApplicationClasses.asScala) {
+            val key = hasher.classKey(cls.getName, salt)
+            if (key != null) {
+                classKeys.put(cls.getName, key)
+                val facts = factsCache.get(key)
+                if (facts != null) {
+                    cachedFacts.put(cls.getName, facts)
+                } else {
+                    recordedFacts.put(cls.getName, new ClassFacts())
+                }
+            }
+        }
+    }
+
+    private def writeRecordedFacts(): Unit = {
+        for ((className, facts) <- recordedFacts.asScala) {
+            factsCache.put(classKeys.get(className), facts)
+        }
+    }
+
+    private def staticStrings(cls: SootClass): Map[String, String] = {
+        val cached = cachedFacts.get(cls.getName)
+        if (cached != null && cached.getStaticStrings != null) {
+            return cached.getStaticStrings.asScala.toMap
+        }
+        val strings = Util.getStaticStrings(cls)
+        val recorded = recordedFacts.get(cls.getName)
+        if (recorded != null) {
+            recorded.setStaticStrings(strings)
+        }
+        strings.asScala.toMap
     }
 
     /**
@@ -122,7 +209,7 @@ class FlowGraph(conditions: Conditions, statManager: StatManager,
         for (appCls <- Scene.v().getApplicationClasses.asScala) {
             if (appCls.isConcrete) {
                 Scene.v().forceResolve(appCls.getName, SootClass.BODIES)
-                staticStringMap.put(appCls, Util.getStaticStrings(appCls).asScala.toMap)
+                staticStringMap.put(appCls, staticStrings(appCls))
                 for (appMethod <- appCls.getMethods.asScala) {
                     try {
                         appMethod.retrieveActiveBody()
@@ -137,11 +224,10 @@ class FlowGraph(conditions: Conditions, statManager: StatManager,
             }
         }
 
-        // FIXME: Reuse this code when statManager is ported
-        //        if (statManager != null) {
-        //            statManager.put(MS_NUM, ms.size());
-        //            statManager.put(ORIGINAL_NUM_ENTRYPOINTS, Scene.v().getEntryPoints().size());
-        //        }
+        if (statManager != null) {
+            statManager.put(MS_NUM, appMethods.size)
+            statManager.put(ORIGINAL_NUM_ENTRYPOINTS, Scene.v().getEntryPoints.size())
+        }
 
         val entryPoints = mutable.TreeSet[String]()
         // for each concrete application class's method with body
@@ -164,10 +250,9 @@ class FlowGraph(conditions: Conditions, statManager: StatManager,
             }
         }
 
-        // FIXME: Reuse this code when statManager is ported
-        //        if (statManager != null) {
-        //            statManager.put(NEW_NUM_ENTRYPOINTS, entryPoints.size());
-        //        }
+        if (statManager != null) {
+            statManager.put(NEW_NUM_ENTRYPOINTS, entryPoints.size)
+        }
 
         val entryPointCreator = new DefaultEntryPointCreator(entryPoints.asJavaCollection)
         val dummyMain = entryPointCreator.createDummyMain()
@@ -176,8 +261,10 @@ class FlowGraph(conditions: Conditions, statManager: StatManager,
         staticStringMap.toMap
     }
 
-    private val methodAndReachables = mutable.Map[SootMethod, mutable.Set[SootMethod]]()
-    private var methodTargets: Map[SootMethod, Set[SootMethod]] = _
+    // Call-graph methods by dense id, and which sensitive/data-flow methods each one reaches
+    private val methodIds = new java.util.HashMap[SootMethod, Integer]()
+    private val methodsById = mutable.ArrayBuffer[SootMethod]()
+    private var reachability: ReachabilityEngine = _
 
     /**
      * Patch the call graph with silly missing edges
@@ -217,37 +304,49 @@ class FlowGraph(conditions: Conditions, statManager: StatManager,
     }
 
 
-    def reachableMethods(m: SootMethod): Set[SootMethod] = {
-        methodAndReachables.get(m) match {
-            case Some(s) => return s.toSet
-            case None =>
-        }
-        val reachables = mutable.Set[SootMethod](m)
-        methodAndReachables.put(m, reachables)
-        val worklist = mutable.Queue[SootMethod]()
-        worklist.addOne(m)
-        while (worklist.nonEmpty) {
-            val source = worklist.dequeue()
-            methodTargets.get(source) match {
-                case Some(targets) =>
-                    for (target <- targets) {
-                        if (!reachables.contains(target)) {
-                            reachables.add(target)
-                            worklist.addOne(target)
-                        }
-                    }
-                case None =>
+    private def methodId(m: SootMethod): Int = {
+        val id = methodIds.get(m)
+        if (id != null) {
+            return id
+        }
+        methodIds.put(m, methodsById.size)
+        methodsById.addOne(m)
+        methodsById.size - 1
+    }
+
+    /**
+     * Index the call graph for reachability queries towards sensitive and data-flow methods
+     */
+    private def buildReachability(cg: CallGraph): Unit = {
+        val successors = mutable.ArrayBuffer[TIntArrayList]()
+        for (e <- cg.asScala) {
+            val src = methodId(e.getSrc.method())
+            val tgt = methodId(e.getTgt.method())
+            while (successors.size < methodsById.size) {
+                successors.addOne(new TIntArrayList(2))
+            }
+            successors(src).add(tgt)
+        }
+        val targets = new java.util.BitSet(methodsById.size)
+        for (id <- methodsById.indices) {
+            val m = methodsById(id)
+            if (conditions.isSensitiveMethod(m) || conditions.isDataflowMethod(m)) {
+                targets.set(id)
             }
         }
-        reachables.toSet
+        reachability = new ReachabilityEngine(successors.map(_.toArray).toArray, targets)
     }
 
     def addCallFactsFromReachables(method: SootMethod): Unit = {
-        for (reached <- reachableMethods(method)) {
-            if (conditions.isSensitiveMethod(reached) || conditions.isDataflowMethod(reached)) {
-                addCallEdge(method, reached)
+        val id = methodIds.get(method)
+        if (id == null) {
+            // Not in the call graph, so it only reaches itself
+            if (conditions.isSensitiveMethod(method) || conditions.isDataflowMethod(method)) {
+                addCallEdge(method, method)
             }
+            return
         }
+        reachability.forEachReachableTarget(id, reached => addCallEdge(method, methodsById(reached)))
     }
 
     /**
@@ -258,13 +357,11 @@ class FlowGraph(conditions: Conditions, statManager: StatManager,
 
         val cg = Scene.v().getCallGraph
 
-        methodTargets = Scene.v().getCallGraph.sourceMethods().asScala.map(src => (
-          src.method(), Scene.v().getCallGraph.edgesOutOf(src).asScala.map(_.getTgt.method()).toSet)).toMap
+        buildReachability(cg)
 
-        // FIXME: Reuse this code when statManager is ported
-        //        if (statManager != null) {
-        //            statManager.put(CG_SIZE, cg.size());
-        //        }
+        if (statManager != null) {
+            statManager.put(CG_SIZE, cg.size())
+        }
 
         if (config.isDebug) {
             val printWriter = new PrintWriter(config.getCallGraphDumpPath)
@@ -279,34 +376,88 @@ class FlowGraph(conditions: Conditions, statManager: StatManager,
         val classes = Scene.v().getClasses.asScala.toList
         for (cls <- classes) {
             if (cls.isApplicationClass) {
+                val cached = cachedFacts.get(cls.getName)
+                val recorded = recordedFacts.get(cls.getName)
                 for (method <- cls.getMethods.asScala) {
                     if (!method.isJavaLibraryMethod) {
-                        if (Constants.isBackgroundContextAPI(method)) {
+                        if (constants.isBackgroundContextAPI(method)) {
                             addCallFactsFromReachables(method)
                         }
 
-                        if (!conditions.blacklisted(method)) {
-                            collectSensitiveInheritance(method)
-
-                            try {
-                                method.retrieveActiveBody()
-                                val b = method.getActiveBody
-                                if (b != null) {
-                                    addIntraprocFactsToGraph(method, b)
-                                } else {
-                                    logger.warn("Failed to getActiveBody of {}", method.getSignature)
-                                }
-                            } catch {
-                                case _: RuntimeException =>
-                            }
+                        // Facts of methods unknown to the cache entry, e.g. created by Soot, are computed
+                        var facts = if (cached == null) null else cached.getMethodFacts(method.getSignature)
+                        if (facts == null) {
+                            facts = methodFacts(method)
+                        }
+                        if (recorded != null) {
+                            recorded.putMethodFacts(method.getSignature, facts)
                         }
+                        applyFacts(facts)
                     }
                 }
             }
         }
+
+        if (factsCache != null) {
+            writeRecordedFacts()
+        }
+    }
+
+    /**
+     * Sensitive inheritance and intraprocedural facts of method, depending only on its class and the classes
+     * this one depends on
+     */
+    private def methodFacts(method: SootMethod): java.util.List[Fact] = {
+        val facts = new java.util.ArrayList[Fact]()
+        if (!conditions.blacklisted(method)) {
+            collectSensitiveInheritance(method, facts)
+
+            try {
+                method.retrieveActiveBody()
+                val b = method.getActiveBody
+                if (b != null) {
+                    addIntraprocFacts(method, b, facts)
+                } else {
+                    logger.warn("Failed to getActiveBody of {}", method.getSignature)
+                }
+            } catch {
+                case _: RuntimeException =>
+            }
+        }
+        facts
+    }
+
+    /**
+     * Add facts to the graph in order
+     */
+    private def applyFacts(facts: java.util.List[Fact]): Unit = {
+        for (fact <- facts.asScala) {
+            fact.getKind match {
+                case Kind.INHERIT =>
+                    val u = createMethodNode(fact.getSource, Some(NodeType.SENSITIVE_PARENT))
+                    val v = createMethodNode(fact.getTarget, None)
+                    graphWriter.addEdge(u, v,  edgeAttrs(EdgeType.FROM_SENSITIVE_PARENT_TO_SENSITIVE_API))
+                case Kind.HAPPENS_BEFORE =>
+                    if (libNodeMethods.contains(fact.getSource.getSignature) && libNodeMethods.contains(fact.getTarget.getSignature)) {
+                        val u = createMethodNode(fact.getSource, None)
+                        val v = createMethodNode(fact.getTarget, None)
+                        graphWriter.addEdge(u, v, edgeAttrs(EdgeType.DOMINATE))
+                    }
+                case Kind.NODE =>
+                    createMethodNode(fact.getTarget, None)
+                case Kind.CONSTANT =>
+                    val v = createMethodNode(fact.getTarget, None)
+                    val u = graphWriter.createNode(fact.getConstant, nodeAttrs(fact.getConstantType))
+                    graphWriter.addEdge(u, v, edgeAttrs(EdgeType.DATAFLOW))
+                case Kind.RETURN =>
+                    val u = createMethodNode(fact.getSource, None)
+                    val v = createMethodNode(fact.getTarget, None)
+                    graphWriter.addEdge(u, v, edgeAttrs(EdgeType.DOMINATE))
+            }
+        }
     }
 
-    private def addIntraprocFactsToGraph(method: SootMethod, b: Body): Unit = {
+    private def addIntraprocFacts(method: SootMethod, b: Body, facts: java.util.List[Fact]): Unit = {
         val unitGraph = new BriefUnitGraph(b)
 
         // API happens-before
@@ -318,57 +469,53 @@ class FlowGraph(conditions: Conditions, statManager: StatManager,
         for (stmt <- unitGraph.asScala) {
             val currentInvoked = getInvokedMethod(stmt)
             if (currentInvoked == null) {
-                collectReturnDataflow(method, localDefs, stmt)
+                collectReturnDataflow(method, localDefs, stmt, facts)
             } else {
                 // TODO: fix the reversed call edge issue
                 // if `A` called `B: Runnable`'s `start`, then there should be edge from `A` to `B`, but it seems reversed now
 
-                addHappensBeforeFactToGraph(dominanceDirectedGraph, stmt, currentInvoked)
+                addHappensBeforeFact(dominanceDirectedGraph, stmt, currentInvoked, facts)
 
                 // NOTE: there is some bug with callgraph construction which doesn't link the parent with certain APIs,
                 // e.g. Runtime.exec correctly. Example: c577b7e730f955a5f99642e5a8898f64a5b5080d1bf2096804f9992a895ac956.apk
 //                addCallEdge(method, currentInvoked)
 
                 if ((conditions.isSensitiveMethod(currentInvoked)) || conditions.isDataflowMethod(currentInvoked)) {
-                    addLocalDataflowIntoSensitiveAPIFactToGraph(stmt, currentInvoked)
+                    addLocalDataflowIntoSensitiveAPIFact(stmt, currentInvoked, facts)
                 }
             }
         }
     }
 
-    private val libNodeMethods = mutable.Set[SootMethod]()
+    // Signatures of the library methods with a node in the graph
+    private val libNodeMethods = mutable.Set[String]()
 
-    private def addLocalDataflowIntoSensitiveAPIFactToGraph(stmt: soot.Unit, currentInvoked: SootMethod): Unit = {
+    private def addLocalDataflowIntoSensitiveAPIFact(stmt: soot.Unit, currentInvoked: SootMethod,
+                                                     facts: java.util.List[Fact]): Unit = {
+        val v = methodNode(currentInvoked)
         for (use <- stmt.getUseBoxes.asScala) {
-            val v = createMethodNode(currentInvoked)
-            use.getValue match {
-                case intConstant: IntConstant =>
-                    val str = String.valueOf(intConstant.value)
-                    if (libNodeMethods.contains(currentInvoked)) {
-                        val u = graphWriter.createNode(str, Map(SeGuardNodeAttr.TYPE -> NodeType.CONST_INT.toString))
-                        graphWriter.addEdge(u, v, Map(SeGuardEdgeAttr.TYPE -> EdgeType.DATAFLOW.toString))
-                    }
-                case stringConstant: StringConstant =>
+            // The node of a library method is a library node once created, so constants flow into it
+            val constant = use.getValue match {
+                case intConstant: IntConstant if v.isLibrary =>
+                    new Fact(Kind.CONSTANT, null, v, String.valueOf(intConstant.value), NodeType.CONST_INT.toString)
+                case stringConstant: StringConstant if v.isLibrary =>
                     val str = Util.fixedDotStr(stringConstant.value)
-                    if (libNodeMethods.contains(currentInvoked) && !(str == null || str.length() > 256)) {
-                        val u = graphWriter.createNode(str, Map(SeGuardNodeAttr.TYPE -> NodeType.CONST_STRING.toString))
-                        graphWriter.addEdge(u, v, Map(SeGuardEdgeAttr.TYPE -> EdgeType.DATAFLOW.toString))
-                    }
-                case _ =>
+                    if (str == null || str.length() > 256) null
+                    else new Fact(Kind.CONSTANT, null, v, str, NodeType.CONST_STRING.toString)
+                case _ => null
             }
+            facts.add(if (constant != null) constant else new Fact(Kind.NODE, null, v, null, null))
         }
     }
 
-    private def addHappensBeforeFactToGraph(dominanceDirectedGraph: DirectedGraph[soot.Unit],
-                                     stmt: soot.Unit, currentInvoked: SootMethod) {
+    private def addHappensBeforeFact(dominanceDirectedGraph: DirectedGraph[soot.Unit],
+                                     stmt: soot.Unit, currentInvoked: SootMethod, facts: java.util.List[Fact]) {
         for (dominator <- dominanceDirectedGraph.getPredsOf(stmt).asScala) {
             val domInvoked = getInvokedMethod(dominator)
             if (domInvoked != null) {
-                if (libNodeMethods.contains(domInvoked) && libNodeMethods.contains(currentInvoked)
-                  && conditions.isSensitiveMethod(domInvoked) && conditions.isSensitiveMethod(currentInvoked)) {
-                    val u = createMethodNode(domInvoked)
-                    val v = createMethodNode(currentInvoked)
-                    graphWriter.addEdge(u, v, Map(SeGuardEdgeAttr.TYPE -> EdgeType.DOMINATE.toString))
+                // Whether both are library nodes by then is decided when the fact is applied
+                if (conditions.isSensitiveMethod(domInvoked) && conditions.isSensitiveMethod(currentInvoked)) {
+                    facts.add(new Fact(Kind.HAPPENS_BEFORE, methodNode(domInvoked), methodNode(currentInvoked), null, null))
                 }
             }
         }
@@ -377,7 +524,8 @@ class FlowGraph(conditions: Conditions, statManager: StatManager,
     /**
      * Dataflow from return value's source methods to the method which returns
      */
-    private def collectReturnDataflow(method: SootMethod, localDefs: LocalDefs, stmt: soot.Unit): Unit = {
+    private def collectReturnDataflow(method: SootMethod, localDefs: LocalDefs, stmt: soot.Unit,
+                                      facts: java.util.List[Fact]): Unit = {
         if (stmt.isInstanceOf[ReturnStmt]) {
             for (use <- stmt.getUseBoxes.asScala) {
                 use.getValue match {
@@ -385,9 +533,7 @@ class FlowGraph(conditions: Conditions, statManager: StatManager,
                         for (defUnit <- localDefs.getDefsOfAt(l, stmt).asScala) {
                             val defInvoked = getInvokedMethod(defUnit)
                             if (defInvoked != null) {
-                                val u = createMethodNode(defInvoked)
-                                val v = createMethodNode(method)
-                                graphWriter.addEdge(u, v, Map(SeGuardEdgeAttr.TYPE -> EdgeType.DOMINATE.toString))
+                                facts.add(new Fact(Kind.RETURN, methodNode(defInvoked), methodNode(method), null, null))
                             }
                         }
                     case _ =>
@@ -396,13 +542,11 @@ class FlowGraph(conditions: Conditions, statManager: StatManager,
         }
     }
 
-    private def collectSensitiveInheritance(method: SootMethod): Unit = {
+    private def collectSensitiveInheritance(method: SootMethod, facts: java.util.List[Fact]): Unit = {
         val sensitiveParent = conditions.getSensitiveParentClassWithMethod(method.getDeclaringClass, method.getSubSignature)
         if (sensitiveParent != null) {
             val pM = sensitiveParent.getMethod(method.getSubSignature)
-            val u = createMethodNode(pM, nodeTypeOpt = Some(NodeType.SENSITIVE_PARENT))
-            val v = createMethodNode(method)
-            graphWriter.addEdge(u, v,  Map(SeGuardEdgeAttr.TYPE -> EdgeType.FROM_SENSITIVE_PARENT_TO_SENSITIVE_API.toString))
+            facts.add(new Fact(Kind.INHERIT, methodNode(pM), methodNode(method), null, null))
         }
     }
 
@@ -422,30 +566,73 @@ class FlowGraph(conditions: Conditions, statManager: StatManager,
             val u = createMethodNode(src)
             val v = createMethodNode(tgt)
             if (!tgt.getDeclaringClass.getName.equals("java.lang.RuntimeException")) {
-                graphWriter.addEdge(u, v, Map(SeGuardEdgeAttr.TYPE -> EdgeType.CALL.toString))
+                graphWriter.addEdge(u, v, edgeAttrs(EdgeType.CALL))
             }
         }
     }
 
-    private def createMethodNode(method: SootMethod, nodeTypeOpt: Option[NodeType.Value] = None): NodeId = {
-        val tag = if (method.getDeclaringClass.isApplicationClass) {
-            "application"
-        } else {
-            libNodeMethods.add(method)
-            "library"
+    private def methodNode(method: SootMethod): MethodNode = {
+        new MethodNode(method.getSignature, method.getDeclaringClass.getName + "." + method.getName,
+            conditions.isSensitiveMethod(method), !method.getDeclaringClass.isApplicationClass)
+    }
+
+    // Node ids of the methods with their default node type, by method and by signature
+    private val methodNodeIds = new java.util.HashMap[SootMethod, NodeId]()
+    private val signatureNodeIds = new java.util.HashMap[String, NodeId]()
+
+    // Attribute maps built once rather than per node and edge: method nodes by
+    // 2 * node type + 1 if library, other nodes by node type name, edges by edge type
+    private val methodNodeAttrs = Array.tabulate(2 * NodeType.maxId)(i =>
+        Map(SeGuardNodeAttr.TYPE -> NodeType(i / 2).toString,
+            SeGuardNodeAttr.TAG -> (if (i % 2 == 1) "library" else "application")))
+    private val nodeAttrsByType = new java.util.HashMap[String, Map[SeGuardNodeAttr, String]]()
+    private val edgeAttrsById = Array.tabulate(EdgeType.maxId)(i => Map(SeGuardEdgeAttr.TYPE -> EdgeType(i).toString))
+
+    private def nodeAttrs(nodeType: String): Map[SeGuardNodeAttr, String] = {
+        var attrs = nodeAttrsByType.get(nodeType)
+        if (attrs == null) {
+            attrs = Map(SeGuardNodeAttr.TYPE -> nodeType)
+            nodeAttrsByType.put(nodeType, attrs)
+        }
+        attrs
+    }
+
+    private def nodeAttrs(nodeType: NodeType.Value): Map[SeGuardNodeAttr, String] = nodeAttrs(nodeType.toString)
+
+    private def edgeAttrs(edgeType: EdgeType.Value): Map[SeGuardEdgeAttr, String] = edgeAttrsById(edgeType.id)
+
+    private def createMethodNode(method: SootMethod): NodeId = {
+        var id = methodNodeIds.get(method)
+        if (id == null) {
+            id = createMethodNode(methodNode(method), None)
+            methodNodeIds.put(method, id)
+        }
+        id
+    }
+
+    private def createMethodNode(node: MethodNode, nodeTypeOpt: Option[NodeType.Value]): NodeId = {
+        if (nodeTypeOpt.isEmpty) {
+            val id = signatureNodeIds.get(node.getSignature)
+            if (id != null) {
+                return id
+            }
+        }
+        if (node.isLibrary) {
+            libNodeMethods.add(node.getSignature)
         }
         val nodeType = nodeTypeOpt match {
             case Some(t) => t
-            case None => if (conditions.isSensitiveMethod(method)) {
+            case None => if (node.isSensitive) {
                 NodeType.SENSITIVE_METHOD
             } else {
                 NodeType.METHOD
             }
         }
-        graphWriter.createNode(
-            method.getDeclaringClass.getName + "." + method.getName,
-            Map(SeGuardNodeAttr.TYPE -> nodeType.toString,
-                SeGuardNodeAttr.TAG -> tag))
+        val id = graphWriter.createNode(node.getLabel, methodNodeAttrs(2 * nodeType.id + (if (node.isLibrary) 1 else 0)))
+        if (nodeTypeOpt.isEmpty) {
+            signatureNodeIds.put(node.getSignature, id)
+        }
+        id
     }
 
     /**
@@ -462,8 +649,8 @@ class FlowGraph(conditions: Conditions, statManager: StatManager,
                             logger.warn("Skip too long static string {}", value)
                         } else {
                             val assignment = fieldName + " = " + StringEscapeUtils.escapeJava(value)
-                            val v = graphWriter.createNode(assignment, Map(SeGuardNodeAttr.TYPE -> NodeType.STMT.toString))
-                            graphWriter.addEdge(v, u, Map(SeGuardEdgeAttr.TYPE -> EdgeType.DATAFLOW.toString))
+                            val v = graphWriter.createNode(assignment, nodeAttrs(NodeType.STMT))
+                            graphWriter.addEdge(v, u, edgeAttrs(EdgeType.DATAFLOW))
                         }
                     }
                 } catch {
@@ -489,19 +676,21 @@ class FlowGraph(conditions: Conditions, statManager: StatManager,
             case Abstraction.StringConstant(s) =>
                 val str = Util.fixedDotStr(s)
                 if (str == null || str.length > 256) return
-                val u = g.createNode(str, Map(SeGuardNodeAttr.TYPE -> NodeType.CONST_STRING.toString))
+                val u = g.createNode(str, nodeAttrs(NodeType.CONST_STRING))
                 val v = createMethodNode(invoked)
-                g.addEdge(u, v, Map(SeGuardEdgeAttr.TYPE -> EdgeType.DATAFLOW.toString))
+                g.addEdge(u, v, edgeAttrs(EdgeType.DATAFLOW))
             case Abstraction.IntegerConstant(integer) =>
                 val str = String.valueOf(integer)
-                val u = g.createNode(str, Map(SeGuardNodeAttr.TYPE -> NodeType.CONST_INT.toString))
+                val u = g.createNode(str, nodeAttrs(NodeType.CONST_INT))
                 val v = createMethodNode(invoked)
-                g.addEdge(u, v, Map(SeGuardEdgeAttr.TYPE -> EdgeType.DATAFLOW.toString))
+                g.addEdge(u, v, edgeAttrs(EdgeType.DATAFLOW))
             case Abstraction.MethodConstant(method) =>
                 // Value returned from source method (u) is consumed by sink method (v)
                 val u = createMethodNode(method)
                 val v = createMethodNode(invoked)
-                g.addEdge(u, v, Map(SeGuardEdgeAttr.TYPE -> EdgeType.DATAFLOW.toString))
+                g.addEdge(u, v, edgeAttrs(EdgeType.DATAFLOW))
+            case Abstraction.ParameterConstant(_) =>
+                // Only seen while summarizing libraries
         }
     }
 }
@@ -0,0 +1,3 @@
+class KeyTable {
+  static final int[] KEY = {7, 1, 3};
+}
@@ -0,0 +1,3 @@
+class KeyTable {
+  static final int[] KEY = {9, 4};
+}
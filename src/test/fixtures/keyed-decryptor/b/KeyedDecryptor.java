@@ -0,0 +1,9 @@
+public class KeyedDecryptor {
+  public static String decrypt(String s) {
+    char[] out = new char[s.length()];
+    for (int i = 0; i < s.length(); i++) {
+      out[i] = (char) (s.charAt(i) ^ KeyTable.KEY[i % KeyTable.KEY.length]);
+    }
+    return new String(out);
+  }
+}
@@ -0,0 +1,12 @@
+/**
+ * Class with a real body, read from the jar even when the cache is installed
+ */
+public class NotAStub extends StubBase {
+    public NotAStub() {
+        super("real", 1);
+    }
+
+    public int twice(int x) {
+        return 2 * x;
+    }
+}
@@ -0,0 +1,26 @@
+/**
+ * Platform class as in android.jar: constants, fields and methods whose bodies only throw
+ */
+public class StubBase implements Runnable, Cloneable {
+    public static final int INT_CONSTANT = 7;
+    public static final long LONG_CONSTANT = 1L << 40;
+    public static final float FLOAT_CONSTANT = 1.5f;
+    public static final double DOUBLE_CONSTANT = 2.5;
+    public static final String STRING_CONSTANT = "stub";
+    protected Object field;
+    public static int[][] table;
+
+    public StubBase(String name, int flags) {
+        throw new RuntimeException("Stub!");
+    }
+
+    public void run() {
+        throw new RuntimeException("Stub!");
+    }
+
+    public static String describe(long x, double y, char[] z) throws java.io.IOException {
+        throw new RuntimeException("Stub!");
+    }
+
+    public native int nativeMethod();
+}
@@ -0,0 +1,20 @@
+/**
+ * Platform subclass whose constructors call the super constructor with null and zero arguments first
+ */
+public abstract class StubDerived extends StubBase implements StubInterface {
+    public StubDerived() {
+        super(null, 0);
+        throw new RuntimeException("Stub!");
+    }
+
+    protected StubDerived(Object o) {
+        super((String) null, 0);
+        throw new RuntimeException("Stub!");
+    }
+
+    public abstract boolean check(byte b, short s, float f);
+
+    protected synchronized final Object get() {
+        throw new RuntimeException("Stub!");
+    }
+}
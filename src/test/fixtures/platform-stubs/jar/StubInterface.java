@@ -0,0 +1,5 @@
+public interface StubInterface {
+    String NAME = "interface";
+
+    void callback(StubBase base);
+}
@@ -1,20 +1,37 @@
 package edu.washington.cs.seguard;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.io.File;
 import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import android.util.Base64;
+import com.google.gson.JsonParser;
+import edu.washington.cs.seguard.bench.Fixtures;
 import edu.washington.cs.seguard.core.IFDSDataFlowTransformer;
 import edu.washington.cs.seguard.pe.AliasRewriter;
+import edu.washington.cs.seguard.pe.DecryptorInterpreter;
+import edu.washington.cs.seguard.util.KeywordMatcher;
+import edu.washington.cs.seguard.util.PrefixTrie;
+import edu.washington.cs.seguard.util.StatKey;
+import edu.washington.cs.seguard.util.StatManager;
 import lombok.val;
 import org.junit.Test;
 
 import soot.*;
 
 import soot.jimple.InstanceInvokeExpr;
+import soot.jimple.IntConstant;
+import soot.jimple.Jimple;
 import soot.jimple.Stmt;
 import soot.options.Options;
 
@@ -103,8 +120,163 @@ public class AppTest
         PackManager.v().runPacks();
     }
 
+    /**
+     * The bodies of the application classes of the test scene after alias rewriting on the given threads
+     */
+    private static List<String> aliasRewrittenBodies(int threads) throws IOException {
+        Fixtures.loadTestScene();
+        val conditions = Fixtures.conditions(Fixtures.config());
+        Fixtures.applicationMethods();
+        new AliasRewriter(conditions, null, threads).transform();
+        List<String> bodies = new ArrayList<>();
+        for (SootMethod m : Fixtures.applicationMethods()) {
+            bodies.add(m.getActiveBody().toString());
+        }
+        return bodies;
+    }
+
+    @Test
+    public void testAliasRewriterThreadsGiveTheSameBodies() throws IOException {
+        assertEquals(1, new Config().getAliasRewriterThreads());
+        val serial = aliasRewrittenBodies(1);
+        assertFalse(serial.isEmpty());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(serial, aliasRewrittenBodies(4));
+        }
+    }
+
+    @Test
+    public void testStatManagerCombinesPutAndCount() throws IOException {
+        val apk = File.createTempFile("app", ".apk");
+        val stats = new StatManager(apk.getPath(), "core");
+        stats.put(StatKey.CLASSES, 41);
+        stats.COUNT(StatKey.CLASSES);
+        stats.COUNT(StatKey.CG_SIZE);
+        stats.put(StatKey.CG_SIZE, 7);
+        stats.writeToDisk();
+        val json = new JsonParser().parse(new String(Files.readAllBytes(new File(apk.getPath() + "-core.stat.json")
+                .toPath()), StandardCharsets.UTF_8)).getAsJsonObject();
+        assertEquals("42.0", json.get("CLASSES").toString());
+        assertEquals("7.0", json.get("CG_SIZE").toString());
+    }
+
     @Test
     public void testAndroidAPI() {
         System.out.println(new String(Base64.decode("aHR0cDovL3poZWthcHR5LmNvbQ==", 0)));
     }
+
+    @Test
+    public void testKeywordMatcher() {
+        val matcher = new KeywordMatcher(Arrays.asList("http", "sms", "tps:/", "su"));
+        assertTrue(matcher.containsAny("https://example.com"));
+        assertTrue(matcher.containsAny("/system/bin/su"));
+        assertTrue(matcher.containsAny("sendsms"));
+        assertFalse(matcher.containsAny("htt"));
+        assertFalse(matcher.containsAny(""));
+        assertTrue(new KeywordMatcher(Collections.singletonList("")).containsAny(""));
+        assertFalse(new KeywordMatcher(Collections.emptyList()).containsAny("http"));
+    }
+
+    @Test
+    public void testConstantClassifier() {
+        val classifier = new ConstantClassifier(Arrays.asList("http", "content://"), 2);
+        for (int i = 0; i < 2; i++) {
+            assertEquals("http://example.com", classifier.classify("http://example.com").toString());
+            assertEquals("INTEGER_STR", classifier.classify("0123").toString());
+            assertEquals("[other]", classifier.classify("12a").toString());
+            assertEquals("[other]", classifier.classify("").toString());
+        }
+    }
+
+    @Test
+    public void testPrefixTrie() {
+        val trie = new PrefixTrie(Arrays.asList("com.google", "android.support", "java"));
+        assertTrue(trie.hasPrefixOf("com.google.ads"));
+        assertTrue(trie.hasPrefixOf("javax.crypto"));
+        assertFalse(trie.hasPrefixOf("com.goo"));
+        assertFalse(trie.hasPrefixOf("android"));
+        assertTrue(new PrefixTrie(Collections.singletonList("")).hasPrefixOf("any"));
+    }
+
+    @Test
+    public void testConditionsReclassification() throws IOException {
+        SootOptionManager.Manager().buildOptionTest();
+        Scene.v().loadNecessaryClasses();
+        val conditions = new Conditions("config/SourcesAndSinks.txt", Config.load("src/test/resources/config.yaml"));
+        SootClass testClass = Scene.v().getSootClass("Test");
+        assertTrue(testClass.isApplicationClass());
+        assertFalse(conditions.isSensitiveEntrypointParent(testClass));
+        testClass.setLibraryClass();
+        assertTrue(conditions.isSensitiveEntrypointParent(testClass));
+        testClass.setApplicationClass();
+        assertFalse(conditions.isSensitiveEntrypointParent(testClass));
+        assertFalse(conditions.isSensitiveMethod(testClass.getMethodByName("testPFlow")));
+    }
+
+    @Test
+    public void testDecryptorInterpreter() throws Exception {
+        SootOptionManager.Manager().buildOptionTest();
+        Scene.v().loadNecessaryClasses();
+        SootClass decryptors = Scene.v().getSootClass("Decryptors");
+        val loader = new URLClassLoader(new URL[] {new File("src/test/resources").toURI().toURL()});
+        val cls = loader.loadClass("Decryptors");
+        val interpreter = new DecryptorInterpreter(100000);
+        for (String name : Arrays.asList("xor", "shift", "shiftTwice")) {
+            for (String input : Arrays.asList("", "khoor#zruog", "\u00e9t\u00e9")) {
+                assertEquals(name + "(" + input + ")", cls.getMethod(name, String.class).invoke(null, input),
+                        interpreter.interpret(decryptors.getMethodByName(name), input).getValue());
+            }
+        }
+        assertEquals("http://zhekapty.com",
+                interpreter.interpret(decryptors.getMethodByName("base64Xor"), "Mi4uKmB1dSAyPzE7Ki4jdDk1Nw==").getValue());
+        assertTrue(interpreter.interpret(decryptors.getMethodByName("xor"), "a").isDeterministic());
+        // Appends a char[] as an Object, i.e. its identity
+        assertFalse(interpreter.interpret(decryptors.getMethodByName("identity"), "a").isDeterministic());
+        for (String name : Arrays.asList("loop", "counted")) {
+            try {
+                interpreter.interpret(decryptors.getMethodByName(name), "a");
+                fail(name + " should not be interpreted");
+            } catch (DecryptorInterpreter.GiveUp expected) {
+                // Falls back to reflection
+            }
+        }
+    }
+
+    @Test
+    public void testDecryptorInterpreterConcurrentRewrite() throws Exception {
+        SootOptionManager.Manager().buildOptionTest();
+        Scene.v().loadNecessaryClasses();
+        SootClass decryptors = Scene.v().getSootClass("Decryptors");
+        SootMethod xor = decryptors.getMethodByName("xor");
+        val interpreter = new DecryptorInterpreter();
+        interpreter.snapshot(Collections.singletonList(decryptors));
+        // Rewrites the constants and the statements of the body, as the JimpleRewriter does on its threads
+        Body body = xor.retrieveActiveBody();
+        val stop = new AtomicBoolean();
+        val rewriter = new Thread(() -> {
+            while (!stop.get()) {
+                for (ValueBox box : body.getUseBoxes()) {
+                    if (box.getValue() instanceof IntConstant) {
+                        int value = ((IntConstant) box.getValue()).value;
+                        box.setValue(IntConstant.v(value + 1));
+                        box.setValue(IntConstant.v(value));
+                    }
+                }
+                Unit nop = Jimple.v().newNopStmt();
+                body.getUnits().insertBefore(nop, body.getUnits().getLast());
+                body.getUnits().remove(nop);
+            }
+        });
+        val loader = new URLClassLoader(new URL[] {new File("src/test/resources").toURI().toURL()});
+        val expected = loader.loadClass("Decryptors").getMethod("xor", String.class).invoke(null, "khoor#zruog");
+        rewriter.start();
+        try {
+            for (int i = 0; i < 1000; i++) {
+                assertEquals(expected, interpreter.interpret(xor, "khoor#zruog").getValue());
+            }
+        } finally {
+            stop.set(true);
+            rewriter.join();
+        }
+    }
 }
@@ -0,0 +1,240 @@
+package edu.washington.cs.seguard;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.*;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import com.semantic_graph.NodeId;
+import com.semantic_graph.writer.GexfWriter;
+import com.semantic_graph.writer.GraphWriter;
+import edu.washington.cs.seguard.util.BinaryGraphReader;
+import lombok.val;
+import org.junit.Test;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import scala.collection.immutable.Map;
+
+/**
+ * The graph writers of the core mode on random graphs, with repeated nodes and edges like FlowGraph adds them
+ */
+public class GraphWritersTest {
+    /**
+     * Node labels: constants, method names, strings of equal String.hashCode and non-ASCII ones. Characters
+     * outside the BMP are left out, gexf4j writes them as surrogate character references which XML rejects.
+     */
+    private static List<String> labels(Random random, int count) {
+        List<String> labels = new ArrayList<>(Arrays.asList("Aa", "BB", "AaAa", "BBBB", "AaBB", "", " ",
+                "été", "a\"b<c>&d"));
+        while (labels.size() < count) {
+            labels.add(random.nextBoolean() ? "Cls" + random.nextInt(1000) + ".m" + random.nextInt(50)
+                    : String.valueOf(random.nextInt()));
+        }
+        return labels;
+    }
+
+    private static Map<SeGuardNodeAttr$.Value, String> nodeAttrs(Random random) {
+        NodeType$.Value[] types = {NodeType.METHOD(), NodeType.SENSITIVE_METHOD(), NodeType.CONST_STRING(),
+                NodeType.STMT()};
+        String type = random.nextInt(10) == 0 ? "custom" : types[random.nextInt(types.length)].toString();
+        switch (random.nextInt(3)) {
+            case 0:
+                return new Map.Map1<>(SeGuardNodeAttr.TYPE(), type);
+            case 1:
+                return new Map.Map2<>(SeGuardNodeAttr.TYPE(), type, SeGuardNodeAttr.TAG(),
+                        random.nextBoolean() ? "library" : "application");
+            default:
+                return new Map.Map3<>(SeGuardNodeAttr.TYPE(), type, SeGuardNodeAttr.TAG(), "application",
+                        SeGuardNodeAttr.DOMAIN(), "example.com");
+        }
+    }
+
+    private static Map<SeGuardEdgeAttr$.Value, String> edgeAttrs(Random random) {
+        EdgeType$.Value[] types = {EdgeType.CALL(), EdgeType.DATAFLOW(), EdgeType.DOMINATE()};
+        String type = types[random.nextInt(types.length)].toString();
+        return random.nextBoolean() ? new Map.Map1<>(SeGuardEdgeAttr.TYPE(), type)
+                : new Map.Map2<>(SeGuardEdgeAttr.TYPE(), type, SeGuardEdgeAttr.TAG(), "t" + random.nextInt(3));
+    }
+
+    /**
+     * Adds the same random graph of about nodes / 4 nodes to each writer, each node several times, and each edge
+     * several times if repeatEdges, otherwise at most one edge between two nodes
+     */
+    @SafeVarargs
+    static void addRandomGraph(long seed, int nodes, int edges, boolean repeatEdges,
+                               GraphWriter<SeGuardNodeAttr$.Value, SeGuardEdgeAttr$.Value>... writers) {
+        val random = new Random(seed);
+        val labels = labels(random, nodes / 4);
+        List<List<NodeId>> ids = new ArrayList<>();
+        for (int i = 0; i < writers.length; i++) {
+            ids.add(new ArrayList<>());
+        }
+        for (int i = 0; i < nodes; i++) {
+            String label = labels.get(random.nextInt(labels.size()));
+            val attrs = nodeAttrs(random);
+            for (int w = 0; w < writers.length; w++) {
+                ids.get(w).add(writers[w].createNode(label, attrs));
+            }
+        }
+        Set<String> connected = new HashSet<>();
+        for (int i = 0; i < edges; i++) {
+            int from = random.nextInt(nodes);
+            int to = random.nextInt(nodes);
+            val attrs = edgeAttrs(random);
+            if (!repeatEdges && !connected.add(ids.get(0).get(from).id() + " " + ids.get(0).get(to).id())) {
+                continue;
+            }
+            for (int w = 0; w < writers.length; w++) {
+                writers[w].addEdge(ids.get(w).get(from), ids.get(w).get(to), attrs);
+            }
+        }
+    }
+
+    /**
+     * Keeps the graph as GexfWriter would write it: nodes by label with the attributes they were created with,
+     * edges once per source, target and attributes
+     */
+    private static final class ModelWriter implements GraphWriter<SeGuardNodeAttr$.Value, SeGuardEdgeAttr$.Value> {
+        final List<String> nodes = new ArrayList<>();
+        final java.util.Map<String, Integer> ids = new HashMap<>();
+        final Set<String> edges = new LinkedHashSet<>();
+
+        @Override
+        public NodeId createNode(String label, Map<SeGuardNodeAttr$.Value, String> attrs) {
+            Integer id = ids.get(label);
+            if (id == null) {
+                id = nodes.size();
+                ids.put(label, id);
+                nodes.add(nodeLine(id, label, attrs.get(SeGuardNodeAttr.TYPE()).getOrElse(() -> null),
+                        attrs.get(SeGuardNodeAttr.TAG()).getOrElse(() -> null),
+                        attrs.get(SeGuardNodeAttr.DOMAIN()).getOrElse(() -> null)));
+            }
+            return new NodeId(id.toString());
+        }
+
+        @Override
+        public void addEdge(NodeId from, NodeId to, Map<SeGuardEdgeAttr$.Value, String> attrs) {
+            edges.add(edgeLine(Integer.parseInt(from.id()), Integer.parseInt(to.id()),
+                    attrs.get(SeGuardEdgeAttr.TYPE()).getOrElse(() -> null),
+                    attrs.get(SeGuardEdgeAttr.TAG()).getOrElse(() -> null)));
+        }
+
+        @Override
+        public void write(String path) {
+        }
+    }
+
+    private static String nodeLine(int id, String label, String type, String tag, String domain) {
+        return id + " " + label + " " + type + " " + tag + " " + domain;
+    }
+
+    private static String edgeLine(int source, int target, String type, String tag) {
+        return source + " -> " + target + " " + type + " " + tag;
+    }
+
+    private static final class Collector implements BinaryGraphReader.Visitor {
+        final List<String> nodes = new ArrayList<>();
+        final List<String> edges = new ArrayList<>();
+
+        @Override
+        public void node(int id, String label, String type, String tag, String domain) {
+            nodes.add(nodeLine(id, label, type, tag, domain));
+        }
+
+        @Override
+        public void edge(int source, int target, String type, String tag) {
+            edges.add(edgeLine(source, target, type, tag));
+        }
+    }
+
+    @Test
+    public void testBinaryGraphRoundTrip() throws IOException {
+        for (boolean deflate : new boolean[] {false, true}) {
+            val dir = Files.createTempDirectory("binary-graph").toFile();
+            val model = new ModelWriter();
+            val writer = new BinaryGraphWriter(dir, deflate);
+            val file = new File(dir, "graph.sgfg");
+            try {
+                addRandomGraph(42, 20000, 40000, true, model, writer);
+                writer.write(file.getPath());
+            } finally {
+                writer.close();
+            }
+            val mapped = new Collector();
+            BinaryGraphReader.read(file, mapped);
+            val streamed = new Collector();
+            try (InputStream in = new FileInputStream(file)) {
+                BinaryGraphReader.read(in, streamed);
+            }
+            for (Collector read : Arrays.asList(mapped, streamed)) {
+                assertEquals(model.nodes, read.nodes);
+                assertEquals(new ArrayList<>(model.edges), read.edges);
+            }
+        }
+    }
+
+    /**
+     * The declared attributes and nodes of a GEXF file in file order, then its edges sorted: gexf4j writes them
+     * grouped by source node
+     */
+    private static List<String> readGexf(File file) throws Exception {
+        val document = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(file);
+        List<String> graph = new ArrayList<>();
+        NodeList attributes = document.getElementsByTagName("attribute");
+        for (int i = 0; i < attributes.getLength(); i++) {
+            Element attribute = (Element) attributes.item(i);
+            graph.add("attribute " + ((Element) attribute.getParentNode()).getAttribute("class") + " "
+                    + attribute.getAttribute("id") + " " + attribute.getAttribute("title") + " "
+                    + attribute.getAttribute("type"));
+        }
+        NodeList nodes = document.getElementsByTagName("node");
+        for (int i = 0; i < nodes.getLength(); i++) {
+            Element node = (Element) nodes.item(i);
+            graph.add("node " + node.getAttribute("id") + " " + node.getAttribute("label") + " " + attValues(node));
+        }
+        Set<String> edges = new TreeSet<>();
+        NodeList edgeElements = document.getElementsByTagName("edge");
+        for (int i = 0; i < edgeElements.getLength(); i++) {
+            Element edge = (Element) edgeElements.item(i);
+            edges.add("edge " + edge.getAttribute("id") + " " + edge.getAttribute("source") + " -> "
+                    + edge.getAttribute("target") + " " + edge.getAttribute("type") + " " + attValues(edge));
+        }
+        assertEquals(edgeElements.getLength(), edges.size());
+        graph.addAll(edges);
+        return graph;
+    }
+
+    private static String attValues(Element element) {
+        java.util.Map<String, String> values = new TreeMap<>();
+        NodeList attValues = element.getElementsByTagName("attvalue");
+        for (int i = 0; i < attValues.getLength(); i++) {
+            Element attValue = (Element) attValues.item(i);
+            values.put(attValue.getAttribute("for"), attValue.getAttribute("value"));
+        }
+        return values.toString();
+    }
+
+    @Test
+    public void testStreamingGexfMatchesGexfWriter() throws Exception {
+        val dir = Files.createTempDirectory("gexf").toFile();
+        val gexf = new GexfWriter<SeGuardNodeAttr$.Value, SeGuardEdgeAttr$.Value>();
+        val streaming = new StreamingGexfWriter<SeGuardNodeAttr$.Value, SeGuardEdgeAttr$.Value>(dir);
+        val expected = new File(dir, "expected.gexf");
+        val actual = new File(dir, "actual.gexf");
+        try {
+            // gexf4j looks for an existing edge on each new one, so the graph is smaller
+            addRandomGraph(7, 4000, 8000, false, gexf, streaming);
+            gexf.write(expected.getPath());
+            streaming.write(actual.getPath());
+        } finally {
+            streaming.close();
+        }
+        assertEquals(readGexf(expected), readGexf(actual));
+    }
+}
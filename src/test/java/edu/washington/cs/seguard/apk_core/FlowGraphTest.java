@@ -0,0 +1,113 @@
+package edu.washington.cs.seguard.apk_core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import com.semantic_graph.NodeId;
+import com.semantic_graph.writer.GraphWriter;
+import edu.washington.cs.seguard.Conditions;
+import edu.washington.cs.seguard.Config;
+import edu.washington.cs.seguard.SeGuardEdgeAttr$;
+import edu.washington.cs.seguard.SeGuardNodeAttr$;
+import edu.washington.cs.seguard.bench.Fixtures;
+import lombok.val;
+import org.junit.Test;
+import scala.collection.immutable.Map;
+
+public class FlowGraphTest {
+    /**
+     * Records the nodes and edges by label, so that graphs of different runs compare
+     */
+    private static final class RecordingWriter implements GraphWriter<SeGuardNodeAttr$.Value, SeGuardEdgeAttr$.Value> {
+        private final java.util.Map<NodeId, String> nodes = new HashMap<>();
+        private final Set<String> edges = new TreeSet<>();
+
+        @Override
+        public NodeId createNode(String label, Map<SeGuardNodeAttr$.Value, String> attrs) {
+            String node = label + " " + new TreeMap<>(scala.jdk.javaapi.CollectionConverters.asJava(attrs));
+            NodeId id = new NodeId(String.valueOf(nodes.size()));
+            nodes.put(id, node);
+            return id;
+        }
+
+        @Override
+        public void addEdge(NodeId from, NodeId to, Map<SeGuardEdgeAttr$.Value, String> attrs) {
+            edges.add(nodes.get(from) + " -> " + nodes.get(to) + " "
+                    + new TreeMap<>(scala.jdk.javaapi.CollectionConverters.asJava(attrs)));
+        }
+
+        @Override
+        public void write(String path) {
+        }
+
+        Set<String> nodeSet() {
+            return new TreeSet<>(nodes.values());
+        }
+    }
+
+    private static File buildDex() throws IOException {
+        val dex = Fixtures.testSceneDex();
+        assertTrue(dex.isFile());
+        return dex;
+    }
+
+    private static RecordingWriter run(File dex, Conditions conditions, Config config) {
+        Fixtures.coreOptions(dex);
+        conditions.clearCaches();
+        val writer = new RecordingWriter();
+        new FlowGraph(conditions, null, writer, config).Main();
+        return writer;
+    }
+
+    @Test
+    public void testReplayedFactsGiveTheSameGraph() throws IOException {
+        val dex = buildDex();
+        val config = Fixtures.config();
+        val conditions = Fixtures.conditions(config);
+        val fresh = run(dex, conditions, config);
+        assertFalse(fresh.edges.isEmpty());
+
+        val cacheDir = Files.createTempDirectory("class-facts").toFile();
+        config.setIncrementalCacheDir(cacheDir.getPath());
+        val recorded = run(dex, conditions, config);
+        val entries = Files.walk(cacheDir.toPath()).filter(Files::isRegularFile).collect(Collectors.toList());
+        assertFalse(entries.isEmpty());
+        for (val entry : entries) {
+            assertTrue(entry.toFile().setLastModified(0));
+        }
+
+        val replayed = run(dex, conditions, config);
+        // Every class was found in the cache, so no entry was written again
+        for (val entry : entries) {
+            assertEquals(entry.toString(), 0, entry.toFile().lastModified());
+        }
+        assertEquals(fresh.nodeSet(), recorded.nodeSet());
+        assertEquals(fresh.edges, recorded.edges);
+        assertEquals(fresh.nodeSet(), replayed.nodeSet());
+        assertEquals(fresh.edges, replayed.edges);
+    }
+
+    @Test
+    public void testSolverThreadsGiveTheSameGraph() throws IOException {
+        val dex = buildDex();
+        val config = Fixtures.config();
+        val conditions = Fixtures.conditions(config);
+        config.setSolverThreads(1);
+        val single = run(dex, conditions, config);
+        assertFalse(single.edges.isEmpty());
+
+        config.setSolverThreads(4);
+        for (int i = 0; i < 3; i++) {
+            val parallel = run(dex, conditions, config);
+            assertEquals(single.nodeSet(), parallel.nodeSet());
+            assertEquals(single.edges, parallel.edges);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package edu.washington.cs.seguard.bench;
+
+import edu.washington.cs.seguard.Abstraction;
+import edu.washington.cs.seguard.Config;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Classification of 1000 string constants per call by Abstraction.v(config, str), with a config of keywordCount
+ * random keywords. The constants are drawn from distinctConstants strings: with 200 they repeat a lot, as in real
+ * apps, and with 100000 each one comes back only after all the others. The benchmark uses Abstraction.v only, so
+ * that it runs unchanged against the classification of every version.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AbstractionBenchmark {
+    @Param({"50", "500"})
+    int keywordCount;
+
+    @Param({"200", "100000"})
+    int distinctConstants;
+
+    private Config config;
+    private String[] constants;
+    private int next;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        List<String> keywords = new ArrayList<>();
+        for (int i = 0; i < keywordCount; i++) {
+            keywords.add(randomWord(random, 5 + random.nextInt(8)));
+        }
+        config = new Config();
+        config.setSensitiveConstStringKeywords(keywords);
+
+        List<String> distinct = new ArrayList<>();
+        for (int i = 0; i < distinctConstants; i++) {
+            switch (i % 4) {
+                case 0:
+                    distinct.add("http://" + keywords.get(random.nextInt(keywords.size())) + ".com/" + i);
+                    break;
+                case 1:
+                    distinct.add(Integer.toString(random.nextInt(1000000)) + i);
+                    break;
+                default:
+                    distinct.add(randomWord(random, 10 + random.nextInt(40)) + i);
+            }
+        }
+        if (distinctConstants < 1000) {
+            constants = new String[1000];
+            for (int i = 0; i < constants.length; i++) {
+                constants[i] = distinct.get(random.nextInt(distinct.size()));
+            }
+        } else {
+            Collections.shuffle(distinct, random);
+            constants = distinct.toArray(new String[0]);
+        }
+    }
+
+    private static String randomWord(Random random, int length) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            sb.append((char) ('a' + random.nextInt(26)));
+        }
+        return sb.toString();
+    }
+
+    @Benchmark
+    public void classify(Blackhole blackhole) {
+        for (int i = 0; i < 1000; i++) {
+            blackhole.consume(Abstraction.v(config, constants[next]));
+            next = next + 1 == constants.length ? 0 : next + 1;
+        }
+    }
+}
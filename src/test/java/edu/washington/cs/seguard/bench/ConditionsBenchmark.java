@@ -0,0 +1,56 @@
+package edu.washington.cs.seguard.bench;
+
+import edu.washington.cs.seguard.Conditions;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import soot.SootMethod;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Verdicts of Conditions for 10000 calls drawn from the methods of the test Scene, as asked for every call site
+ * and edge endpoint: isSensitiveMethod with its verdicts cached and computed from scratch, and blacklisted.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ConditionsBenchmark {
+    private Conditions conditions;
+    private SootMethod[] calls;
+
+    @Setup
+    public void setup() throws Exception {
+        Fixtures.loadTestScene();
+        conditions = Fixtures.conditions(Fixtures.config());
+        List<SootMethod> methods = Fixtures.methods();
+        Random random = new Random(42);
+        calls = new SootMethod[10000];
+        for (int i = 0; i < calls.length; i++) {
+            calls[i] = methods.get(random.nextInt(methods.size()));
+        }
+    }
+
+    @Benchmark
+    public void isSensitiveMethod(Blackhole bh) {
+        for (SootMethod method : calls) {
+            bh.consume(conditions.isSensitiveMethod(method));
+        }
+    }
+
+    @Benchmark
+    public void isSensitiveMethodUncached(Blackhole bh) {
+        conditions.clearCaches();
+        for (SootMethod method : calls) {
+            bh.consume(conditions.isSensitiveMethod(method));
+        }
+    }
+
+    @Benchmark
+    public void blacklisted(Blackhole bh) {
+        for (SootMethod method : calls) {
+            bh.consume(conditions.blacklisted(method));
+        }
+    }
+}
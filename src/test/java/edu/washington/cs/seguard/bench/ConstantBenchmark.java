@@ -0,0 +1,61 @@
+package edu.washington.cs.seguard.bench;
+
+import edu.washington.cs.seguard.Abstraction;
+import edu.washington.cs.seguard.Config;
+import edu.washington.cs.seguard.Util;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import soot.jimple.IntConstant;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-constant work of the analysis on 1000 occurrences drawn from the string constants of the test classes and
+ * typical app strings: Abstraction.v of string and int constants, as done by the flow functions, and
+ * Util.fixedDotStr, as done for every constant node of the graph.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ConstantBenchmark {
+    private Config config;
+    private String[] strings;
+    private IntConstant[] ints;
+
+    @Setup
+    public void setup() {
+        Fixtures.loadTestScene();
+        config = Fixtures.config();
+        List<String> distinct = Fixtures.stringConstants();
+        Random random = new Random(42);
+        strings = new String[1000];
+        ints = new IntConstant[1000];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = distinct.get(random.nextInt(distinct.size()));
+            ints[i] = IntConstant.v(random.nextInt(256) - 128);
+        }
+    }
+
+    @Benchmark
+    public void abstractionOfString(Blackhole bh) {
+        for (String s : strings) {
+            bh.consume(Abstraction.v(config, s));
+        }
+    }
+
+    @Benchmark
+    public void abstractionOfInt(Blackhole bh) {
+        for (IntConstant c : ints) {
+            bh.consume(Abstraction.v(c));
+        }
+    }
+
+    @Benchmark
+    public void fixedDotStr(Blackhole bh) {
+        for (String s : strings) {
+            bh.consume(Util.fixedDotStr(s));
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package edu.washington.cs.seguard.bench;
+
+import edu.washington.cs.seguard.SootOptionManager;
+import edu.washington.cs.seguard.pe.DecryptorInterpreter;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.concurrent.TimeUnit;
+
+import soot.Scene;
+import soot.SootMethod;
+
+/**
+ * One decryptor call of the deobfuscator, on the decryptors of src/test/resources/Decryptors.java: interpreting
+ * the Jimple body against reflection, with the class already loaded and with a fresh class loader per call,
+ * which is what the first call to each decryptor of an APK pays.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DecryptorBenchmark {
+    @Param({"xor", "shift", "base64Xor"})
+    String decryptor;
+
+    private String argument;
+    private SootMethod sootMethod;
+    private DecryptorInterpreter interpreter;
+    private Method method;
+    private URL[] classPath;
+
+    @Setup
+    public void setup() throws Exception {
+        argument = decryptor.equals("base64Xor") ? "Mi4uKmB1dSAyPzE7Ki4jdDk1Nw==" : "khoor#zruog#iurp#d#ghfu|swru";
+        SootOptionManager.Manager().buildOptionTest();
+        Scene.v().loadNecessaryClasses();
+        sootMethod = Scene.v().getSootClass("Decryptors").getMethodByName(decryptor);
+        interpreter = new DecryptorInterpreter();
+        // Bodies are prepared on first use
+        interpreter.interpret(sootMethod, argument);
+        classPath = new URL[] {new File("src/test/resources").toURI().toURL()};
+        method = new URLClassLoader(classPath).loadClass("Decryptors").getMethod(decryptor, String.class);
+    }
+
+    @Benchmark
+    public String interpreted() throws DecryptorInterpreter.GiveUp {
+        return interpreter.interpret(sootMethod, argument).getValue();
+    }
+
+    @Benchmark
+    public Object reflective() throws Exception {
+        return method.invoke(null, argument);
+    }
+
+    @Benchmark
+    public Object reflectiveColdClass() throws Exception {
+        try (URLClassLoader loader = new URLClassLoader(classPath)) {
+            return loader.loadClass("Decryptors").getMethod(decryptor, String.class).invoke(null, argument);
+        }
+    }
+}
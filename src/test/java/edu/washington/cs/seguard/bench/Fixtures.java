@@ -0,0 +1,137 @@
+package edu.washington.cs.seguard.bench;
+
+import edu.washington.cs.seguard.Conditions;
+import edu.washington.cs.seguard.Config;
+import edu.washington.cs.seguard.SootOptionManager;
+import presto.android.Hierarchy;
+import soot.*;
+import soot.jimple.StringConstant;
+import soot.options.Options;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Scene and conditions shared by the benchmarks, built from the classes in src/test/resources so that they run
+ * offline. The config of the tests has empty lists, so the keyword lists are filled with typical ones.
+ */
+public final class Fixtures {
+    // String constants as found in apps, next to those of the test classes
+    private static final List<String> APP_STRINGS = Arrays.asList(
+            "http://example.com/api/v1/report", "https://ads.example.net/track?id=%s", "content://sms/inbox",
+            "android.intent.action.BOOT_COMPLETED", "/system/bin/su", "Ljava/lang/String;", "12345", "0", "", "%",
+            "com.example.app.MainActivity", "utf-8", "AES/CBC/PKCS5Padding", "getDeviceId", "a.b.c.d");
+
+    private Fixtures() {
+    }
+
+    /**
+     * Load the test classes into a fresh Scene, with dummyMainClass.dummyMainMethod as entry point
+     */
+    public static SootMethod loadTestScene() {
+        SootOptionManager.Manager().buildOptionTest();
+        Scene.v().loadNecessaryClasses();
+        Scene.v().addBasicClass("dummyMainClass", SootClass.BODIES);
+        Scene.v().loadClassAndSupport("dummyMainClass");
+        SootMethod main = Scene.v().getSootClass("dummyMainClass").getMethodByName("dummyMainMethod");
+        main.retrieveActiveBody();
+        Scene.v().setEntryPoints(Collections.singletonList(main));
+        return main;
+    }
+
+    /**
+     * Translate the classes of the test scene, but for the entry point class FlowGraph creates itself, into a
+     * dex file
+     */
+    public static File testSceneDex() throws IOException {
+        File dir = Files.createTempDirectory("flowgraph-dex").toFile();
+        SootOptionManager.Manager().buildOptionTest();
+        Options.v().set_output_format(Options.output_format_dex);
+        Options.v().set_output_dir(dir.getPath());
+        Scene.v().loadNecessaryClasses();
+        Scene.v().getSootClass("dummyMainClass").setLibraryClass();
+        PackManager.v().writeOutput();
+        return new File(dir, "classes.dex");
+    }
+
+    /**
+     * Reset Soot for FlowGraph.Main on an APK or dex file, with the Java classes of lib/rt.jar and phantom Android
+     * classes, so that no Android platform is needed
+     */
+    public static void coreOptions(File apk) {
+        soot.G.reset();
+        Hierarchy.reset();
+        Options.v().set_process_dir(Collections.singletonList(apk.getPath()));
+        Options.v().set_soot_classpath("lib/rt.jar");
+        Options.v().set_src_prec(Options.src_prec_apk);
+        Options.v().set_whole_program(true);
+        Options.v().set_allow_phantom_refs(true);
+        Options.v().set_ignore_resolution_errors(true);
+        Options.v().set_process_multiple_dex(true);
+        Options.v().set_no_writeout_body_releasing(true);
+        Options.v().set_output_format(Options.output_format_none);
+        Options.v().setPhaseOption("cg.spark", "on");
+        Options.v().set_no_bodies_for_excluded(true);
+        Options.v().set_omit_excepting_unit_edges(true);
+    }
+
+    public static Config config() {
+        Config config = Config.load("src/test/resources/config.yaml");
+        config.setSensitiveConstStringKeywords(Arrays.asList("http", "content://", "/su", "Something", "AES"));
+        config.setSensitiveMethodNames(Arrays.asList("exec", "loadLibrary", "getDeviceId", "sendTextMessage"));
+        config.setSensitivePackageNameKeywords(Arrays.asList("java.net", "android.telephony", "android.location"));
+        config.setBlacklistedPackagePrefixes(Arrays.asList("android.support", "com.google.android.gms", "kotlin"));
+        return config;
+    }
+
+    public static Conditions conditions(Config config) throws IOException {
+        return new Conditions("config/SourcesAndSinks.txt", config);
+    }
+
+    /**
+     * All methods of the Scene, library and phantom ones included
+     */
+    public static List<SootMethod> methods() {
+        List<SootMethod> methods = new ArrayList<>();
+        for (SootClass cls : Scene.v().getClasses()) {
+            methods.addAll(cls.getMethods());
+        }
+        return methods;
+    }
+
+    /**
+     * Application methods with a body, the bodies retrieved
+     */
+    public static List<SootMethod> applicationMethods() {
+        List<SootMethod> methods = new ArrayList<>();
+        for (SootClass cls : Scene.v().getApplicationClasses()) {
+            for (SootMethod m : cls.getMethods()) {
+                if (m.isConcrete()) {
+                    m.retrieveActiveBody();
+                    methods.add(m);
+                }
+            }
+        }
+        return methods;
+    }
+
+    /**
+     * String constants of the application bodies, and typical ones of apps
+     */
+    public static List<String> stringConstants() {
+        List<String> strings = new ArrayList<>(APP_STRINGS);
+        for (SootMethod m : applicationMethods()) {
+            for (ValueBox box : m.getActiveBody().getUseBoxes()) {
+                if (box.getValue() instanceof StringConstant) {
+                    strings.add(((StringConstant) box.getValue()).value);
+                }
+            }
+        }
+        return strings;
+    }
+}
@@ -0,0 +1,64 @@
+package edu.washington.cs.seguard.bench;
+
+import com.semantic_graph.NodeId;
+import com.semantic_graph.writer.GraphWriter;
+import edu.washington.cs.seguard.Conditions;
+import edu.washington.cs.seguard.Config;
+import edu.washington.cs.seguard.SeGuardEdgeAttr$;
+import edu.washington.cs.seguard.SeGuardNodeAttr$;
+import edu.washington.cs.seguard.apk_core.FlowGraph;
+import org.openjdk.jmh.annotations.*;
+import scala.collection.immutable.Map;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The core mode on the test scene translated to dex, as in FlowGraphTest: FlowGraph.Main from loading the classes
+ * to the complete graph, given to a writer that drops it. This covers FlowGraph.createMethodNode, which Main calls
+ * for the methods at both ends of every call edge and method fact; run it with -prof gc to see the allocations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class FlowGraphBenchmark {
+    private static final class NullWriter implements GraphWriter<SeGuardNodeAttr$.Value, SeGuardEdgeAttr$.Value> {
+        private int nodes;
+
+        @Override
+        public NodeId createNode(String label, Map<SeGuardNodeAttr$.Value, String> attrs) {
+            return new NodeId(String.valueOf(nodes++));
+        }
+
+        @Override
+        public void addEdge(NodeId from, NodeId to, Map<SeGuardEdgeAttr$.Value, String> attrs) {
+        }
+
+        @Override
+        public void write(String path) {
+        }
+    }
+
+    private File dex;
+    private Config config;
+    private Conditions conditions;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        dex = Fixtures.testSceneDex();
+        config = Fixtures.config();
+        conditions = Fixtures.conditions(config);
+    }
+
+    @Setup(Level.Invocation)
+    public void reset() {
+        Fixtures.coreOptions(dex);
+        conditions.clearCaches();
+    }
+
+    @Benchmark
+    public void main() {
+        new FlowGraph(conditions, null, new NullWriter(), config).Main();
+    }
+}
@@ -0,0 +1,52 @@
+package edu.washington.cs.seguard.bench;
+
+import edu.washington.cs.seguard.SootOptionManager;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import soot.Scene;
+import soot.jimple.infoflow.android.manifest.ProcessManifest;
+
+/**
+ * Time to Scene.loadNecessaryClasses for the flow graph options, reading the platform classes from the
+ * android.jar or from a PlatformClassCache. The cache file is built in the setup, so the cached runs measure
+ * the reuse across APKs; each iteration resets Soot like a batch run does between APKs. The APK and the Android
+ * platforms are given as -Dapk and -Dandroid, see Benchmarks in the README.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PlatformLoadBenchmark {
+    @Param({"false", "true"})
+    boolean cached;
+
+    private String apk;
+    private String androidPlatforms;
+    private ProcessManifest manifest;
+
+    @Setup
+    public void setup() throws Exception {
+        apk = System.getProperty("apk");
+        androidPlatforms = System.getProperty("android");
+        if (apk == null || androidPlatforms == null) {
+            throw new RuntimeException("Set -Dapk and -Dandroid");
+        }
+        manifest = new ProcessManifest(apk);
+        SootOptionManager.Manager().setPlatformCacheDir(
+                cached ? Files.createTempDirectory("platform-cache").toString() : null);
+        load();
+    }
+
+    @Benchmark
+    public int loadNecessaryClasses() {
+        return load();
+    }
+
+    private int load() {
+        SootOptionManager.Manager().buildOptionFlowGraph(androidPlatforms, apk + ".out", apk, "spark", manifest);
+        Scene.v().loadNecessaryClasses();
+        return Scene.v().getClasses().size();
+    }
+}
@@ -0,0 +1,62 @@
+package edu.washington.cs.seguard.bench;
+
+import edu.washington.cs.seguard.util.ReachabilityEngine;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.BitSet;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scaling of the reachability queries of FlowGraph.addCallFactsFromReachables on synthetic call graphs, by the
+ * SCC-condensed engine (construction included). ReachabilityEngineTest checks its answers against a plain BFS.
+ *
+ * The graphs are layered like call graphs (callers above callees, fan-out 4) with 2% back edges creating
+ * recursion cycles; 1% of the methods are targets and 100 random methods are queried.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ReachabilityBenchmark {
+    @Param({"10000", "100000", "1000000"})
+    int methods;
+
+    private int[][] successors;
+    private BitSet targets;
+    private int[] queries;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        successors = new int[methods][];
+        for (int m = 0; m < methods; m++) {
+            int fanOut = m + 1 < methods ? 1 + random.nextInt(4) : 0;
+            successors[m] = new int[fanOut];
+            for (int i = 0; i < fanOut; i++) {
+                if (random.nextInt(50) == 0) {
+                    successors[m][i] = random.nextInt(m + 1);
+                } else {
+                    // Mostly calls into the next few thousand methods
+                    successors[m][i] = m + 1 + random.nextInt(Math.min(methods - m - 1, 5000));
+                }
+            }
+        }
+        targets = new BitSet(methods);
+        for (int i = 0; i < methods / 100; i++) {
+            targets.set(random.nextInt(methods));
+        }
+        queries = new int[100];
+        for (int i = 0; i < queries.length; i++) {
+            queries[i] = random.nextInt(methods);
+        }
+    }
+
+    @Benchmark
+    public void sccEngine(Blackhole blackhole) {
+        ReachabilityEngine engine = new ReachabilityEngine(successors, targets);
+        for (int query : queries) {
+            engine.forEachReachableTarget(query, blackhole::consume);
+        }
+    }
+}
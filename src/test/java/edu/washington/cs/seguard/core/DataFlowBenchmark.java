@@ -0,0 +1,170 @@
+package edu.washington.cs.seguard.core;
+
+import edu.washington.cs.seguard.Abstraction;
+import edu.washington.cs.seguard.Conditions;
+import edu.washington.cs.seguard.Config;
+import edu.washington.cs.seguard.bench.Fixtures;
+import heros.FlowFunction;
+import heros.FlowFunctions;
+import heros.InterproceduralCFG;
+import heros.solver.IFDSSolver;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import soot.*;
+import soot.jimple.DefinitionStmt;
+import soot.jimple.toolkits.ide.icfg.JimpleBasedInterproceduralCFG;
+import soot.toolkits.scalar.Pair;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The flow functions of DataFlowAnalysis and Propagator.getTainted on the Jimple of the test classes, applied to
+ * the facts the solver finds there, i.e. the work of one pass of the IFDS solver over these methods. The flow
+ * functions are created in the setup, like the solver caches them per edge. solve and solveRecording run the
+ * whole solver, without and with the FactRecorder of the abstraction dump (-d).
+ *
+ * Lives next to DataFlowAnalysis as both are package-private.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DataFlowBenchmark {
+    private static final class Step {
+        final FlowFunction<Pair<Value, Set<Abstraction>>> function;
+        final List<Pair<Value, Set<Abstraction>>> facts;
+
+        Step(FlowFunction<Pair<Value, Set<Abstraction>>> function, List<Pair<Value, Set<Abstraction>>> facts) {
+            this.function = function;
+            this.facts = facts;
+        }
+    }
+
+    private Config config;
+    private Conditions conditions;
+    private JimpleBasedInterproceduralCFG icfg;
+    private DataFlowAnalysis analysis;
+    private final List<Step> normalSteps = new ArrayList<>();
+    private final List<Step> callSteps = new ArrayList<>();
+    private final List<Step> returnSteps = new ArrayList<>();
+    private final List<Step> callToReturnSteps = new ArrayList<>();
+    // Definitions with a fact reaching them, as handed to Propagator.getTainted
+    private final List<DefinitionStmt> definitions = new ArrayList<>();
+    private final List<Pair<Value, Set<Abstraction>>> definitionFacts = new ArrayList<>();
+
+    @Setup
+    public void setup() throws Exception {
+        Fixtures.loadTestScene();
+        config = Fixtures.config();
+        conditions = Fixtures.conditions(config);
+        List<SootMethod> methods = Fixtures.applicationMethods();
+        PackManager.v().getPack("cg").apply();
+        icfg = new JimpleBasedInterproceduralCFG();
+        analysis = new DataFlowAnalysis(icfg, conditions, config);
+        IFDSSolver<Unit, Pair<Value, Set<Abstraction>>, SootMethod, InterproceduralCFG<Unit, SootMethod>> solver =
+                new IFDSSolver<>(analysis);
+        solver.solve();
+
+        FlowFunctions<Unit, Pair<Value, Set<Abstraction>>, SootMethod> functions = analysis.flowFunctions();
+        for (SootMethod m : methods) {
+            for (Unit u : m.getActiveBody().getUnits()) {
+                List<Pair<Value, Set<Abstraction>>> facts = new ArrayList<>(solver.ifdsResultsAt(u));
+                if (!facts.contains(analysis.zeroValue())) {
+                    facts.add(analysis.zeroValue());
+                }
+                if (!icfg.isCallStmt(u)) {
+                    for (Unit succ : icfg.getSuccsOf(u)) {
+                        normalSteps.add(new Step(functions.getNormalFlowFunction(u, succ), facts));
+                    }
+                    continue;
+                }
+                for (Unit returnSite : icfg.getReturnSitesOfCallAt(u)) {
+                    callToReturnSteps.add(new Step(functions.getCallToReturnFlowFunction(u, returnSite), facts));
+                }
+                for (SootMethod callee : icfg.getCalleesOfCallAt(u)) {
+                    callSteps.add(new Step(functions.getCallFlowFunction(u, callee), facts));
+                    if (!callee.hasActiveBody()) {
+                        continue;
+                    }
+                    for (Unit exit : icfg.getEndPointsOf(callee)) {
+                        List<Pair<Value, Set<Abstraction>>> exitFacts = new ArrayList<>(solver.ifdsResultsAt(exit));
+                        for (Unit returnSite : icfg.getReturnSitesOfCallAt(u)) {
+                            returnSteps.add(new Step(functions.getReturnFlowFunction(u, callee, exit, returnSite),
+                                    exitFacts));
+                        }
+                    }
+                }
+            }
+            for (Unit u : m.getActiveBody().getUnits()) {
+                if (!(u instanceof DefinitionStmt)) {
+                    continue;
+                }
+                for (Pair<Value, Set<Abstraction>> fact : solver.ifdsResultsAt(u)) {
+                    if (fact != analysis.zeroValue()) {
+                        definitions.add((DefinitionStmt) u);
+                        definitionFacts.add(fact);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void apply(List<Step> steps, Blackhole bh) {
+        for (Step step : steps) {
+            for (Pair<Value, Set<Abstraction>> fact : step.facts) {
+                bh.consume(step.function.computeTargets(fact));
+            }
+        }
+    }
+
+    @Benchmark
+    public void normalFlow(Blackhole bh) {
+        apply(normalSteps, bh);
+    }
+
+    @Benchmark
+    public void callFlow(Blackhole bh) {
+        apply(callSteps, bh);
+    }
+
+    @Benchmark
+    public void returnFlow(Blackhole bh) {
+        apply(returnSteps, bh);
+    }
+
+    @Benchmark
+    public void callToReturnFlow(Blackhole bh) {
+        apply(callToReturnSteps, bh);
+    }
+
+    private IFDSSolver<Unit, Pair<Value, Set<Abstraction>>, SootMethod, InterproceduralCFG<Unit, SootMethod>> solve(
+            FactObserver observer) {
+        IFDSSolver<Unit, Pair<Value, Set<Abstraction>>, SootMethod, InterproceduralCFG<Unit, SootMethod>> solver =
+                new IFDSSolver<>(new DataFlowAnalysis(icfg, conditions, config, observer));
+        solver.solve();
+        return solver;
+    }
+
+    @Benchmark
+    public Object solve() {
+        return solve(null);
+    }
+
+    @Benchmark
+    public Object solveRecording() {
+        return solve(new FactRecorder());
+    }
+
+    @Benchmark
+    public void getTainted(Blackhole bh) {
+        AbstractionDomain domain = analysis.getDomain();
+        for (int i = 0; i < definitions.size(); i++) {
+            DefinitionStmt stmt = definitions.get(i);
+            Pair<Value, Set<Abstraction>> fact = definitionFacts.get(i);
+            bh.consume(Propagator.getTainted(domain, config, stmt.getUseBoxes(), stmt.getLeftOp(), fact.getO1(),
+                    fact.getO2()));
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package edu.washington.cs.seguard.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.IOException;
+import java.util.*;
+
+import edu.washington.cs.seguard.Abstraction;
+import edu.washington.cs.seguard.Conditions;
+import edu.washington.cs.seguard.Config;
+import edu.washington.cs.seguard.SootOptionManager;
+import heros.InterproceduralCFG;
+import heros.solver.IFDSSolver;
+import lombok.val;
+import org.junit.Test;
+
+import soot.*;
+
+import soot.jimple.IntConstant;
+import soot.jimple.Stmt;
+import soot.jimple.toolkits.ide.icfg.JimpleBasedInterproceduralCFG;
+import soot.toolkits.scalar.Pair;
+
+/**
+ * Unit tests of the library summaries.
+ */
+public class LibrarySummariesTest
+{
+    private static Config config() {
+        val config = Config.load("src/test/resources/config.yaml");
+        config.setSensitiveConstStringKeywords(Arrays.asList("http", "Something"));
+        config.setSensitiveMethodNames(Collections.singletonList("println"));
+        config.setLibraryPrefixes(Collections.singletonList("SummaryLib"));
+        return config;
+    }
+
+    @Test
+    public void testAbstractionEncoding() {
+        SootOptionManager.Manager().buildOptionTest();
+        Scene.v().loadNecessaryClasses();
+        val abstractions = Arrays.asList(
+                Abstraction.v(config(), "http://example.com/a:b\nc"),
+                Abstraction.v(IntConstant.v(-42)),
+                Abstraction.v(Scene.v().getSootClass("SummaryLib").getMethodByName("wrap")),
+                Abstraction.parameter(2));
+        for (Abstraction abstraction : abstractions) {
+            assertEquals(abstraction, Abstraction.decode(Abstraction.encode(abstraction)));
+        }
+        assertEquals(2, Abstraction.parameterIndex(Abstraction.decode(Abstraction.encode(Abstraction.parameter(2)))));
+    }
+
+    private static IFDSSolver<Unit, Pair<Value, Set<Abstraction>>, SootMethod, InterproceduralCFG<Unit, SootMethod>> solve(
+            DataFlowAnalysis analysis) {
+        IFDSSolver<Unit, Pair<Value, Set<Abstraction>>, SootMethod, InterproceduralCFG<Unit, SootMethod>> solver =
+                new IFDSSolver<>(analysis);
+        solver.solve();
+        return solver;
+    }
+
+    private static Set<String> printed(Set<Pair<Value, Set<Abstraction>>> facts) {
+        Set<String> printed = new TreeSet<>();
+        for (Pair<Value, Set<Abstraction>> fact : facts) {
+            Set<String> abstractions = new TreeSet<>();
+            for (Abstraction abstraction : fact.getO2()) {
+                abstractions.add(abstraction.toString());
+            }
+            printed.add(fact.getO1() + " " + abstractions);
+        }
+        return printed;
+    }
+
+    /**
+     * Abstractions reaching the arguments of the sensitive calls, by sensitive method, inside the summarized
+     * methods included
+     */
+    private static Map<String, Set<Set<String>>> sensitiveFacts(CallSiteFacts index) {
+        Map<String, Set<Set<String>>> facts = new TreeMap<>();
+        for (CallSiteFacts.CallSite callSite : index.getCallSites()) {
+            Set<Set<String>> sets = facts.computeIfAbsent(callSite.getInvoked().getSignature(), m -> new HashSet<>());
+            for (Value arg : ((Stmt) callSite.getUnit()).getInvokeExpr().getArgs()) {
+                for (Set<Abstraction> abstractions : index.factsAt(callSite.getUnit(), arg)) {
+                    Set<String> set = new TreeSet<>();
+                    for (Abstraction abstraction : abstractions) {
+                        set.add(abstraction.toString());
+                    }
+                    sets.add(set);
+                }
+            }
+        }
+        for (val summarized : index.getSummarizedFacts().entrySet()) {
+            Set<Set<String>> sets = facts.computeIfAbsent(summarized.getKey().getSignature(), m -> new HashSet<>());
+            for (Set<Abstraction> abstractions : summarized.getValue()) {
+                Set<String> set = new TreeSet<>();
+                for (Abstraction abstraction : abstractions) {
+                    set.add(abstraction.toString());
+                }
+                sets.add(set);
+            }
+        }
+        return facts;
+    }
+
+    @Test
+    public void testSummarizedCallsGiveAnalyzedFacts() throws IOException {
+        SootOptionManager.Manager().buildOptionTest();
+        Scene.v().loadNecessaryClasses();
+        SootMethod main = Scene.v().getSootClass("SummaryUser").getMethodByName("main");
+        main.retrieveActiveBody();
+        Scene.v().setEntryPoints(Collections.singletonList(main));
+        PackManager.v().getPack("cg").apply();
+        val config = config();
+        val conditions = new Conditions("config/SourcesAndSinks.txt", config);
+        val icfg = new JimpleBasedInterproceduralCFG();
+
+        // The summarizer makes all library methods entry points, here they are reached from main
+        List<SootMethod> libraryMethods = new ArrayList<>();
+        for (SootMethod m : Scene.v().getSootClass("SummaryLib").getMethods()) {
+            if (LibrarySummaries.summarizable(m, conditions) && Scene.v().getReachableMethods().contains(m)) {
+                libraryMethods.add(m);
+            }
+        }
+        Map<SootMethod, LibrarySummaries.Summary> summaries = new HashMap<>();
+        for (val entry : new LibrarySummarizer(conditions, config, libraryMethods)
+                .summarizeAll(Scene.v().getCallGraph()).entrySet()) {
+            summaries.put(entry.getKey(), LibrarySummarizer.toSummary(entry.getValue()));
+        }
+        assertEquals(3, summaries.size());
+
+        val analyzed = solve(new DataFlowAnalysis(icfg, conditions, config));
+        val summarizedAnalysis = new DataFlowAnalysis(icfg, conditions, config, null, summaries);
+        val summarized = solve(summarizedAnalysis);
+        // The sensitive calls in SummaryLib.send are only seen through its summary
+        assertFalse(summarizedAnalysis.getSummarizedCallFacts().isEmpty());
+        for (Unit u : main.getActiveBody().getUnits()) {
+            assertEquals(u.toString(), printed(analyzed.ifdsResultsAt(u)), printed(summarized.ifdsResultsAt(u)));
+        }
+        val analyzedFacts = sensitiveFacts(CallSiteFacts.build(analyzed, conditions));
+        assertFalse(analyzedFacts.isEmpty());
+        assertEquals(analyzedFacts, sensitiveFacts(CallSiteFacts.build(summarized, conditions,
+                summarizedAnalysis.getSummarizedCallFacts())));
+    }
+}
@@ -0,0 +1,114 @@
+package edu.washington.cs.seguard.pe;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import edu.washington.cs.seguard.bench.Fixtures;
+import lombok.val;
+import org.junit.Test;
+import presto.android.Hierarchy;
+import soot.*;
+import soot.jimple.Stmt;
+import soot.jimple.toolkits.pointer.LocalMustAliasAnalysis;
+import soot.options.Options;
+import soot.toolkits.graph.BriefUnitGraph;
+import soot.toolkits.graph.UnitGraph;
+
+/**
+ * The one-pass AliasRewriter.rewrite against the former pairwise rewriting, on every body of the test scene and
+ * of tests/example.apk
+ */
+public class AliasRewriterTest {
+    /**
+     * The rewriting of AliasRewriter before the one-pass canonicalization, unchanged
+     */
+    private static void pairwiseRewrite(Body b) {
+        UnitGraph ug = new BriefUnitGraph(b);
+
+        LocalMustAliasAnalysis analysis = new LocalMustAliasAnalysis(ug);
+
+        for (Local l1 : b.getLocals()) {
+            for (Local l2 : b.getLocals()) {
+                if (l1.equals(l2)) {
+                    continue;
+                }
+                for (Unit u : b.getUnits()) {
+                    if (analysis.mustAlias(l1, (Stmt) u, l2, (Stmt) u)) {
+                        for (ValueBox box : u.getUseBoxes()) {
+                            if (box.getValue().equals(l2)) {
+                                box.setValue(l1);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Bodies of all concrete methods of the application classes of the Scene
+     */
+    private static List<Body> applicationBodies() {
+        List<Body> bodies = new ArrayList<>();
+        for (SootClass c : new ArrayList<>(Scene.v().getApplicationClasses())) {
+            for (SootMethod m : new ArrayList<>(c.getMethods())) {
+                if (!m.isConcrete()) {
+                    continue;
+                }
+                try {
+                    bodies.add(m.retrieveActiveBody());
+                } catch (RuntimeException e) {
+                    // No body for this method, as for the rewriter
+                }
+            }
+        }
+        return bodies;
+    }
+
+    /**
+     * @return the number of bodies the rewriting changed
+     */
+    private static int assertSameRewriting(List<Body> bodies) {
+        int changed = 0;
+        for (Body body : bodies) {
+            val former = (Body) body.clone();
+            val rewritten = (Body) body.clone();
+            pairwiseRewrite(former);
+            AliasRewriter.rewrite(rewritten);
+            assertEquals(body.getMethod().getSignature(), former.toString(), rewritten.toString());
+            if (!body.toString().equals(rewritten.toString())) {
+                changed++;
+            }
+        }
+        return changed;
+    }
+
+    @Test
+    public void testTestSceneRewritesLikeBefore() {
+        Fixtures.loadTestScene();
+        val bodies = applicationBodies();
+        assertTrue(bodies.size() > 10);
+        assertTrue(assertSameRewriting(bodies) > 0);
+    }
+
+    @Test
+    public void testExampleApkRewritesLikeBefore() {
+        soot.G.reset();
+        Hierarchy.reset();
+        Options.v().set_process_dir(Collections.singletonList("tests/example.apk"));
+        Options.v().set_soot_classpath("lib/rt.jar");
+        Options.v().set_src_prec(Options.src_prec_apk);
+        Options.v().set_allow_phantom_refs(true);
+        Options.v().set_ignore_resolution_errors(true);
+        Options.v().set_process_multiple_dex(true);
+        Options.v().set_output_format(Options.output_format_none);
+        Scene.v().loadNecessaryClasses();
+        val bodies = applicationBodies();
+        assertTrue(bodies.size() > 100);
+        assertTrue(assertSameRewriting(bodies) > 0);
+    }
+}
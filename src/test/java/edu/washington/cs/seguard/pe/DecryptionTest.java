@@ -0,0 +1,160 @@
+package edu.washington.cs.seguard.pe;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.washington.cs.seguard.util.StatManager;
+import lombok.val;
+import org.junit.Test;
+
+/**
+ * Unit tests of the package-private decryption classes.
+ */
+public class DecryptionTest
+{
+    private static URLClassLoader sample(File dir) throws Exception {
+        return new URLClassLoader(new URL[] {dir.toURI().toURL()}, null);
+    }
+
+    @Test
+    public void testDecryptionCacheKeyCoversHelpers() throws Exception {
+        val a = new File("src/test/fixtures/keyed-decryptor/a");
+        val b = new File("src/test/fixtures/keyed-decryptor/b");
+        // Same decryptor class, different key table
+        assertArrayEquals(Files.readAllBytes(new File(a, "KeyedDecryptor.class").toPath()),
+                Files.readAllBytes(new File(b, "KeyedDecryptor.class").toPath()));
+        val loaderA = sample(a);
+        val loaderB = sample(b);
+        val decryptedA = loaderA.loadClass("KeyedDecryptor").getMethod("decrypt", String.class).invoke(null, "secret");
+        val decryptedB = loaderB.loadClass("KeyedDecryptor").getMethod("decrypt", String.class).invoke(null, "secret");
+        assertNotEquals(decryptedA, decryptedB);
+
+        val dir = Files.createTempDirectory("decryption-cache").toFile();
+        val cache = new DecryptionCache(dir, 1 << 20, new StatManager(null, "core"));
+        val hashA = cache.classHash(loaderA, "KeyedDecryptor");
+        val hashB = new DecryptionCache(dir, 1 << 20, new StatManager(null, "core")).classHash(loaderB, "KeyedDecryptor");
+        assertNotNull(hashA);
+        assertNotEquals(hashA, hashB);
+        cache.put(hashA, "decrypt", "secret", (String) decryptedA);
+        assertEquals(decryptedA, cache.get(hashA, "decrypt", "secret").getValue());
+        assertNull(cache.get(hashB, "decrypt", "secret"));
+
+        // The same classes in another sample share the entries
+        val copy = Files.createTempDirectory("sample").toFile();
+        for (String name : new String[] {"KeyedDecryptor.class", "KeyTable.class"}) {
+            Files.copy(new File(a, name).toPath(), new File(copy, name).toPath());
+        }
+        assertEquals(hashA, new DecryptionCache(dir, 1 << 20, new StatManager(null, "core"))
+                .classHash(sample(copy), "KeyedDecryptor"));
+        assertNull(cache.classHash(loaderA, "Missing"));
+    }
+
+    /**
+     * A decryptor with static state, which notices calls running at the same time
+     */
+    public static class SerialDecryptor {
+        private static final AtomicInteger active = new AtomicInteger();
+        static volatile boolean overlapped;
+
+        public static String decrypt(String s) throws InterruptedException {
+            if (active.incrementAndGet() > 1) {
+                overlapped = true;
+            }
+            Thread.sleep(1);
+            active.decrementAndGet();
+            return new StringBuilder(s).reverse().toString();
+        }
+    }
+
+    @Test
+    public void testCallsOfOneClassRunSeriallyAcrossInvokeAll() throws Exception {
+        val service = new DecryptorService(DecryptionTest.class.getClassLoader(), 4, 0, new StatManager(null, "core"));
+        List<DecryptorService.Call> calls = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        try {
+            for (int t = 0; t < 8; t++) {
+                List<DecryptorService.Call> batch = new ArrayList<>();
+                for (int i = 0; i < 10; i++) {
+                    batch.add(new DecryptorService.Call(SerialDecryptor.class.getName(), "decrypt", t + "-" + i));
+                }
+                calls.addAll(batch);
+                threads.add(new Thread(() -> service.invokeAll(batch)));
+            }
+            for (Thread thread : threads) {
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } finally {
+            service.shutdown();
+        }
+        assertFalse(SerialDecryptor.overlapped);
+        for (val call : calls) {
+            assertEquals(DecryptorService.Status.DECRYPTED, call.getStatus());
+            assertEquals(new StringBuilder(call.getArgument()).reverse().toString(), call.getValue());
+        }
+    }
+
+    /**
+     * A decryptor stuck in a loop that ignores interrupts, until released
+     */
+    public static class SpinningDecryptor {
+        static volatile boolean released;
+
+        public static String decrypt(String s) {
+            while (!released) {
+                // Spins
+            }
+            return s;
+        }
+    }
+
+    private static DecryptorService.Call decrypt(DecryptorService service, Class<?> decryptor, String argument) {
+        val call = new DecryptorService.Call(decryptor.getName(), "decrypt", argument);
+        service.invokeAll(Collections.singletonList(call));
+        return call;
+    }
+
+    @Test
+    public void testStuckDecryptorKeepsItsSlot() throws Exception {
+        val service = new DecryptorService(DecryptionTest.class.getClassLoader(), 1, 100, new StatManager(null, "core"));
+        try {
+            try {
+                assertEquals(DecryptorService.Status.TIMED_OUT, decrypt(service, SpinningDecryptor.class, "a").getStatus());
+                // The spinning worker still holds the only slot, so calls to other classes are skipped
+                for (int i = 0; i < 10; i++) {
+                    assertEquals(DecryptorService.Status.SKIPPED, decrypt(service, SerialDecryptor.class, "b").getStatus());
+                }
+            } finally {
+                SpinningDecryptor.released = true;
+            }
+            // The slot is free again once the worker returns from the decryptor
+            long deadline = System.currentTimeMillis() + 10000;
+            DecryptorService.Call call;
+            do {
+                assertTrue(System.currentTimeMillis() < deadline);
+                call = decrypt(service, SerialDecryptor.class, "abc");
+            } while (call.getStatus() == DecryptorService.Status.SKIPPED);
+            assertEquals(DecryptorService.Status.DECRYPTED, call.getStatus());
+            assertEquals("cba", call.getValue());
+            assertEquals(DecryptorService.Status.SKIPPED, decrypt(service, SpinningDecryptor.class, "a").getStatus());
+        } finally {
+            service.shutdown();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package edu.washington.cs.seguard.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import lombok.val;
+import org.junit.Test;
+import soot.Scene;
+import soot.SootClass;
+import soot.SootField;
+import soot.SootMethod;
+import soot.options.Options;
+import soot.tagkit.ConstantValueTag;
+import soot.tagkit.Tag;
+
+public class PlatformClassCacheTest {
+    private static final List<String> CLASSES = Arrays.asList("StubBase", "StubDerived", "StubInterface", "NotAStub");
+
+    /**
+     * Jar of the stub classes of src/test/fixtures/platform-stubs, like an android.jar
+     */
+    private static File buildJar() throws IOException {
+        val jar = File.createTempFile("platform", ".jar");
+        try (val out = new JarOutputStream(new FileOutputStream(jar))) {
+            for (String name : CLASSES) {
+                out.putNextEntry(new ZipEntry(name + ".class"));
+                out.write(Files.readAllBytes(new File("src/test/fixtures/platform-stubs/jar", name + ".class").toPath()));
+                out.closeEntry();
+            }
+        }
+        return jar;
+    }
+
+    /**
+     * What the analyses see of the classes: declarations, constant values and bodies
+     */
+    private static List<String> load(File jar, PlatformClassCache cache) {
+        soot.G.reset();
+        Options.v().set_soot_classpath(jar.getPath() + File.pathSeparator + "lib/rt.jar");
+        Options.v().set_allow_phantom_refs(true);
+        if (cache != null) {
+            PlatformClassProvider.install(cache);
+        }
+        Scene.v().loadBasicClasses();
+        List<String> classes = new ArrayList<>();
+        for (String name : CLASSES) {
+            SootClass cls = Scene.v().loadClassAndSupport(name);
+            classes.add(cls.getModifiers() + " " + cls.getName() + " extends " + cls.getSuperclass()
+                    + " implements " + cls.getInterfaces());
+            for (SootField field : cls.getFields()) {
+                List<String> constants = new ArrayList<>();
+                for (Tag tag : field.getTags()) {
+                    if (tag instanceof ConstantValueTag) {
+                        constants.add(tag.toString());
+                    }
+                }
+                classes.add(field.getModifiers() + " " + field.getSignature() + " " + constants);
+            }
+            for (SootMethod method : cls.getMethods()) {
+                classes.add(method.getModifiers() + " " + method.getSignature() + " throws " + method.getExceptions());
+                if (method.isConcrete()) {
+                    classes.add(method.retrieveActiveBody().toString());
+                }
+            }
+        }
+        return classes;
+    }
+
+    @Test
+    public void testCachedClassesMatchTheJar() throws IOException {
+        val jar = buildJar();
+        val dir = Files.createTempDirectory("platform-cache").toFile();
+        val cache = PlatformClassCache.open(dir, jar);
+        assertTrue(cache.contains("StubBase"));
+        assertTrue(cache.contains("StubDerived"));
+        assertTrue(cache.contains("StubInterface"));
+        assertFalse(cache.contains("NotAStub"));
+        assertSame(cache, PlatformClassCache.open(dir, jar));
+        assertEquals(load(jar, null), load(jar, cache));
+
+        // The cache file is named by the contents of the jar, so a copy of the jar shares it
+        val copy = new File(Files.createTempDirectory("platform").toFile(), "android.jar");
+        Files.copy(jar.toPath(), copy.toPath());
+        assertSame(cache, PlatformClassCache.open(dir, copy));
+        assertEquals(1, dir.listFiles().length);
+    }
+}
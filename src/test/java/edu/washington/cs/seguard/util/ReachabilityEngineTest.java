@@ -0,0 +1,112 @@
+package edu.washington.cs.seguard.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.*;
+
+import lombok.val;
+import org.junit.Test;
+
+/**
+ * The targets reported by ReachabilityEngine against a plain BFS from the queried node
+ */
+public class ReachabilityEngineTest {
+    private static Set<Integer> bfs(int[][] successors, BitSet targets, int node) {
+        val reached = new BitSet();
+        val worklist = new ArrayDeque<Integer>();
+        reached.set(node);
+        worklist.add(node);
+        while (!worklist.isEmpty()) {
+            for (int succ : successors[worklist.poll()]) {
+                if (!reached.get(succ)) {
+                    reached.set(succ);
+                    worklist.add(succ);
+                }
+            }
+        }
+        reached.and(targets);
+        Set<Integer> result = new TreeSet<>();
+        reached.stream().forEach(result::add);
+        return result;
+    }
+
+    private static void assertMatchesBfs(int[][] successors, BitSet targets, Random random) {
+        val engine = new ReachabilityEngine(successors, targets);
+        // Random query order, so that closures are memoized from different starting points
+        List<Integer> queries = new ArrayList<>();
+        for (int node = 0; node < successors.length; node++) {
+            queries.add(node);
+        }
+        Collections.shuffle(queries, random);
+        for (int node : queries) {
+            List<Integer> reported = new ArrayList<>();
+            engine.forEachReachableTarget(node, reported::add);
+            val expected = bfs(successors, targets, node);
+            assertEquals("from " + node, expected, new TreeSet<>(reported));
+            assertEquals("from " + node, expected.size(), reported.size());
+            assertEquals("from " + node, expected.size(), engine.countReachableTargets(node));
+        }
+    }
+
+    @Test
+    public void testRandomGraphs() {
+        for (long seed = 0; seed < 200; seed++) {
+            val random = new Random(seed);
+            int n = 1 + random.nextInt(200);
+            // Sparse to dense graphs: sparse ones have many components, dense ones a few large cycles
+            int maxFanOut = 1 + random.nextInt(5);
+            int[][] successors = new int[n][];
+            for (int node = 0; node < n; node++) {
+                successors[node] = new int[random.nextInt(maxFanOut + 1)];
+                for (int i = 0; i < successors[node].length; i++) {
+                    // Self-loops and duplicate edges included
+                    successors[node][i] = random.nextInt(8) == 0 ? node : random.nextInt(n);
+                }
+            }
+            val targets = new BitSet(n);
+            for (int node = 0; node < n; node++) {
+                if (random.nextInt(10) == 0) {
+                    targets.set(node);
+                }
+            }
+            assertMatchesBfs(successors, targets, random);
+        }
+    }
+
+    @Test
+    public void testNoTargets() {
+        val random = new Random(0);
+        int[][] successors = {{1}, {0, 2}, {2}, {}};
+        assertMatchesBfs(successors, new BitSet(), random);
+    }
+
+    @Test
+    public void testDeepChainWithCycles() {
+        // Deeper than the call stack would allow a recursive Tarjan to go
+        int n = 200000;
+        val random = new Random(0);
+        int[][] successors = new int[n][];
+        val targets = new BitSet(n);
+        for (int node = 0; node < n; node++) {
+            if (node + 1 == n) {
+                successors[node] = new int[]{node - 999};
+            } else if (node % 1000 == 999) {
+                // Back edge closing a cycle of 1000 nodes
+                successors[node] = new int[]{node + 1, node - 999};
+            } else {
+                successors[node] = new int[]{node + 1};
+            }
+            if (random.nextInt(5000) == 0) {
+                targets.set(node);
+            }
+        }
+        val engine = new ReachabilityEngine(successors, targets);
+        assertEquals(n / 1000, engine.getComponentCount());
+        for (int i = 0; i < 100; i++) {
+            int node = random.nextInt(n);
+            List<Integer> reported = new ArrayList<>();
+            engine.forEachReachableTarget(node, reported::add);
+            assertEquals(bfs(successors, targets, node), new TreeSet<>(reported));
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package presto.android;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.*;
+
+import lombok.val;
+import org.junit.After;
+import org.junit.Test;
+import soot.Modifier;
+import soot.Scene;
+import soot.SootClass;
+import soot.options.Options;
+
+/**
+ * The subtype queries of Hierarchy against the per-class sets of the original GATOR hierarchy, on random class
+ * hierarchies
+ */
+public class HierarchyTest {
+    /**
+     * The sets of the original hierarchy, built by its traversal from each class up to all its supertypes. A
+     * supertype already reached from the class is not traversed again, which leaves the sets unchanged.
+     */
+    private static final class Traversal {
+        final Map<SootClass, Set<SootClass>> supertypes = new HashMap<>();
+        final Map<SootClass, Set<SootClass>> subtypes = new HashMap<>();
+        final Map<SootClass, Set<SootClass>> concreteSubtypes = new HashMap<>();
+
+        Traversal(Collection<SootClass> classes) {
+            for (SootClass c : classes) {
+                supertypes.put(c, new HashSet<>());
+                subtypes.put(c, new HashSet<>());
+                concreteSubtypes.put(c, new HashSet<>());
+            }
+            for (SootClass c : classes) {
+                traverse(c, c);
+            }
+        }
+
+        private void traverse(SootClass sub, SootClass supr) {
+            if (!supertypes.get(sub).add(supr)) {
+                return;
+            }
+            subtypes.get(supr).add(sub);
+            if (sub.isConcrete()) {
+                concreteSubtypes.get(supr).add(sub);
+            }
+            if (supr.hasSuperclass()) {
+                traverse(sub, supr.getSuperclass());
+            }
+            for (SootClass i : supr.getInterfaces()) {
+                traverse(sub, i);
+            }
+        }
+
+        void addFakeListenerClass(SootClass listenerClass, SootClass listenerInterface) {
+            supertypes.put(listenerClass, new HashSet<>(Arrays.asList(listenerClass, listenerInterface)));
+            subtypes.put(listenerClass, new HashSet<>(Collections.singleton(listenerClass)));
+            concreteSubtypes.put(listenerClass, new HashSet<>(Collections.singleton(listenerClass)));
+            subtypes.get(listenerInterface).add(listenerClass);
+            concreteSubtypes.get(listenerInterface).add(listenerClass);
+        }
+    }
+
+    /**
+     * A fresh Scene of random classes and interfaces below java.lang.Object, with interfaces implemented along
+     * several paths
+     */
+    private static List<SootClass> randomScene(Random random, int count) {
+        soot.G.reset();
+        Hierarchy.reset();
+        Options.v().set_allow_phantom_refs(true);
+        val object = new SootClass("java.lang.Object", Modifier.PUBLIC);
+        Scene.v().addClass(object);
+        List<SootClass> classes = new ArrayList<>();
+        List<SootClass> interfaces = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            SootClass c;
+            if (random.nextInt(4) == 0) {
+                c = new SootClass("I" + i, Modifier.PUBLIC | Modifier.INTERFACE | Modifier.ABSTRACT);
+                interfaces.add(c);
+            } else {
+                c = new SootClass("C" + i, Modifier.PUBLIC | (random.nextInt(4) == 0 ? Modifier.ABSTRACT : 0));
+                classes.add(c);
+            }
+            SootClass superclass = object;
+            if (!c.isInterface() && classes.size() > 1 && random.nextInt(5) != 0) {
+                superclass = classes.get(random.nextInt(classes.size() - 1));
+            }
+            c.setSuperclass(superclass);
+            for (int n = random.nextInt(3); n > 0 && interfaces.size() > 1; n--) {
+                SootClass supr = interfaces.get(random.nextInt(interfaces.size() - (c.isInterface() ? 1 : 0)));
+                if (!c.implementsInterface(supr.getName())) {
+                    c.addInterface(supr);
+                }
+            }
+            Scene.v().addClass(c);
+        }
+        List<SootClass> all = new ArrayList<>(classes);
+        all.addAll(interfaces);
+        return all;
+    }
+
+    @After
+    public void resetHierarchy() {
+        Hierarchy.reset();
+    }
+
+    @Test
+    public void testSubtypesMatchTheTraversal() {
+        for (long seed = 0; seed < 20; seed++) {
+            val random = new Random(seed);
+            val generated = randomScene(random, 100 + random.nextInt(400));
+            val hierarchy = Hierarchy.onDemand();
+            // The classes in the Scene when the hierarchy is built, i.e. with the phantom GUI classes it looks up
+            val expected = new Traversal(Scene.v().getClasses());
+            val queried = new ArrayList<>(Scene.v().getClasses());
+
+            // Fake listener classes join the Scene after the hierarchy, like GATOR creates them
+            for (int i = 0; i < 5; i++) {
+                SootClass listenerInterface = generated.get(random.nextInt(generated.size()));
+                if (!listenerInterface.isInterface()) {
+                    continue;
+                }
+                val fake = new SootClass("Fake" + i, Modifier.PUBLIC);
+                fake.setSuperclass(Scene.v().getSootClass("java.lang.Object"));
+                fake.addInterface(listenerInterface);
+                Scene.v().addClass(fake);
+                hierarchy.addFakeListenerClass(fake, listenerInterface);
+                expected.addFakeListenerClass(fake, listenerInterface);
+                queried.add(fake);
+            }
+
+            for (SootClass c : queried) {
+                Set<SootClass> subtypes = hierarchy.getSubtypes(c);
+                assertEquals(c.getName(), expected.subtypes.get(c), new HashSet<>(subtypes));
+                assertEquals(c.getName(), expected.subtypes.get(c).size(), subtypes.size());
+                Set<SootClass> concreteSubtypes = hierarchy.getConcreteSubtypes(c);
+                assertEquals(c.getName(), expected.concreteSubtypes.get(c), new HashSet<>(concreteSubtypes));
+                assertEquals(c.getName(), expected.concreteSubtypes.get(c).size(), concreteSubtypes.size());
+                for (int n = 0; n < 20; n++) {
+                    SootClass other = queried.get(random.nextInt(queried.size()));
+                    assertEquals(expected.subtypes.get(c).contains(other), subtypes.contains(other));
+                    assertEquals(expected.concreteSubtypes.get(c).contains(other), concreteSubtypes.contains(other));
+                    assertEquals(c + " <: " + other, expected.supertypes.get(c).contains(other),
+                            hierarchy.isSubclassOf(c, other));
+                }
+                assertEquals(c.getName(), expected.supertypes.get(c), hierarchy.getSupertypes(c));
+            }
+            assertFalse(hierarchy.getSubtypes(queried.get(0)).contains("not a class"));
+            assertNull(hierarchy.getSubtypes(new SootClass("NotInTheScene")));
+        }
+    }
+
+    @Test
+    public void testSupertypesOnDemand() {
+        for (long seed = 0; seed < 10; seed++) {
+            val random = new Random(seed);
+            randomScene(random, 100 + random.nextInt(400));
+            val hierarchy = Hierarchy.onDemand();
+            val expected = new Traversal(Scene.v().getClasses());
+            val classes = new ArrayList<>(Scene.v().getClasses());
+
+            // Only supertypes are queried, so the classes are never numbered
+            for (SootClass c : classes) {
+                for (int n = 0; n < 20; n++) {
+                    SootClass other = classes.get(random.nextInt(classes.size()));
+                    assertEquals(c + " <: " + other, expected.supertypes.get(c).contains(other),
+                            hierarchy.isSubclassOf(c, other));
+                }
+                assertEquals(c.getName(), expected.supertypes.get(c), hierarchy.getSupertypes(c));
+                assertSame(hierarchy.getSupertypes(c), hierarchy.getSupertypes(c));
+            }
+
+            // A class added to the Scene afterwards is unknown to the hierarchy, like to the original one, and
+            // isSubclassOf follows its superclasses only
+            val later = new SootClass("Later", Modifier.PUBLIC);
+            later.setSuperclass(classes.get(random.nextInt(classes.size())));
+            Scene.v().addClass(later);
+            assertNull(hierarchy.getSupertypes(later));
+            for (SootClass other : classes) {
+                assertEquals(hierarchy.isSubclassOfOnDemand(later, other), hierarchy.isSubclassOf(later, other));
+            }
+
+            Hierarchy.reset();
+            assertEquals(expected.supertypes.get(later.getSuperclass()).size() + 1,
+                    Hierarchy.onDemand().getSupertypes(later).size());
+        }
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testSupertypesAreReadOnly() {
+        val generated = randomScene(new Random(0), 10);
+        Hierarchy.onDemand().getSupertypes(generated.get(0)).clear();
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testSubtypesAreReadOnly() {
+        randomScene(new Random(0), 10);
+        val object = Scene.v().getSootClass("java.lang.Object");
+        Hierarchy.onDemand().getSubtypes(object).add(new SootClass("Other"));
+    }
+}
@@ -0,0 +1,51 @@
+import android.util.Base64;
+
+public class Decryptors {
+  private static int calls;
+
+  public static String xor(String s) {
+    char[] key = "k3y".toCharArray();
+    char[] out = new char[s.length()];
+    for (int i = 0; i < s.length(); i++) {
+      out[i] = (char) (s.charAt(i) ^ key[i % key.length]);
+    }
+    return new String(out);
+  }
+
+  public static String shift(String s) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < s.length(); i++) {
+      sb.append((char) (s.charAt(i) - 3));
+    }
+    return sb.toString();
+  }
+
+  public static String shiftTwice(String s) {
+    return shift(shift(s));
+  }
+
+  public static String base64Xor(String s) {
+    byte[] bytes = Base64.decode(s, Base64.DEFAULT);
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = (byte) (bytes[i] ^ 0x5a);
+    }
+    return new String(bytes);
+  }
+
+  public static String identity(String s) {
+    return s + (Object) s.toCharArray();
+  }
+
+  public static String loop(String s) {
+    int i = 0;
+    while (s.length() > 0) {
+      i++;
+    }
+    return s + i;
+  }
+
+  public static String counted(String s) {
+    calls++;
+    return s;
+  }
+}
@@ -0,0 +1,15 @@
+public class SummaryLib {
+  public static String wrap(String s) {
+    return s + "Something";
+  }
+
+  public static void send(String s) {
+    System.out.println(s);
+  }
+
+  public static String wrapAndSend(String s) {
+    String t = wrap(s);
+    send(t);
+    return t;
+  }
+}
@@ -0,0 +1,8 @@
+public class SummaryUser {
+  public static void main(String[] args) {
+    String x = SummaryLib.wrap("http://example.com");
+    String y = SummaryLib.wrapAndSend(args[0]);
+    SummaryLib.send("https://example.org");
+    System.out.println(x + y);
+  }
+}